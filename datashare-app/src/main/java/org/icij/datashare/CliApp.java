@@ -8,6 +8,7 @@ import org.icij.datashare.extension.PipelineRegistry;
 import org.icij.datashare.extract.RedisUserDocumentQueue;
 import org.icij.datashare.mode.CommonMode;
 import org.icij.datashare.tasks.BatchSearchRunner;
+import org.icij.datashare.tasks.DeltaScanTask;
 import org.icij.datashare.tasks.TaskFactory;
 import org.icij.datashare.tasks.TaskManager;
 import org.icij.datashare.text.Document;
@@ -18,13 +19,18 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import static com.google.inject.Guice.createInjector;
 import static java.lang.Boolean.parseBoolean;
 import static java.util.Optional.ofNullable;
 import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
 import static org.icij.datashare.PropertiesProvider.MAP_NAME_OPTION;
 import static org.icij.datashare.text.nlp.Pipeline.Type.parseAll;
 import static org.icij.datashare.user.User.nullUser;
@@ -66,8 +72,9 @@ class CliApp {
         }
 
         PipelineHelper pipeline = new PipelineHelper(new PropertiesProvider(properties));
+        List<Future<?>> stages = new ArrayList<>();
         if (pipeline.has(DatashareCli.Stage.DEDUPLICATE)) {
-            taskManager.startTask(taskFactory.createDeduplicateTask(nullUser(), pipeline.getQueueNameFor(DatashareCli.Stage.DEDUPLICATE)));
+            stages.add(taskManager.startTask(taskFactory.createDeduplicateTask(nullUser(), pipeline.getQueueNameFor(DatashareCli.Stage.DEDUPLICATE))));
         }
 
         if (pipeline.has(DatashareCli.Stage.SCANIDX)) {
@@ -76,28 +83,58 @@ class CliApp {
         }
 
         if (pipeline.has(DatashareCli.Stage.SCAN) && !resume(properties)) {
-            taskManager.startTask(taskFactory.createScanTask(nullUser(), pipeline.getQueueNameFor(DatashareCli.Stage.SCAN), Paths.get(properties.getProperty(DatashareCliOptions.DATA_DIR_OPT)), properties),
-                    () -> closeAndLogException(injector.getInstance(DocumentQueue.class)).run());
+            stages.add(taskManager.startTask(taskFactory.createScanTask(nullUser(), pipeline.getQueueNameFor(DatashareCli.Stage.SCAN), Paths.get(properties.getProperty(DatashareCliOptions.DATA_DIR_OPT)), properties),
+                    () -> closeAndLogException(injector.getInstance(DocumentQueue.class)).run()));
+        }
+
+        DeltaScanTask deltaScanTask = null;
+        if (pipeline.has(DatashareCli.Stage.DELTA)) {
+            deltaScanTask = taskFactory.createDeltaScanTask(nullUser(), pipeline.getQueueNameFor(DatashareCli.Stage.DELTA));
+            stages.add(taskManager.startTask(deltaScanTask));
         }
 
         if (pipeline.has(DatashareCli.Stage.INDEX)) {
-            taskManager.startTask(taskFactory.createIndexTask(nullUser(), pipeline.getQueueNameFor(DatashareCli.Stage.INDEX), properties),
-                    () -> closeAndLogException(injector.getInstance(DocumentQueue.class)).run());
+            stages.add(taskManager.startTask(taskFactory.createIndexTask(nullUser(), pipeline.getQueueNameFor(DatashareCli.Stage.INDEX), properties),
+                    () -> closeAndLogException(injector.getInstance(DocumentQueue.class)).run()));
         }
 
         if (pipeline.has(DatashareCli.Stage.NLP)) {
-            for (Pipeline.Type nlp : nlpPipelines) {
-                Pipeline pipelineClass = injector.getInstance(PipelineRegistry.class).get(nlp);
-                taskManager.startTask(taskFactory.createNlpTask(nullUser(), pipelineClass));
+            if (parseBoolean(properties.getProperty(DatashareCliOptions.NLP_ENGINE_OPT, "false")) && nlpPipelines.size() > 1) {
+                List<Pipeline> pipelines = nlpPipelines.stream().map(injector.getInstance(PipelineRegistry.class)::get).collect(toList());
+                stages.add(taskManager.startTask(taskFactory.createNlpEngine(nullUser(), pipelines)));
+            } else {
+                for (Pipeline.Type nlp : nlpPipelines) {
+                    Pipeline pipelineClass = injector.getInstance(PipelineRegistry.class).get(nlp);
+                    stages.add(taskManager.startTask(taskFactory.createNlpTask(nullUser(), pipelineClass)));
+                }
             }
             if (resume(properties)) {
                 taskManager.startTask(taskFactory.createResumeNlpTask(nullUser(), nlpPipelines));
             }
         }
         taskManager.shutdownAndAwaitTermination(Integer.MAX_VALUE, SECONDS);
+        if (deltaScanTask != null) {
+            commitDeltaSnapshot(deltaScanTask, stages);
+        }
         indexer.close();
     }
 
+    /**
+     * the delta snapshot is only committed when all the stages have succeeded : the files of a failed
+     * run are queued again by the next delta scan
+     */
+    private static void commitDeltaSnapshot(DeltaScanTask deltaScanTask, List<Future<?>> stages) throws Exception {
+        for (Future<?> stage : stages) {
+            try {
+                stage.get();
+            } catch (ExecutionException e) {
+                logger.error("a stage has failed, delta snapshot is not committed", e.getCause());
+                return;
+            }
+        }
+        deltaScanTask.commitSnapshot();
+    }
+
     private static Runnable closeAndLogException(AutoCloseable closeable) {
         return () -> {
             try {
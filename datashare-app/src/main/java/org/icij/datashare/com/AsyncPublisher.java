@@ -0,0 +1,236 @@
+package org.icij.datashare.com;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.lang.Integer.highestOneBit;
+import static java.lang.Math.max;
+
+/**
+ * publisher that decouples the message producers from the message bus.
+ *
+ * Producers (for example the spewer called by the extraction threads) enqueue their messages
+ * in a bounded lock-free ring buffer. A dedicated thread drains the buffer and sends the messages
+ * in batches, with one redis round trip when the delegate is a {@link RedisDataBus} or a {@link RedisStreamDataBus}.
+ *
+ * When the buffer is full the producers wait for the publisher thread (back-pressure). The number
+ * of waits and the total waiting time are reported with {@link #getBackPressureCount()} and
+ * {@link #getBackPressureMillis()}.
+ *
+ * Messages are sent in the order they have been enqueued. {@link #flush()} waits until all the
+ * messages enqueued before the call have been sent or have failed.
+ *
+ * A batch that cannot be sent is retried up to MAX_ATTEMPTS times (a batch partially sent before the
+ * error is sent again). Then its messages are counted as failed ({@link #getFailedCount()}).
+ */
+public class AsyncPublisher implements Publisher, Flushable, Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(AsyncPublisher.class);
+    static final int DEFAULT_BATCH_SIZE = 256;
+    private static final long IDLE_PARK_NANOS = 1_000_000;
+    private static final long FULL_PARK_NANOS = 100_000;
+    private static final long RETRY_PARK_NANOS = 100_000_000;
+    static final int MAX_ATTEMPTS = 3;
+
+    private final Publisher delegate;
+    private final RingBuffer<ChannelMessage> buffer;
+    private final int batchSize;
+    private final long retryParkNanos;
+    private final Thread publisherThread;
+    private final AtomicLong published = new AtomicLong(0);
+    private final AtomicLong failed = new AtomicLong(0);
+    private final AtomicLong backPressureCount = new AtomicLong(0);
+    private final AtomicLong backPressureNanos = new AtomicLong(0);
+    private volatile boolean closed = false;
+
+    public AsyncPublisher(Publisher delegate, int bufferSize) {
+        this(delegate, bufferSize, DEFAULT_BATCH_SIZE);
+    }
+
+    AsyncPublisher(Publisher delegate, int bufferSize, int batchSize) {
+        this(delegate, bufferSize, batchSize, RETRY_PARK_NANOS);
+    }
+
+    AsyncPublisher(Publisher delegate, int bufferSize, int batchSize, long retryParkNanos) {
+        this.delegate = delegate;
+        this.buffer = new RingBuffer<>(bufferSize);
+        this.batchSize = batchSize;
+        this.retryParkNanos = retryParkNanos;
+        this.publisherThread = new Thread(this::publishLoop, "async-publisher");
+        this.publisherThread.setDaemon(true);
+        this.publisherThread.start();
+        logger.info("async publisher created with buffer size {} and batch size {}", buffer.capacity(), batchSize);
+    }
+
+    @Override
+    public void publish(Channel channel, Message message) {
+        if (closed) {
+            throw new IllegalStateException("cannot publish " + message + " : publisher is closed");
+        }
+        ChannelMessage channelMessage = new ChannelMessage(channel, message);
+        if (!buffer.offer(channelMessage)) {
+            backPressureCount.incrementAndGet();
+            long start = System.nanoTime();
+            while (!buffer.offer(channelMessage)) {
+                LockSupport.parkNanos(FULL_PARK_NANOS);
+            }
+            backPressureNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * waits until the messages published before this call have been sent to the delegate
+     */
+    @Override
+    public void flush() {
+        long target = buffer.producedCount();
+        while (published.get() + failed.get() < target && publisherThread.isAlive()) {
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+        closed = true;
+        try {
+            publisherThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        logger.info("async publisher closed : {} message(s) published, {} failed, back-pressure {} time(s) for {}ms",
+                published.get(), failed.get(), backPressureCount.get(), getBackPressureMillis());
+    }
+
+    public int getQueueSize() { return buffer.size();}
+    public long getPublishedCount() { return published.get();}
+    public long getFailedCount() { return failed.get();}
+    public long getBackPressureCount() { return backPressureCount.get();}
+    public long getBackPressureMillis() { return backPressureNanos.get() / 1_000_000;}
+
+    private void publishLoop() {
+        List<ChannelMessage> batch = new ArrayList<>(batchSize);
+        while (!closed || buffer.size() > 0) {
+            ChannelMessage channelMessage;
+            while (batch.size() < batchSize && (channelMessage = buffer.poll()) != null) {
+                batch.add(channelMessage);
+            }
+            if (batch.isEmpty()) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+            send(batch);
+            batch.clear();
+        }
+    }
+
+    private void send(List<ChannelMessage> batch) {
+        int begin = 0;
+        for (int i = 1; i <= batch.size(); i++) {
+            if (i == batch.size() || batch.get(i).channel != batch.get(begin).channel) {
+                sendWithRetries(batch.get(begin).channel, batch.subList(begin, i));
+                begin = i;
+            }
+        }
+    }
+
+    private void sendWithRetries(Channel channel, List<ChannelMessage> sameChannelMessages) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                send(channel, sameChannelMessages);
+                published.addAndGet(sameChannelMessages.size());
+                return;
+            } catch (RuntimeException e) {
+                if (attempt >= MAX_ATTEMPTS) {
+                    failed.addAndGet(sameChannelMessages.size());
+                    logger.error("cannot publish {} message(s) after {} attempts, {} failed message(s) in total",
+                            sameChannelMessages.size(), attempt, failed.get(), e);
+                    return;
+                }
+                logger.warn("cannot publish {} message(s) (attempt {}/{}), retrying", sameChannelMessages.size(), attempt, MAX_ATTEMPTS, e);
+                LockSupport.parkNanos(retryParkNanos * attempt);
+            }
+        }
+    }
+
+    private void send(Channel channel, List<ChannelMessage> sameChannelMessages) {
+        List<Message> messages = new ArrayList<>(sameChannelMessages.size());
+        sameChannelMessages.forEach(cm -> messages.add(cm.message));
+        if (delegate instanceof RedisDataBus) {
+            ((RedisDataBus) delegate).publish(channel, messages);
+        } else if (delegate instanceof RedisStreamDataBus) {
+            ((RedisStreamDataBus) delegate).publish(channel, messages);
+        } else {
+            messages.forEach(m -> delegate.publish(channel, m));
+        }
+    }
+
+    private static class ChannelMessage {
+        final Channel channel;
+        final Message message;
+
+        ChannelMessage(Channel channel, Message message) {
+            this.channel = channel;
+            this.message = message;
+        }
+    }
+
+    /**
+     * bounded multiple producers/single consumer ring buffer.
+     *
+     * producers claim a slot with a CAS on the tail sequence then write the element.
+     * The consumer reads the slot at the head sequence : a null slot means that
+     * the producer has claimed it but not written it yet.
+     */
+    static class RingBuffer<E> {
+        private final AtomicReferenceArray<E> slots;
+        private final int mask;
+        private final AtomicLong tail = new AtomicLong(0);
+        private volatile long head = 0;
+
+        RingBuffer(int capacity) {
+            int size = highestOneBit(max(capacity, 2) - 1) << 1;
+            this.slots = new AtomicReferenceArray<>(size);
+            this.mask = size - 1;
+        }
+
+        boolean offer(E element) {
+            while (true) {
+                long currentTail = tail.get();
+                if (currentTail - head >= slots.length()) {
+                    return false;
+                }
+                if (tail.compareAndSet(currentTail, currentTail + 1)) {
+                    slots.lazySet((int) (currentTail & mask), element);
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * must only be called by a single consumer thread
+         */
+        E poll() {
+            long currentHead = head;
+            int index = (int) (currentHead & mask);
+            E element = slots.get(index);
+            if (element == null) {
+                return null;
+            }
+            slots.lazySet(index, null);
+            head = currentHead + 1;
+            return element;
+        }
+
+        int size() { return (int) (tail.get() - head);}
+        int capacity() { return slots.length();}
+        long producedCount() { return tail.get();}
+    }
+}
@@ -9,11 +9,13 @@ import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
 import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.Pipeline;
 
 import java.io.Closeable;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -59,6 +61,17 @@ public class RedisDataBus implements Publisher, DataBus, Closeable {
         }
     }
 
+    /**
+     * publishes the messages with one redis round trip
+     */
+    public void publish(Channel channel, List<Message> messages) {
+        try (Jedis jedis = redis.getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            messages.forEach(message -> pipeline.publish(channel.name(), message.toJson()));
+            pipeline.sync();
+        }
+    }
+
     @Override
     public void close() {
         this.redis.close();
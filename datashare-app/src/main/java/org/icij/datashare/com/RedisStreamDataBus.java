@@ -0,0 +1,454 @@
+package org.icij.datashare.com;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.inject.Inject;
+import org.icij.datashare.PropertiesProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singletonList;
+import static org.icij.datashare.com.Message.Field.*;
+import static org.icij.datashare.com.Message.Type.EXTRACT_NLP;
+import static org.icij.datashare.com.Message.Type.SHUTDOWN;
+
+/**
+ * data bus backed by redis streams and consumer groups.
+ *
+ * Unlike the pub/sub {@link RedisDataBus} :
+ * <ul>
+ *     <li>the work messages (EXTRACT_NLP) are kept in a stream per channel, so the messages published
+ *     while nobody is subscribed are delivered when a subscriber comes</li>
+ *     <li>the subscribers of the same group compete for the work messages : each message is delivered to
+ *     one subscriber of the group, and each group receives all the messages</li>
+ *     <li>a work message stays pending until it is acknowledged with {@link #ack(String, Channel, Message)}.
+ *     Messages pending for more than claimIdleMillis (the subscriber has died) are delivered to another
+ *     subscriber, up to maxDeliveries times. Then they are moved to the dead letter stream of the channel, like
+ *     the messages rejected with {@link #deadLetter(String, Channel, Message)}</li>
+ *     <li>a process has at most maxInFlight work messages delivered and not acknowledged per group and channel :
+ *     the streams are not read while the window is full, so that a node doesn't take the messages that the others
+ *     could process, and the messages don't wait locally long enough to be claimed by another node</li>
+ * </ul>
+ *
+ * The other messages (INIT_MONITORING, SHUTDOWN) are broadcast to all the subscribers through a control
+ * stream. SHUTDOWN is delivered only when the group has no more work messages to read.
+ *
+ * The stream commands are sent with lua scripts (redis >= 5) because the jedis client used by datashare and
+ * extract has no stream API.
+ */
+public class RedisStreamDataBus implements Publisher, DataBus, Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(RedisStreamDataBus.class);
+    static final String DEFAULT_GROUP = "datashare";
+    private static final String STREAM_PREFIX = "ds:stream:";
+    private static final String CONTROL_SUFFIX = ":control";
+    private static final String DEAD_SUFFIX = ":dead";
+    private static final int READ_COUNT = 100;
+    private static final int CONTROL_MAX_LENGTH = 1000;
+
+    // effects replication is needed on redis 5 to write after a non deterministic command (XADD *)
+    private static final String XADD = "redis.replicate_commands() for i = 2, #ARGV do " +
+            "redis.call('XADD', KEYS[1], 'MAXLEN', '~', ARGV[1], '*', 'message', ARGV[i]) end " +
+            "return #ARGV - 1";
+    private static final String CREATE_GROUP = "redis.pcall('XGROUP', 'CREATE', KEYS[1], ARGV[1], '0', 'MKSTREAM') return 1";
+    private static final String READ_GROUP = "redis.replicate_commands() local res = redis.call('XREADGROUP', 'GROUP', ARGV[1], ARGV[2], 'COUNT', ARGV[3], 'STREAMS', KEYS[1], '>') " +
+            "local out = {} " +
+            "if res then for _, e in ipairs(res[1][2]) do out[#out + 1] = e[1] out[#out + 1] = e[2][2] end end " +
+            "return out";
+    private static final String READ = "local res = redis.call('XREAD', 'COUNT', ARGV[2], 'STREAMS', KEYS[1], ARGV[1]) " +
+            "local out = {} " +
+            "if res then for _, e in ipairs(res[1][2]) do out[#out + 1] = e[1] out[#out + 1] = e[2][2] end end " +
+            "return out";
+    private static final String LAST_ID = "local res = redis.call('XREVRANGE', KEYS[1], '+', '-', 'COUNT', 1) " +
+            "if #res > 0 then return res[1][1] end return '0-0'";
+    private static final String CLAIM = "redis.replicate_commands() local pending = redis.call('XPENDING', KEYS[1], ARGV[1], '-', '+', ARGV[4]) " +
+            "local claimed, dead = {}, {} " +
+            "for _, p in ipairs(pending) do " +
+            "  if p[3] >= tonumber(ARGV[3]) then " +
+            "    if p[4] >= tonumber(ARGV[5]) then " +
+            "      local e = redis.call('XRANGE', KEYS[1], p[1], p[1]) " +
+            "      if #e > 0 then redis.call('XADD', KEYS[2], 'MAXLEN', '~', ARGV[6], '*', 'group', ARGV[1], 'id', p[1], 'message', e[1][2][2]) end " +
+            "      redis.call('XACK', KEYS[1], ARGV[1], p[1]) dead[#dead + 1] = p[1] " +
+            "    else " +
+            "      for _, e in ipairs(redis.call('XCLAIM', KEYS[1], ARGV[1], ARGV[2], ARGV[3], p[1])) do " +
+            "        if e and e[2] then claimed[#claimed + 1] = e[1] claimed[#claimed + 1] = e[2][2] end " +
+            "      end " +
+            "    end " +
+            "  end " +
+            "end " +
+            "return {claimed, dead}";
+    private static final String ACK = "return redis.call('XACK', KEYS[1], ARGV[1], ARGV[2])";
+    private static final String DEAD_LETTER = "redis.replicate_commands() " +
+            "redis.call('XADD', KEYS[2], 'MAXLEN', '~', ARGV[3], '*', 'group', ARGV[1], 'id', ARGV[2], 'message', ARGV[4]) " +
+            "return redis.call('XACK', KEYS[1], ARGV[1], ARGV[2])";
+    private static final String PENDING = "return redis.call('XPENDING', KEYS[1], ARGV[1])[1]";
+
+    private final JedisPool redis;
+    private final long maxLength;
+    private final long claimIdleMillis;
+    private final int maxDeliveries;
+    private final long pollMillis;
+    private final int maxInFlight;
+    private final String consumerPrefix;
+    private final AtomicInteger consumerCounter = new AtomicInteger(0);
+    private final Map<Consumer<Message>, Subscription> subscriptions = new ConcurrentHashMap<>();
+    private final Map<String, PendingIds> pendingIds = new ConcurrentHashMap<>();
+    private final AtomicLong redelivered = new AtomicLong(0);
+    private final AtomicLong deadLettered = new AtomicLong(0);
+
+    @Inject
+    public RedisStreamDataBus(PropertiesProvider propertiesProvider) {
+        this.redis = new JedisPool(new JedisPoolConfig(), propertiesProvider.get("messageBusAddress").orElse("redis"));
+        this.maxLength = propertiesProvider.get("streamMaxLength").map(Long::parseLong).orElse(10_000_000L);
+        this.claimIdleMillis = propertiesProvider.get("streamClaimIdleMs").map(Long::parseLong).orElse(5 * 60 * 1000L);
+        this.maxDeliveries = propertiesProvider.get("streamMaxDeliveries").map(Integer::parseInt).orElse(3);
+        this.pollMillis = propertiesProvider.get("streamPollMs").map(Long::parseLong).orElse(100L);
+        this.maxInFlight = propertiesProvider.get("streamMaxInFlight").map(Integer::parseInt).orElse(1000);
+        this.consumerPrefix = ManagementFactory.getRuntimeMXBean().getName();
+    }
+
+    @Override
+    public int subscribe(Consumer<Message> subscriber, Channel... channels) {
+        return subscribe(DEFAULT_GROUP, subscriber, () -> logger.debug("subscribed to {}", asList(channels)), channels);
+    }
+
+    @Override
+    public int subscribe(Consumer<Message> subscriber, Runnable subscriptionCallback, Channel... channels) {
+        return subscribe(DEFAULT_GROUP, subscriber, subscriptionCallback, channels);
+    }
+
+    /**
+     * subscribes to the channels in the given consumer group, and reads the messages until
+     * a SHUTDOWN message is received or {@link #unsubscribe(Consumer)} is called.
+     *
+     * @return the number of messages received
+     */
+    public int subscribe(String group, Consumer<Message> subscriber, Runnable subscriptionCallback, Channel... channels) {
+        Subscription subscription = new Subscription(group, consumerPrefix + "-" + consumerCounter.incrementAndGet(), subscriber, channels);
+        subscriptions.put(subscriber, subscription);
+        try {
+            return subscription.run(subscriptionCallback);
+        } finally {
+            subscriptions.remove(subscriber);
+        }
+    }
+
+    @Override
+    public void unsubscribe(Consumer<Message> subscriber) {
+        Subscription subscription = subscriptions.get(subscriber);
+        if (subscription != null) {
+            subscription.subscribed = false;
+        }
+    }
+
+    @Override
+    public void publish(Channel channel, Message message) {
+        publish(channel, singletonList(message));
+    }
+
+    /**
+     * publishes the messages with one redis round trip per stream
+     */
+    public void publish(Channel channel, List<Message> messages) {
+        List<String> work = new ArrayList<>(messages.size() + 1);
+        List<String> control = new ArrayList<>();
+        work.add(String.valueOf(maxLength));
+        control.add(String.valueOf(CONTROL_MAX_LENGTH));
+        for (Message message : messages) {
+            (isWork(message) ? work : control).add(message.toJson());
+        }
+        try (Jedis jedis = redis.getResource()) {
+            if (work.size() > 1) {
+                jedis.eval(XADD, singletonList(stream(channel)), work);
+            }
+            if (control.size() > 1) {
+                jedis.eval(XADD, singletonList(controlStream(channel)), control);
+            }
+        }
+    }
+
+    /**
+     * acknowledges a work message received by a subscriber of the group : it will not be delivered again.
+     */
+    public void ack(String group, Channel channel, Message message) {
+        String id = pendingIds(group, channel).poll(messageKey(message));
+        if (id == null) {
+            logger.warn("no pending id for {} in group {}", message, group);
+            return;
+        }
+        try (Jedis jedis = redis.getResource()) {
+            jedis.eval(ACK, singletonList(stream(channel)), asList(group, id));
+        }
+    }
+
+    /**
+     * acknowledges a work message that cannot be processed, and adds it to the dead letter stream of the channel
+     * with the group and the id of the message
+     */
+    public void deadLetter(String group, Channel channel, Message message) {
+        String id = pendingIds(group, channel).poll(messageKey(message));
+        if (id == null) {
+            logger.warn("no pending id for {} in group {}", message, group);
+            return;
+        }
+        try (Jedis jedis = redis.getResource()) {
+            jedis.eval(DEAD_LETTER, asList(stream(channel), deadLetterStream(channel)), asList(group, id, String.valueOf(maxLength), message.toJson()));
+        }
+        deadLettered.incrementAndGet();
+        logger.error("message {} of group {} moved to {}", message, group, deadLetterStream(channel));
+    }
+
+    /**
+     * @return the number of work messages delivered in this process and not acknowledged
+     */
+    public int getInFlightCount(String group, Channel channel) {
+        return pendingIds(group, channel).size();
+    }
+
+    /**
+     * @return the number of work messages delivered to the group and not acknowledged
+     */
+    public long getPendingCount(String group, Channel channel) {
+        try (Jedis jedis = redis.getResource()) {
+            return (Long) jedis.eval(PENDING, singletonList(stream(channel)), singletonList(group));
+        }
+    }
+
+    public long getRedeliveredCount() { return redelivered.get();}
+    public long getDeadLetteredCount() { return deadLettered.get();}
+
+    @Override
+    public void close() {
+        this.redis.close();
+    }
+
+    static String stream(Channel channel) { return STREAM_PREFIX + channel.name();}
+    static String controlStream(Channel channel) { return STREAM_PREFIX + channel.name() + CONTROL_SUFFIX;}
+    static String deadLetterStream(Channel channel) { return STREAM_PREFIX + channel.name() + DEAD_SUFFIX;}
+
+    private static boolean isWork(Message message) { return message.type == EXTRACT_NLP;}
+
+    private PendingIds pendingIds(String group, Channel channel) {
+        return pendingIds.computeIfAbsent(group + "|" + channel.name(), k -> new PendingIds());
+    }
+
+    private static String messageKey(Message message) {
+        return message.content.get(INDEX_NAME) + "|" + message.content.get(DOC_ID) + "|" + message.content.get(R_ID);
+    }
+
+    private class Subscription {
+        private final String group;
+        private final String consumer;
+        private final Consumer<Message> callback;
+        private final Channel[] channels;
+        private final Map<Channel, String> lastControlIds = new HashMap<>();
+        private volatile boolean subscribed = true;
+        private int nbMessages = 0;
+
+        Subscription(String group, String consumer, Consumer<Message> callback, Channel[] channels) {
+            this.group = group;
+            this.consumer = consumer;
+            this.callback = callback;
+            this.channels = channels;
+        }
+
+        int run(Runnable subscriptionCallback) {
+            try (Jedis jedis = redis.getResource()) {
+                for (Channel channel : channels) {
+                    jedis.eval(CREATE_GROUP, singletonList(stream(channel)), singletonList(group));
+                    lastControlIds.put(channel, (String) jedis.eval(LAST_ID, singletonList(controlStream(channel)), new ArrayList<>()));
+                }
+            }
+            logger.info("consumer {} subscribed to {} in group {}", consumer, asList(channels), group);
+            subscriptionCallback.run();
+            long lastClaim = 0;
+            while (subscribed) {
+                try {
+                    boolean received = false;
+                    boolean windowFull = false;
+                    boolean claimTime = System.currentTimeMillis() - lastClaim > claimIdleMillis / 2;
+                    if (claimTime) {
+                        lastClaim = System.currentTimeMillis();
+                    }
+                    for (Channel channel : channels) {
+                        int window = maxInFlight - pendingIds(group, channel).size();
+                        if (window <= 0) {
+                            windowFull = true;
+                            continue;
+                        }
+                        if (claimTime) {
+                            received |= claim(channel, window);
+                            window = maxInFlight - pendingIds(group, channel).size();
+                        }
+                        if (window > 0) {
+                            received |= read(channel, window);
+                        }
+                    }
+                    for (Channel channel : channels) {
+                        received |= readControl(channel, !received && !windowFull);
+                    }
+                    if (!received && subscribed) {
+                        Thread.sleep(pollMillis);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    subscribed = false;
+                } catch (RuntimeException e) {
+                    logger.error("error reading streams for consumer {}", consumer, e);
+                }
+            }
+            logger.info("consumer {} unsubscribed after {} message(s)", consumer, nbMessages);
+            return nbMessages;
+        }
+
+        private boolean read(Channel channel, int window) {
+            List<String> entries;
+            try (Jedis jedis = redis.getResource()) {
+                entries = evalList(jedis, READ_GROUP, stream(channel), group, consumer, String.valueOf(Math.min(READ_COUNT, window)));
+            }
+            dispatch(channel, entries);
+            return !entries.isEmpty();
+        }
+
+        @SuppressWarnings("unchecked")
+        private boolean claim(Channel channel, int window) {
+            List<Object> result;
+            try (Jedis jedis = redis.getResource()) {
+                result = (List<Object>) jedis.eval(CLAIM, asList(stream(channel), deadLetterStream(channel)),
+                        asList(group, consumer, String.valueOf(claimIdleMillis), String.valueOf(Math.min(READ_COUNT, window)),
+                                String.valueOf(maxDeliveries), String.valueOf(maxLength)));
+            }
+            List<String> claimed = (List<String>) result.get(0);
+            List<String> dead = (List<String>) result.get(1);
+            if (!dead.isEmpty()) {
+                deadLettered.addAndGet(dead.size());
+                dead.forEach(pendingIds(group, channel)::remove);
+                logger.error("message(s) {} of group {} delivered {} times moved to {}", dead, group, maxDeliveries, deadLetterStream(channel));
+            }
+            if (!claimed.isEmpty()) {
+                redelivered.addAndGet(claimed.size() / 2);
+                logger.info("consumer {} claimed {} message(s) pending for more than {}ms", consumer, claimed.size() / 2, claimIdleMillis);
+            }
+            dispatch(channel, claimed);
+            return !claimed.isEmpty();
+        }
+
+        /**
+         * @param workDone true if the group has no more work messages to read : SHUTDOWN is delivered only then
+         */
+        private boolean readControl(Channel channel, boolean workDone) {
+            List<String> entries;
+            try (Jedis jedis = redis.getResource()) {
+                entries = evalList(jedis, READ, controlStream(channel), lastControlIds.get(channel), String.valueOf(READ_COUNT));
+            }
+            boolean received = false;
+            for (int i = 0; i < entries.size() && subscribed; i += 2) {
+                Message message = parse(entries.get(i + 1));
+                if (message != null && message.type == SHUTDOWN && !workDone) {
+                    break;
+                }
+                if (message != null) {
+                    deliver(message);
+                    received = true;
+                }
+                lastControlIds.put(channel, entries.get(i));
+            }
+            return received;
+        }
+
+        private void dispatch(Channel channel, List<String> entries) {
+            for (int i = 0; i < entries.size(); i += 2) {
+                Message message = parse(entries.get(i + 1));
+                if (message != null) {
+                    pendingIds(group, channel).add(messageKey(message), entries.get(i));
+                    deliver(message);
+                }
+            }
+        }
+
+        private void deliver(Message message) {
+            if (message.type == SHUTDOWN) {
+                subscribed = false;
+                logger.info("Shutdown called. Unsubscribe done.");
+            }
+            callback.accept(message);
+            nbMessages++;
+        }
+
+        @SuppressWarnings("unchecked")
+        private List<String> evalList(Jedis jedis, String script, String key, String... args) {
+            return (List<String>) jedis.eval(script, singletonList(key), asList(args));
+        }
+
+        private Message parse(String json) {
+            try {
+                return new Message(new ObjectMapper().readValue(json, HashMap.class));
+            } catch (IOException e) {
+                logger.error("cannot deserialize json message " + json, e);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * the stream ids of the work messages delivered in this process and not acknowledged, by message key.
+     * The same document can be pending several times with different ids.
+     */
+    private static class PendingIds {
+        private final Map<String, Queue<String>> idsByKey = new ConcurrentHashMap<>();
+        private final Map<String, String> keysById = new ConcurrentHashMap<>();
+
+        void add(String key, String id) {
+            if (keysById.putIfAbsent(id, key) == null) {
+                idsByKey.compute(key, (k, ids) -> {
+                    Queue<String> queue = ids == null ? new ArrayDeque<>(1) : ids;
+                    queue.add(id);
+                    return queue;
+                });
+            }
+        }
+
+        /**
+         * @return the first pending id of the key, or null. The key is removed when it has no more ids
+         */
+        String poll(String key) {
+            String[] id = {null};
+            idsByKey.computeIfPresent(key, (k, ids) -> {
+                id[0] = ids.poll();
+                return ids.isEmpty() ? null : ids;
+            });
+            if (id[0] != null) {
+                keysById.remove(id[0]);
+            }
+            return id[0];
+        }
+
+        void remove(String id) {
+            String key = keysById.remove(id);
+            if (key != null) {
+                idsByKey.computeIfPresent(key, (k, ids) -> {
+                    ids.remove(id);
+                    return ids.isEmpty() ? null : ids;
+                });
+            }
+        }
+
+        int size() { return keysById.size();}
+    }
+}
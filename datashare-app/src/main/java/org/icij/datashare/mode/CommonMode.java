@@ -16,10 +16,12 @@ import org.icij.datashare.cli.Mode;
 import org.icij.datashare.PropertiesProvider;
 import org.icij.datashare.Repository;
 import org.icij.datashare.batch.BatchSearchRepository;
+import org.icij.datashare.com.AsyncPublisher;
 import org.icij.datashare.com.DataBus;
 import org.icij.datashare.com.MemoryDataBus;
 import org.icij.datashare.com.Publisher;
 import org.icij.datashare.com.RedisDataBus;
+import org.icij.datashare.com.RedisStreamDataBus;
 import org.icij.datashare.db.RepositoryFactoryImpl;
 import org.icij.datashare.extension.ExtensionLoader;
 import org.icij.datashare.extension.PipelineRegistry;
@@ -108,11 +110,14 @@ public class CommonMode extends AbstractModule {
         DataBus dataBus;
         if ("memory".equals(propertiesProvider.getProperties().get("busType"))) {
             dataBus = new MemoryDataBus();
+        } else if ("redisStream".equals(propertiesProvider.getProperties().get("busType"))) {
+            dataBus = new RedisStreamDataBus(propertiesProvider);
         } else {
             dataBus = new RedisDataBus(propertiesProvider);
         }
         bind(DataBus.class).toInstance(dataBus);
-        bind(Publisher.class).toInstance(dataBus);
+        int publisherBufferSize = propertiesProvider.get("publisherBufferSize").map(Integer::parseInt).orElse(0);
+        bind(Publisher.class).toInstance(publisherBufferSize > 0 ? new AsyncPublisher(dataBus, publisherBufferSize) : dataBus);
 
         PipelineRegistry pipelineRegistry = new PipelineRegistry(propertiesProvider);
         pipelineRegistry.register(EmailPipeline.class);
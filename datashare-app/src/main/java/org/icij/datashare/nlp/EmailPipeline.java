@@ -11,12 +11,15 @@ import org.icij.datashare.text.nlp.NlpStage;
 
 import java.nio.charset.Charset;
 import java.util.*;
+import java.util.function.ObjIntConsumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 import static java.util.Arrays.asList;
 import static java.util.Collections.unmodifiableSet;
 import static java.util.stream.Collectors.joining;
+import static java.util.stream.Stream.concat;
 import static org.icij.datashare.text.NamedEntity.allFrom;
 import static org.icij.datashare.text.nlp.Pipeline.Type.EMAIL;
 
@@ -37,11 +40,16 @@ import static org.icij.datashare.text.nlp.Pipeline.Type.EMAIL;
  * These fields are supposed to contain email addresses that we want to
  * save as named entities.
  *
+ * The emails are found with an {@link EmailScanner} that returns the same matches as the regexp.
+ * Setting emailPipelineRegex to true falls back to the regexp.
+ *
+ * Only the content and the parsed email headers of the metadata are fetched by the NLP consumers.
  */
-public class EmailPipeline extends AbstractPipeline {
+public class EmailPipeline extends AbstractPipeline implements SourceFields {
     private static final String DEFAULT_METADATA_FIELD_PREFIX = "tika_metadata_";
     private static final String RAW_HEADER_FIELD_PREFIX = "Message-Raw-Header-";
     private static final String MESSAGE_FIELD_PREFIX = "Message-";
+    static final String REGEX_PROP = "emailPipelineRegex";
     final Pattern pattern = Pattern.compile("(?:[a-z0-9!#$%&'*+/=?^_`{|}~-]+(?:\\.[a-z0-9!#$%&'*+/=?^_`{|}~-]+)*|\"(?:[\\x01-\\x08\\x0b" +
             "\\x0c\\x0e-\\x1f\\x21\\x23-\\x5b\\x5d-\\x7f]|\\\\[\\x01-\\x09\\x0b\\x0c\\x0e-\\x7f])*\")@" +
             "(?:(?:[a-z0-9](?:[a-z0-9-]*[a-z0-9])?\\.)+[a-z0-9](?:[a-z0-9-]*[a-z0-9])?|" +
@@ -76,33 +84,50 @@ public class EmailPipeline extends AbstractPipeline {
             tikaRawHeader("Resent-bcc")
     )));
 
+    private final boolean useRegex;
+
     @Inject
     public EmailPipeline(final PropertiesProvider propertiesProvider) {
         super(propertiesProvider.getProperties());
+        useRegex = propertiesProvider.get(REGEX_PROP).map(Boolean::parseBoolean).orElse(false);
     }
 
     @Override
     public List<NamedEntity> process(Document doc) {
         Annotations annotations = new Annotations(doc.getId(), getType(), doc.getLanguage());
-        Matcher matcher = pattern.matcher(doc.getContent());
-        while (matcher.find()) {
-            String email = matcher.group(0);
-            int start = matcher.start();
-            annotations.add(NlpStage.NER, start, start + email.length(), NamedEntity.Category.EMAIL);
-        }
+        findEmails(doc.getContent(), (email, start) ->
+                annotations.add(NlpStage.NER, start, start + email.length(), NamedEntity.Category.EMAIL));
         List<NamedEntity> neList = allFrom(doc.getContent(), annotations);
         if ("message/rfc822".equals(doc.getContentType())) {
-            String metadataString = parsedEmailHeaders.stream().map(key -> doc.getMetadata().getOrDefault(key, "").toString()).collect(joining(" "));
-            Matcher metaMatcher = pattern.matcher(metadataString);
-            while (metaMatcher.find()) {
-                neList.add(NamedEntity.create(NamedEntity.Category.EMAIL, metaMatcher.group(0), -1,
+            Map<String, Object> metadata = doc.getMetadata() == null ? Collections.emptyMap() : doc.getMetadata();
+            String metadataString = parsedEmailHeaders.stream().map(key -> metadata.getOrDefault(key, "").toString()).collect(joining(" "));
+            findEmails(metadataString, (email, start) ->
+                neList.add(NamedEntity.create(NamedEntity.Category.EMAIL, email, -1,
                                             doc.getId(), doc.getRootDocument(), EMAIL,
-                                            doc.getLanguage()));
-            }
+                                            doc.getLanguage())));
         }
         return neList;
     }
 
+    void findEmails(String text, ObjIntConsumer<String> emailConsumer) {
+        if (useRegex) {
+            Matcher matcher = pattern.matcher(text);
+            while (matcher.find()) {
+                emailConsumer.accept(matcher.group(0), matcher.start());
+            }
+        } else {
+            EmailScanner scanner = new EmailScanner(pattern, text);
+            while (scanner.find()) {
+                emailConsumer.accept(scanner.group(), scanner.start());
+            }
+        }
+    }
+
+    @Override
+    public String[] getSourceFields() {
+        return concat(Stream.of("content"), parsedEmailHeaders.stream().map(header -> "metadata." + header)).toArray(String[]::new);
+    }
+
     public static String tikaRawHeader(String s) {
         return tika(RAW_HEADER_FIELD_PREFIX + s);
     }
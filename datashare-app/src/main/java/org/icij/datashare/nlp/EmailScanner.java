@@ -0,0 +1,188 @@
+package org.icij.datashare.nlp;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * finds the same emails as the EmailPipeline pattern, in the same order, without running
+ * the regex over the whole text.
+ *
+ * It jumps from one '@' to the next one : the local part is read backwards from the '@'
+ * and the domain forwards. As the regex, it returns the leftmost match, so the quoted
+ * local parts ("john.doe"@domain.com) that can start before an unquoted one are checked
+ * when a '"' is found before the match.
+ *
+ * Domain literals (john@[127.0.0.1]) are rare and are delegated to the regex.
+ *
+ * The position of the next '"' is kept between the calls, so that a text without quotes is scanned once.
+ */
+final class EmailScanner {
+    private static final boolean[] ATOM = new boolean[128];
+    private static final boolean[] QUOTED = new boolean[128];
+    private static final boolean[] ESCAPED = new boolean[128];
+    static {
+        for (char c = 'a'; c <= 'z'; c++) ATOM[c] = true;
+        for (char c = '0'; c <= '9'; c++) ATOM[c] = true;
+        for (char c : "!#$%&'*+/=?^_`{|}~-".toCharArray()) ATOM[c] = true;
+        for (char c = 0x01; c < 0x80; c++) {
+            QUOTED[c] = c != '\t' && c != '\n' && c != '\r' && c != ' ' && c != '"' && c != '\\';
+            ESCAPED[c] = c != '\n' && c != '\r';
+        }
+    }
+
+    private final Pattern pattern;
+    private final String text;
+    private final int lastAt;
+    private Matcher literalMatcher = null;
+    private int from = 0;
+    private int quote = -2; // next '"' from a previous position, -1 if there is none left, -2 before the first search
+    private int start = -1;
+    private int end = -1;
+
+    EmailScanner(Pattern pattern, String text) {
+        this.pattern = pattern;
+        this.text = text;
+        this.lastAt = text.lastIndexOf('@');
+    }
+
+    boolean find() {
+        if (from > lastAt) {
+            return false;
+        }
+        if (quote != -1 && quote < from) {
+            quote = text.indexOf('"', from);
+        }
+        for (int at = text.indexOf('@', from); at >= 0; at = text.indexOf('@', at + 1)) {
+            int localStart = localStart(at);
+            int domainEnd = localStart < 0 ? -1 : domainEnd(localStart, at);
+            if (domainEnd >= 0) {
+                return findQuotedBefore(localStart) || found(localStart, domainEnd);
+            }
+        }
+        if (findQuotedBefore(lastAt)) {
+            return true;
+        }
+        from = text.length() + 1;
+        return false;
+    }
+
+    /**
+     * @return true if a quoted email starts before the limit, from the next '"'
+     */
+    private boolean findQuotedBefore(int limit) {
+        for (; quote >= 0 && quote < limit; quote = text.indexOf('"', quote + 1)) {
+            if (findQuoted(quote)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    int start() { return start;}
+    int end() { return end;}
+    String group() { return text.substring(start, end);}
+
+    private boolean found(int start, int end) {
+        this.start = start;
+        this.end = end;
+        this.from = end;
+        return true;
+    }
+
+    private boolean findQuoted(int quote) {
+        int at = quotedEnd(quote);
+        if (at < 0 || at >= text.length() || text.charAt(at) != '@') {
+            return false;
+        }
+        int domainEnd = domainEnd(quote, at);
+        return domainEnd >= 0 && found(quote, domainEnd);
+    }
+
+    /**
+     * @return the leftmost start of a dot-atom local part ending at the '@', or -1
+     */
+    private int localStart(int at) {
+        int i = at - 1;
+        if (i < from || !isAtom(text.charAt(i))) {
+            return -1;
+        }
+        while (i > from) {
+            char c = text.charAt(i - 1);
+            if (isAtom(c) || (c == '.' && text.charAt(i) != '.')) {
+                i--;
+            } else {
+                break;
+            }
+        }
+        return text.charAt(i) == '.' ? i + 1 : i;
+    }
+
+    /**
+     * @return the index after the closing quote of the quoted string starting at quote, or -1
+     */
+    private int quotedEnd(int quote) {
+        int i = quote + 1;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (c == '"') {
+                return i + 1;
+            } else if (c == '\\') {
+                if (i + 1 >= text.length() || !isEscaped(text.charAt(i + 1))) {
+                    return -1;
+                }
+                i += 2;
+            } else if (c < 128 && QUOTED[c]) {
+                i++;
+            } else {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * reads labels separated by dots after the '@'. As the regex, the domain needs at least
+     * two labels and the last label is the longest prefix of its chars not ending with '-'.
+     *
+     * @return the end of the domain, or -1
+     */
+    private int domainEnd(int start, int at) {
+        int i = at + 1;
+        if (i < text.length() && text.charAt(i) == '[') {
+            return literalDomainEnd(start);
+        }
+        int nbLabels = 0;
+        int lastLabelEnd = -1;
+        while (true) {
+            int labelStart = i;
+            while (i < text.length() && isLabel(text.charAt(i))) {
+                i++;
+            }
+            if (i == labelStart || text.charAt(labelStart) == '-') {
+                return nbLabels >= 2 ? lastLabelEnd : -1;
+            }
+            int labelEnd = i;
+            while (text.charAt(labelEnd - 1) == '-') {
+                labelEnd--;
+            }
+            if (labelEnd == i && i < text.length() && text.charAt(i) == '.') {
+                nbLabels++;
+                lastLabelEnd = i++;
+            } else {
+                return nbLabels >= 1 ? labelEnd : -1;
+            }
+        }
+    }
+
+    private int literalDomainEnd(int start) {
+        if (literalMatcher == null) {
+            literalMatcher = pattern.matcher(text);
+        }
+        literalMatcher.region(start, text.length());
+        return literalMatcher.lookingAt() ? literalMatcher.end() : -1;
+    }
+
+    private static boolean isAtom(char c) { return c < 128 && ATOM[c];}
+    private static boolean isEscaped(char c) { return c < 128 && ESCAPED[c];}
+    private static boolean isLabel(char c) { return (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-';}
+}
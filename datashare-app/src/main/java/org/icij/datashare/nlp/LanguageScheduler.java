@@ -0,0 +1,399 @@
+package org.icij.datashare.nlp;
+
+import org.icij.datashare.com.Message;
+import org.icij.datashare.text.Document;
+import org.icij.datashare.text.Language;
+import org.icij.datashare.text.indexing.Indexer;
+import org.icij.datashare.text.indexing.elasticsearch.ElasticsearchIndexer;
+import org.icij.datashare.text.indexing.elasticsearch.IdRouting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import static java.util.stream.Collectors.toList;
+import static org.icij.datashare.com.Message.Field.*;
+import static org.icij.datashare.com.Message.Type.EXTRACT_NLP;
+
+/**
+ * routes the NLP messages to one sub-queue per document language, so that the consumers
+ * work on the same language as long as it has pending messages instead of switching models
+ * for each document.
+ *
+ * The consumers take the messages of a language whose models are loaded first (the one with
+ * the most pending messages), then of the language with the most pending messages. The other
+ * messages (shutdown) are delivered when all the language queues are empty. To avoid starving the other
+ * languages under a continuous flow of one language, the queue whose oldest message has waited more than
+ * the max wait is served first.
+ *
+ * The messages whose language cannot be resolved (document not found or not readable) are delivered
+ * first, so that the consumers acknowledge or reject them like the other messages.
+ *
+ * The languages are resolved in batches when the messages are routed (with one _mget fetching
+ * only the language field when the indexer is elasticsearch).
+ */
+public class LanguageScheduler extends AbstractQueue<Message> implements BlockingQueue<Message> {
+    private static final Logger logger = LoggerFactory.getLogger(LanguageScheduler.class);
+    static final long DEFAULT_MAX_WAIT_MILLIS = 60 * 1000;
+    private final Function<List<Message>, List<Language>> languageResolver;
+    private final int capacity;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Map<Language, LanguageQueue> languageQueues = new LinkedHashMap<>();
+    private final Deque<Message> controlQueue = new ArrayDeque<>();
+    private final Deque<Message> unresolvedQueue = new ArrayDeque<>();
+    private Predicate<Language> isResident = l -> false;
+    private long maxWaitMillis = DEFAULT_MAX_WAIT_MILLIS;
+    private int size = 0;
+
+    public LanguageScheduler(Function<List<Message>, List<Language>> languageResolver, int capacity) {
+        this.languageResolver = languageResolver;
+        this.capacity = capacity;
+    }
+
+    /**
+     * @param isResident tells if the models of a language are loaded, to prefer their messages
+     */
+    public LanguageScheduler withResidency(Predicate<Language> isResident) {
+        this.isResident = isResident;
+        return this;
+    }
+
+    /**
+     * @param maxWaitMillis max time a message waits while the consumers work on other languages
+     */
+    public LanguageScheduler withMaxWait(long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+        return this;
+    }
+
+    /**
+     * routes the messages to their language queue, waiting for room if the scheduler is full.
+     */
+    public void route(List<Message> messages) throws InterruptedException {
+        List<Message> extractMessages = messages.stream().filter(m -> m.type == EXTRACT_NLP).collect(toList());
+        List<Language> languages = extractMessages.isEmpty() ? Collections.emptyList() : languageResolver.apply(extractMessages);
+        lock.lockInterruptibly();
+        try {
+            while (size > 0 && size + messages.size() > capacity) {
+                notFull.await();
+            }
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < extractMessages.size(); i++) {
+                if (languages.get(i) == null) {
+                    logger.debug("no language for document {}", extractMessages.get(i).content.get(DOC_ID));
+                    unresolvedQueue.add(extractMessages.get(i));
+                } else {
+                    languageQueues.computeIfAbsent(languages.get(i), l -> new LanguageQueue()).add(extractMessages.get(i), now);
+                }
+                size++;
+            }
+            messages.stream().filter(m -> m.type != EXTRACT_NLP).forEach(m -> {
+                controlQueue.add(m);
+                size++;
+            });
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean hasPendingWork(Language language) {
+        lock.lock();
+        try {
+            LanguageQueue queue = languageQueues.get(language);
+            return queue != null && !queue.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of pending messages by language
+     */
+    public Map<Language, Integer> getPendingByLanguage() {
+        lock.lock();
+        try {
+            Map<Language, Integer> pending = new LinkedHashMap<>();
+            languageQueues.forEach((language, queue) -> pending.put(language, queue.size()));
+            return pending;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(Message message) {
+        lock.lock();
+        try {
+            if (size >= capacity) {
+                return false;
+            }
+        } finally {
+            lock.unlock();
+        }
+        try {
+            route(Collections.singletonList(message));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public void put(Message message) throws InterruptedException {
+        route(Collections.singletonList(message));
+    }
+
+    @Override
+    public boolean offer(Message message, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (size >= capacity) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+        } finally {
+            lock.unlock();
+        }
+        route(Collections.singletonList(message));
+        return true;
+    }
+
+    @Override
+    public Message poll() {
+        lock.lock();
+        try {
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Message take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            Message message;
+            while ((message = dequeue()) == null) {
+                notEmpty.await();
+            }
+            return message;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Message poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            Message message;
+            while ((message = dequeue()) == null) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return message;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Message peek() {
+        lock.lock();
+        try {
+            Deque<Message> queue = nextQueue();
+            return queue == null ? null : queue.peek();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return capacity - size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super Message> collection) {
+        return drainTo(collection, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Message> collection, int maxElements) {
+        lock.lock();
+        try {
+            int nb = 0;
+            Message message;
+            while (nb < maxElements && (message = dequeue()) != null) {
+                collection.add(message);
+                nb++;
+            }
+            return nb;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * iterates over a snapshot of the pending messages
+     */
+    @Override
+    public Iterator<Message> iterator() {
+        lock.lock();
+        try {
+            List<Message> messages = new ArrayList<>(size);
+            messages.addAll(unresolvedQueue);
+            languageQueues.values().forEach(messages::addAll);
+            messages.addAll(controlQueue);
+            return messages.iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "languageScheduler{pending=" + getPendingByLanguage() + "}";
+    }
+
+    /**
+     * resolves the languages with the indexer, in the order of the messages (null if the document is not found)
+     */
+    public static Function<List<Message>, List<Language>> languageResolver(Indexer indexer) {
+        return messages -> {
+            if (indexer instanceof ElasticsearchIndexer) {
+                try {
+                    return resolveWithMultiGet((ElasticsearchIndexer) indexer, messages);
+                } catch (IOException | RuntimeException e) {
+                    logger.warn("cannot get the languages of the documents, getting the documents one by one", e);
+                }
+            }
+            List<Language> languages = new ArrayList<>(messages.size());
+            for (Message message : messages) {
+                try {
+                    Document doc = indexer.get(message.content.get(INDEX_NAME), message.content.get(DOC_ID), message.content.get(R_ID));
+                    languages.add(doc == null ? null : doc.getLanguage());
+                } catch (RuntimeException e) {
+                    logger.error("cannot get doc " + message.content.get(DOC_ID), e);
+                    languages.add(null);
+                }
+            }
+            return languages;
+        };
+    }
+
+    private static List<Language> resolveWithMultiGet(ElasticsearchIndexer indexer, List<Message> messages) throws IOException {
+        Map<String, List<Integer>> positionsByProject = new LinkedHashMap<>();
+        for (int i = 0; i < messages.size(); i++) {
+            positionsByProject.computeIfAbsent(messages.get(i).content.get(INDEX_NAME), p -> new ArrayList<>()).add(i);
+        }
+        Language[] languages = new Language[messages.size()];
+        for (Map.Entry<String, List<Integer>> project : positionsByProject.entrySet()) {
+            List<Language> projectLanguages = indexer.getLanguages(project.getKey(), project.getValue().stream()
+                    .map(i -> new IdRouting(messages.get(i).content.get(DOC_ID), messages.get(i).content.get(R_ID))).collect(toList()));
+            for (int i = 0; i < projectLanguages.size(); i++) {
+                languages[project.getValue().get(i)] = projectLanguages.get(i);
+            }
+        }
+        return Arrays.asList(languages);
+    }
+
+    private Message dequeue() {
+        Deque<Message> queue = nextQueue();
+        if (queue == null) {
+            return null;
+        }
+        Message message = queue.poll();
+        size--;
+        notFull.signalAll();
+        return message;
+    }
+
+    private Deque<Message> nextQueue() {
+        if (!unresolvedQueue.isEmpty()) {
+            return unresolvedQueue;
+        }
+        LanguageQueue mostPending = null;
+        LanguageQueue mostPendingResident = null;
+        LanguageQueue oldest = null;
+        for (Map.Entry<Language, LanguageQueue> entry : languageQueues.entrySet()) {
+            LanguageQueue queue = entry.getValue();
+            if (queue.isEmpty()) {
+                continue;
+            }
+            if (oldest == null || queue.headRoutedAt() < oldest.headRoutedAt()) {
+                oldest = queue;
+            }
+            if (mostPending == null || queue.size() > mostPending.size()) {
+                mostPending = queue;
+            }
+            if (isResident.test(entry.getKey()) && (mostPendingResident == null || queue.size() > mostPendingResident.size())) {
+                mostPendingResident = queue;
+            }
+        }
+        if (oldest != null && System.currentTimeMillis() - oldest.headRoutedAt() > maxWaitMillis) {
+            return oldest;
+        }
+        if (mostPendingResident != null) {
+            return mostPendingResident;
+        }
+        if (mostPending != null) {
+            return mostPending;
+        }
+        return controlQueue.isEmpty() ? null : controlQueue;
+    }
+
+    /**
+     * language queue keeping the routing time of its messages
+     */
+    private static class LanguageQueue extends ArrayDeque<Message> {
+        private final Deque<Long> routedAt = new ArrayDeque<>();
+
+        void add(Message message, long time) {
+            add(message);
+            routedAt.add(time);
+        }
+
+        long headRoutedAt() {
+            return routedAt.isEmpty() ? Long.MAX_VALUE : routedAt.peek();
+        }
+
+        @Override
+        public Message poll() {
+            routedAt.poll();
+            return super.poll();
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package org.icij.datashare.nlp;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.Hashing;
+import org.icij.datashare.text.Document;
+import org.icij.datashare.text.Language;
+import org.icij.datashare.text.NamedEntity;
+import org.icij.datashare.text.nlp.Pipeline;
+import org.icij.datashare.text.nlp.corenlp.CorenlpPipeline;
+import org.icij.datashare.text.nlp.corenlp.models.CoreNlpModels;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * disk store of the named entities found in a content, keyed by
+ * (pipeline type, pipeline version, models version, pipeline options, language, content digest).
+ *
+ * The pipeline version is the implementation version of its jar, or the modified time of its jar or classes
+ * directory for the development builds. The pipeline options are the values of the options changing the
+ * entities found by the pipeline (corenlpChunkSize for CORENLP), so that the results of another
+ * configuration are not reused.
+ *
+ * Identical contents (copies, attachments sent several times) are processed once : for the
+ * next documents with the same content, the stored entities are remapped to the document
+ * id and root without running the pipeline.
+ *
+ * Each content has its own file in the store directory. When the files are over the max size,
+ * the least recently used ones are deleted (the last modified time is updated on hits).
+ */
+public class NerResultStore {
+    private static final Logger logger = LoggerFactory.getLogger(NerResultStore.class);
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final TypeReference<List<StoredEntity>> ENTITIES_TYPE = new TypeReference<List<StoredEntity>>() {};
+    private static final Map<Pipeline.Type, String> MODELS_VERSIONS = singletonMap(Pipeline.Type.CORENLP, CoreNlpModels.MODELS_VERSION);
+    private static final Map<Pipeline.Type, List<String>> RESULT_OPTIONS = singletonMap(Pipeline.Type.CORENLP, singletonList(CorenlpPipeline.CHUNK_SIZE_PROP));
+    private final Path directory;
+    private final long maxSizeBytes;
+    private final Properties properties;
+    private final Map<Pipeline.Type, String> versions = new ConcurrentHashMap<>();
+    private final AtomicLong sizeBytes = new AtomicLong(0);
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+
+    public NerResultStore(Path directory, long maxSizeBytes) {
+        this(directory, maxSizeBytes, new Properties());
+    }
+
+    /**
+     * @param properties the options of the pipelines, for the options changing their results
+     */
+    public NerResultStore(Path directory, long maxSizeBytes, Properties properties) {
+        this.directory = directory;
+        this.maxSizeBytes = maxSizeBytes;
+        this.properties = properties;
+        try {
+            Files.createDirectories(directory);
+            try (Stream<Path> files = Files.list(directory)) {
+                sizeBytes.set(files.mapToLong(NerResultStore::fileSize).sum());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        logger.info("ner result store in {} with {} bytes (max {})", directory, sizeBytes.get(), maxSizeBytes);
+    }
+
+    /**
+     * @return the stored entities remapped to the document, or null if the content has not been processed
+     */
+    public List<NamedEntity> get(Pipeline pipeline, Document doc) {
+        Path file = file(pipeline, doc);
+        List<StoredEntity> entities;
+        try {
+            entities = mapper.readValue(file.toFile(), ENTITIES_TYPE);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (NoSuchFileException | FileNotFoundException e) {
+            misses.incrementAndGet();
+            return null;
+        } catch (IOException e) {
+            logger.warn("cannot read ner results {}", file, e);
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entities.stream().map(e -> NamedEntity.create(NamedEntity.Category.parse(e.category), e.mention, e.offset,
+                doc.getId(), doc.getRootDocument(), pipeline.getType(), doc.getLanguage())).collect(toList());
+    }
+
+    public void put(Pipeline pipeline, Document doc, List<NamedEntity> namedEntities) {
+        List<StoredEntity> entities = new ArrayList<>(namedEntities.size());
+        for (NamedEntity ne : namedEntities) {
+            entities.add(new StoredEntity(ne.getCategory().getAbbreviation(), ne.getMention(), ne.getOffset()));
+        }
+        Path file = file(pipeline, doc);
+        try {
+            Path tmpFile = Files.createTempFile(directory, "ner-", ".tmp");
+            mapper.writeValue(tmpFile.toFile(), entities);
+            long previousSize = fileSize(file);
+            Files.move(tmpFile, file, REPLACE_EXISTING, ATOMIC_MOVE);
+            sizeBytes.addAndGet(fileSize(file) - previousSize);
+        } catch (IOException e) {
+            logger.warn("cannot store ner results of {}", doc.getId(), e);
+        }
+        if (sizeBytes.get() > maxSizeBytes) {
+            evict();
+        }
+    }
+
+    public long getHitCount() { return hits.get();}
+    public long getMissCount() { return misses.get();}
+    public long getSizeBytes() { return sizeBytes.get();}
+
+    @Override
+    public String toString() {
+        return "nerResultStore{size=" + sizeBytes.get() + ", hits=" + hits.get() + ", misses=" + misses.get() + "}";
+    }
+
+    String key(Pipeline pipeline, Language language, String content) {
+        return String.join("|", versions.computeIfAbsent(pipeline.getType(), type -> version(pipeline)), language.name(),
+                Hashing.sha256().hashString(content, UTF_8).toString());
+    }
+
+    private Path file(Pipeline pipeline, Document doc) {
+        String key = key(pipeline, doc.getLanguage(), doc.getContent());
+        return directory.resolve(Hashing.sha256().hashString(key, UTF_8).toString() + ".json");
+    }
+
+    /**
+     * deletes the least recently used files until the store is under 90% of its max size
+     */
+    private synchronized void evict() {
+        if (sizeBytes.get() <= maxSizeBytes) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Path> lru = files.filter(f -> f.toString().endsWith(".json"))
+                    .sorted(Comparator.comparingLong(NerResultStore::lastModified)).collect(toList());
+            long target = maxSizeBytes * 9 / 10;
+            for (Path file : lru) {
+                if (sizeBytes.get() <= target) {
+                    break;
+                }
+                long size = fileSize(file);
+                if (Files.deleteIfExists(file)) {
+                    sizeBytes.addAndGet(-size);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("cannot evict ner results from {}", directory, e);
+        }
+    }
+
+    /**
+     * @return the pipeline type, version, models version and result options of the pipeline
+     */
+    private String version(Pipeline pipeline) {
+        StringBuilder version = new StringBuilder(pipeline.getType().name()).append('|').append(pipelineVersion(pipeline))
+                .append('|').append(MODELS_VERSIONS.getOrDefault(pipeline.getType(), "none"));
+        for (String option : RESULT_OPTIONS.getOrDefault(pipeline.getType(), emptyList())) {
+            version.append('|').append(option).append('=').append(properties.getProperty(option, ""));
+        }
+        return version.toString();
+    }
+
+    private static String pipelineVersion(Pipeline pipeline) {
+        Package pipelinePackage = pipeline.getClass().getPackage();
+        String version = pipelinePackage == null ? null : pipelinePackage.getImplementationVersion();
+        if (version != null) {
+            return version;
+        }
+        try {
+            return "dev-" + Files.getLastModifiedTime(Paths.get(pipeline.getClass().getProtectionDomain().getCodeSource().getLocation().toURI())).toMillis();
+        } catch (IOException | URISyntaxException | RuntimeException e) {
+            return "dev";
+        }
+    }
+
+    private static long fileSize(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    static class StoredEntity {
+        public String category;
+        public String mention;
+        public long offset;
+
+        StoredEntity() {}
+
+        StoredEntity(String category, String mention, long offset) {
+            this.category = category;
+            this.mention = mention;
+            this.offset = offset;
+        }
+    }
+}
@@ -7,9 +7,13 @@ import com.google.inject.assistedinject.AssistedInject;
 import com.google.inject.assistedinject.FactoryModuleBuilder;
 import org.icij.datashare.PropertiesProvider;
 import org.icij.datashare.com.DataBus;
+import org.icij.datashare.com.Channel;
 import org.icij.datashare.com.Message;
+import org.icij.datashare.com.RedisDataBus;
+import org.icij.datashare.com.RedisStreamDataBus;
 import org.icij.datashare.com.ShutdownMessage;
 import org.icij.datashare.monitoring.Monitorable;
+import org.icij.datashare.text.Language;
 import org.icij.datashare.text.indexing.Indexer;
 import org.icij.datashare.text.nlp.AbstractPipeline;
 import org.icij.datashare.text.nlp.Pipeline;
@@ -18,28 +22,61 @@ import org.icij.datashare.user.UserTask;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
+import static java.lang.Boolean.parseBoolean;
 import static java.lang.Integer.parseInt;
 import static java.lang.Integer.toHexString;
+import static java.lang.Long.parseLong;
 import static java.util.Optional.ofNullable;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static java.util.stream.Collectors.toList;
 import static java.util.stream.Stream.generate;
 
 public class NlpApp implements Runnable, Monitorable, UserTask {
     private static final long DEFAULT_TIMEOUT_MILLIS = 30 * 60 * 1000;
+    static final String NLP_QUEUE_CAPACITY_OPT = "nlpQueueCapacity";
+    static final String NLP_QUEUE_SPILL_DIR_OPT = "nlpQueueSpillDir";
+    static final String NLP_QUEUE_MAX_SPILL_OPT = "nlpQueueMaxSpill";
+    static final String NLP_BATCH_SIZE_OPT = "nlpBatchSize";
+    static final String NLP_BATCH_MAX_WAIT_OPT = "nlpBatchMaxWaitMs";
+    static final String NLP_LANGUAGE_AFFINITY_OPT = "nlpLanguageAffinity";
+    static final String NLP_LANGUAGE_MAX_WAIT_OPT = "nlpLanguageMaxWaitMs";
+    static final String NLP_MODELS_MEMORY_MB_OPT = "nlpModelsMemoryMb";
+    static final String NLP_MODEL_SIZE_MB_OPT = "nlpModelSizeMb";
+    static final String NER_RESULT_STORE_DIR_OPT = "nerResultStoreDir";
+    static final String NER_RESULT_STORE_MAX_MB_OPT = "nerResultStoreMaxMb";
+    static final String NLP_SOURCE_FILTERING_OPT = "nlpSourceFiltering";
+    static final String NLP_REPORT_SECONDS_OPT = "nlpReportSeconds";
+    private static final int ROUTER_BATCH_SIZE = 100;
     private final Logger logger = LoggerFactory.getLogger(getClass());
     private final Pipeline pipeline;
     private final Indexer indexer;
     private final long shutdownTimeoutMillis;
     private final boolean cleanShutdown;
     private final BlockingQueue<Message> queue;
+    private final BlockingQueue<Message> consumerQueue;
+    private final LanguageScheduler scheduler;
+    private final ResidentModels residentModels;
+    private final NerResultStore resultStore;
+    private final String[] sourceIncludes;
+    private final DataBus dataBus;
     private final int parallelism;
+    private final int batchSize;
+    private final long batchMaxWaitMillis;
+    private final long reportSeconds;
     private final NlpForwarder forwarder;
     private final User user;
     private ExecutorService threadPool = null;
@@ -61,11 +98,29 @@ public class NlpApp implements Runnable, Monitorable, UserTask {
         this.indexer = indexer;
         this.shutdownTimeoutMillis = shutdownTimeoutMillis == 0 ? DEFAULT_TIMEOUT_MILLIS : shutdownTimeoutMillis;
         this.cleanShutdown = cleanShutdown;
-        this.queue = new LinkedBlockingQueue<>();
         this.user = user;
 
         parallelism = parseInt(ofNullable(properties.getProperty(PropertiesProvider.NLP_PARALLELISM_OPT)).orElse("1"));
-        forwarder = new NlpForwarder(dataBus, queue, subscribedCb);
+        checkQueueOptions(dataBus, properties);
+        this.queue = createQueue(properties, parallelism);
+        batchSize = parseInt(ofNullable(properties.getProperty(NLP_BATCH_SIZE_OPT)).orElse("1"));
+        batchMaxWaitMillis = parseLong(ofNullable(properties.getProperty(NLP_BATCH_MAX_WAIT_OPT)).orElse("100"));
+        reportSeconds = parseLong(ofNullable(properties.getProperty(NLP_REPORT_SECONDS_OPT)).orElse("60"));
+        if (parseBoolean(properties.getProperty(NLP_LANGUAGE_AFFINITY_OPT))) {
+            scheduler = new LanguageScheduler(LanguageScheduler.languageResolver(indexer), 2 * Math.max(ROUTER_BATCH_SIZE, parallelism * batchSize));
+            residentModels = residentModels(pipeline, properties, scheduler::hasPendingWork);
+            scheduler.withResidency(residentModels::isResident).withMaxWait(parseLong(ofNullable(properties.getProperty(NLP_LANGUAGE_MAX_WAIT_OPT))
+                    .orElse(String.valueOf(LanguageScheduler.DEFAULT_MAX_WAIT_MILLIS))));
+            consumerQueue = scheduler;
+        } else {
+            scheduler = null;
+            residentModels = null;
+            consumerQueue = queue;
+        }
+        resultStore = resultStore(properties);
+        sourceIncludes = sourceIncludes(pipeline, properties);
+        this.dataBus = dataBus;
+        forwarder = new NlpForwarder(dataBus, queue, subscribedCb, pipeline.getType().name());
     }
 
     public void run() {
@@ -73,10 +128,30 @@ public class NlpApp implements Runnable, Monitorable, UserTask {
             logger.info("running NlpApp for {} pipeline with {} thread(s)", pipeline.getType(), parallelism);
             this.threadPool = Executors.newFixedThreadPool(parallelism,
                     new ThreadFactoryBuilder().setNameFormat(pipeline.getType().name() + "-%d").build());
-            generate(() -> new NlpConsumer(pipeline, indexer, queue)).limit(parallelism).forEach(l -> threadPool.submit(l));
+            generate(() -> new NlpConsumer(pipeline, indexer, consumerQueue, batchSize, batchMaxWaitMillis, residentModels)
+                    .withResultStore(resultStore).withAcknowledgement(acknowledgement()).withRejection(rejection()).withSourceIncludes(sourceIncludes))
+                    .limit(parallelism).forEach(l -> threadPool.submit(l));
+            ExecutorService router = scheduler == null ? null : startRouter();
+            ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat(pipeline.getType().name() + "-report").setDaemon(true).build());
+            reporter.scheduleAtFixedRate(this::report, reportSeconds, reportSeconds, SECONDS);
             forwarder.call();
             logger.info("forwarder exited waiting for consumer(s) to finish");
             shutdown();
+            reporter.shutdownNow();
+            report();
+            if (router != null) {
+                router.shutdownNow();
+                residentModels.terminateIdle();
+                logger.info("{}", residentModels);
+            }
+            if (resultStore != null) {
+                logger.info("{}", resultStore);
+            }
+            if (queue instanceof SpillingMessageQueue) {
+                logger.info("{}", queue);
+                ((SpillingMessageQueue) queue).close();
+            }
         } catch (Throwable throwable) {
             logger.error("error running NlpApp", throwable);
         }
@@ -107,18 +182,167 @@ public class NlpApp implements Runnable, Monitorable, UserTask {
     }
 
     private void waitForQueueToBeEmpty() throws InterruptedException {
-        if (! queue.isEmpty()) {
-            synchronized (queue) {
-                queue.wait();
+        if (! consumerQueue.isEmpty()) {
+            synchronized (consumerQueue) {
+                consumerQueue.wait();
             }
         }
     }
 
+    /**
+     * @return the acknowledgement of the processed messages, for the data bus keeping the messages until they are processed
+     */
+    private Consumer<Message> acknowledgement() {
+        if (dataBus instanceof RedisStreamDataBus) {
+            String group = pipeline.getType().name();
+            return message -> ((RedisStreamDataBus) dataBus).ack(group, Channel.NLP, message);
+        }
+        return message -> {};
+    }
+
+    /**
+     * @return the rejection of the messages that cannot be processed, moved to the dead letter stream with a redis streams bus
+     */
+    private Consumer<Message> rejection() {
+        if (dataBus instanceof RedisStreamDataBus) {
+            String group = pipeline.getType().name();
+            return message -> ((RedisStreamDataBus) dataBus).deadLetter(group, Channel.NLP, message);
+        }
+        return message -> {};
+    }
+
+    /**
+     * starts the thread that takes the forwarded messages and routes them to the language queues
+     */
+    private ExecutorService startRouter() {
+        ExecutorService router = Executors.newSingleThreadExecutor(
+                new ThreadFactoryBuilder().setNameFormat(pipeline.getType().name() + "-router").setDaemon(true).build());
+        router.submit(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    Message message = queue.poll(1, SECONDS);
+                    if (message != null) {
+                        List<Message> messages = new ArrayList<>(ROUTER_BATCH_SIZE);
+                        messages.add(message);
+                        queue.drainTo(messages, ROUTER_BATCH_SIZE - 1);
+                        scheduler.route(messages);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (RuntimeException e) {
+                    logger.error("error routing messages", e);
+                }
+            }
+        });
+        router.shutdown();
+        return router;
+    }
+
+    private void report() {
+        logger.info("{} queue depth {}, spilled {}, consumer lag {}, model loads {} ({}ms), result store hits {}", pipeline.getType(),
+                getQueueDepth(), getSpilledCount(), getConsumerLag(), getModelLoadCount(), getModelLoadMillis(), getResultStoreHitCount());
+    }
+
     @Override
     public double getProgressRate() {
         return forwarder.getProgressRate();
     }
 
+    /**
+     * @return the number of messages waiting for the consumers (in memory and spilled)
+     */
+    public int getQueueDepth() {
+        return queue.size() + (scheduler == null ? 0 : scheduler.size());
+    }
+
+    /**
+     * @return the number of messages spilled to disk since the start, 0 if the queue is not bounded
+     */
+    public long getSpilledCount() {
+        return queue instanceof SpillingMessageQueue ? ((SpillingMessageQueue) queue).getTotalSpilled() : 0;
+    }
+
+    /**
+     * @return the number of messages forwarded but not yet taken by the consumers
+     */
+    public long getConsumerLag() {
+        return queue instanceof SpillingMessageQueue ? ((SpillingMessageQueue) queue).getConsumerLag() : queue.size();
+    }
+
+    /**
+     * @return the number of model loads, 0 if the language affinity is disabled
+     */
+    public long getModelLoadCount() {
+        return residentModels == null ? 0 : residentModels.getLoadCount();
+    }
+
+    /**
+     * @return the total time spent loading models, 0 if the language affinity is disabled
+     */
+    public long getModelLoadMillis() {
+        return residentModels == null ? 0 : residentModels.getLoadMillis();
+    }
+
+    /**
+     * @return the number of documents whose named entities were taken from the result store
+     */
+    public long getResultStoreHitCount() {
+        return resultStore == null ? 0 : resultStore.getHitCount();
+    }
+
+    /**
+     * @return the document fields fetched for the pipeline, or null to fetch the whole documents when nlpSourceFiltering is false
+     * or when the pipeline doesn't declare its fields
+     */
+    static String[] sourceIncludes(Pipeline pipeline, Properties properties) {
+        return parseBoolean(ofNullable(properties.getProperty(NLP_SOURCE_FILTERING_OPT)).orElse("true")) ?
+                NlpConsumer.sourceIncludes(pipeline) : null;
+    }
+
+    static ResidentModels residentModels(Pipeline pipeline, Properties properties, Predicate<Language> hasPendingWork) {
+        return new ResidentModels(pipeline,
+                parseLong(ofNullable(properties.getProperty(NLP_MODELS_MEMORY_MB_OPT)).orElse("0")) * 1024 * 1024,
+                parseLong(ofNullable(properties.getProperty(NLP_MODEL_SIZE_MB_OPT)).orElse("200")) * 1024 * 1024, hasPendingWork);
+    }
+
+    /**
+     * @return the store of the named entities of nerResultStoreDir, null if it is not set
+     */
+    static NerResultStore resultStore(Properties properties) {
+        return ofNullable(properties.getProperty(NER_RESULT_STORE_DIR_OPT)).map(dir -> new NerResultStore(Paths.get(dir),
+                parseLong(ofNullable(properties.getProperty(NER_RESULT_STORE_MAX_MB_OPT)).orElse("1024")) * 1024 * 1024, properties)).orElse(null);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the queue options don't fit the bus : the redis streams bus needs a bounded queue,
+     * and a bounded queue needs an unlimited spill with the redis pub/sub bus, whose subscribers cannot be back-pressured
+     * (redis disconnects a subscriber that doesn't read its messages when the client-output-buffer-limit is reached)
+     */
+    static void checkQueueOptions(DataBus dataBus, Properties properties) {
+        int capacity = parseInt(ofNullable(properties.getProperty(NLP_QUEUE_CAPACITY_OPT)).orElse("0"));
+        if (dataBus instanceof RedisStreamDataBus && capacity <= 0) {
+            throw new IllegalArgumentException(NLP_QUEUE_CAPACITY_OPT + " must be greater than 0 with the redis streams bus: " +
+                    "the messages read from the stream would wait in an unbounded queue until they are claimed by another node");
+        }
+        if (dataBus instanceof RedisDataBus && capacity > 0 && (properties.getProperty(NLP_QUEUE_SPILL_DIR_OPT) == null ||
+                parseLong(ofNullable(properties.getProperty(NLP_QUEUE_MAX_SPILL_OPT)).orElse("0")) > 0)) {
+            throw new IllegalArgumentException(NLP_QUEUE_CAPACITY_OPT + " needs " + NLP_QUEUE_SPILL_DIR_OPT + " without " +
+                    NLP_QUEUE_MAX_SPILL_OPT + " with the redis pub/sub bus: the subscriber cannot wait for the consumers " +
+                    "without being disconnected by redis");
+        }
+    }
+
+    static BlockingQueue<Message> createQueue(Properties properties, int parallelism) {
+        int capacity = parseInt(ofNullable(properties.getProperty(NLP_QUEUE_CAPACITY_OPT)).orElse("0"));
+        if (capacity <= 0) {
+            return new LinkedBlockingQueue<>();
+        }
+        capacity = Math.max(capacity, parallelism); // room for the shutdown messages
+        Path spillDir = ofNullable(properties.getProperty(NLP_QUEUE_SPILL_DIR_OPT)).map(Paths::get).orElse(null);
+        long maxSpilled = parseLong(ofNullable(properties.getProperty(NLP_QUEUE_MAX_SPILL_OPT)).orElse("0"));
+        return new SpillingMessageQueue(capacity, spillDir, maxSpilled);
+    }
+
     @Override
     public String toString() {
         return getClass().getName() + "[" + pipeline.getType() + "]@" + toHexString(hashCode());
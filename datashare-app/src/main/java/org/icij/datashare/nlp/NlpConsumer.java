@@ -3,35 +3,137 @@ package org.icij.datashare.nlp;
 import com.google.inject.Inject;
 import org.icij.datashare.com.Message;
 import org.icij.datashare.text.Document;
+import org.icij.datashare.text.Language;
 import org.icij.datashare.text.NamedEntity;
 import org.icij.datashare.text.indexing.Indexer;
+import org.icij.datashare.text.indexing.elasticsearch.ElasticsearchIndexer;
+import org.icij.datashare.text.indexing.elasticsearch.IdRouting;
 import org.icij.datashare.text.nlp.DatashareListener;
 import org.icij.datashare.text.nlp.Pipeline;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.util.List;
+import java.util.*;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
+import static java.util.Collections.singletonMap;
+import static java.util.stream.Collectors.groupingBy;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
 import static org.icij.datashare.com.Message.Field.*;
+import static org.icij.datashare.com.Message.Type.SHUTDOWN;
 
+/**
+ * takes the NLP messages from the queue and adds the named entities of the documents to the index.
+ *
+ * With a batch size greater than 1, the consumer takes up to batchSize messages (waiting at most
+ * batchMaxWaitMillis for the batch to fill), gets the documents together, runs the pipeline once
+ * per language and writes the named entities of the batch in one bulk. A document failing at any
+ * step is logged and skipped without failing the others.
+ *
+ * With a result store, the named entities of a content already processed by the same pipeline
+ * are taken from the store instead of running the pipeline again.
+ *
+ * With source includes, only these fields of the documents are fetched from the index (see {@link #sourceIncludes}).
+ *
+ * A message is acknowledged once the named entities of its document have been added to the index, or
+ * when its document is not in the index. The messages whose document cannot be processed are rejected,
+ * so that a data bus keeping the messages until they are processed can put them aside.
+ */
 public class NlpConsumer implements DatashareListener {
+    /**
+     * the fields needed to build a document, without the content and the metadata
+     */
+    static final String[] DOCUMENT_FIELDS = {"path", "dirname", "extractionDate", "extractionLevel", "contentLength",
+            "contentEncoding", "contentType", "parentDocument", "rootDocument", "language", "status", "nerTags", "tags"};
+    /**
+     * the fields needed by the pipelines of the other modules, that cannot implement {@link SourceFields}
+     */
+    private static final Map<Pipeline.Type, String[]> PIPELINE_FIELDS = singletonMap(Pipeline.Type.CORENLP, new String[] {"content"});
     private final Indexer indexer;
     private final BlockingQueue<Message> messageQueue;
     private final Pipeline nlpPipeline;
+    private final int batchSize;
+    private final long batchMaxWaitMillis;
+    private final ResidentModels residentModels;
+    private NerResultStore resultStore = null;
+    private Consumer<Message> acknowledgement = message -> {};
+    private Consumer<Message> rejection = message -> {};
+    private String[] sourceIncludes = null;
     private final Logger logger = LoggerFactory.getLogger(getClass());
 
     @Inject
     public NlpConsumer(Pipeline pipeline, Indexer indexer, BlockingQueue<Message> messageQueue) {
+        this(pipeline, indexer, messageQueue, 1, 0);
+    }
+
+    public NlpConsumer(Pipeline pipeline, Indexer indexer, BlockingQueue<Message> messageQueue, int batchSize, long batchMaxWaitMillis) {
+        this(pipeline, indexer, messageQueue, batchSize, batchMaxWaitMillis, null);
+    }
+
+    /**
+     * @param residentModels loads and unloads the models instead of the pipeline, null to use the pipeline
+     */
+    public NlpConsumer(Pipeline pipeline, Indexer indexer, BlockingQueue<Message> messageQueue, int batchSize, long batchMaxWaitMillis,
+                       ResidentModels residentModels) {
+        this.residentModels = residentModels;
         this.indexer = indexer;
         this.messageQueue = messageQueue;
         this.nlpPipeline = pipeline;
+        this.batchSize = batchSize;
+        this.batchMaxWaitMillis = batchMaxWaitMillis;
+    }
+
+    public NlpConsumer withResultStore(NerResultStore resultStore) {
+        this.resultStore = resultStore;
+        return this;
+    }
+
+    public NlpConsumer withAcknowledgement(Consumer<Message> acknowledgement) {
+        this.acknowledgement = acknowledgement;
+        return this;
+    }
+
+    /**
+     * @param rejection called with the messages whose named entities could not be added to the index
+     */
+    public NlpConsumer withRejection(Consumer<Message> rejection) {
+        this.rejection = rejection;
+        return this;
+    }
+
+    /**
+     * @param sourceIncludes the document fields fetched from the index, null for the whole document
+     */
+    public NlpConsumer withSourceIncludes(String[] sourceIncludes) {
+        this.sourceIncludes = sourceIncludes;
+        return this;
+    }
+
+    /**
+     * @return the document fields needed by a {@link SourceFields} pipeline or a pipeline of {@link #PIPELINE_FIELDS}
+     * with the fields needed to build the document, or null to fetch the whole document for the other pipelines
+     * (that can read any metadata)
+     */
+    static String[] sourceIncludes(Pipeline pipeline) {
+        String[] pipelineFields = pipeline instanceof SourceFields ?
+                ((SourceFields) pipeline).getSourceFields() : PIPELINE_FIELDS.get(pipeline.getType());
+        if (pipelineFields == null) {
+            return null;
+        }
+        String[] includes = Arrays.copyOf(DOCUMENT_FIELDS, DOCUMENT_FIELDS.length + pipelineFields.length);
+        System.arraycopy(pipelineFields, 0, includes, DOCUMENT_FIELDS.length, pipelineFields.length);
+        return includes;
     }
 
     @Override
     public Integer call() {
+        if (batchSize > 1) {
+            return callBatch();
+        }
         boolean exitAsked = false;
         int nbMessages = 0;
         while (! exitAsked) {
@@ -40,7 +142,7 @@ public class NlpConsumer implements DatashareListener {
                 if (message != null) {
                     switch (message.type) {
                         case EXTRACT_NLP:
-                            findNamedEntities(message.content.get(INDEX_NAME), message.content.get(DOC_ID), message.content.get(R_ID));
+                            findNamedEntities(message);
                             nbMessages++;
                             break;
                         case SHUTDOWN:
@@ -64,22 +166,340 @@ public class NlpConsumer implements DatashareListener {
         return nbMessages;
     }
 
-    void findNamedEntities(final String projectName, final String id, final String routing) throws InterruptedException {
-        try {
-            Document doc = indexer.get(projectName, id, routing);
-            if (doc != null) {
-                logger.info("extracting {} entities for document {}", nlpPipeline.getType(), doc.getId());
-                if (nlpPipeline.initialize(doc.getLanguage())) {
-                    List<NamedEntity> namedEntities = nlpPipeline.process(doc);
-                    indexer.bulkAdd(projectName, nlpPipeline.getType(), namedEntities, doc);
-                    logger.info("added {} named entities to document {}", namedEntities.size(), doc.getId());
-                    nlpPipeline.terminate(doc.getLanguage());
+    private Integer callBatch() {
+        boolean exitAsked = false;
+        int nbMessages = 0;
+        while (! exitAsked) {
+            try {
+                Message first = messageQueue.poll(30, TimeUnit.SECONDS);
+                if (first != null) {
+                    List<Message> batch = new ArrayList<>(batchSize);
+                    batch.add(first);
+                    long deadline = System.currentTimeMillis() + batchMaxWaitMillis;
+                    while (batch.size() < batchSize && first.type != SHUTDOWN) {
+                        Message message = messageQueue.poll(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                        if (message == null) {
+                            break;
+                        }
+                        batch.add(message);
+                        if (message.type == SHUTDOWN) {
+                            break;
+                        }
+                    }
+                    List<Message> extractMessages = new ArrayList<>(batch.size());
+                    for (Message message : batch) {
+                        switch (message.type) {
+                            case EXTRACT_NLP:
+                                extractMessages.add(message);
+                                break;
+                            case SHUTDOWN:
+                                exitAsked = true;
+                                break;
+                            default:
+                                logger.info("ignore {}", message);
+                        }
+                    }
+                    findNamedEntities(extractMessages);
+                    nbMessages += extractMessages.size();
+                    synchronized (messageQueue) {
+                        if (messageQueue.isEmpty()) {
+                            logger.debug("queue is empty notifying messageQueue {}", messageQueue.hashCode());
+                            messageQueue.notify();
+                        }
+                    }
+                }
+            } catch (Throwable e) {
+                logger.warn("error in consumer main loop", e);
+            }
+        }
+        logger.info("exiting main loop");
+        return nbMessages;
+    }
+
+    /**
+     * processes EXTRACT_NLP messages outside of the consumer loop, for the {@link NlpEngine} tasks
+     */
+    void consume(List<Message> messages) throws InterruptedException {
+        if (messages.size() == 1) {
+            findNamedEntities(messages.get(0));
+        } else {
+            findNamedEntities(messages);
+        }
+    }
+
+    void findNamedEntities(List<Message> messages) throws InterruptedException {
+        Map<String, List<Message>> messagesByProject = messages.stream().collect(groupingBy(m -> m.content.get(INDEX_NAME), LinkedHashMap::new, toList()));
+        for (Map.Entry<String, List<Message>> projectMessages : messagesByProject.entrySet()) {
+            String projectName = projectMessages.getKey();
+            Set<String> missingIds = new HashSet<>();
+            Map<Language, List<Document>> docsByLanguage = getDocuments(projectName, projectMessages.getValue(), missingIds).stream()
+                    .filter(this::hasLanguage).collect(groupingBy(Document::getLanguage, LinkedHashMap::new, toList()));
+
+            Map<Document, List<NamedEntity>> namedEntities = new LinkedHashMap<>();
+            for (Map.Entry<Language, List<Document>> languageDocs : docsByLanguage.entrySet()) {
+                List<Document> toProcess = new ArrayList<>(languageDocs.getValue().size());
+                for (Document doc : languageDocs.getValue()) {
+                    List<NamedEntity> storedEntities = getStoredEntities(doc);
+                    if (storedEntities != null) {
+                        namedEntities.put(doc, storedEntities);
+                    } else {
+                        toProcess.add(doc);
+                    }
+                }
+                if (!toProcess.isEmpty() && initialize(languageDocs.getKey())) {
+                    try {
+                        for (Document doc : toProcess) {
+                            try {
+                                logger.info("extracting {} entities for document {}", nlpPipeline.getType(), doc.getId());
+                                namedEntities.put(doc, process(doc));
+                            } catch (RuntimeException e) {
+                                logger.error("cannot extract entities of doc " + doc.getId(), e);
+                            }
+                        }
+                    } finally {
+                        terminate(languageDocs.getKey());
+                    }
+                }
+            }
+            Set<String> addedIds = namedEntities.keySet().stream().map(Document::getId).collect(toSet());
+            addedIds.removeAll(addNamedEntities(projectName, namedEntities));
+            for (Message message : projectMessages.getValue()) {
+                String id = message.content.get(DOC_ID);
+                if (addedIds.contains(id) || missingIds.contains(id)) {
+                    acknowledge(message);
+                } else {
+                    reject(message);
+                }
+            }
+        }
+    }
+
+    /**
+     * the documents without language are not processed, so that their messages are rejected
+     */
+    private boolean hasLanguage(Document doc) {
+        if (doc.getLanguage() == null) {
+            logger.error("no language for doc {}, it is not processed", doc.getId());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param missingIds filled with the ids of the documents that are not in the index
+     */
+    private List<Document> getDocuments(String projectName, List<Message> messages, Set<String> missingIds) {
+        if (indexer instanceof ElasticsearchIndexer) {
+            try {
+                List<Document> docs = ((ElasticsearchIndexer) indexer).get(projectName, messages.stream()
+                        .map(m -> new IdRouting(m.content.get(DOC_ID), m.content.get(R_ID))).collect(toList()), sourceIncludes, null);
+                for (int i = 0; i < docs.size(); i++) {
+                    if (docs.get(i) == null) {
+                        logger.warn("no document found in index with id " + messages.get(i).content.get(DOC_ID));
+                        missingIds.add(messages.get(i).content.get(DOC_ID));
+                    }
                 }
-            } else {
-                logger.warn("no document found in index with id " + id);
+                return docs.stream().filter(Objects::nonNull).collect(toList());
+            } catch (IOException | RuntimeException e) {
+                logger.warn("cannot get the documents of the batch, getting them one by one", e);
             }
+        }
+        List<Document> docs = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            String id = message.content.get(DOC_ID);
+            try {
+                Document doc = getDocument(projectName, id, message.content.get(R_ID));
+                if (doc != null) {
+                    docs.add(doc);
+                } else {
+                    logger.warn("no document found in index with id " + id);
+                    missingIds.add(id);
+                }
+            } catch (RuntimeException e) {
+                logger.error("cannot get doc " + id, e);
+            }
+        }
+        return docs;
+    }
+
+    /**
+     * @return the ids of the documents whose named entities could not be added
+     */
+    private Set<String> addNamedEntities(String projectName, Map<Document, List<NamedEntity>> namedEntities) {
+        if (!(indexer instanceof ElasticsearchIndexer)) {
+            return addNamedEntitiesOneByOne(projectName, namedEntities);
+        }
+        ElasticsearchIndexer esIndexer = (ElasticsearchIndexer) indexer;
+        Set<String> failedIds;
+        try {
+            failedIds = esIndexer.bulkAdd(projectName, nlpPipeline.getType(), namedEntities);
         } catch (IOException e) {
-            logger.error("cannot extract entities of doc " + id, e);
+            logger.warn("cannot add named entities of the batch, adding them one by one", e);
+            return addNamedEntitiesOneByOne(projectName, namedEntities);
+        }
+        if (!failedIds.isEmpty()) {
+            logger.warn("failed to add named entities to {} document(s), retrying", failedIds.size());
+            Set<String> retryIds = failedIds;
+            Map<Document, List<NamedEntity>> failed = new LinkedHashMap<>();
+            namedEntities.forEach((doc, entities) -> { if (retryIds.contains(doc.getId())) failed.put(doc, entities);});
+            try {
+                failedIds = esIndexer.bulkAdd(projectName, nlpPipeline.getType(), failed);
+            } catch (IOException e) {
+                logger.warn("cannot retry the failed documents of the batch, adding them one by one", e);
+                return addNamedEntitiesOneByOne(projectName, failed);
+            }
+            failedIds.forEach(id -> logger.error("cannot add named entities to document {}", id));
+        }
+        if (failedIds.isEmpty()) {
+            logger.info("added named entities to {} document(s)", namedEntities.size());
+        } else {
+            logger.warn("added named entities to {} document(s), {} failed", namedEntities.size() - failedIds.size(), failedIds.size());
+        }
+        return failedIds;
+    }
+
+    private Set<String> addNamedEntitiesOneByOne(String projectName, Map<Document, List<NamedEntity>> namedEntities) {
+        Set<String> failedIds = new HashSet<>();
+        for (Map.Entry<Document, List<NamedEntity>> docEntities : namedEntities.entrySet()) {
+            if (!addNamedEntities(projectName, docEntities.getKey(), docEntities.getValue())) {
+                failedIds.add(docEntities.getKey().getId());
+            }
+        }
+        return failedIds;
+    }
+
+    private boolean addNamedEntities(String projectName, Document doc, List<NamedEntity> namedEntities) {
+        try {
+            if (!indexer.bulkAdd(projectName, nlpPipeline.getType(), namedEntities, doc)) {
+                logger.warn("failed to add named entities to document {}, retrying", doc.getId());
+                if (!indexer.bulkAdd(projectName, nlpPipeline.getType(), namedEntities, doc)) {
+                    logger.error("cannot add named entities to document {}", doc.getId());
+                    return false;
+                }
+            }
+            logger.info("added {} named entities to document {}", namedEntities.size(), doc.getId());
+            return true;
+        } catch (IOException | RuntimeException e) {
+            logger.error("cannot add named entities to document " + doc.getId(), e);
+            return false;
+        }
+    }
+
+    /**
+     * @return true if the named entities of the document have been added to the index
+     */
+    boolean findNamedEntities(final String projectName, final String id, final String routing) throws InterruptedException {
+        Document doc = getDocument(projectName, id, routing);
+        if (doc == null) {
+            logger.warn("no document found in index with id " + id);
+            return false;
+        }
+        return findNamedEntities(projectName, doc);
+    }
+
+    /**
+     * acknowledges the message if the named entities of its document have been added or if the document is not
+     * in the index, rejects it otherwise
+     */
+    private void findNamedEntities(Message message) throws InterruptedException {
+        String projectName = message.content.get(INDEX_NAME);
+        String id = message.content.get(DOC_ID);
+        Document doc;
+        try {
+            doc = getDocument(projectName, id, message.content.get(R_ID));
+        } catch (RuntimeException e) {
+            logger.error("cannot get doc " + id, e);
+            reject(message);
+            return;
+        }
+        if (doc == null) {
+            logger.warn("no document found in index with id " + id);
+            acknowledge(message);
+        } else if (findNamedEntities(projectName, doc)) {
+            acknowledge(message);
+        } else {
+            reject(message);
+        }
+    }
+
+    private boolean findNamedEntities(String projectName, Document doc) throws InterruptedException {
+        List<NamedEntity> storedEntities = getStoredEntities(doc);
+        if (storedEntities != null) {
+            return addNamedEntities(projectName, doc, storedEntities);
+        }
+        logger.info("extracting {} entities for document {}", nlpPipeline.getType(), doc.getId());
+        if (initialize(doc.getLanguage())) {
+            try {
+                List<NamedEntity> namedEntities = process(doc);
+                return addNamedEntities(projectName, doc, namedEntities);
+            } catch (RuntimeException e) {
+                logger.error("cannot extract entities of doc " + doc.getId(), e);
+                return false;
+            } finally {
+                terminate(doc.getLanguage());
+            }
+        }
+        return false;
+    }
+
+    private Document getDocument(String projectName, String id, String routing) {
+        if (sourceIncludes != null && indexer instanceof ElasticsearchIndexer) {
+            return ((ElasticsearchIndexer) indexer).get(projectName, id, routing, sourceIncludes);
+        }
+        return indexer.get(projectName, id, routing);
+    }
+
+    private void acknowledge(Message message) {
+        try {
+            acknowledgement.accept(message);
+        } catch (RuntimeException e) {
+            logger.error("cannot acknowledge message " + message, e);
+        }
+    }
+
+    private void reject(Message message) {
+        try {
+            rejection.accept(message);
+        } catch (RuntimeException e) {
+            logger.error("cannot reject message " + message, e);
+        }
+    }
+
+    private List<NamedEntity> process(Document doc) {
+        List<NamedEntity> namedEntities = nlpPipeline.process(doc);
+        if (useResultStore()) {
+            resultStore.put(nlpPipeline, doc, namedEntities);
+        }
+        return namedEntities;
+    }
+
+    private List<NamedEntity> getStoredEntities(Document doc) {
+        if (!useResultStore()) {
+            return null;
+        }
+        List<NamedEntity> namedEntities = resultStore.get(nlpPipeline, doc);
+        if (namedEntities != null) {
+            logger.info("found {} stored {} entities for document {}", namedEntities.size(), nlpPipeline.getType(), doc.getId());
+        }
+        return namedEntities;
+    }
+
+    /**
+     * the email pipeline entities come from the metadata and not from the content, so they are not stored
+     */
+    private boolean useResultStore() {
+        return resultStore != null && nlpPipeline.getType() != Pipeline.Type.EMAIL;
+    }
+
+    private boolean initialize(Language language) throws InterruptedException {
+        return residentModels == null ? nlpPipeline.initialize(language) : residentModels.initialize(language);
+    }
+
+    private void terminate(Language language) throws InterruptedException {
+        if (residentModels == null) {
+            nlpPipeline.terminate(language);
+        } else {
+            residentModels.terminate(language);
         }
     }
 }
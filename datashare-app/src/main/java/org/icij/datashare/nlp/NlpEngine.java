@@ -0,0 +1,332 @@
+package org.icij.datashare.nlp;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.assistedinject.Assisted;
+import com.google.inject.assistedinject.AssistedInject;
+import org.icij.datashare.PropertiesProvider;
+import org.icij.datashare.com.Channel;
+import org.icij.datashare.com.DataBus;
+import org.icij.datashare.com.Message;
+import org.icij.datashare.com.RedisStreamDataBus;
+import org.icij.datashare.monitoring.Monitorable;
+import org.icij.datashare.text.indexing.Indexer;
+import org.icij.datashare.text.nlp.Pipeline;
+import org.icij.datashare.user.User;
+import org.icij.datashare.user.UserTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.lang.Boolean.parseBoolean;
+import static java.lang.Integer.parseInt;
+import static java.lang.Long.parseLong;
+import static java.lang.Integer.toHexString;
+import static java.util.Optional.ofNullable;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toMap;
+import static org.icij.datashare.PropertiesProvider.NLP_PARALLELISM_OPT;
+
+/**
+ * runs several NLP pipelines on one pool of nlpParallelism threads, instead of one {@link NlpApp}
+ * (and one thread pool) per pipeline.
+ *
+ * Each pipeline has its own forwarder subscription and queue. A dispatcher submits the messages to a
+ * work-stealing {@link ForkJoinPool}, taking them from the pipeline with a ready batch (batchSize messages,
+ * or messages waiting for nlpBatchMaxWaitMs) that has the lowest number of dispatched messages divided by
+ * its weight, and skipping the pipelines already running their max concurrency. A pipeline without messages
+ * doesn't hold any thread.
+ *
+ * Weights (default 1) and max concurrencies (default nlpParallelism) are read from nlpPipelineWeights
+ * and nlpPipelineMaxConcurrency, for example "CORENLP:3,EMAIL:1".
+ *
+ * The other NLP options are the ones of {@link NlpApp} : the queues are bounded and spilled with nlpQueueCapacity
+ * and nlpQueueSpillDir, the entities are stored with nerResultStoreDir, and the models are kept with
+ * nlpLanguageAffinity and nlpModelsMemoryMb (without the language routing of {@link LanguageScheduler} :
+ * the batches are grouped by language by the consumers).
+ *
+ * With a {@link RedisStreamDataBus}, a pipeline reads the messages in the consumer group of the {@link NlpApp}
+ * of the same pipeline, so that engines and apps can run together without processing a message twice. A message
+ * is acknowledged in the group of a pipeline when its named entities are added, and moved to the dead letter
+ * stream when they cannot be.
+ */
+public class NlpEngine implements Runnable, Monitorable, UserTask {
+    static final String NLP_PIPELINE_WEIGHTS_OPT = "nlpPipelineWeights";
+    static final String NLP_PIPELINE_MAX_CONCURRENCY_OPT = "nlpPipelineMaxConcurrency";
+    private static final long DISPATCH_WAIT_MILLIS = 10;
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final DataBus dataBus;
+    private final List<Lane> lanes;
+    private final int parallelism;
+    private final int batchSize;
+    private final long batchMaxWaitMillis;
+    private final String name;
+    private final NerResultStore resultStore;
+    private final User user;
+    private final Object lock = new Object();
+    private int inFlight = 0;
+    private boolean draining = false;
+
+    @AssistedInject
+    public NlpEngine(final DataBus dataBus, final Indexer indexer, final PropertiesProvider propertiesProvider,
+                     @Assisted final User user, @Assisted final List<Pipeline> pipelines) {
+        this(dataBus, indexer, pipelines, propertiesProvider.getProperties(), () -> {}, user);
+    }
+
+    NlpEngine(final DataBus dataBus, final Indexer indexer, final List<Pipeline> pipelines, final Properties properties,
+              Runnable subscribedCb, User user) {
+        this.dataBus = dataBus;
+        this.user = user;
+        parallelism = parseInt(ofNullable(properties.getProperty(NLP_PARALLELISM_OPT)).orElse("1"));
+        NlpApp.checkQueueOptions(dataBus, properties);
+        batchSize = parseInt(ofNullable(properties.getProperty(NlpApp.NLP_BATCH_SIZE_OPT)).orElse("1"));
+        batchMaxWaitMillis = parseLong(ofNullable(properties.getProperty(NlpApp.NLP_BATCH_MAX_WAIT_OPT)).orElse("100"));
+        Map<Pipeline.Type, Integer> weights = parsePipelineValues(properties.getProperty(NLP_PIPELINE_WEIGHTS_OPT));
+        Map<Pipeline.Type, Integer> maxConcurrencies = parsePipelineValues(properties.getProperty(NLP_PIPELINE_MAX_CONCURRENCY_OPT));
+        resultStore = NlpApp.resultStore(properties);
+        AtomicInteger subscriptions = new AtomicInteger(pipelines.size());
+        Runnable laneSubscribedCb = () -> {
+            if (subscriptions.decrementAndGet() == 0) {
+                subscribedCb.run();
+            }
+        };
+
+        lanes = pipelines.stream().map(pipeline -> new Lane(pipeline, indexer, properties, laneSubscribedCb,
+                Math.max(1, weights.getOrDefault(pipeline.getType(), 1)),
+                Math.max(1, maxConcurrencies.getOrDefault(pipeline.getType(), parallelism)))).collect(toList());
+        name = lanes.stream().map(lane -> lane.type.name()).sorted().collect(joining("+"));
+    }
+
+    @Override
+    public void run() {
+        ForkJoinPool pool = new ForkJoinPool(parallelism, forkJoinPool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setName("nlp-engine-" + thread.getPoolIndex());
+            return thread;
+        }, null, true);
+        Thread dispatcher = new Thread(() -> dispatch(pool), "nlp-engine-dispatcher");
+        dispatcher.setDaemon(true);
+        ExecutorService forwarders = Executors.newFixedThreadPool(lanes.size(),
+                new ThreadFactoryBuilder().setNameFormat("nlp-engine-forwarder-%d").setDaemon(true).build());
+        try {
+            logger.info("running NlpEngine for {} with {} thread(s)", lanes, parallelism);
+            dispatcher.start();
+            List<Future<Integer>> subscriptions = forwarders.invokeAll(lanes.stream().map(lane -> lane.forwarder).collect(toList()));
+            for (Future<Integer> subscription : subscriptions) {
+                subscription.get();
+            }
+            logger.info("forwarders exited waiting for the pipelines to finish");
+            waitForLanesToBeEmpty();
+        } catch (Throwable throwable) {
+            logger.error("error running NlpEngine", throwable);
+        } finally {
+            forwarders.shutdownNow();
+            dispatcher.interrupt();
+            pool.shutdown();
+            try {
+                pool.awaitTermination(1, MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            for (Lane lane : lanes) {
+                lane.close();
+            }
+        }
+        if (resultStore != null) {
+            logger.info("{}", resultStore);
+        }
+        logger.info("exiting run : {}", lanes);
+    }
+
+    /**
+     * @return the progress of the slowest pipeline
+     */
+    @Override
+    public double getProgressRate() {
+        return lanes.stream().mapToDouble(lane -> lane.forwarder.getProgressRate()).min().orElse(-1);
+    }
+
+    /**
+     * @return the number of messages processed by each pipeline
+     */
+    public Map<Pipeline.Type, Long> getProcessedCounts() {
+        synchronized (lock) {
+            return lanes.stream().collect(toMap(lane -> lane.type, lane -> lane.processed));
+        }
+    }
+
+    @Override
+    public User getUser() {
+        return user;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName() + "[" + name + "]@" + toHexString(hashCode());
+    }
+
+    private void dispatch(ForkJoinPool pool) {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Lane lane;
+                List<Message> messages = new ArrayList<>(batchSize);
+                synchronized (lock) {
+                    while (inFlight >= parallelism || (lane = nextLane()) == null) {
+                        lock.wait(DISPATCH_WAIT_MILLIS);
+                    }
+                    lane.queue.drainTo(messages, batchSize);
+                    inFlight++;
+                    lane.running++;
+                    lane.dispatched += messages.size();
+                    lane.waitingSince = lane.queue.isEmpty() ? 0 : System.currentTimeMillis();
+                }
+                final Lane dispatchedLane = lane;
+                pool.execute(() -> consume(dispatchedLane, messages));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void consume(Lane lane, List<Message> messages) {
+        try {
+            lane.consumer.consume(messages);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            logger.error("error processing {} message(s) with {}", messages.size(), lane.type, e);
+            messages.forEach(lane::reject);
+        } finally {
+            synchronized (lock) {
+                inFlight--;
+                lane.running--;
+                lane.processed += messages.size();
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * must be called with the lock held
+     *
+     * @return the lane with a ready batch and free concurrency that has dispatched the fewest messages for its weight, or null
+     */
+    private Lane nextLane() {
+        Lane next = null;
+        long now = System.currentTimeMillis();
+        for (Lane lane : lanes) {
+            if (isBatchReady(lane, now) && lane.running < lane.maxConcurrency &&
+                    (next == null || lane.dispatched * next.weight < next.dispatched * lane.weight)) {
+                next = lane;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * must be called with the lock held
+     */
+    private boolean isBatchReady(Lane lane, long now) {
+        if (lane.queue.isEmpty()) {
+            return false;
+        }
+        if (lane.waitingSince == 0) {
+            lane.waitingSince = now;
+        }
+        return draining || lane.queue.size() >= batchSize || now - lane.waitingSince >= batchMaxWaitMillis;
+    }
+
+    private void waitForLanesToBeEmpty() throws InterruptedException {
+        synchronized (lock) {
+            draining = true;
+            while (inFlight > 0 || lanes.stream().anyMatch(lane -> !lane.queue.isEmpty())) {
+                lock.wait(DISPATCH_WAIT_MILLIS);
+            }
+        }
+    }
+
+    static Map<Pipeline.Type, Integer> parsePipelineValues(String pipelineValues) {
+        Map<Pipeline.Type, Integer> values = new EnumMap<>(Pipeline.Type.class);
+        if (pipelineValues != null && !pipelineValues.trim().isEmpty()) {
+            for (String pipelineValue : pipelineValues.split(",")) {
+                String[] typeAndValue = pipelineValue.split(":");
+                if (typeAndValue.length != 2) {
+                    throw new IllegalArgumentException("invalid pipeline value " + pipelineValue + " (expected TYPE:value)");
+                }
+                values.put(Pipeline.Type.valueOf(typeAndValue[0].trim().toUpperCase()), parseInt(typeAndValue[1].trim()));
+            }
+        }
+        return values;
+    }
+
+    private class Lane {
+        final NlpConsumer consumer;
+        final Pipeline.Type type;
+        final BlockingQueue<Message> queue;
+        final NlpForwarder forwarder;
+        final ResidentModels residentModels;
+        final int weight;
+        final int maxConcurrency;
+        int running = 0;
+        long dispatched = 0;
+        long processed = 0;
+        long waitingSince = 0;
+
+        Lane(Pipeline pipeline, Indexer indexer, Properties properties, Runnable subscribedCb, int weight, int maxConcurrency) {
+            this.type = pipeline.getType();
+            this.queue = NlpApp.createQueue(properties, parallelism);
+            this.residentModels = parseBoolean(properties.getProperty(NlpApp.NLP_LANGUAGE_AFFINITY_OPT)) ?
+                    NlpApp.residentModels(pipeline, properties, language -> !queue.isEmpty()) : null;
+            this.consumer = new NlpConsumer(pipeline, indexer, null, batchSize, 0, residentModels)
+                    .withResultStore(resultStore).withAcknowledgement(this::acknowledge).withRejection(this::reject)
+                    .withSourceIncludes(NlpApp.sourceIncludes(pipeline, properties));
+            this.forwarder = new NlpForwarder(dataBus, queue, subscribedCb, type.name());
+            this.weight = weight;
+            this.maxConcurrency = maxConcurrency;
+        }
+
+        void acknowledge(Message message) {
+            if (dataBus instanceof RedisStreamDataBus) {
+                ((RedisStreamDataBus) dataBus).ack(type.name(), Channel.NLP, message);
+            }
+        }
+
+        void reject(Message message) {
+            if (dataBus instanceof RedisStreamDataBus) {
+                ((RedisStreamDataBus) dataBus).deadLetter(type.name(), Channel.NLP, message);
+            }
+        }
+
+        void close() {
+            try {
+                if (residentModels != null) {
+                    residentModels.terminateIdle();
+                    logger.info("{}", residentModels);
+                }
+                if (queue instanceof SpillingMessageQueue) {
+                    logger.info("{}", queue);
+                    ((SpillingMessageQueue) queue).close();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                logger.error("error closing {}", type, e);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return type + "{weight=" + weight + ", maxConcurrency=" + maxConcurrency + ", processed=" + processed + "}";
+        }
+    }
+}
@@ -3,6 +3,8 @@ package org.icij.datashare.nlp;
 import org.icij.datashare.com.Channel;
 import org.icij.datashare.com.DataBus;
 import org.icij.datashare.com.Message;
+import org.icij.datashare.com.RedisDataBus;
+import org.icij.datashare.com.RedisStreamDataBus;
 import org.icij.datashare.monitoring.Monitorable;
 import org.icij.datashare.text.nlp.DatashareListener;
 import org.slf4j.Logger;
@@ -15,22 +17,43 @@ import static java.lang.Long.parseLong;
 import static org.icij.datashare.com.Message.Type.EXTRACT_NLP;
 import static org.icij.datashare.com.Message.Type.INIT_MONITORING;
 
+/**
+ * forwards the NLP messages of the bus to the queue of the consumers.
+ *
+ * When the queue is full, the forwarder waits for the consumers, so the bus is back-pressured. With the redis pub/sub
+ * {@link RedisDataBus} the messages are pushed to the subscriber that cannot wait : the queue has to spill without limit
+ * (see {@link NlpApp#checkQueueOptions}), otherwise the messages that don't fit are dropped.
+ */
 public class NlpForwarder implements DatashareListener,Monitorable {
     private final DataBus dataBus;
     private final BlockingQueue<Message> messageQueue;
     private final Runnable subscribedCallback;
+    private final String group;
+    private final boolean backPressure;
     private final Logger logger = LoggerFactory.getLogger(getClass());
     private final AtomicLong totalToProcess = new AtomicLong(0);
     private final AtomicLong processed = new AtomicLong(0);
 
     NlpForwarder(DataBus dataBus, BlockingQueue<Message> messageQueue, Runnable subscribedCallback) {
+        this(dataBus, messageQueue, subscribedCallback, null);
+    }
+
+    /**
+     * @param group the consumer group of a {@link RedisStreamDataBus} : the forwarders of the same group share the messages
+     */
+    NlpForwarder(DataBus dataBus, BlockingQueue<Message> messageQueue, Runnable subscribedCallback, String group) {
         this.dataBus = dataBus;
         this.messageQueue = messageQueue;
         this.subscribedCallback = subscribedCallback;
+        this.group = group;
+        this.backPressure = !(dataBus instanceof RedisDataBus);
     }
 
     @Override
     public Integer call() throws InterruptedException {
+        if (group != null && dataBus instanceof RedisStreamDataBus) {
+            return ((RedisStreamDataBus) dataBus).subscribe(group, this::onMessage, subscribedCallback, Channel.NLP);
+        }
         return dataBus.subscribe(this::onMessage, subscribedCallback, Channel.NLP);
     }
 
@@ -44,8 +67,18 @@ public class NlpForwarder implements DatashareListener,Monitorable {
             logger.debug("forwarding message {} to message queue", message);
             if (messageQueue.offer(message)) {
                 processed.incrementAndGet();
+            } else if (!backPressure) {
+                // the redis pub/sub subscriber cannot wait : redis would disconnect it at its client-output-buffer-limit
+                logger.error("message queue is full, message {} is dropped", message);
             } else {
-                logger.warn("cannot offer message {} to queue, it must be reprocessed later", message);
+                logger.debug("message queue is full, waiting for the consumers");
+                try {
+                    messageQueue.put(message); // back-pressure : the bus is not read while the queue is full
+                    processed.incrementAndGet();
+                } catch (InterruptedException e) {
+                    logger.warn("interrupted while waiting to forward message {}, it must be reprocessed later", message);
+                    Thread.currentThread().interrupt();
+                }
             }
         }
     }
@@ -11,19 +11,102 @@ import org.icij.datashare.text.Language;
 import org.icij.datashare.text.indexing.LanguageGuesser;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
+import static java.lang.Math.min;
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * guesses the language of a text with optimaize language detector.
+ *
+ * For large texts, the detection is made on a sample of evenly distributed windows
+ * of the text instead of the whole content : detection cost is bounded by
+ * nbWindows * windowSize characters.
+ *
+ * The detector and the text object factory are thread safe and shared by all callers.
+ */
 public class OptimaizeLanguageGuesser implements LanguageGuesser {
+    static final int DEFAULT_NB_WINDOWS = 8;
+    static final int DEFAULT_WINDOW_SIZE = 2048;
+    private static final LdLocale DEFAULT_LOCALE = LdLocale.fromString("en");
     private final LanguageDetector languageDetector;
+    private final TextObjectFactory textObjectFactory = CommonTextObjectFactories.forDetectingOnLargeText();
+    private final int nbWindows;
+    private final int windowSize;
 
     public OptimaizeLanguageGuesser() throws IOException {
+        this(DEFAULT_NB_WINDOWS, DEFAULT_WINDOW_SIZE);
+    }
+
+    OptimaizeLanguageGuesser(int nbWindows, int windowSize) throws IOException {
         this.languageDetector = LanguageDetectorBuilder.create(NgramExtractors.standard())
                         .withProfiles(new LanguageProfileReader().readAllBuiltIn())
                         .build();
+        this.nbWindows = nbWindows;
+        this.windowSize = windowSize;
     }
 
     @Override
     public Language guess(String text) {
-        TextObjectFactory textObjectFactory = CommonTextObjectFactories.forDetectingOnLargeText();
-        return Language.parse(languageDetector.detect(textObjectFactory.forText(text)).or(LdLocale.fromString("en")).getLanguage());
+        return detect(sample(text));
+    }
+
+    /**
+     * guesses the language of each sample window of the text. It can be used
+     * to find out if a document contains several languages.
+     */
+    public List<Language> guessWindows(String text) {
+        return windows(text).stream().map(this::detect).collect(toList());
+    }
+
+    Language guessFullText(String text) {
+        return detect(text);
+    }
+
+    private Language detect(CharSequence text) {
+        return Language.parse(languageDetector.detect(textObjectFactory.forText(text)).or(DEFAULT_LOCALE).getLanguage());
+    }
+
+    CharSequence sample(String text) {
+        if (text.length() <= nbWindows * windowSize) {
+            return text;
+        }
+        StringBuilder sample = new StringBuilder(nbWindows * (windowSize + 1));
+        for (CharSequence window : windows(text)) {
+            sample.append(window).append(' ');
+        }
+        return sample;
+    }
+
+    List<CharSequence> windows(String text) {
+        if (text.length() <= windowSize) {
+            return singletonList(text);
+        }
+        int nbSamples = min(nbWindows, (text.length() + windowSize - 1) / windowSize);
+        long step = nbSamples == 1 ? 0 : (text.length() - windowSize) / (nbSamples - 1);
+        List<CharSequence> windows = new ArrayList<>(nbSamples);
+        for (int i = 0; i < nbSamples; i++) {
+            int begin = wordBoundary(text, (int) (i * step));
+            windows.add(text.subSequence(begin, min(begin + windowSize, text.length())));
+        }
+        return windows;
+    }
+
+    /**
+     * moves the window beginning to the next word to avoid detecting on a truncated word
+     */
+    private int wordBoundary(String text, int begin) {
+        if (begin == 0) {
+            return 0;
+        }
+        int maxBegin = min(begin + 32, text.length());
+        for (int i = begin; i < maxBegin; i++) {
+            if (Character.isWhitespace(text.charAt(i - 1))) {
+                return i;
+            }
+        }
+        return begin;
     }
 }
@@ -0,0 +1,183 @@
+package org.icij.datashare.nlp;
+
+import org.icij.datashare.text.Language;
+import org.icij.datashare.text.nlp.Pipeline;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * keeps the pipeline models of a language loaded while there is work for that language.
+ *
+ * The consumers call initialize/terminate around their documents like with the pipeline, but
+ * the models are only loaded the first time and terminate does not unload them. The models
+ * become idle when no consumer uses them and their language has no pending work. Idle models
+ * are terminated (least recently used first) when the estimated size of the loaded models
+ * is over the memory budget.
+ *
+ * A language is loaded and unloaded by one consumer at a time : the consumers initializing a
+ * language that is being loaded or unloaded wait for the end of the load or unload.
+ *
+ * The models of all the languages are estimated to the same size (nlpModelSizeMb) : the heap
+ * growth during a load is not a reliable measure, with the other consumers allocating meanwhile.
+ */
+public class ResidentModels {
+    static final long DEFAULT_MODEL_SIZE_BYTES = 200L * 1024 * 1024;
+    private static final Logger logger = LoggerFactory.getLogger(ResidentModels.class);
+    private final Pipeline pipeline;
+    private final long memoryBudgetBytes;
+    private final long modelSizeBytes;
+    private final Predicate<Language> hasPendingWork;
+    private final Map<Language, Model> models = new ConcurrentHashMap<>();
+    private long loadCount = 0;
+    private long loadMillis = 0;
+    private long evictionCount = 0;
+
+    public ResidentModels(Pipeline pipeline, long memoryBudgetBytes, Predicate<Language> hasPendingWork) {
+        this(pipeline, memoryBudgetBytes, DEFAULT_MODEL_SIZE_BYTES, hasPendingWork);
+    }
+
+    /**
+     * @param modelSizeBytes the estimated memory of the models of one language
+     */
+    public ResidentModels(Pipeline pipeline, long memoryBudgetBytes, long modelSizeBytes, Predicate<Language> hasPendingWork) {
+        this.pipeline = pipeline;
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        this.modelSizeBytes = modelSizeBytes > 0 ? modelSizeBytes : DEFAULT_MODEL_SIZE_BYTES;
+        this.hasPendingWork = hasPendingWork;
+    }
+
+    public boolean initialize(Language language) throws InterruptedException {
+        Model model;
+        synchronized (this) {
+            while ((model = models.get(language)) != null && model.state != State.LOADED) {
+                wait();
+            }
+            if (model != null) {
+                model.inUse++;
+                return true;
+            }
+            model = new Model();
+            model.inUse++;
+            models.put(language, model);
+        }
+        long start = System.currentTimeMillis();
+        boolean loaded = false;
+        try {
+            loaded = pipeline.initialize(language);
+        } finally {
+            synchronized (this) {
+                if (loaded) {
+                    model.state = State.LOADED;
+                    loadCount++;
+                    loadMillis += System.currentTimeMillis() - start;
+                    logger.info("loaded {} models for {} in {}ms", pipeline.getType(), language, System.currentTimeMillis() - start);
+                } else {
+                    models.remove(language);
+                }
+                notifyAll();
+            }
+        }
+        if (loaded) {
+            evictIdleModels();
+        }
+        return loaded;
+    }
+
+    public void terminate(Language language) throws InterruptedException {
+        synchronized (this) {
+            Model model = models.get(language);
+            if (model == null || model.state != State.LOADED) {
+                return;
+            }
+            model.inUse--;
+            model.lastUsed = System.nanoTime();
+        }
+        evictIdleModels();
+    }
+
+    /**
+     * terminates all the idle models whatever the budget
+     */
+    public void terminateIdle() throws InterruptedException {
+        Language language;
+        while ((language = nextIdle(0)) != null) {
+            unload(language);
+        }
+    }
+
+    /**
+     * does not lock, so that the scheduler can call it while holding its own lock
+     */
+    public boolean isResident(Language language) {
+        Model model = models.get(language);
+        return model != null && model.state == State.LOADED;
+    }
+
+    public synchronized long getLoadCount() { return loadCount;}
+    public synchronized long getLoadMillis() { return loadMillis;}
+    public synchronized long getEvictionCount() { return evictionCount;}
+    public synchronized int getResidentCount() { return (int) models.values().stream().filter(m -> m.state == State.LOADED).count();}
+
+    @Override
+    public synchronized String toString() {
+        return "residentModels{resident=" + models.keySet() + ", loads=" + loadCount + ", loadMillis=" + loadMillis +
+                ", evictions=" + evictionCount + "}";
+    }
+
+    private void evictIdleModels() throws InterruptedException {
+        Language language;
+        while ((language = nextIdle(memoryBudgetBytes)) != null) {
+            logger.info("unloading idle {} models for {}", pipeline.getType(), language);
+            unload(language);
+        }
+    }
+
+    /**
+     * terminates the models of a language marked as unloading, the consumers initializing it wait meanwhile
+     */
+    private void unload(Language language) throws InterruptedException {
+        try {
+            pipeline.terminate(language);
+        } finally {
+            synchronized (this) {
+                models.remove(language);
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * marks as unloading and returns the least recently used idle model if the resident models are over the budget
+     */
+    private synchronized Language nextIdle(long budgetBytes) {
+        long residentBytes = models.values().stream().filter(m -> m.state != State.UNLOADING).count() * modelSizeBytes;
+        if (residentBytes <= budgetBytes) {
+            return null;
+        }
+        Language lru = null;
+        for (Map.Entry<Language, Model> entry : models.entrySet()) {
+            Model model = entry.getValue();
+            if (model.state == State.LOADED && model.inUse <= 0 && !hasPendingWork.test(entry.getKey()) &&
+                    (lru == null || model.lastUsed < models.get(lru).lastUsed)) {
+                lru = entry.getKey();
+            }
+        }
+        if (lru != null) {
+            models.get(lru).state = State.UNLOADING;
+            evictionCount++;
+        }
+        return lru;
+    }
+
+    private enum State { LOADING, LOADED, UNLOADING }
+
+    private static class Model {
+        volatile State state = State.LOADING;
+        int inUse = 0;
+        long lastUsed = System.nanoTime();
+    }
+}
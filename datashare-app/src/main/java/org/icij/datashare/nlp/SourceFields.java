@@ -0,0 +1,16 @@
+package org.icij.datashare.nlp;
+
+/**
+ * implemented by the pipelines that declare the document fields they need (the content,
+ * metadata fields...) : with nlpSourceFiltering, the NLP consumers only fetch from the
+ * index the fields returned by {@link #getSourceFields()}.
+ *
+ * The pipelines of the other modules (CoreNLP) declare their fields in {@link NlpConsumer}, the other
+ * pipelines get the whole documents (see {@link NlpConsumer#sourceIncludes}).
+ */
+public interface SourceFields {
+    /**
+     * @return the _source fields needed by the pipeline, they can be paths in an object field (metadata.tika_metadata_author)
+     */
+    String[] getSourceFields();
+}
@@ -0,0 +1,321 @@
+package org.icij.datashare.nlp;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.icij.datashare.com.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * bounded message queue between the NLP forwarder and the NLP consumers.
+ *
+ * Up to capacity messages are kept in memory. When the memory queue is full, the messages
+ * are appended to a journal file (if a spill directory is given) and they are read back
+ * in order when the consumers have made room in memory. Once a message is spilled, the next
+ * ones are spilled too until the journal is drained, so that the order is kept.
+ *
+ * When the memory queue is full and the journal is disabled or has reached its max size,
+ * offer() returns false and put() blocks the forwarder : the bus is back-pressured.
+ */
+public class SpillingMessageQueue extends AbstractQueue<Message> implements BlockingQueue<Message>, Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(SpillingMessageQueue.class);
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Deque<Message> memory = new ArrayDeque<>();
+    private final int capacity;
+    private final Path journal;
+    private final long maxSpilled;
+    private BufferedWriter journalWriter;
+    private BufferedReader journalReader;
+    private long spilled = 0;
+
+    private final AtomicLong totalSpilled = new AtomicLong(0);
+    private final AtomicLong totalOffered = new AtomicLong(0);
+    private final AtomicLong totalTaken = new AtomicLong(0);
+    private final AtomicLong backPressureCount = new AtomicLong(0);
+
+    public SpillingMessageQueue(int capacity) {
+        this(capacity, null, 0);
+    }
+
+    /**
+     * @param spillDir directory of the journal file, null to disable spilling
+     * @param maxSpilled max number of messages in the journal, 0 for no limit
+     */
+    public SpillingMessageQueue(int capacity, Path spillDir, long maxSpilled) {
+        this.capacity = capacity;
+        this.maxSpilled = maxSpilled <= 0 ? Long.MAX_VALUE : maxSpilled;
+        try {
+            this.journal = spillDir == null ? null : Files.createTempFile(Files.createDirectories(spillDir), "nlp-queue-", ".journal");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        logger.info("nlp queue created with capacity {} and journal {}", capacity, journal);
+    }
+
+    @Override
+    public boolean offer(Message message) {
+        lock.lock();
+        try {
+            return enqueue(message);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(Message message) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            if (!enqueue(message)) {
+                backPressureCount.incrementAndGet();
+                do {
+                    notFull.await();
+                } while (!enqueue(message));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(Message message, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            if (enqueue(message)) {
+                return true;
+            }
+            backPressureCount.incrementAndGet();
+            while (nanos > 0) {
+                nanos = notFull.awaitNanos(nanos);
+                if (enqueue(message)) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Message poll() {
+        lock.lock();
+        try {
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Message take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            Message message;
+            while ((message = dequeue()) == null) {
+                notEmpty.await();
+            }
+            return message;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Message poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            Message message;
+            while ((message = dequeue()) == null) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return message;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Message peek() {
+        lock.lock();
+        try {
+            refill();
+            return memory.peek();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of messages in memory and in the journal
+     */
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return (int) Math.min(memory.size() + spilled, Integer.MAX_VALUE);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            long remaining = capacity - memory.size() + (journal == null ? 0 : maxSpilled - spilled);
+            return (int) Math.min(remaining, Integer.MAX_VALUE);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super Message> collection) {
+        return drainTo(collection, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Message> collection, int maxElements) {
+        lock.lock();
+        try {
+            int nb = 0;
+            Message message;
+            while (nb < maxElements && (message = dequeue()) != null) {
+                collection.add(message);
+                nb++;
+            }
+            return nb;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * iterates over a snapshot of the messages in memory (not the spilled ones)
+     */
+    @Override
+    public Iterator<Message> iterator() {
+        lock.lock();
+        try {
+            return new ArrayList<>(memory).iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            resetJournal();
+            if (journal != null) {
+                Files.deleteIfExists(journal);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMemorySize() { lock.lock(); try { return memory.size();} finally { lock.unlock();}}
+    public long getSpilledSize() { lock.lock(); try { return spilled;} finally { lock.unlock();}}
+    public long getTotalSpilled() { return totalSpilled.get();}
+    public long getBackPressureCount() { return backPressureCount.get();}
+    /** number of messages received but not yet taken by the consumers */
+    public long getConsumerLag() { return totalOffered.get() - totalTaken.get();}
+
+    @Override
+    public String toString() {
+        return "nlpQueue{memory=" + getMemorySize() + ", spilled=" + getSpilledSize() + ", totalSpilled=" + getTotalSpilled() +
+                ", backPressure=" + getBackPressureCount() + ", lag=" + getConsumerLag() + "}";
+    }
+
+    private boolean enqueue(Message message) {
+        if (spilled == 0 && memory.size() < capacity) {
+            memory.add(message);
+        } else if (journal != null && spilled < maxSpilled) {
+            spill(message);
+        } else {
+            return false;
+        }
+        totalOffered.incrementAndGet();
+        notEmpty.signal();
+        return true;
+    }
+
+    private Message dequeue() {
+        refill();
+        Message message = memory.poll();
+        if (message != null) {
+            totalTaken.incrementAndGet();
+            refill();
+            notFull.signal();
+        }
+        return message;
+    }
+
+    private void spill(Message message) {
+        try {
+            if (journalWriter == null) {
+                journalWriter = Files.newBufferedWriter(journal, UTF_8);
+            }
+            journalWriter.write(message.toJson());
+            journalWriter.newLine();
+            spilled++;
+            totalSpilled.incrementAndGet();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void refill() {
+        try {
+            if (spilled > 0 && memory.size() < capacity) {
+                journalWriter.flush();
+                if (journalReader == null) {
+                    journalReader = Files.newBufferedReader(journal, UTF_8);
+                }
+            }
+            while (spilled > 0 && memory.size() < capacity) {
+                String line = journalReader.readLine();
+                memory.add(new Message(mapper.readValue(line, HashMap.class)));
+                spilled--;
+            }
+            if (spilled == 0 && journalReader != null) {
+                resetJournal();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void resetJournal() throws IOException {
+        if (journalReader != null) {
+            journalReader.close();
+            journalReader = null;
+        }
+        if (journalWriter != null) {
+            journalWriter.close();
+            journalWriter = null;
+        }
+    }
+}
@@ -13,6 +13,7 @@ import org.icij.datashare.batch.SearchException;
 import org.icij.datashare.monitoring.Monitorable;
 import org.icij.datashare.text.Document;
 import org.icij.datashare.text.indexing.Indexer;
+import org.icij.datashare.text.indexing.elasticsearch.PrefetchingScroll;
 import org.icij.datashare.time.DatashareTime;
 import org.icij.datashare.user.User;
 import org.icij.datashare.user.UserTask;
@@ -24,7 +25,6 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.TimeoutException;
 
 import static java.util.Arrays.stream;
-import static java.util.stream.Collectors.toList;
 import static org.icij.datashare.cli.DatashareCliOptions.BATCH_SEARCH_MAX_TIME;
 import static org.icij.datashare.cli.DatashareCliOptions.BATCH_SEARCH_THROTTLE;
 
@@ -84,18 +84,20 @@ public class BatchSearchRunner implements Callable<Integer>, Monitorable, UserTa
                         withFieldValues("contentType", batchSearch.fileTypes.toArray(new String[]{})).
                         withPrefixQuery("dirname", batchSearch.paths.toArray(new String[]{})).
                         withoutSource("content").limit(MAX_SCROLL_SIZE);
-                List<? extends Entity> docsToProcess = searcher.scroll().collect(toList());
+                try (PrefetchingScroll scroll = new PrefetchingScroll(searcher)) {
+                    List<? extends Entity> docsToProcess = scroll.nextPage();
 
-                long beforeScrollLoop = DatashareTime.getInstance().currentTimeMillis();
-                while (docsToProcess.size() != 0 && numberOfResults < MAX_BATCH_RESULT_SIZE) {
-                    repository.saveResults(batchSearch.uuid, query, (List<Document>) docsToProcess);
-                    if (DatashareTime.getInstance().currentTimeMillis() - beforeScrollLoop < maxTimeSeconds*1000) {
-                        DatashareTime.getInstance().sleep(throttleMs);
-                    } else {
-                        throw new TimeoutException("Batch timed out after " + maxTimeSeconds + "s");
+                    long beforeScrollLoop = DatashareTime.getInstance().currentTimeMillis();
+                    while (docsToProcess.size() != 0 && numberOfResults < MAX_BATCH_RESULT_SIZE) {
+                        repository.saveResults(batchSearch.uuid, query, (List<Document>) docsToProcess);
+                        if (DatashareTime.getInstance().currentTimeMillis() - beforeScrollLoop < maxTimeSeconds*1000) {
+                            DatashareTime.getInstance().sleep(throttleMs);
+                        } else {
+                            throw new TimeoutException("Batch timed out after " + maxTimeSeconds + "s");
+                        }
+                        numberOfResults += docsToProcess.size();
+                        docsToProcess = scroll.nextPage();
                     }
-                    numberOfResults += docsToProcess.size();
-                    docsToProcess = searcher.scroll().collect(toList());
                 }
             }
         } catch (ElasticsearchStatusException esEx) {
@@ -8,23 +8,51 @@ import org.icij.datashare.user.User;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+
+import static java.lang.Long.parseLong;
+
 /**
- * filters the document queue with extracted docs
+ * filters the duplicate paths of the document queue while they are moved to the output queue.
+ *
+ * The queue is read once : the paths that have already been seen are kept in a {@link PathFingerprintSet}
+ * sized for dedupExpectedPaths paths (16 bytes off heap per slot), so that large queues are deduplicated
+ * with a predictable memory use. The table is doubled when it is full, which needs three times its size of
+ * direct memory while it is copied : very large queues should be run with dedupExpectedPaths and
+ * -XX:MaxDirectMemorySize set accordingly.
  */
 public class DeduplicateTask extends PipelineTask {
+    static final String DEDUP_EXPECTED_PATHS_OPT = "dedupExpectedPaths";
     private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final long expectedPaths;
 
     @Inject
     public DeduplicateTask(final DocumentCollectionFactory factory, final PropertiesProvider propertiesProvider, @Assisted User user, @Assisted String queueName) {
         super(DatashareCli.Stage.DEDUPLICATE, user, queueName, factory, propertiesProvider);
+        expectedPaths = parseLong(propertiesProvider.get(DEDUP_EXPECTED_PATHS_OPT).orElse("1000000"));
     }
 
     @Override
     public Long call() throws Exception {
-        int duplicates = queue.removeDuplicates();
-        transferToOutputQueue();
-        logger.info("removed {} duplicate paths in queue {}", duplicates, queue.getName());
+        long duplicates;
+        try (PathFingerprintSet seen = new PathFingerprintSet(expectedPaths, Paths.get(System.getProperty("java.io.tmpdir")))) {
+            try {
+                transferToOutputQueue(path -> {
+                    try {
+                        return seen.add(path);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            duplicates = seen.getDuplicateCount();
+            logger.info("removed {} duplicate paths in queue {} ({})", duplicates, queue.getName(), seen);
+        }
         queue.close();
-        return (long)duplicates;
+        return duplicates;
     }
 }
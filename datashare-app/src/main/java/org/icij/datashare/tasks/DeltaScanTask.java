@@ -0,0 +1,199 @@
+package org.icij.datashare.tasks;
+
+import com.google.inject.Inject;
+import com.google.inject.assistedinject.Assisted;
+import org.icij.datashare.PropertiesProvider;
+import org.icij.datashare.cli.DatashareCli;
+import org.icij.datashare.tasks.FileStateSnapshot.FileState;
+import org.icij.datashare.user.User;
+import org.icij.extract.queue.DocumentQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.lang.Integer.parseInt;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static org.icij.datashare.tasks.FileStateSnapshot.NO_DIGEST;
+
+/**
+ * filters the scanned paths with the snapshot of the previous scan : only the new and modified files
+ * are put in the output queue, and the files of the previous scan that have not been scanned again are
+ * written in the deleted report file (snapshot file + ".deleted", one path per line).
+ *
+ * A file is unchanged if it has the same size and modified time. If only the modified time has changed,
+ * the file digest is compared with the one of the snapshot. The digests are not computed when the files are
+ * first recorded (it would read the whole collection) : the first time a file is touched, it is queued and
+ * its digest is recorded, so that the next touches without a content change are not queued.
+ *
+ * The scanned paths are sorted on disk by runs of deltaSortRunSize, and merged with the previous snapshot
+ * sorted by path. The new snapshot is written next to the previous one (snapshot file + ".pending") : it
+ * replaces the previous snapshot with commitSnapshot() when the next stages have succeeded, so that the
+ * files of a failed run are queued again by the next delta scan.
+ */
+public class DeltaScanTask extends PipelineTask {
+    static final String DELTA_SNAPSHOT_FILE_OPT = "deltaSnapshotFile";
+    static final String DELTA_SORT_RUN_SIZE_OPT = "deltaSortRunSize";
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final Path snapshotFile;
+    private final int sortRunSize;
+    private long unchanged = 0;
+    private long touched = 0;
+    private long queued = 0;
+    private long deleted = 0;
+
+    @Inject
+    public DeltaScanTask(final DocumentCollectionFactory factory, final PropertiesProvider propertiesProvider, @Assisted User user, @Assisted String queueName) {
+        super(DatashareCli.Stage.DELTA, user, queueName, factory, propertiesProvider);
+        snapshotFile = propertiesProvider.get(DELTA_SNAPSHOT_FILE_OPT).map(Paths::get).orElse(
+                Paths.get(System.getProperty("user.home"), ".datashare", getOutputQueueName().replace(':', '_') + ".snapshot")).toAbsolutePath();
+        sortRunSize = parseInt(propertiesProvider.get(DELTA_SORT_RUN_SIZE_OPT).orElse("100000"));
+    }
+
+    @Override
+    public Long call() throws Exception {
+        logger.info("delta scan of queue {} with snapshot {}", queue.getName(), snapshotFile);
+        try (FileStateSnapshot.Sorter scanned = new FileStateSnapshot.Sorter(getPendingSnapshotFile().getParent(), sortRunSize)) {
+            List<Path> batch = new ArrayList<>(batchSize);
+            boolean poisoned = false;
+            while (!poisoned) {
+                batch.clear();
+                poisoned = !takeBatch(batch);
+                for (Path path : batch) {
+                    scanned.add(readState(path));
+                }
+            }
+            merge(scanned.sorted());
+        }
+        logger.info("queued {} new or modified files, {} unchanged ({} with only a new modified time), {} deleted in {}",
+                queued, unchanged + touched, touched, deleted, getDeletedReportFile());
+        queue.close();
+        return queued;
+    }
+
+    /**
+     * replaces the snapshot with the snapshot of the last delta scan
+     */
+    public void commitSnapshot() throws IOException {
+        try {
+            Files.move(getPendingSnapshotFile(), snapshotFile, REPLACE_EXISTING, ATOMIC_MOVE);
+            logger.info("delta snapshot {} committed", snapshotFile);
+        } catch (NoSuchFileException e) {
+            logger.warn("no pending delta snapshot {}", getPendingSnapshotFile());
+        }
+    }
+
+    public Path getPendingSnapshotFile() {
+        return snapshotFile.resolveSibling(snapshotFile.getFileName() + ".pending");
+    }
+
+    public Path getDeletedReportFile() {
+        return snapshotFile.resolveSibling(snapshotFile.getFileName() + ".deleted");
+    }
+
+    private void merge(FileStateSnapshot.Reader current) throws IOException, InterruptedException {
+        Path deletedReport = getDeletedReportFile();
+        Files.createDirectories(deletedReport.getParent());
+        Path tmpReport = Files.createTempFile(deletedReport.getParent(), deletedReport.getFileName().toString(), ".tmp");
+        try (FileStateSnapshot.Reader previous = FileStateSnapshot.read(snapshotFile);
+             FileStateSnapshot.Writer next = FileStateSnapshot.write(getPendingSnapshotFile());
+             BufferedWriter deletedWriter = Files.newBufferedWriter(tmpReport, UTF_8);
+             DocumentQueue outputQueue = createQueue(getOutputQueueName())) {
+            List<Path> modified = new ArrayList<>(batchSize);
+            FileState previousState = previous.next();
+            String lastPath = null;
+            for (FileState state = current.next(); state != null || previousState != null; ) {
+                int order = state == null ? 1 : previousState == null ? -1 : state.path.compareTo(previousState.path);
+                if (order > 0) {
+                    deletedWriter.write(previousState.path);
+                    deletedWriter.newLine();
+                    deleted++;
+                    previousState = previous.next();
+                    continue;
+                }
+                if (!state.path.equals(lastPath)) {
+                    FileState newState = merge(state, order == 0 ? previousState : null, modified);
+                    if (newState != null) {
+                        next.write(newState);
+                    }
+                    if (modified.size() >= batchSize) {
+                        DocumentQueues.putAll(outputQueue, modified);
+                        modified.clear();
+                    }
+                }
+                if (order == 0) {
+                    previousState = previous.next();
+                }
+                lastPath = state.path;
+                state = current.next();
+            }
+            DocumentQueues.putAll(outputQueue, modified);
+            outputQueue.add(POISON);
+            next.commit();
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            Files.deleteIfExists(tmpReport);
+            throw e;
+        }
+        Files.move(tmpReport, deletedReport, REPLACE_EXISTING, ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the state to keep in the next snapshot, or null if the file could not be read
+     */
+    private FileState merge(FileState state, FileState previousState, List<Path> modified) {
+        Path path = Paths.get(state.path);
+        if (state.isUnreadable()) {
+            modified.add(path);
+            queued++;
+            return null;
+        }
+        if (previousState != null && previousState.isSameSizeAndTime(state)) {
+            unchanged++;
+            return previousState;
+        }
+        if (previousState != null && previousState.size == state.size) {
+            state = withDigest(path, state);
+            if (previousState.digest == NO_DIGEST) {
+                logger.debug("no digest recorded for {}, it is queued with its digest {}", path, state.digest);
+            } else if (state.digest != NO_DIGEST && state.digest == previousState.digest) {
+                touched++;
+                return state;
+            }
+        }
+        modified.add(path);
+        queued++;
+        return state;
+    }
+
+    private FileState readState(Path path) {
+        try {
+            return FileState.of(path, Files.readAttributes(path, BasicFileAttributes.class));
+        } catch (IOException e) {
+            logger.warn("cannot read attributes of {}, it is queued", path, e);
+            return FileState.unreadable(path);
+        }
+    }
+
+    /**
+     * the digest of a file modified without changing its size is kept for the next delta scans, also when the
+     * file is queued because the previous snapshot had no digest to compare with
+     */
+    private FileState withDigest(Path path, FileState state) {
+        try {
+            return state.withDigest(FileStateSnapshot.digest(path));
+        } catch (IOException e) {
+            logger.warn("cannot read digest of {}", path, e);
+            return state;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package org.icij.datashare.tasks;
+
+import org.icij.extract.queue.DocumentQueue;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * batched operations on the document queues : with a redis queue, drainTo is one server-side
+ * script and addAll is one RPUSH, instead of one round trip per path.
+ */
+final class DocumentQueues {
+    private DocumentQueues() {}
+
+    /**
+     * waits for a first path and adds it to the batch with up to maxSize - 1 paths already in the queue
+     */
+    static void takeBatch(DocumentQueue queue, List<Path> batch, int maxSize) throws InterruptedException {
+        batch.add(queue.take());
+        if (maxSize > 1) {
+            queue.drainTo(batch, maxSize - 1);
+        }
+    }
+
+    /**
+     * adds the paths with one addAll to the unbounded queues, and puts them one by one in the bounded
+     * queues (addAll fails on a full queue where put waits for the consumers)
+     */
+    static void putAll(DocumentQueue queue, List<Path> paths) throws InterruptedException {
+        if (paths.isEmpty()) {
+            return;
+        }
+        if (queue.remainingCapacity() == Integer.MAX_VALUE) {
+            queue.addAll(paths);
+        } else {
+            for (Path path : paths) {
+                queue.put(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package org.icij.datashare.tasks;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * the (path, size, last modified time, digest) of the files of a scan, saved in a gzipped binary file sorted by path,
+ * so that two snapshots are compared by merging them without loading them in memory.
+ *
+ * The digest is the first 64 bits of the SHA-256 of the content. It is only computed when a file has the same
+ * size but another modified time than in the previous snapshot, to tell a touched file from a modified one :
+ * 0 means that the digest is unknown.
+ */
+class FileStateSnapshot {
+    private static final int MAGIC = 0x44534653; // DSFS
+    private static final int VERSION = 1;
+    static final long NO_DIGEST = 0;
+    static final Comparator<FileState> BY_PATH = Comparator.comparing(s -> s.path);
+
+    private FileStateSnapshot() {}
+
+    /**
+     * @return the states of the snapshot file sorted by path, none if the file does not exist
+     */
+    static Reader read(Path file) throws IOException {
+        try {
+            return new FileReader(file);
+        } catch (NoSuchFileException | FileNotFoundException e) {
+            return () -> null;
+        }
+    }
+
+    /**
+     * the states have to be written sorted by path
+     */
+    static Writer write(Path file) throws IOException {
+        return new Writer(file);
+    }
+
+    interface Reader extends Closeable {
+        /**
+         * @return the next state or null at the end of the snapshot
+         */
+        FileState next() throws IOException;
+
+        @Override
+        default void close() throws IOException {}
+    }
+
+    private static class FileReader implements Reader {
+        private final DataInputStream input;
+
+        FileReader(Path file) throws IOException {
+            input = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))));
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                input.close();
+                throw new IOException("invalid snapshot file " + file);
+            }
+        }
+
+        @Override
+        public FileState next() throws IOException {
+            return input.readBoolean() ? new FileState(input.readUTF(), input.readLong(), input.readLong(), input.readLong()) : null;
+        }
+
+        @Override
+        public void close() throws IOException { input.close();}
+    }
+
+    /**
+     * writes the snapshot in a temporary file moved to the snapshot file by commit(), so that the previous
+     * snapshot is kept if the write fails
+     */
+    static class Writer implements Closeable {
+        private final Path file;
+        private final Path tmpFile;
+        private final DataOutputStream output;
+        private boolean committed = false;
+
+        private Writer(Path file) throws IOException {
+            this.file = file;
+            Path parent = file.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            this.tmpFile = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+            this.output = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(tmpFile))));
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+        }
+
+        void write(FileState state) throws IOException {
+            output.writeBoolean(true);
+            output.writeUTF(state.path);
+            output.writeLong(state.size);
+            output.writeLong(state.lastModified);
+            output.writeLong(state.digest);
+        }
+
+        void commit() throws IOException {
+            output.writeBoolean(false);
+            output.close();
+            Files.move(tmpFile, file, REPLACE_EXISTING, ATOMIC_MOVE);
+            committed = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!committed) {
+                output.close();
+                Files.deleteIfExists(tmpFile);
+            }
+        }
+    }
+
+    /**
+     * external sort of the states of a scan : runs of runSize states are sorted in memory and written in
+     * temporary files that are merged by sorted().
+     */
+    static class Sorter implements Closeable {
+        private final Path tmpDir;
+        private final int runSize;
+        private final List<FileState> run;
+        private final List<Path> runFiles = new ArrayList<>();
+        private final List<Reader> readers = new ArrayList<>();
+
+        Sorter(Path tmpDir, int runSize) {
+            this.tmpDir = tmpDir;
+            this.runSize = runSize;
+            this.run = new ArrayList<>(runSize);
+        }
+
+        void add(FileState state) throws IOException {
+            run.add(state);
+            if (run.size() >= runSize) {
+                flush();
+            }
+        }
+
+        Reader sorted() throws IOException {
+            run.sort(BY_PATH);
+            Iterator<FileState> inMemory = run.iterator();
+            readers.add(() -> inMemory.hasNext() ? inMemory.next() : null);
+            for (Path runFile : runFiles) {
+                readers.add(read(runFile));
+            }
+            PriorityQueue<Head> heads = new PriorityQueue<>(Math.max(1, readers.size()), Comparator.comparing(h -> h.state, BY_PATH));
+            for (Reader reader : readers) {
+                Head head = new Head(reader);
+                if (head.state != null) {
+                    heads.add(head);
+                }
+            }
+            return () -> {
+                Head head = heads.poll();
+                if (head == null) {
+                    return null;
+                }
+                FileState state = head.state;
+                if (head.advance() != null) {
+                    heads.add(head);
+                }
+                return state;
+            };
+        }
+
+        private void flush() throws IOException {
+            Files.createDirectories(tmpDir);
+            Path runFile = Files.createTempFile(tmpDir, "delta-", ".run");
+            runFiles.add(runFile);
+            run.sort(BY_PATH);
+            try (Writer writer = new Writer(runFile)) {
+                for (FileState state : run) {
+                    writer.write(state);
+                }
+                writer.commit();
+            }
+            run.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (Reader reader : readers) {
+                reader.close();
+            }
+            for (Path runFile : runFiles) {
+                Files.deleteIfExists(runFile);
+            }
+        }
+
+        private static class Head {
+            final Reader reader;
+            FileState state;
+
+            Head(Reader reader) throws IOException {
+                this.reader = reader;
+                advance();
+            }
+
+            FileState advance() throws IOException {
+                return state = reader.next();
+            }
+        }
+    }
+
+    static class FileState {
+        final String path;
+        final long size;
+        final long lastModified;
+        final long digest;
+
+        FileState(String path, long size, long lastModified, long digest) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.digest = digest;
+        }
+
+        static FileState of(Path path, BasicFileAttributes attributes) {
+            return new FileState(path.toString(), attributes.size(), attributes.lastModifiedTime().toMillis(), NO_DIGEST);
+        }
+
+        /**
+         * the state of a file whose attributes could not be read : it is not kept in the snapshot
+         */
+        static FileState unreadable(Path path) {
+            return new FileState(path.toString(), -1, -1, NO_DIGEST);
+        }
+
+        boolean isUnreadable() { return size < 0;}
+
+        FileState withDigest(long digest) {
+            return new FileState(path, size, lastModified, digest);
+        }
+
+        boolean isSameSizeAndTime(FileState other) {
+            return size == other.size && lastModified == other.lastModified;
+        }
+    }
+
+    static long digest(Path file) throws IOException {
+        Hasher hasher = Hashing.sha256().newHasher();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream input = Files.newInputStream(file)) {
+            int read;
+            while ((read = input.read(buffer)) > 0) {
+                hasher.putBytes(buffer, 0, read);
+            }
+        }
+        long digest = hasher.hash().asLong();
+        return digest == NO_DIGEST ? 1 : digest;
+    }
+}
@@ -15,6 +15,7 @@ import org.icij.datashare.user.User;
 import org.icij.extract.document.DigestIdentifier;
 import org.icij.extract.document.DocumentFactory;
 import org.icij.extract.extractor.DocumentConsumer;
+import org.icij.extract.extractor.ExtractionStatus;
 import org.icij.extract.extractor.Extractor;
 import org.icij.extract.extractor.UpdatableDigester;
 import org.icij.extract.queue.DocumentQueueDrainer;
@@ -24,7 +25,11 @@ import org.icij.task.annotation.OptionsClass;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Flushable;
+import java.io.IOException;
 import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.Map;
 import java.util.Properties;
 
 import static java.lang.Math.max;
@@ -42,6 +47,7 @@ public class IndexTask extends PipelineTask implements Monitorable{
     private final DocumentQueueDrainer drainer;
     private final DocumentConsumer consumer;
     private final Publisher publisher;
+    private final ElasticsearchSpewer spewer;
     private long totalToProcess;
     private final Integer parallelism;
 
@@ -52,6 +58,7 @@ public class IndexTask extends PipelineTask implements Monitorable{
         PropertiesProvider propertiesProvider = new PropertiesProvider(properties);
         parallelism = propertiesProvider.get("parallelism").map(Integer::parseInt).orElse(Runtime.getRuntime().availableProcessors());
         this.publisher = publisher;
+        this.spewer = spewer;
         String indexName = propertiesProvider.get("defaultProject").orElse("local-datashare");
         spewer.withIndex(indexName); // TODO: remove this
         spewer.createIndex();
@@ -76,22 +83,40 @@ public class IndexTask extends PipelineTask implements Monitorable{
     @Override
     public Long call() throws Exception {
         logger.info("Processing up to {} file(s) in parallel", parallelism);
-        totalToProcess = drainer.drain(POISON).get();
-        drainer.shutdown();
-        drainer.awaitTermination(10, SECONDS); // drain is finished
-        logger.info("drained {} documents. Waiting for consumer to shutdown", totalToProcess);
-        publisher.publish(Channel.NLP, new Message(INIT_MONITORING).add(VALUE, valueOf(totalToProcess)));
-
-        consumer.shutdown();
-        // documents could be currently processed
+        spewer.initDuplicateFilter();
+        spewer.acquireIngestProfile();
+        Throwable failure = null;
         try {
-            while (!consumer.awaitTermination(30, MINUTES)) {
-                logger.info("Consumer has not terminated yet.");
+            totalToProcess = drainer.drain(POISON).get();
+            drainer.shutdown();
+            drainer.awaitTermination(10, SECONDS); // drain is finished
+            logger.info("drained {} documents. Waiting for consumer to shutdown", totalToProcess);
+            publisher.publish(Channel.NLP, new Message(INIT_MONITORING).add(VALUE, valueOf(totalToProcess)));
+
+            consumer.shutdown();
+            // documents could be currently processed
+            try {
+                while (!consumer.awaitTermination(30, MINUTES)) {
+                    logger.info("Consumer has not terminated yet.");
+                }
+            } catch (InterruptedException iex) {
+                logger.info("Got InterruptedException while waiting for the consumer shutdown.");
             }
-        } catch (InterruptedException iex) {
-            logger.info("Got InterruptedException while waiting for the consumer shutdown.");
+            if (!spewer.awaitBulkFlush(30, MINUTES)) {
+                logger.warn("bulk requests have not completed in time, some documents may not be indexed");
+            }
+            reportBulkFailures();
+        } catch (Throwable t) {
+            failure = t;
+            throw t;
+        } finally {
+            releaseIngestProfile(failure); // settings are restored even if the drain fails
         }
+        spewer.saveDuplicateFilter();
         publisher.publish(Channel.NLP, new ShutdownMessage());
+        if (publisher instanceof Flushable) {
+            ((Flushable) publisher).flush(); // messages are sent in order : EXTRACT_NLP messages are sent before shutdown
+        }
 
         if (consumer.getReporter() != null) consumer.getReporter().close();
         queue.close();
@@ -99,6 +124,39 @@ public class IndexTask extends PipelineTask implements Monitorable{
         return totalToProcess;
     }
 
+    /**
+     * the documents of the failed bulk requests have been reported as extracted by the consumer when they were
+     * buffered : their files are reported again as not saved, so that they are extracted again on resume
+     */
+    private void reportBulkFailures() {
+        Map<Path, String> failures = spewer.getBulkFailures();
+        if (failures.isEmpty()) {
+            return;
+        }
+        logger.error("{} file(s) could not be indexed by the bulk requests", failures.size());
+        Reporter reporter = consumer.getReporter();
+        for (Map.Entry<Path, String> failure : failures.entrySet()) {
+            logger.error("{} not indexed : {}", failure.getKey(), failure.getValue());
+            if (reporter != null) {
+                reporter.save(failure.getKey(), ExtractionStatus.FAILURE_NOT_SAVED, new IOException(failure.getValue()));
+            }
+        }
+    }
+
+    /**
+     * @param failure the error of the indexing if any : a release error doesn't hide it
+     */
+    private void releaseIngestProfile(Throwable failure) throws IOException {
+        try {
+            spewer.releaseIngestProfile();
+        } catch (IOException | RuntimeException e) {
+            if (failure == null) {
+                throw e;
+            }
+            failure.addSuppressed(e);
+        }
+    }
+
     @Override
     public double getProgressRate() {
         totalToProcess = max(queue.size(), totalToProcess);
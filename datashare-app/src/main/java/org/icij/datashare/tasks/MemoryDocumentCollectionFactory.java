@@ -6,10 +6,15 @@ import org.icij.extract.queue.MemoryDocumentQueue;
 import org.icij.extract.report.HashMapReportMap;
 import org.icij.extract.report.ReportMap;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class MemoryDocumentCollectionFactory implements DocumentCollectionFactory {
+    static final String QUEUE_SPILL_DIR_OPT = "queueSpillDir";
+    private static final int QUEUE_HEAD_CAPACITY = 1024;
     final Map<String, DocumentQueue> queues = new ConcurrentHashMap<>();
     final Map<String, ReportMap> maps = new ConcurrentHashMap<>();
 
@@ -17,12 +22,26 @@ public class MemoryDocumentCollectionFactory implements DocumentCollectionFactor
     public DocumentQueue createQueue(PropertiesProvider propertiesProvider, String queueName) {
         if (!queues.containsKey(queueName)) {
             synchronized (queues) {
-                queues.putIfAbsent(queueName, new MemoryDocumentQueue(queueName, 1024));
+                queues.computeIfAbsent(queueName, name -> newQueue(propertiesProvider, name));
             }
         }
         return queues.get(queueName);
     }
 
+    /**
+     * with queueSpillDir, the queue paths are written in the queue directory instead of blocking the
+     * producers when QUEUE_HEAD_CAPACITY paths are waiting.
+     */
+    private DocumentQueue newQueue(PropertiesProvider propertiesProvider, String queueName) {
+        return propertiesProvider.get(QUEUE_SPILL_DIR_OPT).map(dir -> {
+            try {
+                return (DocumentQueue) new SpillDocumentQueue(queueName, Paths.get(dir, queueName.replace(':', '_')), QUEUE_HEAD_CAPACITY);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }).orElseGet(() -> new MemoryDocumentQueue(queueName, QUEUE_HEAD_CAPACITY));
+    }
+
     @Override
     public ReportMap createMap(PropertiesProvider propertiesProvider, String mapName) {
         if (!maps.containsKey(mapName)) {
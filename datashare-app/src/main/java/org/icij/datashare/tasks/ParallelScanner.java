@@ -0,0 +1,252 @@
+package org.icij.datashare.tasks;
+
+import org.icij.extract.Scanner;
+import org.icij.extract.ScannerVisitor;
+import org.icij.extract.queue.DocumentQueue;
+import org.icij.extract.queue.MemoryDocumentQueue;
+import org.icij.task.Options;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * walks the subtrees of a directory concurrently with a work-stealing pool, for the file systems
+ * where listing the directories is slow (NFS, FUSE mounts of object stores).
+ *
+ * It has the same results as the sequential scan : each worker thread has its own {@link ScannerVisitor}
+ * (with the include/exclude globs and the hidden/OS files options of the scanner) that decides which files
+ * are queued, and the walk follows the Files.walkFileTree rules for the max depth, the symlinks and the
+ * file system loops. Only the order of the paths in the queue differs.
+ *
+ * At most maxOpenDirs directory streams are open at the same time. The paths are added to the document
+ * queue by batches of batchSize, and the number of files per second is logged every reportSeconds.
+ */
+class ParallelScanner implements Callable<Long> {
+    private static final Logger logger = LoggerFactory.getLogger(ParallelScanner.class);
+    private static final long DEFAULT_REPORT_SECONDS = 10;
+    private final Options<String> options;
+    private final Path root;
+    private final DocumentQueue queue;
+    private final int parallelism;
+    private final Semaphore openDirs;
+    private final int batchSize;
+    private final boolean followLinks;
+    private final int maxDepth;
+    private final long reportSeconds;
+    private final Queue<Worker> workers = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Worker> worker = ThreadLocal.withInitial(this::createWorker);
+    private final AtomicLong visited = new AtomicLong(0);
+    private final AtomicLong queued = new AtomicLong(0);
+    private volatile boolean terminated = false;
+
+    ParallelScanner(Options<String> options, Path root, DocumentQueue queue, int parallelism, int maxOpenDirs, int batchSize,
+                    boolean followLinks, int maxDepth) {
+        this(options, root, queue, parallelism, maxOpenDirs, batchSize, followLinks, maxDepth, DEFAULT_REPORT_SECONDS);
+    }
+
+    ParallelScanner(Options<String> options, Path root, DocumentQueue queue, int parallelism, int maxOpenDirs, int batchSize,
+                    boolean followLinks, int maxDepth, long reportSeconds) {
+        this.options = options;
+        this.root = root;
+        this.queue = queue;
+        this.parallelism = parallelism;
+        this.openDirs = new Semaphore(Math.max(1, maxOpenDirs));
+        this.batchSize = Math.max(1, batchSize);
+        this.followLinks = followLinks;
+        this.maxDepth = maxDepth;
+        this.reportSeconds = reportSeconds;
+    }
+
+    /**
+     * @return the number of paths added to the queue
+     */
+    @Override
+    public Long call() throws Exception {
+        logger.info("scanning {} with {} thread(s) and {} open directories max", root, parallelism, openDirs.availablePermits());
+        long start = System.currentTimeMillis();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "scan-report");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> report(start), reportSeconds, reportSeconds, SECONDS);
+        try {
+            pool.invoke(new VisitTask(root, 0, null));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            reporter.shutdownNow();
+            pool.shutdown();
+        }
+        for (Worker w : workers) {
+            w.flush();
+        }
+        report(start);
+        return queued.get();
+    }
+
+    long getVisitedCount() { return visited.get();}
+
+    private void report(long start) {
+        long elapsedMillis = Math.max(1, System.currentTimeMillis() - start);
+        logger.info("scanned {} files of {} in {}s ({} files/s), queued {}", visited.get(), root, elapsedMillis / 1000,
+                visited.get() * 1000 / elapsedMillis, queued.get());
+    }
+
+    private Worker createWorker() {
+        Worker created = new Worker();
+        workers.add(created);
+        return created;
+    }
+
+    /**
+     * the visitor of a worker thread : the {@link ScannerVisitor} puts the included paths in a local
+     * queue that is transferred to the document queue when it reaches the batch size.
+     */
+    private class Worker {
+        final DocumentQueue batch = new MemoryDocumentQueue("scan-batch", batchSize);
+        final ScannerVisitor visitor = new Scanner(batch).configure(options).createScannerVisitor(root);
+        final List<Path> paths = new ArrayList<>(batchSize);
+
+        FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+            visited.incrementAndGet();
+            FileVisitResult result = visitor.visitFile(file, attrs);
+            if (batch.size() >= batchSize) {
+                try {
+                    flush();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted while adding paths to " + queue.getName());
+                }
+            }
+            return result;
+        }
+
+        void flush() throws InterruptedException {
+            batch.drainTo(paths);
+            DocumentQueues.putAll(queue, paths);
+            queued.addAndGet(paths.size());
+            paths.clear();
+        }
+    }
+
+    /**
+     * same walk as Files.walkFileTree : a directory at max depth is visited as a file, and with
+     * followLinks a directory that is one of its ancestors is visited as failed with a FileSystemLoopException
+     */
+    private class VisitTask extends RecursiveAction {
+        private final Path path;
+        private final int depth;
+        private final Ancestor parent;
+
+        VisitTask(Path path, int depth, Ancestor parent) {
+            this.path = path;
+            this.depth = depth;
+            this.parent = parent;
+        }
+
+        @Override
+        protected void compute() {
+            if (terminated) {
+                return;
+            }
+            try {
+                visit();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void visit() throws IOException {
+            Worker w = worker.get();
+            BasicFileAttributes attrs;
+            try {
+                attrs = followLinks ? readAttributes(path) : Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            } catch (IOException e) {
+                check(w.visitor.visitFileFailed(path, e));
+                return;
+            }
+            if (depth >= maxDepth || !attrs.isDirectory()) {
+                check(w.visitFile(path, attrs));
+                return;
+            }
+            if (followLinks && parent != null && parent.contains(path, attrs.fileKey())) {
+                check(w.visitor.visitFileFailed(path, new FileSystemLoopException(path.toString())));
+                return;
+            }
+            FileVisitResult preVisit = w.visitor.preVisitDirectory(path, attrs);
+            if (preVisit != FileVisitResult.CONTINUE) {
+                check(preVisit);
+                return;
+            }
+            List<Path> entries = new ArrayList<>();
+            IOException listingException = null;
+            openDirs.acquireUninterruptibly();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+                for (Path entry : stream) {
+                    entries.add(entry);
+                }
+            } catch (IOException | DirectoryIteratorException e) {
+                listingException = e instanceof DirectoryIteratorException ? ((DirectoryIteratorException) e).getCause() : (IOException) e;
+            } finally {
+                openDirs.release();
+            }
+            Ancestor ancestor = new Ancestor(path, attrs.fileKey(), parent);
+            List<VisitTask> subTasks = new ArrayList<>(entries.size());
+            for (Path entry : entries) {
+                subTasks.add(new VisitTask(entry, depth + 1, ancestor));
+            }
+            invokeAll(subTasks);
+            check(worker.get().visitor.postVisitDirectory(path, listingException));
+        }
+
+        private BasicFileAttributes readAttributes(Path file) throws IOException {
+            try {
+                return Files.readAttributes(file, BasicFileAttributes.class);
+            } catch (IOException e) {
+                // broken link : visited as a link like walkFileTree does
+                return Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            }
+        }
+
+        private void check(FileVisitResult result) {
+            if (result == FileVisitResult.TERMINATE) {
+                terminated = true;
+            }
+        }
+    }
+
+    private static class Ancestor {
+        final Path path;
+        final Object fileKey;
+        final Ancestor parent;
+
+        Ancestor(Path path, Object fileKey, Ancestor parent) {
+            this.path = path;
+            this.fileKey = fileKey;
+            this.parent = parent;
+        }
+
+        boolean contains(Path dir, Object key) throws IOException {
+            for (Ancestor a = this; a != null; a = a.parent) {
+                if (key != null && a.fileKey != null ? key.equals(a.fileKey) : Files.isSameFile(dir, a.path)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package org.icij.datashare.tasks;
+
+import com.google.common.hash.Hashing;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.ToLongFunction;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * set of paths for the streaming deduplication of very large queues.
+ *
+ * The table is an open addressing hash table of 64 bits fingerprints of the paths, in direct buffers
+ * (16 bytes per slot : the fingerprint and the offset of the path in a log file), so that the heap use
+ * doesn't depend on the number of paths. The paths are appended to a temporary log file : when a
+ * fingerprint is found in the table the path is read from the log and compared, two different paths
+ * with the same fingerprint are both kept. The paths still in the write buffer of the log are compared
+ * in memory, so the log is only written by full buffers.
+ *
+ * The table is doubled when it is 70% full. It takes 16 bytes per slot with a power of two of slots, i.e.
+ * between 23 and 46 bytes of direct memory per path, and a grow needs the old and the new table : for example
+ * the 128M slots table (2GB) is full at 94M paths and needs 6GB while it is copied to the 256M slots table.
+ * The tables are checked against the max direct memory (-XX:MaxDirectMemorySize, the max heap size by
+ * default) before they are allocated.
+ */
+class PathFingerprintSet implements Closeable {
+    private static final double MAX_LOAD = 0.7;
+    private static final int SEGMENT_SHIFT = 24; // 16M slots (128MB) per buffer
+    private static final int SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
+    private static final long EMPTY = 0;
+    private final ToLongFunction<String> fingerprint;
+    private final Path logFile;
+    private final FileChannel log;
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(1024 * 1024);
+    private ByteBuffer readBuffer = ByteBuffer.allocate(1024);
+    private long logPosition = 0;
+    private long flushedPosition = 0;
+    private LongBuffer[] fingerprints;
+    private LongBuffer[] offsets;
+    private long capacity;
+    private long size = 0;
+    private long duplicates = 0;
+    private long collisions = 0;
+
+    PathFingerprintSet(long expectedPaths, Path tmpDir) throws IOException {
+        this(expectedPaths, tmpDir, s -> Hashing.murmur3_128().hashString(s, UTF_8).asLong());
+    }
+
+    PathFingerprintSet(long expectedPaths, Path tmpDir, ToLongFunction<String> fingerprint) throws IOException {
+        this.fingerprint = fingerprint;
+        this.logFile = Files.createTempFile(tmpDir, "dedup-", ".log");
+        this.log = FileChannel.open(logFile, READ, WRITE, DELETE_ON_CLOSE);
+        allocate(tableSize(expectedPaths));
+    }
+
+    /**
+     * @return true if the path was not in the set
+     */
+    boolean add(Path path) throws IOException {
+        String pathString = path.toString();
+        long fp = fingerprint(pathString);
+        byte[] bytes = null;
+        long mask = capacity - 1;
+        for (long slot = fp & mask; ; slot = (slot + 1) & mask) {
+            long slotFingerprint = get(fingerprints, slot);
+            if (slotFingerprint == EMPTY) {
+                set(fingerprints, slot, fp);
+                set(offsets, slot, append(bytes == null ? pathString.getBytes(UTF_8) : bytes));
+                if (++size > capacity * MAX_LOAD) {
+                    grow();
+                }
+                return true;
+            }
+            if (slotFingerprint == fp) {
+                if (bytes == null) {
+                    bytes = pathString.getBytes(UTF_8);
+                }
+                if (logContains(get(offsets, slot), bytes)) {
+                    duplicates++;
+                    return false;
+                }
+                collisions++;
+            }
+        }
+    }
+
+    long size() { return size;}
+    long getDuplicateCount() { return duplicates;}
+    long getCollisionCount() { return collisions;}
+
+    /**
+     * @return the off heap memory of the table in bytes
+     */
+    long getTableBytes() { return capacity * 16;}
+
+    @Override
+    public void close() throws IOException {
+        fingerprints = null;
+        offsets = null;
+        log.close();
+        Files.deleteIfExists(logFile);
+    }
+
+    @Override
+    public String toString() {
+        return "pathFingerprintSet{size=" + size + ", duplicates=" + duplicates + ", collisions=" + collisions +
+                ", tableBytes=" + getTableBytes() + ", logBytes=" + logPosition + "}";
+    }
+
+    private long fingerprint(String path) {
+        long fp = fingerprint.applyAsLong(path);
+        return fp == EMPTY ? 1 : fp;
+    }
+
+    private long append(byte[] bytes) throws IOException {
+        if (writeBuffer.remaining() < bytes.length + 4) {
+            flush();
+        }
+        long offset = logPosition;
+        if (bytes.length + 4 > writeBuffer.capacity()) {
+            ByteBuffer entry = ByteBuffer.allocate(bytes.length + 4);
+            entry.putInt(bytes.length).put(bytes).flip();
+            writeFully(entry, offset);
+            flushedPosition = offset + entry.capacity();
+        } else {
+            writeBuffer.putInt(bytes.length).put(bytes);
+        }
+        logPosition += bytes.length + 4;
+        return offset;
+    }
+
+    /**
+     * @return true if the entry of the log at offset is the path, read from the write buffer if it is not flushed
+     */
+    private boolean logContains(long offset, byte[] path) throws IOException {
+        if (offset >= flushedPosition) {
+            int index = (int) (offset - flushedPosition);
+            if (writeBuffer.getInt(index) != path.length) {
+                return false;
+            }
+            for (int i = 0; i < path.length; i++) {
+                if (writeBuffer.get(index + 4 + i) != path[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        int entryLength = (int) Math.min(path.length + 4, flushedPosition - offset);
+        if (readBuffer.capacity() < entryLength) {
+            readBuffer = ByteBuffer.allocate(entryLength);
+        }
+        readBuffer.clear().limit(entryLength);
+        readFully(readBuffer, offset);
+        if (entryLength < path.length + 4 || readBuffer.getInt(0) != path.length) {
+            return false;
+        }
+        for (int i = 0; i < path.length; i++) {
+            if (readBuffer.get(4 + i) != path[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void flush() throws IOException {
+        writeBuffer.flip();
+        writeFully(writeBuffer, flushedPosition);
+        flushedPosition = logPosition;
+        writeBuffer.clear();
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += log.write(buffer, position);
+        }
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = log.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("unexpected end of " + logFile);
+            }
+        }
+    }
+
+    private void grow() {
+        LongBuffer[] oldFingerprints = fingerprints;
+        LongBuffer[] oldOffsets = offsets;
+        long oldCapacity = capacity;
+        allocate(capacity * 2);
+        long mask = capacity - 1;
+        for (long i = 0; i < oldCapacity; i++) {
+            long fp = get(oldFingerprints, i);
+            if (fp != EMPTY) {
+                long slot = fp & mask;
+                while (get(fingerprints, slot) != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                set(fingerprints, slot, fp);
+                set(offsets, slot, get(oldOffsets, i));
+            }
+        }
+    }
+
+    private void allocate(long newCapacity) {
+        checkDirectMemory(newCapacity * 16);
+        capacity = newCapacity;
+        int nbSegments = (int) ((capacity + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+        int segmentSize = (int) Math.min(capacity, 1L << SEGMENT_SHIFT);
+        fingerprints = new LongBuffer[nbSegments];
+        offsets = new LongBuffer[nbSegments];
+        for (int i = 0; i < nbSegments; i++) {
+            fingerprints[i] = ByteBuffer.allocateDirect(segmentSize * 8).asLongBuffer();
+            offsets[i] = ByteBuffer.allocateDirect(segmentSize * 8).asLongBuffer();
+        }
+    }
+
+    private void checkDirectMemory(long tableBytes) {
+        long used = ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class).stream()
+                .filter(pool -> "direct".equals(pool.getName())).mapToLong(BufferPoolMXBean::getMemoryUsed).sum();
+        long max = maxDirectMemory();
+        if (used + tableBytes > max) {
+            throw new IllegalStateException("cannot allocate a table of " + (tableBytes >> 20) + "MB for " + size + " paths : " +
+                    (used >> 20) + "MB of direct memory already used out of " + (max >> 20) + "MB, " +
+                    "increase -XX:MaxDirectMemorySize or set the expected number of paths");
+        }
+    }
+
+    /**
+     * @return -XX:MaxDirectMemorySize or the max heap size if it is not set, like the JVM
+     */
+    static long maxDirectMemory() {
+        for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (argument.startsWith("-XX:MaxDirectMemorySize=")) {
+                return parseSize(argument.substring("-XX:MaxDirectMemorySize=".length()));
+            }
+        }
+        return Runtime.getRuntime().maxMemory();
+    }
+
+    static long parseSize(String size) {
+        String value = size.trim().toLowerCase();
+        int shift = "kmgt".indexOf(value.charAt(value.length() - 1)) + 1;
+        return Long.parseLong(shift > 0 ? value.substring(0, value.length() - 1) : value) << (10 * shift);
+    }
+
+    static long tableSize(long expectedPaths) {
+        long slots = Math.max(16, (long) Math.ceil(expectedPaths / MAX_LOAD));
+        return Long.highestOneBit(slots - 1) << 1;
+    }
+
+    private static long get(LongBuffer[] segments, long slot) {
+        return segments[(int) (slot >>> SEGMENT_SHIFT)].get((int) (slot & SEGMENT_MASK));
+    }
+
+    private static void set(LongBuffer[] segments, long slot, long value) {
+        segments[(int) (slot >>> SEGMENT_SHIFT)].put((int) (slot & SEGMENT_MASK), value);
+    }
+}
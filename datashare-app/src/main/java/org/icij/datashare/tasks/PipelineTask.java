@@ -10,8 +10,16 @@ import org.icij.task.DefaultTask;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Predicate;
 
+import static java.lang.Integer.parseInt;
+import static java.util.stream.Collectors.toList;
 import static org.icij.datashare.PropertiesProvider.QUEUE_NAME_OPTION;
 
 public abstract class PipelineTask extends DefaultTask<Long> implements UserTask {
@@ -20,7 +28,9 @@ public abstract class PipelineTask extends DefaultTask<Long> implements UserTask
     protected final User user;
     private final PropertiesProvider propertiesProvider;
     public static Path POISON = Paths.get("POISON");
+    static final String QUEUE_BATCH_SIZE_OPT = "queueBatchSize";
     private final DocumentCollectionFactory factory;
+    protected final int batchSize;
 
     public PipelineTask(DatashareCli.Stage stage, User user, String queueName, DocumentCollectionFactory factory, final PropertiesProvider propertiesProvider) {
         this.factory = factory;
@@ -28,6 +38,7 @@ public abstract class PipelineTask extends DefaultTask<Long> implements UserTask
         this.propertiesProvider = propertiesProvider;
         this.stage = stage;
         this.user = user;
+        this.batchSize = parseInt(propertiesProvider.get(QUEUE_BATCH_SIZE_OPT).orElse("1000"));
     }
 
     public PipelineTask(DatashareCli.Stage stage, User user, DocumentCollectionFactory factory, final PropertiesProvider propertiesProvider) {
@@ -38,20 +49,53 @@ public abstract class PipelineTask extends DefaultTask<Long> implements UserTask
         return transferToOutputQueue(p -> true);
     }
 
+    /**
+     * moves the paths of the queue to the output queue until POISON, by batches of queueBatchSize paths.
+     * The batch is added to the output queue while the next batch is taken from the queue.
+     */
     protected long transferToOutputQueue(Predicate<Path> filter) throws Exception {
         long originalSize = queue.size();
-        try (DocumentQueue outputQueue = factory.createQueue(propertiesProvider, getOutputQueueName())) {
-            Path path;
-            while (!(path = queue.take()).equals(POISON)) {
-                if (filter.test(path)) {
-                    outputQueue.add(path);
-                }
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        try (DocumentQueue outputQueue = createQueue(getOutputQueueName())) {
+            Future<?> pendingWrite = CompletableFuture.completedFuture(null);
+            boolean poisoned = false;
+            while (!poisoned) {
+                List<Path> batch = new ArrayList<>(batchSize);
+                poisoned = !takeBatch(batch);
+                List<Path> filtered = batch.stream().filter(filter).collect(toList());
+                pendingWrite.get();
+                pendingWrite = writer.submit(() -> {
+                    DocumentQueues.putAll(outputQueue, filtered);
+                    return null;
+                });
             }
+            pendingWrite.get();
             outputQueue.add(POISON);
             return originalSize - outputQueue.size();
+        } finally {
+            writer.shutdown();
         }
     }
 
+    /**
+     * takes the next paths of the queue, at most queueBatchSize
+     * @return false if POISON has been taken : the batch has the paths before POISON, and the paths after are put back in the queue
+     */
+    protected boolean takeBatch(List<Path> batch) throws InterruptedException {
+        DocumentQueues.takeBatch(queue, batch, batchSize);
+        int poisonIndex = batch.indexOf(POISON);
+        if (poisonIndex < 0) {
+            return true;
+        }
+        DocumentQueues.putAll(queue, new ArrayList<>(batch.subList(poisonIndex + 1, batch.size())));
+        batch.subList(poisonIndex, batch.size()).clear();
+        return false;
+    }
+
+    protected DocumentQueue createQueue(String queueName) {
+        return factory.createQueue(propertiesProvider, queueName);
+    }
+
     public String getOutputQueueName() {
         return PipelineHelper.getQueueName(propertiesProvider, stage);
     }
@@ -6,6 +6,7 @@ import org.icij.datashare.Entity;
 import org.icij.datashare.PropertiesProvider;
 import org.icij.datashare.text.Document;
 import org.icij.datashare.text.indexing.Indexer;
+import org.icij.datashare.text.indexing.elasticsearch.PrefetchingScroll;
 import org.icij.datashare.user.User;
 import org.icij.datashare.user.UserTask;
 import org.icij.extract.extractor.ExtractionStatus;
@@ -15,14 +16,9 @@ import org.icij.task.DefaultTask;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Optional;
-import java.util.stream.IntStream;
 
 import static java.lang.Integer.parseInt;
-import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toMap;
 
 public class ScanIndexTask extends DefaultTask<Long> implements UserTask {
@@ -48,25 +44,17 @@ public class ScanIndexTask extends DefaultTask<Long> implements UserTask {
     @Override
     public Long call() throws Exception {
         logger.info("scanning index {} with scroll size {} and {} slices", projectName, scrollSize, scrollSlices);
-        Optional<Long> nb = IntStream.range(0, scrollSlices).parallel().mapToObj(this::slicedScroll).reduce(Long::sum);
-        logger.info("imported {} paths into {}", nb.get(), reportMap);
-        reportMap.close();
-        return nb.get();
-    }
-
-    private Long slicedScroll(int sliceNum) {
-        Indexer.Searcher search = indexer.search(projectName, Document.class).withSource("path").limit(scrollSize);
-        List<? extends Entity> docsToProcess = new ArrayList<>();
         long nbProcessed = 0;
-        do {
-            try {
-                docsToProcess = search.scroll(sliceNum, scrollSlices).collect(toList());
+        try (PrefetchingScroll scroll = new PrefetchingScroll(slice ->
+                indexer.search(projectName, Document.class).withSource("path").limit(scrollSize), scrollSlices)) {
+            List<? extends Entity> docsToProcess;
+            while (!(docsToProcess = scroll.nextPage()).isEmpty()) {
                 reportMap.putAll(docsToProcess.stream().map(d -> ((Document) d).getPath()).collect(toMap(p -> p, p -> new Report(ExtractionStatus.SUCCESS), (a, b) -> b)));
                 nbProcessed += docsToProcess.size();
-            } catch (IOException e) {
-                logger.error("error in slice {}", sliceNum, e);
             }
-        } while (docsToProcess.size() != 0);
+        }
+        logger.info("imported {} paths into {}", nbProcessed, reportMap);
+        reportMap.close();
         return nbProcessed;
     }
 
@@ -13,23 +13,51 @@ import org.icij.task.annotation.OptionsClass;
 import java.nio.file.Path;
 import java.util.Properties;
 
+import static java.lang.Boolean.parseBoolean;
+import static java.lang.Integer.parseInt;
+import static java.util.Optional.ofNullable;
+
+/**
+ * scans the data directory and puts the paths of the files to extract in the queue.
+ *
+ * By default the paths are added one by one by the extract {@link ScannerVisitor}. With scanParallelism greater
+ * than 1 or a scanBatchSize, the subtrees are walked by a {@link ParallelScanner} that adds the paths to the queue
+ * by batches of scanBatchSize (1000 by default).
+ */
 @OptionsClass(Scanner.class)
 public class ScanTask extends PipelineTask {
+    static final String SCAN_PARALLELISM_OPT = "scanParallelism";
+    static final String SCAN_MAX_OPEN_DIRS_OPT = "scanMaxOpenDirs";
+    static final String SCAN_BATCH_SIZE_OPT = "scanBatchSize";
     private final Scanner scanner;
     private final Path path;
+    private final Options<String> allOptions;
+    private final Properties properties;
 
     @Inject
     public ScanTask(final DocumentCollectionFactory factory, @Assisted User user, @Assisted String queueName, @Assisted Path path, @Assisted final Properties properties) {
         super(DatashareCli.Stage.SCAN, user, queueName, factory, new PropertiesProvider(properties));
         this.path = path.resolve(user.getPath());
-        Options<String> allOptions = options().createFrom(Options.from(properties));
+        this.properties = properties;
+        allOptions = options().createFrom(Options.from(properties));
         scanner = new Scanner(queue).configure(allOptions);
     }
 
     @Override
     public Long call() throws Exception {
-        ScannerVisitor scannerVisitor = scanner.createScannerVisitor(path);
-        Long scanned = scannerVisitor.call();
+        int parallelism = parseInt(ofNullable(properties.getProperty(SCAN_PARALLELISM_OPT)).orElse("1"));
+        Long scanned;
+        String scanBatchSize = properties.getProperty(SCAN_BATCH_SIZE_OPT);
+        if (parallelism > 1 || scanBatchSize != null) {
+            scanned = new ParallelScanner(allOptions, path, queue, Math.max(1, parallelism),
+                    parseInt(ofNullable(properties.getProperty(SCAN_MAX_OPEN_DIRS_OPT)).orElse("64")),
+                    parseInt(ofNullable(scanBatchSize).orElse("1000")),
+                    parseBoolean(properties.getProperty("followSymlinks")),
+                    parseInt(ofNullable(properties.getProperty("maxDepth")).orElse(String.valueOf(Integer.MAX_VALUE)))).call();
+        } else {
+            ScannerVisitor scannerVisitor = scanner.createScannerVisitor(path);
+            scanned = scannerVisitor.call();
+        }
         queue.add(POISON);
         queue.close();
         return scanned;
@@ -0,0 +1,588 @@
+package org.icij.datashare.tasks;
+
+import org.icij.extract.queue.DocumentQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.*;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * document queue of the memory mode that doesn't block the producers and doesn't keep the paths on the heap.
+ *
+ * The paths are appended to memory-mapped segment files in the queue directory. A path is encoded as
+ * (length of the suffix + 1, length of the prefix shared with the previous path of the segment, suffix in UTF-8),
+ * so that the paths of a scan mostly take the size of their file name. A segment is deleted when all its paths
+ * have been taken.
+ *
+ * Only the next headCapacity paths are read in memory. The position of the last taken path is saved in
+ * the memory-mapped cursor file : a queue created on the directory of a crashed process resumes after the
+ * last path taken, with the paths read ahead in memory. A path is removed from the queue when it is taken
+ * and not when it is processed : the paths that the consumers were processing when the process crashed are
+ * not queued again (at most once delivery). The segments are forced to disk when they are full and when the
+ * queue is closed.
+ *
+ * The segments are unmapped as soon as they are read, so that the disk space of the deleted segments is
+ * released without waiting for the garbage collector. The directory is locked by the queue with a lock
+ * of the cursor file, until the process exits or the queue is released.
+ */
+class SpillDocumentQueue extends AbstractQueue<Path> implements DocumentQueue {
+    static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final String SEGMENT_EXTENSION = ".segment";
+    private static final Logger LOGGER = LoggerFactory.getLogger(SpillDocumentQueue.class);
+    private static final Consumer<MappedByteBuffer> UNMAPPER = unmapper();
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final String name;
+    private final Path dir;
+    private final int segmentSize;
+    private final int headCapacity;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Deque<Entry> head = new ArrayDeque<>();
+    private final FileChannel cursorChannel;
+    private final FileLock directoryLock;
+    private final MappedByteBuffer cursor;
+    private Writer writer;
+    private Reader readAhead;
+    private int size;
+
+    SpillDocumentQueue(String name, Path dir, int headCapacity) throws IOException {
+        this(name, dir, headCapacity, DEFAULT_SEGMENT_SIZE);
+    }
+
+    SpillDocumentQueue(String name, Path dir, int headCapacity, int segmentSize) throws IOException {
+        this.name = name;
+        this.dir = Files.createDirectories(dir);
+        this.headCapacity = Math.max(1, headCapacity);
+        this.segmentSize = segmentSize;
+        cursorChannel = FileChannel.open(dir.resolve("cursor"), CREATE, READ, WRITE);
+        directoryLock = lock(cursorChannel, dir);
+        cursor = cursorChannel.map(FileChannel.MapMode.READ_WRITE, 0, 16);
+        List<Long> segments = segments();
+        // the end of the last segment may have the bytes of a partially written record : a new segment is started
+        writer = new Writer(segments.isEmpty() ? cursor.getLong(0) : segments.get(segments.size() - 1) + 1, segmentSize);
+        segments.add(writer.seq);
+        if (cursor.getLong(0) < segments.get(0)) {
+            commit(segments.get(0), 0);
+        }
+        readAhead = new Reader(cursor.getLong(0), cursor.getLong(8));
+        Reader counter = new Reader(cursor.getLong(0), cursor.getLong(8));
+        for (; counter.hasNext(); counter.next()) {
+            size++;
+        }
+        counter.close();
+        if (size > 0) {
+            logger.info("resuming queue {} with {} paths from {}", name, size, dir);
+        }
+    }
+
+    @Override
+    public String getName() { return name;}
+
+    @Override
+    public boolean offer(Path path) {
+        Objects.requireNonNull(path);
+        lock.lock();
+        try {
+            writer.append(path.toString().getBytes(UTF_8));
+            size++;
+            notEmpty.signal();
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(Path path) {
+        offer(path);
+    }
+
+    @Override
+    public boolean offer(Path path, long timeout, TimeUnit unit) {
+        return offer(path);
+    }
+
+    @Override
+    public Path poll() {
+        lock.lock();
+        try {
+            if (size == 0) {
+                return null;
+            }
+            if (head.isEmpty()) {
+                while (head.size() < headCapacity && readAhead.hasNext()) {
+                    head.add(readAhead.next());
+                }
+            }
+            Entry entry = head.poll();
+            size--;
+            commit(entry.seq, entry.end);
+            return entry.path;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Path take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                notEmpty.await();
+            }
+            return poll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Path poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return poll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Path peek() {
+        lock.lock();
+        try {
+            if (head.isEmpty() && readAhead.hasNext()) {
+                head.add(readAhead.next());
+            }
+            return head.isEmpty() ? null : head.peek().path;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * the queue is only bounded by the disk space : Integer.MAX_VALUE like the redis queues
+     */
+    @Override
+    public int remainingCapacity() { return Integer.MAX_VALUE;}
+
+    @Override
+    public int drainTo(Collection<? super Path> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Path> c, int maxElements) {
+        lock.lock();
+        try {
+            int drained = 0;
+            while (drained < maxElements && size > 0) {
+                c.add(poll());
+                drained++;
+            }
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            head.clear();
+            commit(writer.seq, writer.offset);
+            readAhead.close();
+            readAhead = new Reader(writer.seq, writer.offset);
+            size = 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * re-queues the paths in the same order without the duplicates, with a {@link PathFingerprintSet}
+     */
+    @Override
+    public int removeDuplicates() {
+        lock.lock();
+        try (PathFingerprintSet seen = new PathFingerprintSet(size, dir)) {
+            int duplicates = 0;
+            for (int i = size; i > 0; i--) {
+                Path path = poll();
+                if (seen.add(path)) {
+                    offer(path);
+                } else {
+                    duplicates++;
+                }
+            }
+            return duplicates;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * the paths of the queue are kept : they are forced to disk and the queue can still be used
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            writer.buffer.force();
+            cursor.force();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * releases the lock of the queue directory, so that another queue can use it. This queue must not be used anymore.
+     */
+    void release() throws IOException {
+        lock.lock();
+        try {
+            close();
+            readAhead.close();
+            directoryLock.release();
+            cursorChannel.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * weakly consistent iterator from the next path to take, reading the segments on disk. When the next segment
+     * of the iterator has been taken and deleted meanwhile, it continues from the next path to take.
+     */
+    @Override
+    public Iterator<Path> iterator() {
+        lock.lock();
+        try {
+            return new Iterator<Path>() {
+                private Reader reader = new Reader(cursor.getLong(0), cursor.getLong(8));
+
+                @Override
+                public boolean hasNext() {
+                    lock.lock();
+                    try {
+                        return readerHasNext();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+
+                @Override
+                public Path next() {
+                    lock.lock();
+                    try {
+                        if (!readerHasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        return reader.next().path;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+
+                private boolean readerHasNext() throws IOException {
+                    try {
+                        boolean hasNext = reader.hasNext();
+                        if (!hasNext) {
+                            reader.close();
+                        }
+                        return hasNext;
+                    } catch (NoSuchFileException e) {
+                        reader.close();
+                        reader = new Reader(cursor.getLong(0), cursor.getLong(8));
+                        return readerHasNext();
+                    }
+                }
+            };
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * the cursor is changed so that a crash between two writes re-queues paths instead of losing them,
+     * then the segments before the cursor are deleted
+     */
+    private void commit(long seq, long offset) throws IOException {
+        long previousSeq = cursor.getLong(0);
+        if (seq != previousSeq) {
+            cursor.putLong(8, 0);
+            cursor.putLong(0, seq);
+            for (long s = previousSeq; s < seq; s++) {
+                Files.deleteIfExists(segment(s));
+            }
+        }
+        cursor.putLong(8, offset);
+    }
+
+    private Path segment(long seq) {
+        return dir.resolve(String.format("%016d%s", seq, SEGMENT_EXTENSION));
+    }
+
+    private List<Long> segments() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(p -> p.getFileName().toString()).filter(f -> f.endsWith(SEGMENT_EXTENSION))
+                    .map(f -> Long.parseLong(f.substring(0, f.length() - SEGMENT_EXTENSION.length())))
+                    .sorted().collect(toList());
+        }
+    }
+
+    private static FileLock lock(FileChannel channel, Path dir) throws IOException {
+        try {
+            FileLock fileLock = channel.tryLock();
+            if (fileLock != null) {
+                return fileLock;
+            }
+        } catch (OverlappingFileLockException e) {
+            // locked by another queue of this process
+        }
+        channel.close();
+        throw new IOException("queue directory " + dir + " is used by another queue");
+    }
+
+    private static MappedByteBuffer map(Path file, FileChannel.MapMode mode, long size) throws IOException {
+        try (FileChannel channel = mode == FileChannel.MapMode.READ_ONLY ?
+                FileChannel.open(file, READ) : FileChannel.open(file, CREATE, READ, WRITE)) {
+            return channel.map(mode, 0, size < 0 ? channel.size() : size);
+        }
+    }
+
+    private static class Entry {
+        final Path path;
+        final long seq;
+        final int end;
+
+        Entry(Path path, long seq, int end) {
+            this.path = path;
+            this.seq = seq;
+            this.end = end;
+        }
+    }
+
+    /**
+     * decodes the paths of the segments from a position. A record starts with a non zero byte,
+     * so the end of the written records of a segment is the first zero byte.
+     */
+    private class Reader {
+        long seq;
+        MappedByteBuffer buffer;
+        int offset;
+        byte[] previous;
+
+        Reader(long seq, long offset) throws IOException {
+            open(seq);
+            while (this.offset < offset && hasRecord()) {
+                next();
+            }
+        }
+
+        boolean hasNext() throws IOException {
+            while (!hasRecord()) {
+                if (seq >= writer.seq) {
+                    return false;
+                }
+                open(seq + 1);
+            }
+            return true;
+        }
+
+        Entry next() {
+            ByteBuffer record = buffer.duplicate();
+            record.position(offset);
+            int suffixLength = readVarInt(record) - 1;
+            int shared = readVarInt(record);
+            byte[] bytes = Arrays.copyOf(previous, shared + suffixLength);
+            record.get(bytes, shared, suffixLength);
+            previous = bytes;
+            offset = record.position();
+            return new Entry(Paths.get(new String(bytes, UTF_8)), seq, offset);
+        }
+
+        /**
+         * unmaps the segment : the reader must not be used anymore
+         */
+        void close() {
+            if (buffer != null) {
+                UNMAPPER.accept(buffer);
+                buffer = null;
+            }
+        }
+
+        private boolean hasRecord() {
+            return buffer != null && offset < buffer.capacity() && buffer.get(offset) != 0;
+        }
+
+        private void open(long seq) throws IOException {
+            MappedByteBuffer segmentBuffer = map(segment(seq), FileChannel.MapMode.READ_ONLY, -1);
+            close();
+            this.seq = seq;
+            this.buffer = segmentBuffer;
+            this.offset = 0;
+            this.previous = new byte[0];
+        }
+    }
+
+    private class Writer {
+        final long seq;
+        final MappedByteBuffer buffer;
+        int offset;
+        byte[] previous;
+
+        Writer(long seq, int size) throws IOException {
+            this.seq = seq;
+            this.buffer = map(segment(seq), FileChannel.MapMode.READ_WRITE, size);
+            this.offset = 0;
+            this.previous = new byte[0];
+        }
+
+        void append(byte[] bytes) throws IOException {
+            int shared = sharedPrefix(previous, bytes);
+            if (offset + recordSize(bytes.length, shared) > buffer.capacity()) {
+                buffer.force();
+                writer = new Writer(seq + 1, Math.max(segmentSize, recordSize(bytes.length, 0)));
+                UNMAPPER.accept(buffer);
+                writer.append(bytes);
+                return;
+            }
+            byte[] length = varInt(bytes.length - shared + 1);
+            ByteBuffer record = buffer.duplicate();
+            record.position(offset + length.length);
+            record.put(varInt(shared));
+            record.put(bytes, shared, bytes.length - shared);
+            // the first byte is written last : it marks the record as complete
+            for (int i = length.length - 1; i >= 0; i--) {
+                buffer.put(offset + i, length[i]);
+            }
+            offset = record.position();
+            previous = bytes;
+        }
+    }
+
+    /**
+     * @return the function releasing the mapping of a buffer (Unsafe.invokeCleaner since java 9, the cleaner of
+     * the buffer with java 8), or a function leaving it to the garbage collector if none is accessible
+     */
+    private static Consumer<MappedByteBuffer> unmapper() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Object unsafe = theUnsafe.get(null);
+            return buffer -> invoke(invokeCleaner, unsafe, buffer);
+        } catch (NoSuchMethodException java8) {
+            try {
+                Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+                Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+                return buffer -> invoke(clean, invoke(cleaner, buffer));
+            } catch (ReflectiveOperationException e) {
+                LOGGER.warn("cannot unmap buffers, segments will be unmapped by the garbage collector", e);
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOGGER.warn("cannot unmap buffers, segments will be unmapped by the garbage collector", e);
+        }
+        return buffer -> {};
+    }
+
+    private static Object invoke(Method method, Object target, Object... args) {
+        try {
+            return method.invoke(target, args);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("cannot unmap buffer", e);
+        }
+    }
+
+    private static int recordSize(int length, int shared) {
+        return varInt(length - shared + 1).length + varInt(shared).length + length - shared;
+    }
+
+    private static int sharedPrefix(byte[] previous, byte[] bytes) {
+        int max = Math.min(previous.length, bytes.length);
+        int shared = 0;
+        while (shared < max && previous[shared] == bytes[shared]) {
+            shared++;
+        }
+        return shared;
+    }
+
+    private static byte[] varInt(int value) {
+        byte[] bytes = new byte[5];
+        int length = 0;
+        while ((value & ~0x7F) != 0) {
+            bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[length++] = (byte) value;
+        return Arrays.copyOf(bytes, length);
+    }
+
+    private static int readVarInt(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+}
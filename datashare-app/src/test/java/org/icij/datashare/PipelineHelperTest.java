@@ -34,4 +34,15 @@ public class PipelineHelperTest {
         assertThat(pipelineHelper.getQueueNameFor(DatashareCli.Stage.DEDUPLICATE)).isEqualTo("extract:queue");
         assertThat(pipelineHelper.getQueueNameFor(DatashareCli.Stage.INDEX)).isEqualTo("extract:queue:deduplicate");
     }
+
+    @Test
+    public void test_get_queue_name_scan_delta_index() {
+        PipelineHelper pipelineHelper = new PipelineHelper(new PropertiesProvider(new HashMap<String, String>() {{
+            put("stages", "INDEX,DELTA,SCAN");
+            put("queueName", "extract:queue");
+        }}));
+        assertThat(pipelineHelper.getQueueNameFor(DatashareCli.Stage.SCAN)).isEqualTo("extract:queue");
+        assertThat(pipelineHelper.getQueueNameFor(DatashareCli.Stage.DELTA)).isEqualTo("extract:queue");
+        assertThat(pipelineHelper.getQueueNameFor(DatashareCli.Stage.INDEX)).isEqualTo("extract:queue:delta");
+    }
 }
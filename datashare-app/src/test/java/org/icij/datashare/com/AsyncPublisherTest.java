@@ -0,0 +1,115 @@
+package org.icij.datashare.com;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static java.util.Collections.synchronizedList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
+import static org.fest.assertions.Assertions.assertThat;
+
+public class AsyncPublisherTest {
+    private final List<Message> published = synchronizedList(new ArrayList<>());
+    private final Publisher slowPublisher = (channel, message) -> {
+        try {
+            Thread.sleep(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        published.add(message);
+    };
+    private AsyncPublisher publisher = new AsyncPublisher(slowPublisher, 4, 2);
+
+    @Test
+    public void test_flush_sends_messages_in_order() {
+        List<Message> messages = IntStream.range(0, 20).mapToObj(i -> new Message(Message.Type.EXTRACT_NLP).add(Message.Field.DOC_ID, "doc" + i)).collect(toList());
+
+        messages.forEach(m -> publisher.publish(Channel.NLP, m));
+        publisher.flush();
+
+        assertThat(published).isEqualTo(messages);
+        assertThat(publisher.getPublishedCount()).isEqualTo(20);
+        assertThat(publisher.getQueueSize()).isEqualTo(0);
+    }
+
+    @Test
+    public void test_back_pressure_when_buffer_is_full() {
+        IntStream.range(0, 50).forEach(i -> publisher.publish(Channel.NLP, new Message(Message.Type.EXTRACT_NLP)));
+        publisher.flush();
+
+        assertThat(published).hasSize(50);
+        assertThat(publisher.getBackPressureCount()).isGreaterThan(0);
+    }
+
+    @Test(timeout = 10000)
+    public void test_concurrent_producers() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        IntStream.range(0, 4).forEach(t -> executor.submit(() ->
+                IntStream.range(0, 25).forEach(i -> publisher.publish(Channel.NLP, new Message(Message.Type.EXTRACT_NLP)))));
+        executor.shutdown();
+        executor.awaitTermination(5, SECONDS);
+
+        publisher.close();
+
+        assertThat(published).hasSize(100);
+    }
+
+    @Test
+    public void test_failed_batch_is_retried() {
+        AtomicInteger failures = new AtomicInteger(AsyncPublisher.MAX_ATTEMPTS - 1);
+        AsyncPublisher failingPublisher = new AsyncPublisher((channel, message) -> {
+            if (failures.getAndDecrement() > 0) {
+                throw new IllegalStateException("connection lost");
+            }
+            published.add(message);
+        }, 4, 1, 0);
+
+        failingPublisher.publish(Channel.NLP, new Message(Message.Type.EXTRACT_NLP));
+        failingPublisher.close();
+
+        assertThat(published).hasSize(1);
+        assertThat(failingPublisher.getPublishedCount()).isEqualTo(1);
+        assertThat(failingPublisher.getFailedCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void test_failed_batch_is_counted_after_max_attempts() {
+        AsyncPublisher failingPublisher = new AsyncPublisher((channel, message) -> {
+            throw new IllegalStateException("connection lost");
+        }, 4, 2, 0);
+
+        IntStream.range(0, 3).forEach(i -> failingPublisher.publish(Channel.NLP, new Message(Message.Type.EXTRACT_NLP)));
+        failingPublisher.close();
+
+        assertThat(failingPublisher.getPublishedCount()).isEqualTo(0);
+        assertThat(failingPublisher.getFailedCount()).isEqualTo(3);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void test_publish_after_close() {
+        publisher.close();
+        publisher.publish(Channel.NLP, new Message(Message.Type.EXTRACT_NLP));
+    }
+
+    @Test
+    public void test_ring_buffer_capacity_is_power_of_two() {
+        AsyncPublisher.RingBuffer<String> buffer = new AsyncPublisher.RingBuffer<>(3);
+        assertThat(buffer.capacity()).isEqualTo(4);
+        IntStream.range(0, 4).forEach(i -> assertThat(buffer.offer("e" + i)).isTrue());
+        assertThat(buffer.offer("e4")).isFalse();
+        assertThat(buffer.poll()).isEqualTo("e0");
+        assertThat(buffer.offer("e4")).isTrue();
+    }
+
+    @After
+    public void tearDown() {
+        publisher.close();
+    }
+}
@@ -0,0 +1,172 @@
+package org.icij.datashare.com;
+
+import org.icij.datashare.PropertiesProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import redis.clients.jedis.Jedis;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.synchronizedList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.icij.datashare.com.Message.Field.DOC_ID;
+import static org.icij.datashare.com.Message.Type.EXTRACT_NLP;
+
+public class RedisStreamDataBusTest {
+    private ExecutorService executorService = Executors.newFixedThreadPool(2);
+    RedisStreamDataBus dataBus = new RedisStreamDataBus(new PropertiesProvider(new HashMap<String, String>() {{
+        put("streamClaimIdleMs", "200");
+        put("streamPollMs", "10");
+    }}));
+
+    @Before
+    public void setUp() {
+        try (Jedis jedis = new Jedis("redis")) {
+            jedis.del(RedisStreamDataBus.stream(Channel.TEST), RedisStreamDataBus.controlStream(Channel.TEST),
+                    RedisStreamDataBus.deadLetterStream(Channel.TEST));
+        }
+    }
+
+    @Test
+    public void test_subscribe_unsubscribe() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        Consumer<Message> callback = System.out::println;
+        executorService.submit(() -> dataBus.subscribe(callback, latch::countDown, Channel.TEST));
+        latch.await(2, SECONDS);
+
+        dataBus.unsubscribe(callback);
+
+        executorService.shutdown();
+        assertThat(executorService.awaitTermination(1, SECONDS)).isTrue();
+    }
+
+    @Test
+    public void test_messages_published_before_subscription_are_received() throws InterruptedException {
+        dataBus.publish(Channel.TEST, asList(message("doc1"), message("doc2")));
+        List<Message> received = synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(1);
+        executorService.submit(() -> dataBus.subscribe(received::add, latch::countDown, Channel.TEST));
+        latch.await(2, SECONDS);
+
+        dataBus.publish(Channel.TEST, new ShutdownMessage());
+        executorService.shutdown();
+        executorService.awaitTermination(2, SECONDS);
+
+        assertThat(received).hasSize(3);
+        assertThat(received.get(0)).isEqualTo(message("doc1"));
+        assertThat(received.get(2).type).isEqualTo(Message.Type.SHUTDOWN);
+    }
+
+    @Test
+    public void test_subscribers_of_a_group_share_the_messages() throws InterruptedException {
+        List<Message> received1 = synchronizedList(new ArrayList<>());
+        List<Message> received2 = synchronizedList(new ArrayList<>());
+        CountDownLatch latch = new CountDownLatch(2);
+        executorService.submit(() -> dataBus.subscribe("group", received1::add, latch::countDown, Channel.TEST));
+        executorService.submit(() -> dataBus.subscribe("group", received2::add, latch::countDown, Channel.TEST));
+        latch.await(2, SECONDS);
+
+        for (int i = 0; i < 100; i++) {
+            dataBus.publish(Channel.TEST, message("doc" + i));
+        }
+        dataBus.publish(Channel.TEST, new ShutdownMessage());
+        executorService.shutdown();
+        executorService.awaitTermination(2, SECONDS);
+
+        assertThat(received1.stream().filter(m -> m.type == EXTRACT_NLP).count() +
+                received2.stream().filter(m -> m.type == EXTRACT_NLP).count()).isEqualTo(100);
+        assertThat(received1.get(received1.size() - 1).type).isEqualTo(Message.Type.SHUTDOWN);
+        assertThat(received2.get(received2.size() - 1).type).isEqualTo(Message.Type.SHUTDOWN);
+    }
+
+    @Test
+    public void test_acknowledged_messages_are_not_pending() throws InterruptedException {
+        dataBus.publish(Channel.TEST, asList(message("doc1"), message("doc2")));
+
+        dataBus.subscribe("group", m -> { if (m.type == EXTRACT_NLP) dataBus.ack("group", Channel.TEST, m);},
+                () -> dataBus.publish(Channel.TEST, new ShutdownMessage()), Channel.TEST);
+
+        assertThat(dataBus.getPendingCount("group", Channel.TEST)).isEqualTo(0);
+    }
+
+    @Test
+    public void test_messages_not_acknowledged_are_delivered_again() throws InterruptedException {
+        dataBus.publish(Channel.TEST, asList(message("doc1"), message("doc2")));
+        Consumer<Message> dyingSubscriber = m -> {};
+        CountDownLatch latch = new CountDownLatch(1);
+        executorService.submit(() -> dataBus.subscribe("group", dyingSubscriber, latch::countDown, Channel.TEST));
+        latch.await(2, SECONDS);
+        Thread.sleep(100);
+        dataBus.unsubscribe(dyingSubscriber);
+        assertThat(dataBus.getPendingCount("group", Channel.TEST)).isEqualTo(2);
+
+        List<Message> received = synchronizedList(new ArrayList<>());
+        Thread.sleep(300);
+        dataBus.subscribe("group", m -> { received.add(m); if (m.type == EXTRACT_NLP) dataBus.ack("group", Channel.TEST, m);},
+                () -> dataBus.publish(Channel.TEST, new ShutdownMessage()), Channel.TEST);
+
+        assertThat(received).hasSize(3);
+        assertThat(dataBus.getRedeliveredCount()).isEqualTo(2);
+        assertThat(dataBus.getPendingCount("group", Channel.TEST)).isEqualTo(0);
+    }
+
+    @Test
+    public void test_messages_are_not_read_beyond_the_in_flight_window() throws InterruptedException {
+        RedisStreamDataBus windowedBus = new RedisStreamDataBus(new PropertiesProvider(new HashMap<String, String>() {{
+            put("streamPollMs", "10");
+            put("streamMaxInFlight", "2");
+        }}));
+        windowedBus.publish(Channel.TEST, asList(message("doc1"), message("doc2"), message("doc3")));
+        List<Message> received = synchronizedList(new ArrayList<>());
+        Consumer<Message> subscriber = received::add;
+        CountDownLatch latch = new CountDownLatch(1);
+        executorService.submit(() -> windowedBus.subscribe("group", subscriber, latch::countDown, Channel.TEST));
+        latch.await(2, SECONDS);
+        Thread.sleep(200);
+
+        assertThat(received).hasSize(2);
+        assertThat(windowedBus.getInFlightCount("group", Channel.TEST)).isEqualTo(2);
+
+        windowedBus.ack("group", Channel.TEST, received.get(0));
+        Thread.sleep(200);
+        windowedBus.unsubscribe(subscriber);
+        windowedBus.close();
+
+        assertThat(received).hasSize(3);
+        assertThat(received.get(2)).isEqualTo(message("doc3"));
+    }
+
+    @Test
+    public void test_dead_lettered_messages_are_moved_to_the_dead_letter_stream() throws InterruptedException {
+        dataBus.publish(Channel.TEST, asList(message("doc1"), message("doc2")));
+
+        dataBus.subscribe("group", m -> { if (m.type == EXTRACT_NLP) dataBus.deadLetter("group", Channel.TEST, m);},
+                () -> dataBus.publish(Channel.TEST, new ShutdownMessage()), Channel.TEST);
+
+        assertThat(dataBus.getPendingCount("group", Channel.TEST)).isEqualTo(0);
+        assertThat(dataBus.getInFlightCount("group", Channel.TEST)).isEqualTo(0);
+        assertThat(dataBus.getDeadLetteredCount()).isEqualTo(2);
+        try (Jedis jedis = new Jedis("redis")) {
+            assertThat(jedis.eval("return redis.call('XLEN', KEYS[1])", 1, RedisStreamDataBus.deadLetterStream(Channel.TEST))).isEqualTo(2L);
+        }
+    }
+
+    private static Message message(String docId) {
+        return new Message(EXTRACT_NLP).add(DOC_ID, docId);
+    }
+
+    @After
+    public void tearDown() {
+        executorService.shutdownNow();
+        dataBus.close();
+    }
+}
@@ -0,0 +1,56 @@
+package org.icij.datashare.nlp;
+
+import org.icij.datashare.PropertiesProvider;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+
+/**
+ * compares the email scanner with the regexp on a mailbox-like text
+ */
+public class BenchEmailPipeline {
+    static Logger logger = LoggerFactory.getLogger(BenchEmailPipeline.class);
+    private static final String LINES = "From: \"John Doe\" <john.doe@example.org>\n" +
+            "To: jane@example.com, \"Support\" <support@example.co.uk>\n" +
+            "Subject: re: the report\n\n" +
+            "The committee published its report on offshore companies and the banks that helped them.\n" +
+            "Please send the documents to the usual address (not @home).\n";
+    private static final String UNQUOTED_LINES = "From: john.doe@example.org\n" +
+            "To: jane@example.com, support@example.co.uk\n" +
+            "Subject: re: the report\n\n" +
+            "The committee published its report on offshore companies and the banks that helped them.\n";
+
+    @Test
+    public void testScannerVersusRegex() {
+        EmailPipeline scanner = new EmailPipeline(new PropertiesProvider());
+        EmailPipeline regex = new EmailPipeline(new PropertiesProvider(new HashMap<String, String>() {{
+            put(EmailPipeline.REGEX_PROP, "true");
+        }}));
+        for (String lines : new String[] {LINES, UNQUOTED_LINES}) {
+            for (int size : new int[] {100_000, 1_000_000, 10_000_000}) {
+                String text = OptimaizeLanguageGuesserTest.repeat(lines, size / lines.length() + 1);
+                for (int warmup = 0; warmup < 3; warmup++) {
+                    count(scanner, text);
+                    count(regex, text);
+                }
+                long beginTime = System.currentTimeMillis();
+                int nbRegex = count(regex, text);
+                long regexMs = System.currentTimeMillis() - beginTime;
+
+                beginTime = System.currentTimeMillis();
+                int nbScanner = count(scanner, text);
+                long scannerMs = System.currentTimeMillis() - beginTime;
+                logger.info("{} chars{} : regex {} emails in {}ms, scanner {} emails in {}ms", size, lines == LINES ? "" : " without quotes",
+                        nbRegex, regexMs, nbScanner, scannerMs);
+            }
+        }
+    }
+
+    private static int count(EmailPipeline pipeline, String text) {
+        int[] nb = {0};
+        pipeline.findEmails(text, (email, start) -> nb[0]++);
+        return nb[0];
+    }
+}
@@ -0,0 +1,47 @@
+package org.icij.datashare.nlp;
+
+import org.icij.datashare.text.Language;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.icij.datashare.nlp.OptimaizeLanguageGuesserTest.repeat;
+
+public class BenchLanguageGuesser {
+    static Logger logger = LoggerFactory.getLogger(BenchLanguageGuesser.class);
+    private static final Map<Language, String> SENTENCES = new HashMap<Language, String>() {{
+        put(Language.ENGLISH, "The committee published its report on offshore companies and the banks that helped them. ");
+        put(Language.FRENCH, "Le comité a publié son rapport sur les sociétés offshore et les banques qui les ont aidées. ");
+        put(Language.SPANISH, "El comité publicó su informe sobre las empresas offshore y los bancos que las ayudaron. ");
+        put(Language.GERMAN, "Der Ausschuss veröffentlichte seinen Bericht über Offshore-Firmen und die Banken, die ihnen halfen. ");
+    }};
+
+    @Test
+    public void testSampledVersusFullText() throws IOException {
+        OptimaizeLanguageGuesser guesser = new OptimaizeLanguageGuesser();
+        int[] sizes = {1_000, 100_000, 1_000_000, 10_000_000};
+        for (int size : sizes) {
+            long fullTextMs = 0;
+            long sampledMs = 0;
+            int fullTextHits = 0;
+            int sampledHits = 0;
+            for (Map.Entry<Language, String> entry : SENTENCES.entrySet()) {
+                String text = repeat(entry.getValue(), size / entry.getValue().length() + 1);
+
+                long beginTime = System.currentTimeMillis();
+                fullTextHits += guesser.guessFullText(text) == entry.getKey() ? 1 : 0;
+                fullTextMs += System.currentTimeMillis() - beginTime;
+
+                beginTime = System.currentTimeMillis();
+                sampledHits += guesser.guess(text) == entry.getKey() ? 1 : 0;
+                sampledMs += System.currentTimeMillis() - beginTime;
+            }
+            logger.info("{} chars : full text {}/{} right in {}ms, sampled {}/{} right in {}ms", size,
+                    fullTextHits, SENTENCES.size(), fullTextMs, sampledHits, SENTENCES.size(), sampledMs);
+        }
+    }
+}
@@ -76,6 +76,17 @@ public class EmailPipelineTest {
         assertThat(annotations).hasSize(10);
     }
 
+    @Test
+    public void test_acceptance_with_regex() throws IOException {
+        EmailPipeline regexPipeline = new EmailPipeline(new PropertiesProvider(new HashMap<String, String>() {{
+            put(REGEX_PROP, "true");
+        }}));
+        Path emailFile = Paths.get(getClass().getResource("/email.eml").getPath());
+        Document doc = createDocument(new String(Files.readAllBytes(emailFile)), "docId", Language.ENGLISH);
+
+        assertThat(regexPipeline.process(doc)).isEqualTo(pipeline.process(doc));
+    }
+
     @Test
     public void test_adds_document_headers_parsing_for_email() {
         Document doc = createDoc("docid").with("hello@world.com").ofMimeType("message/rfc822").with(new HashMap<String, Object>() {{
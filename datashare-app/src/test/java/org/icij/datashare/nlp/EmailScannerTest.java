@@ -0,0 +1,122 @@
+package org.icij.datashare.nlp;
+
+import org.icij.datashare.PropertiesProvider;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.fest.assertions.Assertions.assertThat;
+
+public class EmailScannerTest {
+    private final Pattern pattern = new EmailPipeline(new PropertiesProvider()).pattern;
+
+    @Test
+    public void test_no_email() {
+        assertConformance("");
+        assertConformance("no email here");
+        assertConformance("an arobase (@) alone");
+    }
+
+    @Test
+    public void test_simple_emails() {
+        assertThat(scan("contact john.doe@example.org or jane@example.co.uk.")).containsExactly("8:john.doe@example.org", "32:jane@example.co.uk");
+        assertConformance("a@b.c d@e.f");
+        assertConformance("mailto:foo+bar@baz-qux.com, <foo_bar@baz.com>");
+    }
+
+    @Test
+    public void test_local_part() {
+        assertConformance(".john@doe.com");
+        assertConformance("john.@doe.com");
+        assertConformance("john..doe@example.com");
+        assertConformance("john.doe.@example.com");
+        assertConformance("John.Doe@example.com");
+        assertConformance("!#$%&'*+/=?^_`{|}~-@example.com");
+        assertConformance("j\u00f6hn@example.com");
+    }
+
+    @Test
+    public void test_domain() {
+        assertConformance("john@localhost");
+        assertConformance("john@example.com.");
+        assertConformance("john@example.com-");
+        assertConformance("john@-example.com");
+        assertConformance("john@example-.com");
+        assertConformance("john@example..com");
+        assertConformance("john@a.b-c.d--");
+        assertConformance("john@Example.com");
+        assertConformance("john@example.Com");
+        assertConformance("john@example.com@other.org");
+    }
+
+    @Test
+    public void test_quoted_local_part() {
+        assertThat(scan("\"john doe\"@example.com \"john\\ doe\"@example.com")).containsExactly("23:\"john\\ doe\"@example.com");
+        assertConformance("\"a@b.com\"@example.com");
+        assertConformance("say \"hello\" to john@example.com");
+        assertConformance("\"unclosed john@example.com");
+        assertConformance("\"john\\\"doe\"@example.com");
+        assertConformance("\"\"@example.com");
+    }
+
+    @Test
+    public void test_domain_literal() {
+        assertConformance("john@[127.0.0.1]");
+        assertConformance("john@[256.0.0.1]");
+        assertConformance("john@[1.2.3.tag:content]");
+        assertConformance("john@[1.2.3]");
+    }
+
+    @Test
+    public void test_email_file() throws IOException {
+        assertConformance(new String(Files.readAllBytes(Paths.get(getClass().getResource("/email.eml").getPath()))));
+    }
+
+    @Test
+    public void test_random_texts() {
+        String[] alphabets = {"ab.@\"- ", "a.@\"\\ -[]1:9Z", "ab1.@-\"\\ \t\nA[]:25.\u00e9", "a@.b-c\"", "xy@\"\\.[]0125:-z "};
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            String alphabet = alphabets[random.nextInt(alphabets.length)];
+            StringBuilder text = new StringBuilder();
+            for (int j = random.nextInt(40); j > 0; j--) {
+                text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            assertConformance(text.toString());
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void test_large_text_without_quotes() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 50_000; i++) {
+            text.append("please write to john.doe").append(i).append("@example.org about the report. ");
+        }
+        assertConformance(text.toString());
+    }
+
+    private void assertConformance(String text) {
+        List<String> expected = new ArrayList<>();
+        Matcher matcher = pattern.matcher(text);
+        while (matcher.find()) {
+            expected.add(matcher.start() + ":" + matcher.group());
+        }
+        assertThat(scan(text)).as(text).isEqualTo(expected);
+    }
+
+    private List<String> scan(String text) {
+        List<String> emails = new ArrayList<>();
+        EmailScanner scanner = new EmailScanner(pattern, text);
+        while (scanner.find()) {
+            emails.add(scanner.start() + ":" + scanner.group());
+        }
+        return emails;
+    }
+}
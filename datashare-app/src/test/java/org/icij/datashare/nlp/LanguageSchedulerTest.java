@@ -0,0 +1,107 @@
+package org.icij.datashare.nlp;
+
+import org.icij.datashare.com.Message;
+import org.icij.datashare.com.ShutdownMessage;
+import org.icij.datashare.text.Language;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toList;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.MapAssert.entry;
+import static org.icij.datashare.com.Message.Field.DOC_ID;
+import static org.icij.datashare.com.Message.Field.INDEX_NAME;
+import static org.icij.datashare.com.Message.Type.EXTRACT_NLP;
+import static org.icij.datashare.com.Message.Type.SHUTDOWN;
+import static org.icij.datashare.text.Language.ENGLISH;
+import static org.icij.datashare.text.Language.FRENCH;
+
+public class LanguageSchedulerTest {
+    private final Map<String, Language> languages = new HashMap<String, Language>() {{
+        put("en1", ENGLISH); put("en2", ENGLISH); put("en3", ENGLISH);
+        put("fr1", FRENCH); put("fr2", FRENCH);
+    }};
+    private final Function<List<Message>, List<Language>> resolver =
+            messages -> messages.stream().map(m -> languages.get(m.content.get(DOC_ID))).collect(toList());
+
+    @Test
+    public void test_route_by_language() throws Exception {
+        LanguageScheduler scheduler = new LanguageScheduler(resolver, 10);
+
+        scheduler.route(asList(message("fr1"), message("en1"), message("fr2"), message("en2"), message("en3")));
+
+        assertThat(scheduler.size()).isEqualTo(5);
+        assertThat(scheduler.getPendingByLanguage()).includes(entry(ENGLISH, 3), entry(FRENCH, 2));
+        assertThat(scheduler.hasPendingWork(FRENCH)).isTrue();
+    }
+
+    @Test
+    public void test_poll_language_with_most_pending_messages() throws Exception {
+        LanguageScheduler scheduler = new LanguageScheduler(resolver, 10);
+        scheduler.route(asList(message("fr1"), message("en1"), message("fr2"), message("en2"), message("en3")));
+
+        assertThat(scheduler.poll().content.get(DOC_ID)).isEqualTo("en1");
+    }
+
+    @Test
+    public void test_poll_resident_language_first() throws Exception {
+        LanguageScheduler scheduler = new LanguageScheduler(resolver, 10).withResidency(l -> l == FRENCH);
+        scheduler.route(asList(message("fr1"), message("en1"), message("fr2"), message("en2"), message("en3")));
+
+        assertThat(docIds(scheduler, 5)).containsExactly("fr1", "fr2", "en1", "en2", "en3");
+        assertThat(scheduler.hasPendingWork(FRENCH)).isFalse();
+    }
+
+    @Test
+    public void test_poll_language_waiting_more_than_max_wait_first() throws Exception {
+        LanguageScheduler scheduler = new LanguageScheduler(resolver, 10).withResidency(l -> l == ENGLISH).withMaxWait(10);
+        scheduler.route(asList(message("fr1")));
+        Thread.sleep(20);
+        scheduler.route(asList(message("en1"), message("en2"), message("en3")));
+
+        assertThat(docIds(scheduler, 4)).containsExactly("fr1", "en1", "en2", "en3");
+    }
+
+    @Test
+    public void test_shutdown_is_delivered_after_language_messages() throws Exception {
+        LanguageScheduler scheduler = new LanguageScheduler(resolver, 10);
+        scheduler.route(asList(message("en1"), new ShutdownMessage(), message("fr1")));
+
+        assertThat(scheduler.poll().type).isEqualTo(EXTRACT_NLP);
+        assertThat(scheduler.poll().type).isEqualTo(EXTRACT_NLP);
+        assertThat(scheduler.poll().type).isEqualTo(SHUTDOWN);
+        assertThat(scheduler.poll()).isNull();
+    }
+
+    @Test
+    public void test_unknown_documents_are_delivered_first() throws Exception {
+        LanguageScheduler scheduler = new LanguageScheduler(resolver, 10);
+
+        scheduler.route(asList(message("en1"), message("unknown")));
+
+        assertThat(scheduler.size()).isEqualTo(2);
+        assertThat(docIds(scheduler, 2)).containsExactly("unknown", "en1");
+    }
+
+    @Test
+    public void test_offer_returns_false_when_full() {
+        LanguageScheduler scheduler = new LanguageScheduler(resolver, 1);
+
+        assertThat(scheduler.offer(message("en1"))).isTrue();
+        assertThat(scheduler.offer(message("en2"))).isFalse();
+    }
+
+    private static List<String> docIds(LanguageScheduler scheduler, int nb) {
+        return IntStream.range(0, nb).mapToObj(i -> scheduler.poll().content.get(DOC_ID)).collect(toList());
+    }
+
+    private static Message message(String docId) {
+        return new Message(EXTRACT_NLP).add(DOC_ID, docId).add(INDEX_NAME, "prj");
+    }
+}
@@ -0,0 +1,114 @@
+package org.icij.datashare.nlp;
+
+import org.icij.datashare.text.Document;
+import org.icij.datashare.text.NamedEntity;
+import org.icij.datashare.text.nlp.AbstractPipeline;
+import org.icij.datashare.text.nlp.corenlp.CorenlpPipeline;
+import org.icij.datashare.text.nlp.corenlp.models.CoreNlpModels;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.List;
+import java.util.Properties;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.icij.datashare.text.DocumentBuilder.createDoc;
+import static org.icij.datashare.text.Language.ENGLISH;
+import static org.icij.datashare.text.Language.FRENCH;
+import static org.icij.datashare.text.NamedEntity.Category.LOCATION;
+import static org.icij.datashare.text.NamedEntity.Category.PERSON;
+import static org.icij.datashare.text.nlp.Pipeline.Type.CORENLP;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class NerResultStoreTest {
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+    private final AbstractPipeline pipeline = mock(AbstractPipeline.class);
+    private NerResultStore store;
+
+    @Before
+    public void setUp() {
+        when(pipeline.getType()).thenReturn(CORENLP);
+        store = new NerResultStore(folder.getRoot().toPath(), 1024 * 1024);
+    }
+
+    @Test
+    public void test_get_unknown_content() {
+        assertThat(store.get(pipeline, createDoc("doc").with("John Doe lives in Paris").with(ENGLISH).build())).isNull();
+        assertThat(store.getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void test_get_remaps_entities_to_the_document() {
+        Document doc = createDoc("doc1").with("John Doe lives in Paris").with(ENGLISH).build();
+        store.put(pipeline, doc, asList(
+                NamedEntity.create(PERSON, "John Doe", 0, doc.getId(), doc.getRootDocument(), CORENLP, ENGLISH),
+                NamedEntity.create(LOCATION, "Paris", 18, doc.getId(), doc.getRootDocument(), CORENLP, ENGLISH)));
+
+        Document copy = createDoc("doc2").with("John Doe lives in Paris").with(ENGLISH).withRootId("root").build();
+        List<NamedEntity> namedEntities = store.get(pipeline, copy);
+
+        assertThat(namedEntities).hasSize(2);
+        assertThat(namedEntities.get(0).getMention()).isEqualTo("John Doe");
+        assertThat(namedEntities.get(0).getCategory()).isEqualTo(PERSON);
+        assertThat(namedEntities.get(1).getOffset()).isEqualTo(18);
+        assertThat(namedEntities.get(1).getDocumentId()).isEqualTo("doc2");
+        assertThat(namedEntities.get(1).getRootDocument()).isEqualTo("root");
+        assertThat(store.getHitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void test_get_empty_entities_is_a_hit() {
+        Document doc = createDoc("doc").with("nothing here").with(ENGLISH).build();
+        store.put(pipeline, doc, emptyList());
+
+        assertThat(store.get(pipeline, doc)).isEmpty();
+    }
+
+    @Test
+    public void test_key_depends_on_language_and_pipeline() {
+        Document doc = createDoc("doc").with("John Doe lives in Paris").with(ENGLISH).build();
+        store.put(pipeline, doc, emptyList());
+
+        assertThat(store.get(pipeline, createDoc("doc").with("John Doe lives in Paris").with(FRENCH).build())).isNull();
+        assertThat(store.key(pipeline, ENGLISH, "content")).isNotEqualTo(store.key(pipeline, FRENCH, "content"));
+    }
+
+    @Test
+    public void test_key_depends_on_models_version_and_result_options() {
+        Properties properties = new Properties();
+        properties.setProperty(CorenlpPipeline.CHUNK_SIZE_PROP, "10000");
+        NerResultStore chunkedStore = new NerResultStore(folder.getRoot().toPath(), 1024 * 1024, properties);
+
+        assertThat(store.key(pipeline, ENGLISH, "content")).contains(CoreNlpModels.MODELS_VERSION);
+        assertThat(chunkedStore.key(pipeline, ENGLISH, "content")).contains("corenlpChunkSize=10000");
+        assertThat(chunkedStore.key(pipeline, ENGLISH, "content")).isNotEqualTo(store.key(pipeline, ENGLISH, "content"));
+    }
+
+    @Test
+    public void test_store_is_persistent() {
+        Document doc = createDoc("doc").with("John Doe lives in Paris").with(ENGLISH).build();
+        store.put(pipeline, doc, emptyList());
+
+        NerResultStore reopened = new NerResultStore(folder.getRoot().toPath(), 1024 * 1024);
+
+        assertThat(reopened.getSizeBytes()).isEqualTo(store.getSizeBytes());
+        assertThat(reopened.get(pipeline, doc)).isNotNull();
+    }
+
+    @Test
+    public void test_evicts_least_recently_used_contents_over_max_size() {
+        NerResultStore smallStore = new NerResultStore(folder.getRoot().toPath(), 500);
+        for (int i = 0; i < 20; i++) {
+            Document doc = createDoc("doc" + i).with("content " + i).with(ENGLISH).build();
+            smallStore.put(pipeline, doc, asList(NamedEntity.create(PERSON, "John Doe", i, doc.getId(), doc.getRootDocument(), CORENLP, ENGLISH)));
+        }
+
+        assertThat(smallStore.getSizeBytes()).isLessThanOrEqualTo(500);
+        assertThat(folder.getRoot().list()).isNotEmpty();
+    }
+}
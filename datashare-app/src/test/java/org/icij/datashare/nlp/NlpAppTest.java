@@ -1,5 +1,8 @@
 package org.icij.datashare.nlp;
 
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
 import org.icij.datashare.PropertiesProvider;
 import org.icij.datashare.com.*;
 import org.icij.datashare.text.Language;
@@ -13,6 +16,7 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 import org.mockito.Mock;
 import org.mockito.stubbing.Answer;
+import org.slf4j.LoggerFactory;
 
 import java.util.Collection;
 import java.util.List;
@@ -25,6 +29,7 @@ import java.util.stream.IntStream;
 import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
 import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
 import static org.fest.assertions.Assertions.assertThat;
 import static org.icij.datashare.PropertiesProvider.NLP_PARALLELISM_OPT;
 import static org.icij.datashare.com.Message.Field.*;
@@ -116,6 +121,41 @@ public class NlpAppTest {
         assertThat(nlpApp.getProgressRate()).isEqualTo(0.1);
     }
 
+    @Test(timeout = 5000)
+    public void test_nlp_app_reports_queue_metrics() throws Exception {
+        ListAppender<ILoggingEvent> appender = new ListAppender<>();
+        appender.start();
+        Logger logger = (Logger) LoggerFactory.getLogger(NlpApp.class);
+        logger.addAppender(appender);
+        try {
+            runNlpApp("1", 0);
+            dataBus.publish(Channel.NLP, new Message(EXTRACT_NLP).add(DOC_ID, "doc_id").add(R_ID, "routing").add(INDEX_NAME, local().id));
+            dataBus.publish(Channel.NLP, new ShutdownMessage());
+            shutdownNlpApp();
+        } finally {
+            logger.detachAppender(appender);
+        }
+
+        assertThat(appender.list.stream().map(ILoggingEvent::getFormattedMessage)
+                .filter(m -> m.matches("OPENNLP queue depth \\d+, spilled 0, consumer lag \\d+, model loads 0 \\(0ms\\), result store hits 0"))
+                .collect(toList())).hasSize(1);
+    }
+
+    @Test
+    public void test_bounded_queue_needs_unlimited_spill_with_redis_pub_sub() {
+        Properties properties = new Properties();
+        properties.setProperty(NlpApp.NLP_QUEUE_CAPACITY_OPT, "10");
+        try {
+            NlpApp.checkQueueOptions(dataBus, properties);
+            assertThat(dataBus instanceof RedisDataBus).isFalse();
+        } catch (IllegalArgumentException e) {
+            assertThat(dataBus instanceof RedisDataBus).isTrue();
+        }
+
+        properties.setProperty(NlpApp.NLP_QUEUE_SPILL_DIR_OPT, "spill");
+        NlpApp.checkQueueOptions(dataBus, properties);
+    }
+
     private NlpApp runNlpApp(String parallelism, int nlpProcessDelayMillis) throws InterruptedException {
         Properties properties = new Properties();
         properties.setProperty(NLP_PARALLELISM_OPT, parallelism);
@@ -1,22 +1,45 @@
 package org.icij.datashare.nlp;
 
+import org.icij.datashare.PropertiesProvider;
+import org.icij.datashare.com.Message;
+import org.icij.datashare.com.ShutdownMessage;
 import org.icij.datashare.text.Document;
 import org.icij.datashare.text.Language;
 import org.icij.datashare.text.indexing.Indexer;
+import org.icij.datashare.text.indexing.elasticsearch.ElasticsearchIndexer;
+import org.icij.datashare.text.indexing.elasticsearch.IdRouting;
 import org.icij.datashare.text.nlp.AbstractPipeline;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.Mock;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static java.util.Arrays.asList;
 import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.icij.datashare.com.Message.Field.*;
+import static org.icij.datashare.com.Message.Type.EXTRACT_NLP;
 import static org.icij.datashare.text.DocumentBuilder.createDoc;
 import static org.icij.datashare.text.Language.ENGLISH;
+import static org.icij.datashare.text.nlp.Pipeline.Type.CORENLP;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyMapOf;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.*;
 import static org.mockito.MockitoAnnotations.initMocks;
 
 public class NlpConsumerTest {
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
     @Mock private Indexer indexer;
     @Mock private AbstractPipeline pipeline;
     private NlpConsumer nlpListener;
@@ -56,4 +79,174 @@ public class NlpConsumerTest {
         verify(pipeline).initialize(ENGLISH);
         verify(pipeline).process(doc);
     }
+
+    @Test
+    public void test_batch_isolates_failing_document() throws Exception {
+        when(pipeline.initialize(any())).thenReturn(true);
+        Document doc1 = createDoc("doc1").build();
+        Document doc2 = createDoc("doc2").build();
+        when(indexer.get("projectName", "doc1", "routing")).thenReturn(doc1);
+        when(indexer.get("projectName", "doc2", "routing")).thenReturn(doc2);
+        when(pipeline.process(doc1)).thenThrow(new IllegalStateException("bad document"));
+        when(pipeline.process(doc2)).thenReturn(emptyList());
+        when(indexer.bulkAdd(anyString(), any(), any(), any())).thenReturn(true);
+
+        nlpListener.findNamedEntities(asList(message("doc1"), message("doc2")));
+
+        verify(pipeline).initialize(ENGLISH);
+        verify(pipeline).terminate(ENGLISH);
+        verify(indexer, never()).bulkAdd(eq("projectName"), any(), any(), eq(doc1));
+        verify(indexer).bulkAdd(eq("projectName"), any(), any(), eq(doc2));
+    }
+
+    @Test
+    public void test_batch_gets_and_writes_documents_together_with_elasticsearch() throws Exception {
+        ElasticsearchIndexer esIndexer = mock(ElasticsearchIndexer.class);
+        NlpConsumer consumer = new NlpConsumer(pipeline, esIndexer, null, 10, 100);
+        when(pipeline.initialize(any())).thenReturn(true);
+        Document doc1 = createDoc("doc1").build();
+        Document doc2 = createDoc("doc2").build();
+        when(esIndexer.get(eq("projectName"), anyListOf(IdRouting.class), any(), any())).thenReturn(asList(doc1, null, doc2));
+        when(pipeline.process(any())).thenReturn(emptyList());
+        when(esIndexer.bulkAdd(eq("projectName"), any(), anyMapOf(Document.class, List.class))).thenReturn(new HashSet<>());
+
+        consumer.findNamedEntities(asList(message("doc1"), message("unknown"), message("doc2")));
+
+        verify(esIndexer).get(eq("projectName"), anyListOf(IdRouting.class), any(), any());
+        verify(esIndexer, times(1)).bulkAdd(eq("projectName"), any(), anyMapOf(Document.class, List.class));
+        verify(esIndexer, never()).bulkAdd(anyString(), any(), any(), any());
+    }
+
+    @Test(timeout = 5000)
+    public void test_batch_call_processes_messages_until_shutdown() throws Exception {
+        BlockingQueue<Message> queue = new LinkedBlockingQueue<>();
+        when(pipeline.initialize(any())).thenReturn(true);
+        when(pipeline.process(any())).thenReturn(emptyList());
+        when(indexer.get(anyString(), anyString(), anyString())).thenAnswer(i -> createDoc((String) i.getArguments()[1]).build());
+        when(indexer.bulkAdd(anyString(), any(), any(), any())).thenReturn(true);
+        queue.add(message("doc1"));
+        queue.add(message("doc2"));
+        queue.add(message("doc3"));
+        queue.add(new ShutdownMessage());
+
+        Integer nbMessages = new NlpConsumer(pipeline, indexer, queue, 2, 100).call();
+
+        assertThat(nbMessages).isEqualTo(3);
+        verify(pipeline, times(3)).process(any());
+    }
+
+    @Test
+    public void test_stored_entities_are_not_processed_again() throws Exception {
+        NerResultStore store = new NerResultStore(folder.getRoot().toPath(), 1024 * 1024);
+        when(pipeline.getType()).thenReturn(CORENLP);
+        when(pipeline.initialize(any())).thenReturn(true);
+        when(pipeline.process(any())).thenReturn(emptyList());
+        when(indexer.bulkAdd(anyString(), any(), any(), any())).thenReturn(true);
+        Document doc1 = createDoc("doc1").with("same content").build();
+        Document doc2 = createDoc("doc2").with("same content").build();
+        when(indexer.get("projectName", "doc1", "routing")).thenReturn(doc1);
+        when(indexer.get("projectName", "doc2", "routing")).thenReturn(doc2);
+        NlpConsumer consumer = new NlpConsumer(pipeline, indexer, null).withResultStore(store);
+
+        consumer.findNamedEntities("projectName", "doc1", "routing");
+        consumer.findNamedEntities(asList(message("doc2")));
+
+        verify(pipeline, times(1)).process(any());
+        verify(pipeline, times(1)).initialize(ENGLISH);
+        verify(indexer).bulkAdd(eq("projectName"), any(), any(), eq(doc2));
+        assertThat(store.getHitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void test_batch_rejects_only_documents_without_language() throws Exception {
+        List<Message> acknowledged = new ArrayList<>();
+        List<Message> rejected = new ArrayList<>();
+        NlpConsumer consumer = new NlpConsumer(pipeline, indexer, null).withAcknowledgement(acknowledged::add).withRejection(rejected::add);
+        when(pipeline.initialize(any())).thenReturn(true);
+        when(pipeline.process(any())).thenReturn(emptyList());
+        Document doc1 = createDoc("doc1").build();
+        Document doc2 = mock(Document.class);
+        when(doc2.getId()).thenReturn("doc2");
+        when(indexer.get("projectName", "doc1", "routing")).thenReturn(doc1);
+        when(indexer.get("projectName", "doc2", "routing")).thenReturn(doc2);
+        when(indexer.bulkAdd(anyString(), any(), any(), eq(doc1))).thenReturn(true);
+
+        consumer.findNamedEntities(asList(message("doc1"), message("doc2")));
+
+        assertThat(acknowledged).containsExactly(message("doc1"));
+        assertThat(rejected).containsExactly(message("doc2"));
+        verify(pipeline, never()).process(doc2);
+    }
+
+    @Test
+    public void test_acknowledges_messages_whose_entities_are_added_or_whose_document_is_missing() throws Exception {
+        List<Message> acknowledged = new ArrayList<>();
+        List<Message> rejected = new ArrayList<>();
+        NlpConsumer consumer = new NlpConsumer(pipeline, indexer, null).withAcknowledgement(acknowledged::add).withRejection(rejected::add);
+        when(pipeline.initialize(any())).thenReturn(true);
+        when(pipeline.process(any())).thenReturn(emptyList());
+        Document doc1 = createDoc("doc1").build();
+        Document doc2 = createDoc("doc2").build();
+        when(indexer.get("projectName", "doc1", "routing")).thenReturn(doc1);
+        when(indexer.get("projectName", "doc2", "routing")).thenReturn(doc2);
+        when(indexer.bulkAdd(anyString(), any(), any(), eq(doc1))).thenReturn(true);
+        when(indexer.bulkAdd(anyString(), any(), any(), eq(doc2))).thenReturn(false);
+
+        consumer.findNamedEntities(asList(message("doc1"), message("doc2"), message("unknown")));
+
+        assertThat(acknowledged).containsExactly(message("doc1"), message("unknown"));
+        assertThat(rejected).containsExactly(message("doc2"));
+    }
+
+    @Test
+    public void test_rejects_single_message_whose_document_fails() throws Exception {
+        List<Message> acknowledged = new ArrayList<>();
+        List<Message> rejected = new ArrayList<>();
+        NlpConsumer consumer = new NlpConsumer(pipeline, indexer, null).withAcknowledgement(acknowledged::add).withRejection(rejected::add);
+        when(pipeline.initialize(any())).thenReturn(true);
+        Document doc = createDoc("doc").build();
+        when(indexer.get("projectName", "doc", "routing")).thenReturn(doc);
+        when(pipeline.process(doc)).thenThrow(new IllegalStateException("bad document"));
+
+        consumer.consume(singletonList(message("doc")));
+        consumer.consume(singletonList(message("unknown")));
+
+        assertThat(acknowledged).containsExactly(message("unknown"));
+        assertThat(rejected).containsExactly(message("doc"));
+        verify(pipeline).terminate(ENGLISH);
+    }
+
+    @Test
+    public void test_source_includes_of_pipelines() {
+        assertThat(NlpConsumer.sourceIncludes(pipeline)).isNull();
+        assertThat(NlpConsumer.sourceIncludes(new EmailPipeline(new PropertiesProvider())))
+                .contains("content", "language", "rootDocument", "contentType", "metadata.tika_metadata_message_from").excludes("metadata");
+    }
+
+    @Test
+    public void test_source_includes_of_corenlp_pipeline() {
+        when(pipeline.getType()).thenReturn(CORENLP);
+
+        assertThat(NlpConsumer.sourceIncludes(pipeline)).contains("content", "language", "rootDocument").excludes("metadata");
+    }
+
+    @Test
+    public void test_gets_only_source_includes_with_elasticsearch() throws Exception {
+        ElasticsearchIndexer esIndexer = mock(ElasticsearchIndexer.class);
+        String[] includes = NlpConsumer.sourceIncludes(new EmailPipeline(new PropertiesProvider()));
+        NlpConsumer consumer = new NlpConsumer(pipeline, esIndexer, null).withSourceIncludes(includes);
+        when(pipeline.initialize(any())).thenReturn(true);
+        when(pipeline.process(any())).thenReturn(emptyList());
+        Document doc = createDoc("doc").build();
+        when(esIndexer.get("projectName", "doc", "routing", includes)).thenReturn(doc);
+
+        consumer.findNamedEntities("projectName", "doc", "routing");
+
+        verify(esIndexer, never()).get(anyString(), anyString(), anyString());
+        verify(pipeline).process(doc);
+    }
+
+    private static Message message(String docId) {
+        return new Message(EXTRACT_NLP).add(DOC_ID, docId).add(R_ID, "routing").add(INDEX_NAME, "projectName");
+    }
 }
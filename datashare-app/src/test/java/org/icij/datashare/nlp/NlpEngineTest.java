@@ -0,0 +1,130 @@
+package org.icij.datashare.nlp;
+
+import org.icij.datashare.com.*;
+import org.icij.datashare.text.Language;
+import org.icij.datashare.text.NamedEntity;
+import org.icij.datashare.text.indexing.Indexer;
+import org.icij.datashare.text.nlp.AbstractPipeline;
+import org.icij.datashare.text.nlp.Pipeline;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.stubbing.Answer;
+
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.fest.assertions.MapAssert.entry;
+import static org.icij.datashare.PropertiesProvider.NLP_PARALLELISM_OPT;
+import static org.icij.datashare.com.Message.Field.*;
+import static org.icij.datashare.com.Message.Type.EXTRACT_NLP;
+import static org.icij.datashare.text.DocumentBuilder.createDoc;
+import static org.icij.datashare.text.nlp.Pipeline.Type.CORENLP;
+import static org.icij.datashare.text.nlp.Pipeline.Type.EMAIL;
+import static org.icij.datashare.text.nlp.Pipeline.Type.OPENNLP;
+import static org.icij.datashare.user.User.local;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class NlpEngineTest {
+    @Mock private AbstractPipeline corenlp;
+    @Mock private AbstractPipeline opennlp;
+    @Mock private Indexer indexer;
+    private final DataBus dataBus = new MemoryDataBus();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @Test
+    public void test_parse_pipeline_values() {
+        assertThat(NlpEngine.parsePipelineValues(null)).isEmpty();
+        assertThat(NlpEngine.parsePipelineValues("")).isEmpty();
+        assertThat(NlpEngine.parsePipelineValues("CORENLP:3, email:1"))
+                .hasSize(2).includes(entry(CORENLP, 3), entry(EMAIL, 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_parse_pipeline_values_invalid() {
+        NlpEngine.parsePipelineValues("CORENLP");
+    }
+
+    @Test(timeout = 5000)
+    public void test_each_pipeline_processes_every_message() throws Exception {
+        NlpEngine nlpEngine = runNlpEngine(new Properties());
+
+        IntStream.range(0, 5).forEach(this::publishDoc);
+        dataBus.publish(Channel.NLP, new ShutdownMessage());
+
+        shutdownNlpEngine();
+        verify(corenlp, times(5)).process(any());
+        verify(opennlp, times(5)).process(any());
+        assertThat(nlpEngine.getProcessedCounts()).includes(entry(CORENLP, 5L), entry(OPENNLP, 5L));
+    }
+
+    @Test(timeout = 5000)
+    public void test_max_concurrency_of_a_pipeline() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        when(corenlp.process(any())).thenAnswer((Answer<List<NamedEntity>>) invocationOnMock -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            Thread.sleep(20);
+            running.decrementAndGet();
+            return emptyList();
+        });
+        Properties properties = new Properties();
+        properties.setProperty(NlpEngine.NLP_PIPELINE_MAX_CONCURRENCY_OPT, "CORENLP:1");
+        runNlpEngine(properties);
+
+        IntStream.range(0, 10).forEach(this::publishDoc);
+        dataBus.publish(Channel.NLP, new ShutdownMessage());
+
+        shutdownNlpEngine();
+        verify(corenlp, times(10)).process(any());
+        assertThat(maxRunning.get()).isEqualTo(1);
+    }
+
+    private void publishDoc(int i) {
+        dataBus.publish(Channel.NLP, new Message(EXTRACT_NLP).add(DOC_ID, "doc_id" + i).add(R_ID, "routing" + i).add(INDEX_NAME, local().id));
+    }
+
+    private NlpEngine runNlpEngine(Properties properties) throws InterruptedException {
+        properties.setProperty(NLP_PARALLELISM_OPT, "3");
+        CountDownLatch latch = new CountDownLatch(1);
+        NlpEngine nlpEngine = new NlpEngine(dataBus, indexer, asList((Pipeline) corenlp, opennlp), properties, latch::countDown, local());
+        executor.execute(nlpEngine);
+        latch.await(2, SECONDS);
+        return nlpEngine;
+    }
+
+    private void shutdownNlpEngine() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(5, SECONDS);
+    }
+
+    @Before
+    public void setUp() {
+        initMocks(this);
+        when(indexer.get(anyString(), anyString(), anyString())).thenReturn(createDoc("name").build());
+        for (AbstractPipeline pipeline : asList(corenlp, opennlp)) {
+            when(pipeline.initialize(any(Language.class))).thenReturn(true);
+            when(pipeline.process(any())).thenReturn(emptyList());
+        }
+        when(corenlp.getType()).thenReturn(CORENLP);
+        when(opennlp.getType()).thenReturn(OPENNLP);
+    }
+
+    @After
+    public void tearDown() {
+        reset(indexer, corenlp, opennlp);
+    }
+}
@@ -0,0 +1,57 @@
+package org.icij.datashare.nlp;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.icij.datashare.text.Language.ENGLISH;
+import static org.icij.datashare.text.Language.FRENCH;
+
+public class OptimaizeLanguageGuesserTest {
+    static final String ENGLISH_TEXT = "This is a text written in english that will be used to guess the language of a document. ";
+    static final String FRENCH_TEXT = "Ceci est un texte écrit en français qui sera utilisé pour deviner la langue d'un document. ";
+    private OptimaizeLanguageGuesser guesser = new OptimaizeLanguageGuesser(4, 200);
+
+    public OptimaizeLanguageGuesserTest() throws IOException {}
+
+    @Test
+    public void test_guess_short_text() {
+        assertThat(guesser.guess(ENGLISH_TEXT)).isEqualTo(ENGLISH);
+        assertThat(guesser.guess(FRENCH_TEXT)).isEqualTo(FRENCH);
+    }
+
+    @Test
+    public void test_short_text_is_not_sampled() {
+        assertThat(guesser.sample(ENGLISH_TEXT).toString()).isEqualTo(ENGLISH_TEXT);
+        assertThat(guesser.windows(ENGLISH_TEXT)).hasSize(1);
+    }
+
+    @Test
+    public void test_large_text_is_sampled_with_bounded_windows() {
+        String text = repeat(FRENCH_TEXT, 1000);
+
+        List<CharSequence> windows = guesser.windows(text);
+
+        assertThat(windows).hasSize(4);
+        windows.forEach(w -> assertThat(w.length()).isLessThanOrEqualTo(200));
+        assertThat(guesser.sample(text).length()).isLessThanOrEqualTo(4 * 201);
+        assertThat(guesser.guess(text)).isEqualTo(FRENCH);
+    }
+
+    @Test
+    public void test_guess_windows_for_mixed_language_document() {
+        String text = repeat(ENGLISH_TEXT, 50) + repeat(FRENCH_TEXT, 50);
+
+        List<org.icij.datashare.text.Language> languages = guesser.guessWindows(text);
+
+        assertThat(languages.get(0)).isEqualTo(ENGLISH);
+        assertThat(languages.get(languages.size() - 1)).isEqualTo(FRENCH);
+    }
+
+    static String repeat(String text, int nb) {
+        return String.join("", Collections.nCopies(nb, text));
+    }
+}
@@ -0,0 +1,167 @@
+package org.icij.datashare.nlp;
+
+import org.icij.datashare.text.Language;
+import org.icij.datashare.text.nlp.AbstractPipeline;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.util.Arrays.asList;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.icij.datashare.text.Language.ENGLISH;
+import static org.icij.datashare.text.Language.FRENCH;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+public class ResidentModelsTest {
+    @Mock private AbstractPipeline pipeline;
+    private final Set<Language> pendingWork = new HashSet<>();
+
+    @Before
+    public void setUp() throws Exception {
+        initMocks(this);
+        when(pipeline.initialize(any())).thenReturn(true);
+    }
+
+    @Test
+    public void test_models_are_loaded_once_while_language_has_work() throws Exception {
+        ResidentModels models = new ResidentModels(pipeline, 0, pendingWork::contains);
+        pendingWork.add(ENGLISH);
+
+        for (int i = 0; i < 3; i++) {
+            assertThat(models.initialize(ENGLISH)).isTrue();
+            models.terminate(ENGLISH);
+        }
+
+        verify(pipeline, times(1)).initialize(ENGLISH);
+        verify(pipeline, never()).terminate(any());
+        assertThat(models.getLoadCount()).isEqualTo(1);
+        assertThat(models.isResident(ENGLISH)).isTrue();
+    }
+
+    @Test
+    public void test_idle_models_are_unloaded_over_budget() throws Exception {
+        ResidentModels models = new ResidentModels(pipeline, 0, pendingWork::contains);
+
+        models.initialize(ENGLISH);
+        models.terminate(ENGLISH);
+
+        verify(pipeline).terminate(ENGLISH);
+        assertThat(models.isResident(ENGLISH)).isFalse();
+        assertThat(models.getEvictionCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void test_models_in_use_are_not_unloaded() throws Exception {
+        ResidentModels models = new ResidentModels(pipeline, 0, pendingWork::contains);
+
+        models.initialize(ENGLISH);
+        models.initialize(FRENCH);
+        models.terminate(FRENCH);
+
+        verify(pipeline).terminate(FRENCH);
+        verify(pipeline, never()).terminate(ENGLISH);
+        assertThat(models.isResident(ENGLISH)).isTrue();
+    }
+
+    @Test
+    public void test_idle_models_are_kept_under_budget() throws Exception {
+        ResidentModels models = new ResidentModels(pipeline, Long.MAX_VALUE, pendingWork::contains);
+
+        models.initialize(ENGLISH);
+        models.terminate(ENGLISH);
+        models.initialize(ENGLISH);
+
+        verify(pipeline, times(1)).initialize(ENGLISH);
+        verify(pipeline, never()).terminate(any());
+
+        models.terminate(ENGLISH);
+        models.terminateIdle();
+        verify(pipeline).terminate(ENGLISH);
+    }
+
+    @Test(timeout = 5000)
+    public void test_concurrent_first_initializations_load_once() throws Exception {
+        when(pipeline.initialize(ENGLISH)).thenAnswer(invocation -> {
+            Thread.sleep(100);
+            return true;
+        });
+        ResidentModels models = new ResidentModels(pipeline, Long.MAX_VALUE, pendingWork::contains);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+
+        Callable<Boolean> initialize = () -> models.initialize(ENGLISH);
+        List<Future<Boolean>> initializations = executor.invokeAll(asList(initialize, initialize));
+
+        for (Future<Boolean> initialization : initializations) {
+            assertThat(initialization.get()).isTrue();
+        }
+        verify(pipeline, times(1)).initialize(ENGLISH);
+        executor.shutdown();
+    }
+
+    @Test(timeout = 5000)
+    public void test_initialization_waits_for_the_unload() throws Exception {
+        CountDownLatch unloading = new CountDownLatch(1);
+        CountDownLatch unloaded = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            unloading.countDown();
+            unloaded.await();
+            return null;
+        }).when(pipeline).terminate(ENGLISH);
+        ResidentModels models = new ResidentModels(pipeline, 0, pendingWork::contains);
+        models.initialize(ENGLISH);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.submit(() -> {
+            models.terminate(ENGLISH);
+            return null;
+        });
+        unloading.await();
+
+        Future<Boolean> initialization = Executors.newSingleThreadExecutor().submit(() -> models.initialize(ENGLISH));
+        Thread.sleep(50);
+        assertThat(initialization.isDone()).isFalse();
+        unloaded.countDown();
+
+        assertThat(initialization.get()).isTrue();
+        InOrder inOrder = inOrder(pipeline);
+        inOrder.verify(pipeline).initialize(ENGLISH);
+        inOrder.verify(pipeline).terminate(ENGLISH);
+        inOrder.verify(pipeline).initialize(ENGLISH);
+        executor.shutdown();
+    }
+
+    @Test
+    public void test_budget_counts_the_model_size() throws Exception {
+        ResidentModels models = new ResidentModels(pipeline, 10, 10, pendingWork::contains);
+
+        models.initialize(ENGLISH);
+        models.terminate(ENGLISH);
+        models.initialize(FRENCH);
+        models.terminate(FRENCH);
+
+        verify(pipeline).terminate(ENGLISH);
+        assertThat(models.isResident(FRENCH)).isTrue();
+        assertThat(models.getResidentCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void test_failed_initialization_is_not_resident() throws Exception {
+        when(pipeline.initialize(FRENCH)).thenReturn(false);
+        ResidentModels models = new ResidentModels(pipeline, 0, pendingWork::contains);
+
+        assertThat(models.initialize(FRENCH)).isFalse();
+        assertThat(models.isResident(FRENCH)).isFalse();
+        assertThat(models.getLoadCount()).isEqualTo(0);
+    }
+}
@@ -0,0 +1,132 @@
+package org.icij.datashare.nlp;
+
+import org.icij.datashare.com.Message;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.icij.datashare.com.Message.Field.DOC_ID;
+import static org.icij.datashare.com.Message.Field.INDEX_NAME;
+import static org.icij.datashare.com.Message.Type.EXTRACT_NLP;
+
+public class SpillingMessageQueueTest {
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void test_offer_returns_false_when_full_without_journal() {
+        SpillingMessageQueue queue = new SpillingMessageQueue(2);
+
+        assertThat(queue.offer(message("doc1"))).isTrue();
+        assertThat(queue.offer(message("doc2"))).isTrue();
+        assertThat(queue.offer(message("doc3"))).isFalse();
+        assertThat(queue.size()).isEqualTo(2);
+        assertThat(queue.remainingCapacity()).isEqualTo(0);
+    }
+
+    @Test
+    public void test_spill_and_refill_keep_the_order() throws Exception {
+        SpillingMessageQueue queue = new SpillingMessageQueue(2, folder.getRoot().toPath(), 0);
+
+        for (int i = 0; i < 5; i++) {
+            assertThat(queue.offer(message("doc" + i))).isTrue();
+        }
+        assertThat(queue.getMemorySize()).isEqualTo(2);
+        assertThat(queue.getSpilledSize()).isEqualTo(3);
+        assertThat(queue.size()).isEqualTo(5);
+
+        assertThat(queue.poll().content.get(DOC_ID)).isEqualTo("doc0");
+        queue.offer(message("doc5"));
+        for (int i = 1; i < 6; i++) {
+            Message message = queue.poll(1, TimeUnit.SECONDS);
+            assertThat(message.content.get(DOC_ID)).isEqualTo("doc" + i);
+            assertThat(message.content.get(INDEX_NAME)).isEqualTo("prj");
+        }
+        assertThat(queue.poll()).isNull();
+        assertThat(queue.getTotalSpilled()).isEqualTo(4);
+        assertThat(queue.getSpilledSize()).isEqualTo(0);
+    }
+
+    @Test
+    public void test_journal_is_reused_after_being_drained() {
+        SpillingMessageQueue queue = new SpillingMessageQueue(1, folder.getRoot().toPath(), 0);
+
+        queue.offer(message("doc1"));
+        queue.offer(message("doc2"));
+        assertThat(queue.poll().content.get(DOC_ID)).isEqualTo("doc1");
+        assertThat(queue.poll().content.get(DOC_ID)).isEqualTo("doc2");
+
+        queue.offer(message("doc3"));
+        queue.offer(message("doc4"));
+        assertThat(queue.poll().content.get(DOC_ID)).isEqualTo("doc3");
+        assertThat(queue.poll().content.get(DOC_ID)).isEqualTo("doc4");
+    }
+
+    @Test
+    public void test_max_spilled() {
+        SpillingMessageQueue queue = new SpillingMessageQueue(1, folder.getRoot().toPath(), 1);
+
+        assertThat(queue.offer(message("doc1"))).isTrue();
+        assertThat(queue.offer(message("doc2"))).isTrue();
+        assertThat(queue.offer(message("doc3"))).isFalse();
+    }
+
+    @Test(timeout = 5000)
+    public void test_put_blocks_until_a_message_is_taken() throws Exception {
+        SpillingMessageQueue queue = new SpillingMessageQueue(1);
+        queue.put(message("doc1"));
+
+        CompletableFuture<Void> put = CompletableFuture.runAsync(() -> {
+            try {
+                queue.put(message("doc2"));
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Thread.sleep(100);
+        assertThat(put.isDone()).isFalse();
+
+        assertThat(queue.take().content.get(DOC_ID)).isEqualTo("doc1");
+        put.get(1, TimeUnit.SECONDS);
+        assertThat(queue.take().content.get(DOC_ID)).isEqualTo("doc2");
+        assertThat(queue.getBackPressureCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void test_offer_with_timeout_when_full() throws Exception {
+        SpillingMessageQueue queue = new SpillingMessageQueue(1);
+        queue.offer(message("doc1"));
+
+        assertThat(queue.offer(message("doc2"), 10, TimeUnit.MILLISECONDS)).isFalse();
+        assertThat(queue.getBackPressureCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void test_consumer_lag() {
+        SpillingMessageQueue queue = new SpillingMessageQueue(10);
+        queue.offer(message("doc1"));
+        queue.offer(message("doc2"));
+        queue.poll();
+
+        assertThat(queue.getConsumerLag()).isEqualTo(1);
+    }
+
+    @Test
+    public void test_close_deletes_journal() throws Exception {
+        SpillingMessageQueue queue = new SpillingMessageQueue(1, folder.getRoot().toPath(), 0);
+        queue.offer(message("doc1"));
+        queue.offer(message("doc2"));
+        assertThat(folder.getRoot().list()).hasSize(1);
+
+        queue.close();
+
+        assertThat(folder.getRoot().list()).isEmpty();
+    }
+
+    private static Message message(String docId) {
+        return new Message(EXTRACT_NLP).add(DOC_ID, docId).add(INDEX_NAME, "prj");
+    }
+}
@@ -0,0 +1,168 @@
+package org.icij.datashare.tasks;
+
+import org.icij.datashare.PropertiesProvider;
+import org.icij.extract.queue.DocumentQueue;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.icij.datashare.tasks.PipelineTask.POISON;
+import static org.icij.datashare.user.User.local;
+
+public class DeltaScanTaskTest {
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+    private DocumentCollectionFactory factory;
+    private PropertiesProvider propertiesProvider;
+    private Path file1;
+    private Path file2;
+
+    @Before
+    public void setUp() throws Exception {
+        factory = new MemoryDocumentCollectionFactory();
+        propertiesProvider = new PropertiesProvider(new HashMap<String, String>() {{
+            put("queueName", "test:queue");
+            put(DeltaScanTask.DELTA_SNAPSHOT_FILE_OPT, folder.getRoot().toPath().resolve("snapshot").toString());
+        }});
+        file1 = Files.write(folder.newFile("file1.txt").toPath(), "content 1".getBytes());
+        file2 = Files.write(folder.newFile("file2.txt").toPath(), "content 2".getBytes());
+    }
+
+    @Test
+    public void test_first_delta_scan_queues_all_files() throws Exception {
+        assertThat(deltaScan(file1, file2)).isEqualTo(2);
+        assertThat(take("test:queue:delta")).containsOnly(file1, file2);
+        assertThat(deleted()).isEmpty();
+    }
+
+    @Test
+    public void test_second_delta_scan_queues_nothing_for_unchanged_files() throws Exception {
+        deltaScan(file1, file2);
+        take("test:queue:delta");
+
+        assertThat(deltaScan(file1, file2)).isEqualTo(0);
+        assertThat(take("test:queue:delta")).isEmpty();
+    }
+
+    @Test
+    public void test_delta_scan_queues_new_and_modified_files() throws Exception {
+        deltaScan(file1);
+        take("test:queue:delta");
+        Files.write(file1, "modified content 1".getBytes());
+
+        assertThat(deltaScan(file1, file2)).isEqualTo(2);
+        assertThat(take("test:queue:delta")).containsOnly(file1, file2);
+    }
+
+    @Test
+    public void test_delta_scan_compares_digests_of_touched_files() throws Exception {
+        deltaScan(file1, file2);
+        Files.write(file2, "content 3".getBytes());
+        Files.setLastModifiedTime(file2, FileTime.fromMillis(Files.getLastModifiedTime(file2).toMillis() + 10_000));
+        deltaScan(file1, file2);
+        take("test:queue:delta");
+
+        Files.setLastModifiedTime(file2, FileTime.fromMillis(Files.getLastModifiedTime(file2).toMillis() + 10_000));
+        assertThat(deltaScan(file1, file2)).isEqualTo(0);
+
+        Files.write(file2, "content 4".getBytes());
+        Files.setLastModifiedTime(file2, FileTime.fromMillis(Files.getLastModifiedTime(file2).toMillis() + 10_000));
+        assertThat(deltaScan(file1, file2)).isEqualTo(1);
+    }
+
+    @Test
+    public void test_touched_file_is_queued_once_to_record_its_digest() throws Exception {
+        deltaScan(file1, file2);
+        take("test:queue:delta");
+
+        Files.setLastModifiedTime(file1, FileTime.fromMillis(Files.getLastModifiedTime(file1).toMillis() + 10_000));
+        assertThat(deltaScan(file1, file2)).isEqualTo(1);
+        take("test:queue:delta");
+
+        Files.setLastModifiedTime(file1, FileTime.fromMillis(Files.getLastModifiedTime(file1).toMillis() + 10_000));
+        assertThat(deltaScan(file1, file2)).isEqualTo(0);
+    }
+
+    @Test
+    public void test_delta_scan_reports_deleted_files() throws Exception {
+        deltaScan(file1, file2);
+
+        deltaScan(file1);
+
+        assertThat(deleted()).containsOnly(file2.toString());
+    }
+
+    @Test
+    public void test_uncommitted_delta_scan_queues_files_again() throws Exception {
+        deltaScan(file1);
+        take("test:queue:delta");
+
+        assertThat(deltaScan(false, file1, file2)).isEqualTo(1);
+        assertThat(deltaScan(file1, file2)).isEqualTo(1);
+        assertThat(take("test:queue:delta")).containsOnly(file2, file2);
+    }
+
+    @Test
+    public void test_delta_scan_with_sort_runs() throws Exception {
+        propertiesProvider = new PropertiesProvider(new HashMap<String, String>() {{
+            put("queueName", "test:queue");
+            put(DeltaScanTask.DELTA_SNAPSHOT_FILE_OPT, folder.getRoot().toPath().resolve("snapshot").toString());
+            put(DeltaScanTask.DELTA_SORT_RUN_SIZE_OPT, "2");
+        }});
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            files.add(Files.write(folder.getRoot().toPath().resolve("doc" + i), ("content " + i).getBytes()));
+        }
+        Collections.reverse(files);
+        assertThat(deltaScan(files.toArray(new Path[0]))).isEqualTo(7);
+        take("test:queue:delta");
+
+        Files.write(files.get(3), "new content".getBytes());
+        assertThat(deltaScan(files.toArray(new Path[0]))).isEqualTo(1);
+        assertThat(take("test:queue:delta")).containsOnly(files.get(3));
+        assertThat(folder.getRoot().list((dir, name) -> name.endsWith(".run"))).isEmpty();
+    }
+
+    private long deltaScan(Path... paths) throws Exception {
+        return deltaScan(true, paths);
+    }
+
+    private long deltaScan(boolean commit, Path... paths) throws Exception {
+        DocumentQueue queue = factory.createQueue(propertiesProvider, "test:queue");
+        for (Path path : paths) {
+            queue.put(path);
+        }
+        queue.add(POISON);
+        DeltaScanTask deltaScanTask = new DeltaScanTask(factory, propertiesProvider, local(), "test:queue");
+        long queued = deltaScanTask.call();
+        if (commit) {
+            deltaScanTask.commitSnapshot();
+        }
+        return queued;
+    }
+
+    private List<String> deleted() throws Exception {
+        return Files.readAllLines(folder.getRoot().toPath().resolve("snapshot.deleted"));
+    }
+
+    private List<Path> take(String queueName) throws Exception {
+        DocumentQueue queue = factory.createQueue(propertiesProvider, queueName);
+        List<Path> paths = new ArrayList<>();
+        Path path;
+        while ((path = queue.poll()) != null) {
+            if (!path.equals(POISON)) {
+                paths.add(path);
+            }
+        }
+        return paths;
+    }
+}
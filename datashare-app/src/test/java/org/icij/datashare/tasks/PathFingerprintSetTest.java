@@ -0,0 +1,96 @@
+package org.icij.datashare.tasks;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.file.Paths.get;
+import static org.fest.assertions.Assertions.assertThat;
+
+public class PathFingerprintSetTest {
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void test_add() throws Exception {
+        try (PathFingerprintSet set = new PathFingerprintSet(10, folder.getRoot().toPath())) {
+            assertThat(set.add(get("/path/to/doc"))).isTrue();
+            assertThat(set.add(get("/path/to/other"))).isTrue();
+            assertThat(set.add(get("/path/to/doc"))).isFalse();
+
+            assertThat(set.size()).isEqualTo(2);
+            assertThat(set.getDuplicateCount()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void test_add_with_same_fingerprint_compares_paths() throws Exception {
+        try (PathFingerprintSet set = new PathFingerprintSet(10, folder.getRoot().toPath(), s -> 42)) {
+            assertThat(set.add(get("/path/to/doc"))).isTrue();
+            assertThat(set.add(get("/path/to/other"))).isTrue();
+            assertThat(set.add(get("/path/to/other"))).isFalse();
+            assertThat(set.add(get("/path/to/doc"))).isFalse();
+
+            assertThat(set.size()).isEqualTo(2);
+            assertThat(set.getDuplicateCount()).isEqualTo(2);
+            assertThat(set.getCollisionCount()).isEqualTo(2);
+        }
+    }
+
+    @Test
+    public void test_table_grows() throws Exception {
+        try (PathFingerprintSet set = new PathFingerprintSet(10, folder.getRoot().toPath(), s -> s.length() % 3)) {
+            long tableBytes = set.getTableBytes();
+            for (int i = 0; i < 1000; i++) {
+                assertThat(set.add(get("/path/to/doc" + i))).isTrue();
+            }
+            for (int i = 0; i < 1000; i++) {
+                assertThat(set.add(get("/path/to/doc" + i))).isFalse();
+            }
+            assertThat(set.size()).isEqualTo(1000);
+            assertThat(set.getTableBytes()).isGreaterThan(tableBytes);
+        }
+    }
+
+    @Test
+    public void test_add_compares_paths_written_in_the_log() throws Exception {
+        String dir = "/path/to/" + new String(new char[1000]).replace('\0', 'd') + "/doc";
+        try (PathFingerprintSet set = new PathFingerprintSet(10, folder.getRoot().toPath(), s -> s.length() % 7)) {
+            for (int i = 0; i < 3000; i++) {
+                assertThat(set.add(get(dir + i))).isTrue();
+            }
+            for (int i = 0; i < 3000; i++) {
+                assertThat(set.add(get(dir + i))).isFalse();
+            }
+            assertThat(set.add(get(dir))).isTrue();
+            assertThat(set.getDuplicateCount()).isEqualTo(3000);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void test_table_larger_than_max_direct_memory() throws Exception {
+        new PathFingerprintSet(PathFingerprintSet.maxDirectMemory() / 16, folder.getRoot().toPath()).close();
+    }
+
+    @Test
+    public void test_parse_size() {
+        assertThat(PathFingerprintSet.parseSize("1024")).isEqualTo(1024);
+        assertThat(PathFingerprintSet.parseSize("512m")).isEqualTo(512L << 20);
+        assertThat(PathFingerprintSet.parseSize("6G")).isEqualTo(6L << 30);
+    }
+
+    @Test
+    public void test_log_file_is_deleted_on_close() throws Exception {
+        Path tmpDir = folder.newFolder().toPath();
+        new PathFingerprintSet(10, tmpDir).close();
+        assertThat(Files.list(tmpDir).count()).isEqualTo(0);
+    }
+
+    @Test
+    public void test_table_size() {
+        assertThat(PathFingerprintSet.tableSize(0)).isEqualTo(16);
+        assertThat(PathFingerprintSet.tableSize(100_000_000)).isEqualTo(1L << 28);
+    }
+}
@@ -51,6 +51,30 @@ public class PipelineTaskTest {
         assertThat(outputQueue.poll().toString()).isEqualTo(POISON.toString());
     }
 
+    @Test
+    public void test_pipeline_task_transfer_to_output_queue_by_batches() throws Exception {
+        PropertiesProvider batchOptions = new PropertiesProvider(new HashMap<String, String>() {{
+            put("queueName", "test:queue");
+            put(PipelineTask.QUEUE_BATCH_SIZE_OPT, "2");
+        }});
+        TestPipelineTask batchTask = new TestPipelineTask(DatashareCli.Stage.DEDUPLICATE, nullUser(), batchOptions);
+        for (int i = 1; i <= 5; i++) {
+            batchTask.queue.put(get("/path/to/doc" + i));
+        }
+        batchTask.queue.put(POISON);
+        batchTask.queue.put(get("/path/to/next"));
+
+        batchTask.transferToOutputQueue();
+
+        DocumentQueue outputQueue = docCollectionFactory.createQueue(batchOptions, batchTask.getOutputQueueName());
+        assertThat(outputQueue.size()).isEqualTo(6);
+        for (int i = 1; i <= 5; i++) {
+            assertThat(outputQueue.poll().toString()).isEqualTo("/path/to/doc" + i);
+        }
+        assertThat(outputQueue.poll().toString()).isEqualTo(POISON.toString());
+        assertThat(batchTask.queue.poll().toString()).isEqualTo("/path/to/next");
+    }
+
     class TestPipelineTask extends PipelineTask {
         public TestPipelineTask(DatashareCli.Stage stage, User user, PropertiesProvider propertiesProvider) {
             super(stage, user, docCollectionFactory, propertiesProvider);
@@ -0,0 +1,88 @@
+package org.icij.datashare.tasks;
+
+import org.icij.datashare.PropertiesProvider;
+import org.icij.extract.queue.DocumentQueue;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.icij.datashare.tasks.PipelineTask.POISON;
+import static org.icij.datashare.user.User.local;
+
+public class ScanTaskTest {
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+    private final DocumentCollectionFactory factory = new MemoryDocumentCollectionFactory();
+    private Path root;
+
+    @Before
+    public void setUp() throws Exception {
+        root = folder.getRoot().toPath();
+        Path data = Files.createDirectories(root.resolve(local().getPath()));
+        for (int i = 0; i < 5; i++) {
+            for (int j = 0; j < 5; j++) {
+                Path dir = Files.createDirectories(data.resolve("dir" + i).resolve("sub" + j));
+                for (int k = 0; k < 10; k++) {
+                    Files.write(dir.resolve("file" + k + ".txt"), ("content " + k).getBytes());
+                }
+                Files.write(dir.resolve(".hidden"), "hidden".getBytes());
+            }
+            Files.write(data.resolve("dir" + i).resolve("top.txt"), "top".getBytes());
+        }
+        Files.createSymbolicLink(data.resolve("dir0").resolve("loop"), data);
+    }
+
+    @Test
+    public void test_parallel_scan_has_the_same_results_as_sequential_scan() throws Exception {
+        Set<Path> sequential = scan("sequential", new Properties());
+
+        Properties properties = new Properties();
+        properties.setProperty(ScanTask.SCAN_PARALLELISM_OPT, "4");
+        properties.setProperty(ScanTask.SCAN_MAX_OPEN_DIRS_OPT, "2");
+        properties.setProperty(ScanTask.SCAN_BATCH_SIZE_OPT, "7");
+        Set<Path> parallel = scan("parallel", properties);
+
+        assertThat(sequential).isNotEmpty();
+        assertThat(parallel).isEqualTo(sequential);
+    }
+
+    @Test
+    public void test_parallel_scan_with_symlinks_has_the_same_results_as_sequential_scan() throws Exception {
+        Properties sequentialProperties = new Properties();
+        sequentialProperties.setProperty("followSymlinks", "true");
+        Set<Path> sequential = scan("sequential", sequentialProperties);
+
+        Properties properties = new Properties();
+        properties.setProperty("followSymlinks", "true");
+        properties.setProperty(ScanTask.SCAN_PARALLELISM_OPT, "4");
+        Set<Path> parallel = scan("parallel", properties);
+
+        assertThat(parallel).isEqualTo(sequential);
+    }
+
+    @Test
+    public void test_batched_scan_with_one_thread_has_the_same_results_as_sequential_scan() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty(ScanTask.SCAN_BATCH_SIZE_OPT, "7");
+
+        assertThat(scan("batched", properties)).isEqualTo(scan("sequential", new Properties()));
+    }
+
+    private Set<Path> scan(String queueName, Properties properties) throws Exception {
+        new ScanTask(factory, local(), queueName, root, properties).call();
+        DocumentQueue queue = factory.createQueue(new PropertiesProvider(), queueName);
+        Set<Path> paths = new HashSet<>();
+        Path path;
+        while (!(path = queue.take()).equals(POISON)) {
+            paths.add(path);
+        }
+        return paths;
+    }
+}
@@ -0,0 +1,131 @@
+package org.icij.datashare.tasks;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static java.nio.file.Paths.get;
+import static java.util.Arrays.asList;
+import static org.fest.assertions.Assertions.assertThat;
+
+public class SpillDocumentQueueTest {
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void test_put_and_take_in_order() throws Exception {
+        SpillDocumentQueue queue = new SpillDocumentQueue("test:queue", folder.getRoot().toPath(), 2);
+        queue.put(get("/path/to/doc1"));
+        queue.put(get("/path/to/doc2"));
+        queue.put(get("/path/to/other/doc3"));
+
+        assertThat(queue.size()).isEqualTo(3);
+        assertThat(queue.take()).isEqualTo(get("/path/to/doc1"));
+        assertThat(queue.poll()).isEqualTo(get("/path/to/doc2"));
+        assertThat(queue.peek()).isEqualTo(get("/path/to/other/doc3"));
+        assertThat(queue.poll()).isEqualTo(get("/path/to/other/doc3"));
+        assertThat(queue.poll()).isNull();
+    }
+
+    @Test
+    public void test_paths_are_not_blocked_by_head_capacity() throws Exception {
+        SpillDocumentQueue queue = new SpillDocumentQueue("test:queue", folder.getRoot().toPath(), 2, 256);
+        List<Path> paths = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            paths.add(get("/path/to/dir" + i / 10 + "/doc" + i));
+        }
+        queue.addAll(paths);
+        assertThat(queue.remainingCapacity()).isEqualTo(Integer.MAX_VALUE);
+
+        List<Path> taken = new ArrayList<>();
+        assertThat(queue.drainTo(taken)).isEqualTo(100);
+        assertThat(taken).isEqualTo(paths);
+    }
+
+    @Test
+    public void test_consumed_segments_are_deleted() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        SpillDocumentQueue queue = new SpillDocumentQueue("test:queue", dir, 10, 64);
+        for (int i = 0; i < 50; i++) {
+            queue.add(get("/path/to/doc" + i));
+        }
+        long segments = Files.list(dir).filter(p -> p.toString().endsWith(".segment")).count();
+
+        queue.drainTo(new ArrayList<>(), 45);
+
+        assertThat(Files.list(dir).filter(p -> p.toString().endsWith(".segment")).count()).isLessThan(segments);
+        assertThat(queue.size()).isEqualTo(5);
+    }
+
+    @Test
+    public void test_resume_after_last_taken_path() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        SpillDocumentQueue queue = new SpillDocumentQueue("test:queue", dir, 10, 64);
+        for (int i = 0; i < 20; i++) {
+            queue.add(get("/path/to/doc" + i));
+        }
+        queue.drainTo(new ArrayList<>(), 12);
+        queue.release();
+
+        SpillDocumentQueue resumed = new SpillDocumentQueue("test:queue", dir, 10, 64);
+        assertThat(resumed.size()).isEqualTo(8);
+        assertThat(resumed.take()).isEqualTo(get("/path/to/doc12"));
+        resumed.add(get("/path/to/doc20"));
+
+        List<Path> taken = new ArrayList<>();
+        resumed.drainTo(taken);
+        assertThat(taken).hasSize(8);
+        assertThat(taken.get(7)).isEqualTo(get("/path/to/doc20"));
+    }
+
+    @Test
+    public void test_remove_duplicates() throws Exception {
+        SpillDocumentQueue queue = new SpillDocumentQueue("test:queue", folder.getRoot().toPath(), 10);
+        queue.addAll(asList(get("/doc1"), get("/doc2"), get("/doc1"), get("/doc3"), get("/doc2")));
+
+        assertThat(queue.removeDuplicates()).isEqualTo(2);
+
+        assertThat(new ArrayList<>(queue)).isEqualTo(asList(get("/doc1"), get("/doc2"), get("/doc3")));
+    }
+
+    @Test
+    public void test_clear() throws Exception {
+        SpillDocumentQueue queue = new SpillDocumentQueue("test:queue", folder.getRoot().toPath(), 10);
+        queue.addAll(asList(get("/doc1"), get("/doc2")));
+
+        queue.clear();
+        queue.release();
+
+        assertThat(queue.size()).isEqualTo(0);
+        assertThat(new SpillDocumentQueue("test:queue", folder.getRoot().toPath(), 10).size()).isEqualTo(0);
+    }
+
+    @Test(expected = IOException.class)
+    public void test_directory_is_locked_by_the_queue() throws Exception {
+        new SpillDocumentQueue("test:queue", folder.getRoot().toPath(), 10);
+        new SpillDocumentQueue("test:queue", folder.getRoot().toPath(), 10);
+    }
+
+    @Test
+    public void test_iterator_continues_after_taken_segments() throws Exception {
+        SpillDocumentQueue queue = new SpillDocumentQueue("test:queue", folder.getRoot().toPath(), 10, 64);
+        for (int i = 0; i < 50; i++) {
+            queue.add(get("/path/to/doc" + i));
+        }
+        Iterator<Path> iterator = queue.iterator();
+        assertThat(iterator.next()).isEqualTo(get("/path/to/doc0"));
+
+        queue.drainTo(new ArrayList<>(), 45);
+
+        List<Path> remaining = new ArrayList<>();
+        iterator.forEachRemaining(remaining::add);
+        assertThat(remaining).contains(get("/path/to/doc45"), get("/path/to/doc49"));
+        assertThat(remaining.get(remaining.size() - 1)).isEqualTo(get("/path/to/doc49"));
+    }
+}
@@ -32,6 +32,20 @@ public class DatashareCli {
         DatashareCliOptions.resume(parser);
         DatashareCliOptions.scrollSize(parser);
         DatashareCliOptions.scrollSlices(parser);
+        DatashareCliOptions.esBulkSize(parser);
+        DatashareCliOptions.esBulkByteSizeMb(parser);
+        DatashareCliOptions.esBulkFlushInterval(parser);
+        DatashareCliOptions.esBulkConcurrentRequests(parser);
+        DatashareCliOptions.duplicateFilterSize(parser);
+        DatashareCliOptions.duplicateFilterDir(parser);
+        DatashareCliOptions.ingestProfile(parser);
+        DatashareCliOptions.nerBulkSize(parser);
+        DatashareCliOptions.nerBulkConcurrentRequests(parser);
+        DatashareCliOptions.getBatchSize(parser);
+        DatashareCliOptions.getBatchConcurrentRequests(parser);
+        DatashareCliOptions.documentCacheSizeMb(parser);
+        DatashareCliOptions.documentCacheTtlSeconds(parser);
+        DatashareCliOptions.forceMergeSegments(parser);
         DatashareCliOptions.redisPoolSize(parser);
         DatashareCliOptions.elasticsearchDataPath(parser);
         DatashareCliOptions.filterSet(parser);
@@ -39,6 +53,32 @@ public class DatashareCli {
         DatashareCliOptions.parallelism(parser);
         DatashareCliOptions.fileParserParallelism(parser);
         DatashareCliOptions.nlpParallelism(parser);
+        DatashareCliOptions.nlpQueueCapacity(parser);
+        DatashareCliOptions.nlpQueueSpillDir(parser);
+        DatashareCliOptions.nlpQueueMaxSpill(parser);
+        DatashareCliOptions.nlpBatchSize(parser);
+        DatashareCliOptions.nlpBatchMaxWaitMs(parser);
+        DatashareCliOptions.nlpLanguageAffinity(parser);
+        DatashareCliOptions.nlpLanguageMaxWaitMs(parser);
+        DatashareCliOptions.nlpModelsMemoryMb(parser);
+        DatashareCliOptions.nlpModelSizeMb(parser);
+        DatashareCliOptions.corenlpChunkSize(parser);
+        DatashareCliOptions.nerResultStoreDir(parser);
+        DatashareCliOptions.nerResultStoreMaxMb(parser);
+        DatashareCliOptions.emailPipelineRegex(parser);
+        DatashareCliOptions.nlpEngine(parser);
+        DatashareCliOptions.nlpPipelineWeights(parser);
+        DatashareCliOptions.nlpPipelineMaxConcurrency(parser);
+        DatashareCliOptions.nlpSourceFiltering(parser);
+        DatashareCliOptions.nlpReportSeconds(parser);
+        DatashareCliOptions.scanParallelism(parser);
+        DatashareCliOptions.scanMaxOpenDirs(parser);
+        DatashareCliOptions.scanBatchSize(parser);
+        DatashareCliOptions.queueBatchSize(parser);
+        DatashareCliOptions.deltaSnapshotFile(parser);
+        DatashareCliOptions.deltaSortRunSize(parser);
+        DatashareCliOptions.dedupExpectedPaths(parser);
+        DatashareCliOptions.queueSpillDir(parser);
         DatashareCliOptions.followSymlinks(parser);
         DatashareCliOptions.enableBrowserOpenLink(parser);
         DatashareCliOptions.batchSearchMaxTime(parser);
@@ -56,6 +96,7 @@ public class DatashareCli {
         DatashareCliOptions.queueType(parser);
         DatashareCliOptions.busType(parser);
         DatashareCliOptions.messageBusAddress(parser);
+        DatashareCliOptions.publisherBufferSize(parser);
         DatashareCliOptions.redisAddress(parser);
         DatashareCliOptions.dataSourceUrl(parser);
         DatashareCliOptions.rootHost(parser);
@@ -126,6 +167,7 @@ public class DatashareCli {
 
     public enum Stage {
         SCAN,
+        DELTA,
         SCANIDX,
         DEDUPLICATE,
         INDEX,
@@ -28,11 +28,13 @@ public final class DatashareCliOptions {
     public static final String RESUME_OPT = "resume";
     public static final String PARALLELISM = "parallelism";
     public static final String OPEN_LINK = "browserOpenLink";
+    public static final String NLP_ENGINE_OPT = "nlpEngine";
 
     static OptionSpec<String> stages(OptionParser parser) {
         return parser.acceptsAll(
                 asList(STAGES_OPT),
-                "Stages to be run. WARN that DEDUPLICATE stages are not streamable like the others. They should be run alone.")
+                "Stages to be run. WARN that DEDUPLICATE stages are not streamable like the others. They should be run alone. " +
+                "DELTA after SCAN only queues the files that are new or modified since the previous DELTA run.")
                 .withRequiredArg()
                 .ofType( String.class );
     }
@@ -133,10 +135,21 @@ public final class DatashareCliOptions {
                 .defaultsTo("redis");
     }
 
+    static OptionSpec<Integer> publisherBufferSize(OptionParser parser) {
+        return parser.acceptsAll(
+                singletonList("publisherBufferSize"),
+                "Size of the buffer of messages published asynchronously in batches to the message bus. " +
+                        "0 publishes each message synchronously")
+                .withRequiredArg()
+                .ofType(Integer.class)
+                .defaultsTo(0);
+    }
+
     public static OptionSpec<String> busType(OptionParser parser) {
         return parser.acceptsAll(
                 singletonList("busType"),
-                "Backend data bus type. Values can be \"memory\" or \"redis\"")
+                "Backend data bus type. Values can be \"memory\", \"redis\" or \"redisStream\" " +
+                        "(durable NLP messages shared between the NLP nodes, needs redis >= 5)")
                 .withRequiredArg()
                 .defaultsTo("redis");
     }
@@ -203,6 +216,323 @@ public final class DatashareCliOptions {
                 .ofType(Integer.class).defaultsTo(1);
     }
 
+    public static OptionSpec<Integer> esBulkSize(OptionParser parser) {
+        return parser.acceptsAll(
+                asList("esBulkSize"), "Number of documents sent in one elasticsearch bulk request at indexing (INDEX task). " +
+                        "0 or 1 sends one request per document")
+                .withRequiredArg()
+                .ofType(Integer.class).defaultsTo(0);
+    }
+
+    public static OptionSpec<Integer> esBulkByteSizeMb(OptionParser parser) {
+        return parser.acceptsAll(
+                asList("esBulkByteSizeMb"), "Max size in MB of an elasticsearch bulk request at indexing (INDEX task)")
+                .withRequiredArg()
+                .ofType(Integer.class).defaultsTo(5);
+    }
+
+    public static OptionSpec<Integer> esBulkFlushInterval(OptionParser parser) {
+        return parser.acceptsAll(
+                asList("esBulkFlushIntervalMs"), "Max time in milliseconds documents are buffered before sending an elasticsearch bulk request (INDEX task)")
+                .withRequiredArg()
+                .ofType(Integer.class).defaultsTo(1000);
+    }
+
+    public static OptionSpec<Integer> esBulkConcurrentRequests(OptionParser parser) {
+        return parser.acceptsAll(
+                asList("esBulkConcurrentRequests"), "Number of elasticsearch bulk requests that can be sent concurrently (INDEX task)")
+                .withRequiredArg()
+                .ofType(Integer.class).defaultsTo(1);
+    }
+
+    public static OptionSpec<Long> duplicateFilterSize(OptionParser parser) {
+        return parser.acceptsAll(
+                asList("duplicateFilterSize"), "Expected number of documents of the local duplicate filter used at indexing (INDEX task). " +
+                        "0 disables the filter and elasticsearch is requested for each document")
+                .withRequiredArg()
+                .ofType(Long.class).defaultsTo(0L);
+    }
+
+    public static OptionSpec<String> duplicateFilterDir(OptionParser parser) {
+        return parser.acceptsAll(
+                asList("duplicateFilterDir"), "Directory where duplicate filter snapshots are saved (INDEX task)")
+                .withRequiredArg()
+                .ofType(String.class);
+    }
+
+    public static OptionSpec<Integer> nerBulkSize(OptionParser parser) {
+        return parser.acceptsAll(
+                asList("nerBulkSize"), "Max number of actions of the elasticsearch bulk requests merging the named entities " +
+                        "of several documents (NLP task). 0 or 1 sends one request per document")
+                .withRequiredArg()
+                .ofType(Integer.class).defaultsTo(0);
+    }
+
+    public static OptionSpec<Integer> nerBulkConcurrentRequests(OptionParser parser) {
+        return parser.acceptsAll(
+                asList("nerBulkConcurrentRequests"), "Number of named entities bulk requests that can be sent concurrently " +
+                        "with nerBulkSize (NLP task)")
+                .withRequiredArg()
+                .ofType(Integer.class).defaultsTo(1);
+    }
+
+    public static OptionSpec<Integer> getBatchSize(OptionParser parser) {
+        return parser.acceptsAll(
+                asList("getBatchSize"), "Max number of concurrent document gets coalesced into one elasticsearch _mget request. " +
+                        "0 or 1 sends one request per get")
+                .withRequiredArg()
+                .ofType(Integer.class).defaultsTo(0);
+    }
+
+    public static OptionSpec<Integer> getBatchConcurrentRequests(OptionParser parser) {
+        return parser.acceptsAll(
+                asList("getBatchConcurrentRequests"), "Max number of elasticsearch _mget requests in flight with getBatchSize")
+                .withRequiredArg()
+                .ofType(Integer.class).defaultsTo(2);
+    }
+
+    public static OptionSpec<Integer> documentCacheSizeMb(OptionParser parser) {
+        return parser.acceptsAll(
+                asList("documentCacheSizeMb"), "Max size in MB of the cache of the documents got by id. 0 disables the cache")
+                .withRequiredArg()
+                .ofType(Integer.class).defaultsTo(0);
+    }
+
+    public static OptionSpec<Integer> documentCacheTtlSeconds(OptionParser parser) {
+        return parser.acceptsAll(
+                asList("documentCacheTtlSeconds"), "Time in seconds a document is kept in the cache of the documents " +
+                        "got by id, it bounds the time the writes of other processes are not seen")
+                .withRequiredArg()
+                .ofType(Integer.class).defaultsTo(60);
+    }
+
+    public static OptionSpec<Integer> nlpQueueCapacity(OptionParser parser) {
+        return parser.acceptsAll(
+                asList("nlpQueueCapacity"), "Max number of NLP messages kept in memory by each pipeline. " +
+                        "0 for an unbounded queue, not allowed with the redisStream bus (NLP task)")
+                .withRequiredArg()
+                .ofType(Integer.class).defaultsTo(0);
+    }
+
+    public static OptionSpec<String> nlpQueueSpillDir(OptionParser parser) {
+        return parser.acceptsAll(
+                asList("nlpQueueSpillDir"), "Directory where NLP messages are spilled when the bounded queue is full. " +
+                        "Without it the message bus is back-pressured. Required with a bounded queue and the redis pub/sub bus, " +
+                        "that cannot be back-pressured : the spilled messages are then only limited by the disk (NLP task)")
+                .withRequiredArg()
+                .ofType(String.class);
+    }
+
+    public static OptionSpec<Long> nlpQueueMaxSpill(OptionParser parser) {
+        return parser.acceptsAll(
+                asList("nlpQueueMaxSpill"), "Max number of NLP messages spilled to disk before back-pressuring " +
+                        "the message bus. 0 for no limit, not allowed with the redis pub/sub bus (NLP task)")
+                .withRequiredArg()
+                .ofType(Long.class).defaultsTo(0L);
+    }
+
+    public static OptionSpec<Integer> nlpBatchSize(OptionParser parser) {
+        return parser.acceptsAll(
+                asList("nlpBatchSize"), "Max number of documents processed together by a NLP consumer. " +
+                        "1 processes the documents one by one (NLP task)")
+                .withRequiredArg()
+                .ofType(Integer.class).defaultsTo(1);
+    }
+
+    public static OptionSpec<Long> nlpBatchMaxWaitMs(OptionParser parser) {
+        return parser.acceptsAll(
+                asList("nlpBatchMaxWaitMs"), "Max time in ms a NLP consumer waits for its batch to fill (NLP task)")
+                .withRequiredArg()
+                .ofType(Long.class).defaultsTo(100L);
+    }
+
+    public static OptionSpec<Boolean> nlpLanguageAffinity(OptionParser parser) {
+        return parser.acceptsAll(
+                asList("nlpLanguageAffinity"), "Schedules the NLP documents by language and keeps the models " +
+                        "loaded while their language has pending documents (NLP task)")
+                .withRequiredArg()
+                .ofType(Boolean.class).defaultsTo(false);
+    }
+
+    public static OptionSpec<Long> nlpLanguageMaxWaitMs(OptionParser parser) {
+        return parser.acceptsAll(
+                asList("nlpLanguageMaxWaitMs"), "Max time in ms a NLP document waits while the consumers work on other " +
+                        "languages with nlpLanguageAffinity. Keep it below streamClaimIdleMs (NLP task)")
+                .withRequiredArg()
+                .ofType(Long.class).defaultsTo(60000L);
+    }
+
+    public static OptionSpec<Long> nlpModelsMemoryMb(OptionParser parser) {
+        return parser.acceptsAll(
+                asList("nlpModelsMemoryMb"), "Memory budget in MB for the idle NLP models kept loaded with nlpLanguageAffinity. " +
+                        "0 unloads the models as soon as their language has no pending documents (NLP task)")
+                .withRequiredArg()
+                .ofType(Long.class).defaultsTo(0L);
+    }
+
+    public static OptionSpec<Long> nlpModelSizeMb(OptionParser parser) {
+        return parser.acceptsAll(
+                asList("nlpModelSizeMb"), "Estimated memory in MB of the NLP models of one language, " +
+                        "counted in nlpModelsMemoryMb (NLP task)")
+                .withRequiredArg()
+                .ofType(Long.class).defaultsTo(200L);
+    }
+
+    public static OptionSpec<Integer> corenlpChunkSize(OptionParser parser) {
+        return parser.acceptsAll(
+                asList("corenlpChunkSize"), "Size in chars of the chunks of large documents annotated in parallel " +
+                        "by CoreNLP. 0 annotates documents in one piece (NLP task)")
+                .withRequiredArg()
+                .ofType(Integer.class).defaultsTo(0);
+    }
+
+    public static OptionSpec<String> nerResultStoreDir(OptionParser parser) {
+        return parser.acceptsAll(
+                asList("nerResultStoreDir"), "Directory where the named entities are stored by content, " +
+                        "pipeline version, models version and options, to skip the NLP of identical contents. No store if not set (NLP task)")
+                .withRequiredArg()
+                .ofType(String.class);
+    }
+
+    public static OptionSpec<Long> nerResultStoreMaxMb(OptionParser parser) {
+        return parser.acceptsAll(
+                asList("nerResultStoreMaxMb"), "Max size in MB of the named entities store, " +
+                        "the least recently used contents are removed above (NLP task)")
+                .withRequiredArg()
+                .ofType(Long.class).defaultsTo(1024L);
+    }
+
+    public static OptionSpec<Boolean> emailPipelineRegex(OptionParser parser) {
+        return parser.acceptsAll(
+                asList("emailPipelineRegex"), "Uses the regexp instead of the email scanner " +
+                        "to find the emails (NLP task with EMAIL pipeline)")
+                .withRequiredArg()
+                .ofType(Boolean.class).defaultsTo(false);
+    }
+
+    public static OptionSpec<Boolean> nlpEngine(OptionParser parser) {
+        return parser.acceptsAll(
+                asList(NLP_ENGINE_OPT), "Runs all the NLP pipelines on one shared pool of nlpParallelism threads " +
+                        "instead of one pool per pipeline (NLP task with several pipelines). The other NLP options apply to each pipeline, " +
+                        "that reads the messages in the same redis streams consumer group as without nlpEngine")
+                .withRequiredArg()
+                .ofType(Boolean.class).defaultsTo(false);
+    }
+
+    public static OptionSpec<String> nlpPipelineWeights(OptionParser parser) {
+        return parser.acceptsAll(
+                asList("nlpPipelineWeights"), "Share of the threads given to each pipeline by the shared NLP pool, " +
+                        "for example CORENLP:3,EMAIL:1. Default weight is 1 (NLP task with nlpEngine)")
+                .withRequiredArg()
+                .ofType(String.class);
+    }
+
+    public static OptionSpec<String> nlpPipelineMaxConcurrency(OptionParser parser) {
+        return parser.acceptsAll(
+                asList("nlpPipelineMaxConcurrency"), "Max number of threads of the shared NLP pool running each pipeline, " +
+                        "for example CORENLP:2. Default is nlpParallelism (NLP task with nlpEngine)")
+                .withRequiredArg()
+                .ofType(String.class);
+    }
+
+    public static OptionSpec<Boolean> nlpSourceFiltering(OptionParser parser) {
+        return parser.acceptsAll(
+                asList("nlpSourceFiltering"), "Fetches only the document fields declared by the pipeline " +
+                        "instead of the whole document with all its metadata. The pipelines that don't declare their fields " +
+                        "get the whole document (NLP task)")
+                .withRequiredArg()
+                .ofType(Boolean.class).defaultsTo(true);
+    }
+
+    public static OptionSpec<Long> nlpReportSeconds(OptionParser parser) {
+        return parser.acceptsAll(
+                asList("nlpReportSeconds"), "Interval in seconds between the logs of the NLP queue depth, " +
+                        "spilled messages and consumer lag (NLP task)")
+                .withRequiredArg()
+                .ofType(Long.class).defaultsTo(60L);
+    }
+
+    public static OptionSpec<Integer> scanParallelism(OptionParser parser) {
+        return parser.acceptsAll(
+                asList("scanParallelism"), "Number of threads walking the subtrees of the data directory concurrently. " +
+                        "1 scans with one thread (SCAN task)")
+                .withRequiredArg()
+                .ofType(Integer.class).defaultsTo(1);
+    }
+
+    public static OptionSpec<Integer> scanMaxOpenDirs(OptionParser parser) {
+        return parser.acceptsAll(
+                asList("scanMaxOpenDirs"), "Max number of directories listed at the same time by the parallel scan (SCAN task)")
+                .withRequiredArg()
+                .ofType(Integer.class).defaultsTo(64);
+    }
+
+    public static OptionSpec<Integer> scanBatchSize(OptionParser parser) {
+        return parser.acceptsAll(
+                asList("scanBatchSize"), "Number of paths added together to the queue by the batched scan. Setting it scans " +
+                        "with the batched walk even with one thread, default is 1000 with scanParallelism (SCAN task)")
+                .withRequiredArg()
+                .ofType(Integer.class);
+    }
+
+    public static OptionSpec<Integer> queueBatchSize(OptionParser parser) {
+        return parser.acceptsAll(
+                asList("queueBatchSize"), "Number of paths taken or added together to the document queues " +
+                        "(DELTA and DEDUPLICATE tasks). 1 moves the paths one by one")
+                .withRequiredArg()
+                .ofType(Integer.class).defaultsTo(1000);
+    }
+
+    public static OptionSpec<String> deltaSnapshotFile(OptionParser parser) {
+        return parser.acceptsAll(
+                asList("deltaSnapshotFile"), "File of the (path, size, modified time, digest) snapshot of the previous scan. " +
+                        "The deleted files are written in <deltaSnapshotFile>.deleted. Default is in ~/.datashare (DELTA stage)")
+                .withRequiredArg()
+                .ofType(String.class);
+    }
+
+    public static OptionSpec<Integer> deltaSortRunSize(OptionParser parser) {
+        return parser.acceptsAll(
+                asList("deltaSortRunSize"), "Number of scanned files sorted in memory before being written in a " +
+                        "temporary run file, to be merged with the snapshot (DELTA stage)")
+                .withRequiredArg()
+                .ofType(Integer.class).defaultsTo(100000);
+    }
+
+    public static OptionSpec<Long> dedupExpectedPaths(OptionParser parser) {
+        return parser.acceptsAll(
+                asList("dedupExpectedPaths"), "Expected number of paths in the queue, to size the off-heap table " +
+                        "of path fingerprints (16 bytes per slot, 23 to 46 bytes of direct memory per path) that doubles when it is full. " +
+                        "The old and new tables must fit in -XX:MaxDirectMemorySize, e.g. 6GB when growing at 94M paths (DEDUPLICATE task)")
+                .withRequiredArg()
+                .ofType(Long.class).defaultsTo(1000000L);
+    }
+
+    public static OptionSpec<String> queueSpillDir(OptionParser parser) {
+        return parser.acceptsAll(
+                asList("queueSpillDir"), "Directory where the memory queues write their paths in memory-mapped " +
+                        "segment files instead of blocking the scan, they are resumed after a restart without the paths " +
+                        "taken before (queueType memory)")
+                .withRequiredArg()
+                .ofType(String.class);
+    }
+
+    public static OptionSpec<Boolean> ingestProfile(OptionParser parser) {
+        return parser.acceptsAll(
+                asList("ingestProfile"), "Disable index refresh, replicas and synchronous translog while indexing, " +
+                        "original settings are restored at the end (INDEX task)")
+                .withRequiredArg()
+                .ofType(Boolean.class).defaultsTo(false);
+    }
+
+    public static OptionSpec<Integer> forceMergeSegments(OptionParser parser) {
+        return parser.acceptsAll(
+                asList("forceMergeSegments"), "Max number of segments of the index force merge run after indexing " +
+                        "with the ingest profile. 0 disables the force merge (INDEX task)")
+                .withRequiredArg()
+                .ofType(Integer.class).defaultsTo(0);
+    }
+
      public static OptionSpec<Integer> redisPoolSize(OptionParser parser) {
         return parser.acceptsAll(
                 asList("redisPoolSize"), "Redis pool size used for each redis collection")
@@ -0,0 +1,173 @@
+package org.icij.datashare.text.indexing.elasticsearch;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.icij.datashare.Entity;
+import org.icij.datashare.text.Document;
+import org.icij.datashare.text.NamedEntity;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+import static java.lang.Math.min;
+
+/**
+ * read-through cache of the entities got by id, bounded by the estimated size of the entities
+ * (mostly the document contents) rather than by their number.
+ *
+ * The entities are cached by project and id with the routing they were got with : an id is cached with one
+ * routing at a time, so that a write invalidates its entity with one lookup.
+ *
+ * To avoid caching an entity read before a write and put after it, the writes increment the version of
+ * their id (ids are spread on VERSION_STRIPES counters) or of their project, and an entity is only kept if
+ * the versions have not changed during the read. Reads of other ids are not affected by the writes.
+ *
+ * The writes of other processes are not seen by the cache : the entities expire ttlMillis after they are put,
+ * which bounds the time a stale entity can be read.
+ */
+public class DocumentCache {
+    static final int ENTITY_OVERHEAD_BYTES = 1024;
+    static final int VERSION_STRIPES = 4096;
+    private final Cache<Key, Routed> cache;
+    private final AtomicLongArray idVersions = new AtomicLongArray(VERSION_STRIPES);
+    private final Map<String, AtomicLong> projectVersions = new ConcurrentHashMap<>();
+
+    DocumentCache(long maxSizeBytes) {
+        this(maxSizeBytes, ElasticsearchConfiguration.DEFAULT_DOCUMENT_CACHE_TTL_SECONDS * 1000L);
+    }
+
+    DocumentCache(long maxSizeBytes, long ttlMillis) {
+        this(maxSizeBytes, ttlMillis, Ticker.systemTicker());
+    }
+
+    DocumentCache(long maxSizeBytes, long ttlMillis, Ticker ticker) {
+        cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxSizeBytes)
+                .weigher((Key key, Routed routed) -> weight(routed.entity))
+                .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+                .ticker(ticker)
+                .recordStats()
+                .build();
+    }
+
+    <T extends Entity> T get(String project, String id, String routing, Supplier<T> loader) {
+        Key key = new Key(project, id);
+        T entity = getIfPresent(key, routing);
+        if (entity != null) {
+            return entity;
+        }
+        long versionBefore = version(key);
+        entity = loader.get();
+        if (entity != null) {
+            cache.put(key, new Routed(routing == null ? id : routing, entity));
+            if (version(key) != versionBefore) {
+                cache.invalidate(key);
+            }
+        }
+        return entity;
+    }
+
+    /**
+     * @return the cached entity without loading it, or null
+     */
+    <T extends Entity> T getIfPresent(String project, String id, String routing) {
+        return getIfPresent(new Key(project, id), routing);
+    }
+
+    /**
+     * invalidates the entity whatever its routing
+     */
+    void invalidate(String project, String id) {
+        Key key = new Key(project, id);
+        idVersions.incrementAndGet(key.stripe());
+        cache.invalidate(key);
+    }
+
+    /**
+     * invalidates the entities of the project, with a scan of the cache
+     */
+    void invalidate(String project) {
+        projectVersions.computeIfAbsent(project, p -> new AtomicLong()).incrementAndGet();
+        cache.asMap().keySet().removeIf(k -> k.project.equals(project));
+    }
+
+    public double hitRatio() { return cache.stats().hitRate();}
+    public long hitCount() { return cache.stats().hitCount();}
+    public long missCount() { return cache.stats().missCount();}
+    public long evictionCount() { return cache.stats().evictionCount();}
+    public long size() { return cache.size();}
+
+    @Override
+    public String toString() {
+        CacheStats stats = cache.stats();
+        return "documentCache{size=" + cache.size() + ", hitRatio=" + stats.hitRate() +
+                ", hits=" + stats.hitCount() + ", misses=" + stats.missCount() + ", evictions=" + stats.evictionCount() + "}";
+    }
+
+    static int weight(Entity entity) {
+        long weight = ENTITY_OVERHEAD_BYTES;
+        if (entity instanceof Document && ((Document) entity).getContent() != null) {
+            weight += 2L * ((Document) entity).getContent().length();
+        } else if (entity instanceof NamedEntity) {
+            weight += 2L * ((NamedEntity) entity).getMention().length();
+        }
+        return (int) min(weight, Integer.MAX_VALUE);
+    }
+
+    private <T extends Entity> T getIfPresent(Key key, String routing) {
+        Routed routed = cache.getIfPresent(key);
+        return routed != null && routed.routing.equals(routing == null ? key.id : routing) ? (T) routed.entity : null;
+    }
+
+    /**
+     * @return the sum of the version of the id and of its project, that changes with any write of the entity
+     */
+    private long version(Key key) {
+        AtomicLong projectVersion = projectVersions.get(key.project);
+        return idVersions.get(key.stripe()) + (projectVersion == null ? 0 : projectVersion.get());
+    }
+
+    private static class Routed {
+        final String routing;
+        final Entity entity;
+
+        Routed(String routing, Entity entity) {
+            this.routing = routing;
+            this.entity = entity;
+        }
+    }
+
+    private static class Key {
+        final String project;
+        final String id;
+
+        Key(String project, String id) {
+            this.project = project;
+            this.id = id;
+        }
+
+        int stripe() {
+            return (hashCode() & Integer.MAX_VALUE) % VERSION_STRIPES;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return project.equals(key.project) && id.equals(key.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(project, id);
+        }
+    }
+}
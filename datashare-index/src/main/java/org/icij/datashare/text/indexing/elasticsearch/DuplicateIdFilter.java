@@ -0,0 +1,238 @@
+package org.icij.datashare.text.indexing.elasticsearch;
+
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsRequest;
+import org.elasticsearch.action.search.ClearScrollRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.metrics.max.Max;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.slice.SliceBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Objects;
+import java.util.stream.IntStream;
+
+import static java.lang.Math.max;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.elasticsearch.index.query.QueryBuilders.boolQuery;
+import static org.elasticsearch.index.query.QueryBuilders.termQuery;
+
+/**
+ * probabilistic set of the root document ids of an index.
+ *
+ * It is used by the spewer to avoid asking elasticsearch if a document exists
+ * for each extracted file : if the filter says that the id has never been seen
+ * then it is not a duplicate. Only probable duplicates are checked against the index.
+ *
+ * The filter is seeded with a sliced scroll over the index, and it can be saved
+ * to a snapshot file with the state of the index : its uuid, its number of root documents
+ * and their max extraction date. The snapshot is reloaded only if the index has the same
+ * state, so that documents deleted and replaced by as many new ones (or a re-created index)
+ * make it outdated.
+ */
+class DuplicateIdFilter {
+    private static final Logger logger = LoggerFactory.getLogger(DuplicateIdFilter.class);
+    static final TimeValue KEEP_ALIVE = new TimeValue(60000);
+    static final double FALSE_POSITIVE_PROBABILITY = 0.01;
+    private static final int SNAPSHOT_MAGIC = 0x44534946; // DSIF
+    private static final int SNAPSHOT_VERSION = 2;
+
+    private final BloomFilter<CharSequence> bloomFilter;
+    private long nbIds;
+
+    DuplicateIdFilter(long expectedIds) {
+        this(BloomFilter.create(Funnels.stringFunnel(UTF_8), max(expectedIds, 1), FALSE_POSITIVE_PROBABILITY), 0);
+    }
+
+    private DuplicateIdFilter(BloomFilter<CharSequence> bloomFilter, long nbIds) {
+        this.bloomFilter = bloomFilter;
+        this.nbIds = nbIds;
+    }
+
+    synchronized boolean mightContain(String id) {
+        return bloomFilter.mightContain(id);
+    }
+
+    /**
+     * @return true if the id has never been put in the filter, false if it has probably been
+     */
+    synchronized boolean put(String id) {
+        if (bloomFilter.put(id)) {
+            nbIds++;
+            return true;
+        }
+        return false;
+    }
+
+    synchronized long size() {
+        return nbIds;
+    }
+
+    static DuplicateIdFilter create(RestHighLevelClient client, ElasticsearchConfiguration esCfg, String indexName,
+                                    long expectedIds, Path snapshotDir, int scrollSize, int scrollSlices) throws IOException {
+        IndexState state = IndexState.of(client, esCfg, indexName);
+        long nbDocuments = state.nbDocuments;
+        if (snapshotDir != null) {
+            Path snapshot = snapshotPath(snapshotDir, indexName);
+            if (Files.exists(snapshot)) {
+                DuplicateIdFilter filter = load(snapshot, state);
+                if (filter != null) {
+                    logger.info("loaded duplicate filter for {} with {} ids from {}", indexName, filter.size(), snapshot);
+                    return filter;
+                }
+                logger.info("duplicate filter snapshot {} is outdated, seeding it from index {}", snapshot, indexName);
+            }
+        }
+        DuplicateIdFilter filter = new DuplicateIdFilter(max(expectedIds, 2 * nbDocuments));
+        filter.seed(client, esCfg, indexName, scrollSize, scrollSlices);
+        logger.info("seeded duplicate filter with {} ids from index {}", filter.size(), indexName);
+        return filter;
+    }
+
+    void seed(RestHighLevelClient client, ElasticsearchConfiguration esCfg, String indexName, int scrollSize, int scrollSlices) {
+        IntStream.range(0, scrollSlices).parallel().forEach(slice -> {
+            try {
+                seedSlice(client, esCfg, indexName, scrollSize, slice, scrollSlices);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private void seedSlice(RestHighLevelClient client, ElasticsearchConfiguration esCfg, String indexName, int scrollSize,
+                           int slice, int nbSlices) throws IOException {
+        SearchSourceBuilder sourceBuilder = new SearchSourceBuilder().query(rootDocumentsQuery(esCfg)).size(scrollSize).fetchSource(false);
+        if (nbSlices > 1) {
+            sourceBuilder.slice(new SliceBuilder(slice, nbSlices));
+        }
+        SearchRequest searchRequest = new SearchRequest(new String[]{indexName}, sourceBuilder).scroll(KEEP_ALIVE);
+        searchRequest.types(esCfg.indexType);
+        SearchResponse response = client.search(searchRequest);
+        String scrollId = response.getScrollId();
+        try {
+            while (response.getHits().getHits().length > 0) {
+                for (SearchHit hit : response.getHits()) {
+                    put(hit.getId());
+                }
+                response = client.searchScroll(new SearchScrollRequest(scrollId).scroll(KEEP_ALIVE));
+                scrollId = response.getScrollId();
+            }
+        } finally {
+            ClearScrollRequest clearScrollRequest = new ClearScrollRequest();
+            clearScrollRequest.addScrollId(scrollId);
+            client.clearScroll(clearScrollRequest);
+        }
+    }
+
+    synchronized void save(Path snapshotDir, String indexName, RestHighLevelClient client, ElasticsearchConfiguration esCfg) throws IOException {
+        Path snapshot = snapshotPath(snapshotDir, indexName);
+        Path tmp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+        Files.createDirectories(snapshotDir);
+        client.indices().refresh(new RefreshRequest(indexName), RequestOptions.DEFAULT);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            IndexState.of(client, esCfg, indexName).writeTo(out);
+            out.writeLong(nbIds);
+            bloomFilter.writeTo(out);
+        }
+        Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.info("saved duplicate filter with {} ids to {}", nbIds, snapshot);
+    }
+
+    /**
+     * @return the filter of the snapshot, or null if it has been saved for another state of the index
+     * or with another snapshot format
+     */
+    static DuplicateIdFilter load(Path snapshot, IndexState expectedState) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION || !IndexState.readFrom(in).equals(expectedState)) {
+                return null;
+            }
+            long nbIds = in.readLong();
+            return new DuplicateIdFilter(BloomFilter.readFrom(in, Funnels.stringFunnel(UTF_8)), nbIds);
+        }
+    }
+
+    static Path snapshotPath(Path snapshotDir, String indexName) {
+        return snapshotDir.resolve(indexName + ".idfilter");
+    }
+
+
+    static QueryBuilder rootDocumentsQuery(ElasticsearchConfiguration esCfg) {
+        return boolQuery().filter(termQuery(esCfg.docTypeField, ElasticsearchConfiguration.ES_DOCUMENT_TYPE))
+                .filter(termQuery("extractionLevel", 0));
+    }
+
+    /**
+     * what changes when documents are written to the index : a document replaced by a new one keeps the count
+     * but not the max extraction date, and a re-created index has another uuid
+     */
+    static class IndexState {
+        private static final String MAX_EXTRACTION_DATE = "maxExtractionDate";
+        final String uuid;
+        final long nbDocuments;
+        final long maxExtractionDate;
+
+        IndexState(String uuid, long nbDocuments, long maxExtractionDate) {
+            this.uuid = uuid;
+            this.nbDocuments = nbDocuments;
+            this.maxExtractionDate = maxExtractionDate;
+        }
+
+        static IndexState of(RestHighLevelClient client, ElasticsearchConfiguration esCfg, String indexName) throws IOException {
+            SearchRequest searchRequest = new SearchRequest(new String[]{indexName}, new SearchSourceBuilder().query(rootDocumentsQuery(esCfg)).size(0)
+                    .aggregation(AggregationBuilders.max(MAX_EXTRACTION_DATE).field("extractionDate")));
+            searchRequest.types(esCfg.indexType);
+            SearchResponse response = client.search(searchRequest);
+            Max maxExtractionDate = response.getAggregations().get(MAX_EXTRACTION_DATE);
+            String uuid = client.indices().getSettings(new GetSettingsRequest().indices(indexName).names("index.uuid"), RequestOptions.DEFAULT)
+                    .getSetting(indexName, "index.uuid");
+            return new IndexState(String.valueOf(uuid), response.getHits().totalHits,
+                    Double.isInfinite(maxExtractionDate.getValue()) ? 0 : (long) maxExtractionDate.getValue());
+        }
+
+        static IndexState readFrom(DataInput in) throws IOException {
+            return new IndexState(in.readUTF(), in.readLong(), in.readLong());
+        }
+
+        void writeTo(DataOutput out) throws IOException {
+            out.writeUTF(uuid);
+            out.writeLong(nbDocuments);
+            out.writeLong(maxExtractionDate);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            IndexState that = (IndexState) o;
+            return nbDocuments == that.nbDocuments && maxExtractionDate == that.maxExtractionDate && uuid.equals(that.uuid);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(uuid, nbDocuments, maxExtractionDate);
+        }
+
+        @Override
+        public String toString() {
+            return "indexState{uuid=" + uuid + ", nbDocuments=" + nbDocuments + ", maxExtractionDate=" + maxExtractionDate + "}";
+        }
+    }
+}
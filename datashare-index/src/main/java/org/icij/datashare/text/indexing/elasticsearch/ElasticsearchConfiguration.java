@@ -11,6 +11,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 import static com.google.common.io.ByteStreams.toByteArray;
 import static org.apache.http.HttpHost.create;
@@ -33,6 +35,20 @@ public class ElasticsearchConfiguration {
     public static final String INDEX_JOIN_FIELD_NAME_PROP = "indexJoinFieldName";
     public static final String INDEX_TYPE_FIELD_NAME_PROP = "indexTypeFieldName";
     public static final String CLUSTER_PROP = "clusterName";
+    public static final String BULK_SIZE_PROP = "esBulkSize";
+    public static final String BULK_BYTE_SIZE_MB_PROP = "esBulkByteSizeMb";
+    public static final String BULK_FLUSH_INTERVAL_PROP = "esBulkFlushIntervalMs";
+    public static final String BULK_CONCURRENT_REQUESTS_PROP = "esBulkConcurrentRequests";
+    public static final String DUPLICATE_FILTER_SIZE_PROP = "duplicateFilterSize";
+    public static final String DUPLICATE_FILTER_DIR_PROP = "duplicateFilterDir";
+    public static final String NER_BULK_SIZE_PROP = "nerBulkSize";
+    public static final String NER_BULK_CONCURRENT_REQUESTS_PROP = "nerBulkConcurrentRequests";
+    public static final String GET_BATCH_SIZE_PROP = "getBatchSize";
+    public static final String GET_BATCH_CONCURRENT_REQUESTS_PROP = "getBatchConcurrentRequests";
+    public static final String DOCUMENT_CACHE_SIZE_MB_PROP = "documentCacheSizeMb";
+    public static final String DOCUMENT_CACHE_TTL_SECONDS_PROP = "documentCacheTtlSeconds";
+    public static final String INGEST_PROFILE_PROP = "ingestProfile";
+    public static final String FORCE_MERGE_SEGMENTS_PROP = "forceMergeSegments";
 
     public static final String DEFAULT_ADDRESS = "http://localhost:9200";
     public static final String ES_CLUSTER_NAME = "datashare";
@@ -45,10 +61,31 @@ public class ElasticsearchConfiguration {
     static final String DEFAULT_PARENT_DOC_FIELD = "parentDocument";
 
     private static final String DEFAULT_DOC_TYPE_FIELD = "type";
+    static final int DEFAULT_BULK_SIZE = 0;
+    static final int DEFAULT_BULK_BYTE_SIZE_MB = 5;
+    static final int DEFAULT_BULK_FLUSH_INTERVAL_MS = 1000;
+    static final int DEFAULT_BULK_CONCURRENT_REQUESTS = 1;
+    static final int DEFAULT_DOCUMENT_CACHE_TTL_SECONDS = 60;
 
     final String indexType;
     final String indexJoinField;
     final String docTypeField;
+    final int bulkSize;
+    final int bulkByteSizeMb;
+    final int bulkFlushIntervalMs;
+    final int bulkConcurrentRequests;
+    final long duplicateFilterSize;
+    final Path duplicateFilterDir;
+    final int scrollSize;
+    final int scrollSlices;
+    final boolean ingestProfile;
+    final int nerBulkSize;
+    final int nerBulkConcurrentRequests;
+    final int getBatchSize;
+    final int getBatchConcurrentRequests;
+    final int documentCacheSizeMb;
+    final int documentCacheTtlSeconds;
+    final int forceMergeSegments;
     WriteRequest.RefreshPolicy refreshPolicy = WriteRequest.RefreshPolicy.NONE;
 
     final int shards = 1;
@@ -58,6 +95,42 @@ public class ElasticsearchConfiguration {
         indexType = propertiesProvider.get(INDEX_TYPE_PROP).orElse(DEFAULT_INDEX_TYPE);
         indexJoinField = propertiesProvider.get(INDEX_JOIN_FIELD_NAME_PROP).orElse(DEFAULT_INDEX_JOIN_FIELD);
         docTypeField = propertiesProvider.get(INDEX_TYPE_FIELD_NAME_PROP).orElse(DEFAULT_DOC_TYPE_FIELD);
+        bulkSize = propertiesProvider.get(BULK_SIZE_PROP).map(Integer::parseInt).orElse(DEFAULT_BULK_SIZE);
+        bulkByteSizeMb = propertiesProvider.get(BULK_BYTE_SIZE_MB_PROP).map(Integer::parseInt).orElse(DEFAULT_BULK_BYTE_SIZE_MB);
+        bulkFlushIntervalMs = propertiesProvider.get(BULK_FLUSH_INTERVAL_PROP).map(Integer::parseInt).orElse(DEFAULT_BULK_FLUSH_INTERVAL_MS);
+        bulkConcurrentRequests = propertiesProvider.get(BULK_CONCURRENT_REQUESTS_PROP).map(Integer::parseInt).orElse(DEFAULT_BULK_CONCURRENT_REQUESTS);
+        duplicateFilterSize = propertiesProvider.get(DUPLICATE_FILTER_SIZE_PROP).map(Long::parseLong).orElse(0L);
+        duplicateFilterDir = propertiesProvider.get(DUPLICATE_FILTER_DIR_PROP).map(Paths::get).orElse(null);
+        scrollSize = propertiesProvider.get("scrollSize").map(Integer::parseInt).orElse(1000);
+        scrollSlices = propertiesProvider.get("scrollSlices").map(Integer::parseInt).orElse(1);
+        nerBulkSize = propertiesProvider.get(NER_BULK_SIZE_PROP).map(Integer::parseInt).orElse(DEFAULT_BULK_SIZE);
+        nerBulkConcurrentRequests = propertiesProvider.get(NER_BULK_CONCURRENT_REQUESTS_PROP).map(Integer::parseInt).orElse(DEFAULT_BULK_CONCURRENT_REQUESTS);
+        getBatchSize = propertiesProvider.get(GET_BATCH_SIZE_PROP).map(Integer::parseInt).orElse(0);
+        getBatchConcurrentRequests = propertiesProvider.get(GET_BATCH_CONCURRENT_REQUESTS_PROP).map(Integer::parseInt).orElse(2);
+        documentCacheSizeMb = propertiesProvider.get(DOCUMENT_CACHE_SIZE_MB_PROP).map(Integer::parseInt).orElse(0);
+        documentCacheTtlSeconds = propertiesProvider.get(DOCUMENT_CACHE_TTL_SECONDS_PROP).map(Integer::parseInt).orElse(DEFAULT_DOCUMENT_CACHE_TTL_SECONDS);
+        ingestProfile = propertiesProvider.get(INGEST_PROFILE_PROP).map(Boolean::parseBoolean).orElse(false);
+        forceMergeSegments = propertiesProvider.get(FORCE_MERGE_SEGMENTS_PROP).map(Integer::parseInt).orElse(0);
+    }
+
+    boolean isBulkEnabled() {
+        return bulkSize > 1;
+    }
+
+    boolean isNerAggregationEnabled() {
+        return nerBulkSize > 1;
+    }
+
+    boolean isGetBatchingEnabled() {
+        return getBatchSize > 1;
+    }
+
+    boolean isDocumentCacheEnabled() {
+        return documentCacheSizeMb > 0;
+    }
+
+    boolean isDuplicateFilterEnabled() {
+        return duplicateFilterSize > 0;
     }
 
     public static RestHighLevelClient createESClient(final PropertiesProvider propertiesProvider) {
@@ -108,6 +181,8 @@ public class ElasticsearchConfiguration {
                 ", docTypeField='" + docTypeField + '\'' +
                 ", shards=" + shards +
                 ", replicas=" + replicas +
+                ", bulkSize=" + bulkSize +
+                ", ingestProfile=" + ingestProfile +
                 '}';
     }
 
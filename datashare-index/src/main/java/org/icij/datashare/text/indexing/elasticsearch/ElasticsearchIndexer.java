@@ -10,12 +10,16 @@ import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.join.ScoreMode;
+import org.elasticsearch.action.DocWriteRequest;
 import org.elasticsearch.action.DocWriteResponse;
 import org.elasticsearch.action.bulk.BulkItemResponse;
 import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.get.GetRequest;
 import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.search.ClearScrollRequest;
 import org.elasticsearch.action.search.SearchRequest;
@@ -42,6 +46,7 @@ import org.icij.datashare.Entity;
 import org.icij.datashare.PropertiesProvider;
 import org.icij.datashare.json.JsonObjectMapper;
 import org.icij.datashare.text.Document;
+import org.icij.datashare.text.Language;
 import org.icij.datashare.text.NamedEntity;
 import org.icij.datashare.text.Project;
 import org.icij.datashare.text.Tag;
@@ -49,20 +54,27 @@ import org.icij.datashare.text.indexing.Indexer;
 import org.icij.datashare.text.nlp.Pipeline;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 import static java.util.Arrays.stream;
+import static java.util.Collections.singletonList;
 import static java.util.Optional.ofNullable;
 import static java.util.stream.Collectors.toList;
 import static org.apache.lucene.search.BooleanClause.Occur.SHOULD;
-import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
 import static org.elasticsearch.index.query.QueryBuilders.*;
 import static org.icij.datashare.json.JsonObjectMapper.*;
 import static org.icij.datashare.text.indexing.elasticsearch.ElasticsearchConfiguration.DEFAULT_SEARCH_SIZE;
@@ -71,16 +83,26 @@ import static org.icij.datashare.text.indexing.elasticsearch.ElasticsearchConfig
 public class ElasticsearchIndexer implements Indexer {
     public final RestHighLevelClient client;
     private final ElasticsearchConfiguration esCfg;
+    private final NerWriteAggregator nerWriteAggregator;
+    private final MultiGetBatcher multiGetBatcher;
+    private final DocumentCache documentCache;
 
     @Inject
     public ElasticsearchIndexer(final RestHighLevelClient esClient, final PropertiesProvider propertiesProvider) {
         this.client = esClient;
         esCfg = new ElasticsearchConfiguration(propertiesProvider);
+        nerWriteAggregator = esCfg.isNerAggregationEnabled() ? new NerWriteAggregator(client, esCfg) : null;
+        multiGetBatcher = esCfg.isGetBatchingEnabled() ? new MultiGetBatcher(client, esCfg) : null;
+        documentCache = esCfg.isDocumentCacheEnabled() ? new DocumentCache(esCfg.documentCacheSizeMb * 1024L * 1024L,
+                esCfg.documentCacheTtlSeconds * 1000L) : null;
         LOGGER.info("indexer defined with {}", esCfg);
     }
 
     @Override
     public void close() throws IOException {
+        if (documentCache != null) {
+            LOGGER.info("{}", documentCache);
+        }
         LOGGER.info("Closing Elasticsearch connections");
         client.close();
         LOGGER.info("Elasticsearch connections closed");
@@ -88,22 +110,26 @@ public class ElasticsearchIndexer implements Indexer {
 
     @Override
     public boolean bulkAdd(final String indexName, Pipeline.Type nerType, List<NamedEntity> namedEntities, Document parent) throws IOException {
-        BulkRequest bulkRequest = new BulkRequest();
-
-        String routing = ofNullable(parent.getRootDocument()).orElse(parent.getId());
-        bulkRequest.add(new UpdateRequest(indexName, esCfg.indexType, parent.getId()).doc(
-                jsonBuilder().startObject()
-                        .field("status", Document.Status.DONE)
-                        .endObject()).routing(routing));
-        bulkRequest.add(new UpdateRequest(indexName, esCfg.indexType, parent.getId())
-                .script(new Script(ScriptType.INLINE, "painless",
-                        "if (!ctx._source.nerTags.contains(params.nerTag)) ctx._source.nerTags.add(params.nerTag);",
-                        new HashMap<String, Object>() {{put("nerTag", nerType.toString());}})).routing(routing));
+        try {
+            return doBulkAdd(indexName, nerType, namedEntities, parent);
+        } finally {
+            invalidate(indexName, parent.getId());
+        }
+    }
 
-        for (Entity child : namedEntities) {
-            bulkRequest.add(createIndexRequest(indexName, JsonObjectMapper.getType(child), child.getId(),
-                    getJson(child), parent.getId(), routing));
+    private boolean doBulkAdd(final String indexName, Pipeline.Type nerType, List<NamedEntity> namedEntities, Document parent) throws IOException {
+        if (nerWriteAggregator != null) {
+            try {
+                return bulkAddAsync(indexName, nerType, namedEntities, parent).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
         }
+        BulkRequest bulkRequest = new BulkRequest();
+        createNerRequests(indexName, nerType, namedEntities, parent).forEach(bulkRequest::add);
         bulkRequest.setRefreshPolicy(esCfg.refreshPolicy);
 
         BulkResponse bulkResponse = client.bulk(bulkRequest);
@@ -118,6 +144,88 @@ public class ElasticsearchIndexer implements Indexer {
         return true;
     }
 
+    /**
+     * same as bulkAdd but the writes are merged with the writes of other documents
+     * when the ner aggregation is enabled (nerBulkSize > 1).
+     *
+     * @return a future completed with false if one of the document writes has failed
+     */
+    public CompletableFuture<Boolean> bulkAddAsync(final String indexName, Pipeline.Type nerType, List<NamedEntity> namedEntities, Document parent) throws IOException {
+        if (nerWriteAggregator == null) {
+            return CompletableFuture.completedFuture(bulkAdd(indexName, nerType, namedEntities, parent));
+        }
+        return nerWriteAggregator.add(parent.getId(), createNerRequests(indexName, nerType, namedEntities, parent))
+                .whenComplete((result, failure) -> invalidate(indexName, parent.getId()));
+    }
+
+    /**
+     * adds the named entities of several documents with one bulk request (or with the
+     * ner aggregator when it is enabled). A failed write only fails its own document.
+     *
+     * @return the ids of the documents that have at least one failed write
+     */
+    public Set<String> bulkAdd(final String indexName, Pipeline.Type nerType, Map<Document, List<NamedEntity>> namedEntitiesByDocument) throws IOException {
+        Set<String> failedIds = new HashSet<>();
+        if (namedEntitiesByDocument.isEmpty()) {
+            return failedIds;
+        }
+        if (nerWriteAggregator != null) {
+            Map<String, CompletableFuture<Boolean>> futures = new LinkedHashMap<>();
+            for (Map.Entry<Document, List<NamedEntity>> entry : namedEntitiesByDocument.entrySet()) {
+                futures.put(entry.getKey().getId(), bulkAddAsync(indexName, nerType, entry.getValue(), entry.getKey()));
+            }
+            futures.forEach((id, future) -> {
+                if (!future.exceptionally(e -> false).join()) {
+                    failedIds.add(id);
+                }
+            });
+            return failedIds;
+        }
+        BulkRequest bulkRequest = new BulkRequest();
+        List<String> itemDocumentIds = new ArrayList<>();
+        for (Map.Entry<Document, List<NamedEntity>> entry : namedEntitiesByDocument.entrySet()) {
+            for (DocWriteRequest<?> request : createNerRequests(indexName, nerType, entry.getValue(), entry.getKey())) {
+                bulkRequest.add(request);
+                itemDocumentIds.add(entry.getKey().getId());
+            }
+        }
+        bulkRequest.setRefreshPolicy(esCfg.refreshPolicy);
+        try {
+            BulkResponse bulkResponse = client.bulk(bulkRequest);
+            if (bulkResponse.hasFailures()) {
+                BulkItemResponse[] items = bulkResponse.getItems();
+                for (int i = 0; i < items.length; i++) {
+                    if (items[i].isFailed()) {
+                        LOGGER.error("bulk add failed for document {} : {}", itemDocumentIds.get(i), items[i].getFailureMessage());
+                        failedIds.add(itemDocumentIds.get(i));
+                    }
+                }
+            }
+        } finally {
+            namedEntitiesByDocument.keySet().forEach(doc -> invalidate(indexName, doc.getId()));
+        }
+        return failedIds;
+    }
+
+    private List<DocWriteRequest<?>> createNerRequests(String indexName, Pipeline.Type nerType, List<NamedEntity> namedEntities, Document parent) {
+        List<DocWriteRequest<?>> requests = new ArrayList<>(namedEntities.size() + 1);
+        String routing = ofNullable(parent.getRootDocument()).orElse(parent.getId());
+        requests.add(new UpdateRequest(indexName, esCfg.indexType, parent.getId())
+                .script(new Script(ScriptType.INLINE, "painless",
+                        "ctx._source.status = params.status;" +
+                        "if (!ctx._source.nerTags.contains(params.nerTag)) ctx._source.nerTags.add(params.nerTag);",
+                        new HashMap<String, Object>() {{
+                            put("status", Document.Status.DONE.toString());
+                            put("nerTag", nerType.toString());
+                        }})).routing(routing));
+
+        for (Entity child : namedEntities) {
+            requests.add(createIndexRequest(indexName, JsonObjectMapper.getType(child), child.getId(),
+                    getJson(child), parent.getId(), routing));
+        }
+        return requests;
+    }
+
     @Override
     public <T extends Entity> boolean bulkUpdate(String indexName, List<? extends Entity> entities) throws IOException {
         BulkRequest bulkRequest = new BulkRequest();
@@ -125,7 +233,12 @@ public class ElasticsearchIndexer implements Indexer {
                 forEach(bulkRequest::add);
         bulkRequest.setRefreshPolicy(esCfg.refreshPolicy);
 
-        BulkResponse bulkResponse = client.bulk(bulkRequest);
+        BulkResponse bulkResponse;
+        try {
+            bulkResponse = client.bulk(bulkRequest);
+        } finally {
+            entities.forEach(e -> invalidate(indexName, e.getId()));
+        }
         if (bulkResponse.hasFailures()) {
             for (BulkItemResponse resp : bulkResponse.getItems()) {
                 if (resp.isFailed()) {
@@ -141,16 +254,24 @@ public class ElasticsearchIndexer implements Indexer {
     public <T extends Entity> void add(final String indexName, T obj) throws IOException {
         String type = JsonObjectMapper.getType(obj);
         String id = obj.getId();
-        client.index(createIndexRequest(indexName, type, id, getJson(obj), getParent(obj), getRoot(obj)).
-                setRefreshPolicy(esCfg.refreshPolicy));
+        try {
+            client.index(createIndexRequest(indexName, type, id, getJson(obj), getParent(obj), getRoot(obj)).
+                    setRefreshPolicy(esCfg.refreshPolicy));
+        } finally {
+            invalidate(indexName, id);
+        }
     }
 
     @Override
     public <T extends Entity> void update(String indexName, T obj) throws IOException {
         String type = JsonObjectMapper.getType(obj);
         String id = obj.getId();
-        client.update(createUpdateRequest(indexName, type, id, getJson(obj), getParent(obj), getRoot(obj)).
-                setRefreshPolicy(esCfg.refreshPolicy));
+        try {
+            client.update(createUpdateRequest(indexName, type, id, getJson(obj), getParent(obj), getRoot(obj)).
+                    setRefreshPolicy(esCfg.refreshPolicy));
+        } finally {
+            invalidate(indexName, id);
+        }
     }
 
     private IndexRequest createIndexRequest(String index, String type, String id, Map<String, Object> json, String parent, String root) {
@@ -190,24 +311,152 @@ public class ElasticsearchIndexer implements Indexer {
 
     @Override
     public <T extends Entity> T get(String indexName, String id, String root) {
-        String type = null;
+        if (documentCache != null) {
+            return documentCache.get(indexName, id, root, () -> getFromIndex(indexName, id, root));
+        }
+        return getFromIndex(indexName, id, root);
+    }
+
+    /**
+     * same as get(indexName, id, root) with source filtering. The type field is always fetched.
+     *
+     * The partial entities are not put in the document cache, but a cached entity is returned if there is one.
+     */
+    public <T extends Entity> T get(String indexName, String id, String root, String[] sourceIncludes) {
+        if (sourceIncludes == null) {
+            return get(indexName, id, root);
+        }
+        if (documentCache != null) {
+            T cached = documentCache.getIfPresent(indexName, id, root);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        if (multiGetBatcher != null) {
+            try {
+                return (T) multiGetBatcher.get(indexName, new IdRouting(id, root), sourceIncludes).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                throw getFailure(indexName, id, e);
+            }
+            return null;
+        }
+        try {
+            List<T> entities = get(indexName, singletonList(new IdRouting(id, root)), sourceIncludes, null);
+            return entities.get(0);
+        } catch (IOException e) {
+            LOGGER.error("Failed to get entity " + id + " in index " + indexName, e);
+        }
+        return null;
+    }
+
+    /**
+     * @return the document cache metrics, or null if the cache is disabled
+     */
+    public DocumentCache getDocumentCache() {
+        return documentCache;
+    }
+
+    private <T extends Entity> T getFromIndex(String indexName, String id, String root) {
+        if (multiGetBatcher != null) {
+            try {
+                return (T) multiGetBatcher.get(indexName, new IdRouting(id, root)).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                throw getFailure(indexName, id, e);
+            }
+            return null;
+        }
         try {
             final GetRequest req = new GetRequest(indexName, esCfg.indexType, id).routing(root);
             final GetResponse resp = client.get(req);
             if (resp.isExists()) {
-                Map<String, Object> sourceAsMap = resp.getSourceAsMap();
-                type = (String) sourceAsMap.get(esCfg.docTypeField);
-                Class<T> tClass = (Class<T>) Class.forName("org.icij.datashare.text." + type);
-                return JsonObjectMapper.getObject(id, sourceAsMap, tClass);
+                return EntitySourceReader.read(id, resp.getSourceAsBytesRef(), esCfg.docTypeField);
             }
         } catch (IOException e) {
             LOGGER.error("Failed to get entity " + id + " in index " + indexName, e);
         } catch (ClassNotFoundException e) {
-            LOGGER.error("no entity for type " + type);
+            LOGGER.error("no entity for type of " + id, e);
         }
         return null;
     }
 
+    /**
+     * the errors of the batched gets are thrown like the elasticsearch errors of a get : an unavailable index
+     * is not a missing document
+     */
+    private static RuntimeException getFailure(String indexName, String id, ExecutionException e) {
+        LOGGER.error("Failed to get entity " + id + " in index " + indexName, e.getCause());
+        if (e.getCause() instanceof RuntimeException) {
+            return (RuntimeException) e.getCause();
+        }
+        if (e.getCause() instanceof IOException) {
+            return new UncheckedIOException((IOException) e.getCause());
+        }
+        return new IllegalStateException("failed to get entity " + id + " in index " + indexName, e.getCause());
+    }
+
+    /**
+     * gets several entities with one _mget request
+     *
+     * @return the entities in the order of the ids, with null for the entities that are not found
+     */
+    public <T extends Entity> List<T> get(String indexName, List<IdRouting> ids) throws IOException {
+        return get(indexName, ids, null, null);
+    }
+
+    /**
+     * same as get(indexName, ids) with source filtering. The type field is always fetched.
+     */
+    public <T extends Entity> List<T> get(String indexName, List<IdRouting> ids, String[] sourceIncludes, String[] sourceExcludes) throws IOException {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        String[] includes = MultiGetBatcher.withTypeField(sourceIncludes, esCfg.docTypeField);
+        MultiGetRequest request = new MultiGetRequest();
+        ids.forEach(id -> request.add(MultiGetBatcher.item(indexName, esCfg.indexType, id, includes, sourceExcludes)));
+        MultiGetResponse response = client.multiGet(request, RequestOptions.DEFAULT);
+
+        List<T> entities = new ArrayList<>(ids.size());
+        for (MultiGetItemResponse itemResponse : response.getResponses()) {
+            try {
+                entities.add(MultiGetBatcher.entity(itemResponse, esCfg.docTypeField));
+            } catch (ClassNotFoundException e) {
+                LOGGER.error("no entity for type of " + itemResponse.getId(), e);
+                entities.add(null);
+            }
+        }
+        return entities;
+    }
+
+    /**
+     * gets the languages of several documents with one _mget request that only fetches the language field
+     *
+     * @return the languages in the order of the ids, with null for the documents that are not found
+     */
+    public List<Language> getLanguages(String indexName, List<IdRouting> ids) throws IOException {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        String[] includes = {"language"};
+        MultiGetRequest request = new MultiGetRequest();
+        ids.forEach(id -> request.add(MultiGetBatcher.item(indexName, esCfg.indexType, id, includes, null)));
+        MultiGetResponse response = client.multiGet(request, RequestOptions.DEFAULT);
+
+        List<Language> languages = new ArrayList<>(ids.size());
+        for (MultiGetItemResponse itemResponse : response.getResponses()) {
+            if (itemResponse.isFailed() || !itemResponse.getResponse().isExists() || itemResponse.getResponse().isSourceEmpty()) {
+                languages.add(null);
+            } else {
+                Object language = itemResponse.getResponse().getSourceAsMap().get("language");
+                languages.add(language == null ? null : Language.parse(language.toString()));
+            }
+        }
+        return languages;
+    }
+
     @Override
     public boolean tag(Project prj, String documentId, String rootDocument, Tag... tags) throws IOException {
         return tagUntag(prj, documentId, rootDocument, createTagScript(tags));
@@ -222,7 +471,12 @@ public class ElasticsearchIndexer implements Indexer {
         UpdateRequest update = new UpdateRequest(prj.getId(), esCfg.indexType, documentId).routing(rootDocument);
         update.script(untagScript);
         update.setRefreshPolicy(esCfg.refreshPolicy);
-        UpdateResponse updateResponse = client.update(update);
+        UpdateResponse updateResponse;
+        try {
+            updateResponse = client.update(update);
+        } finally {
+            invalidate(prj.getId(), documentId);
+        }
         return updateResponse.status() == RestStatus.OK && updateResponse.getResult() == DocWriteResponse.Result.UPDATED;
     }
 
@@ -242,7 +496,12 @@ public class ElasticsearchIndexer implements Indexer {
         updateByQuery.setConflicts("proceed");
         updateByQuery.setScript(untagScript);
         updateByQuery.setRefresh(esCfg.refreshPolicy.getValue().equals("true"));
-        BulkByScrollResponse updateResponse = client.updateByQuery(updateByQuery, RequestOptions.DEFAULT);
+        BulkByScrollResponse updateResponse;
+        try {
+            updateResponse = client.updateByQuery(updateByQuery, RequestOptions.DEFAULT);
+        } finally {
+            documentIds.forEach(id -> invalidate(prj.getId(), id));
+        }
         return updateResponse.getBulkFailures().size() == 0 && updateResponse.getUpdated() > 0 ;
     }
 
@@ -287,9 +546,18 @@ public class ElasticsearchIndexer implements Indexer {
     public boolean deleteAll(String indexName) throws IOException {
         Response response = client.getLowLevelClient().performRequest("POST", indexName + "/doc/_delete_by_query?refresh",
                 new HashMap<>(), new NStringEntity("{\"query\":{\"match_all\": {}}}", ContentType.APPLICATION_JSON));
+        if (documentCache != null) {
+            documentCache.invalidate(indexName);
+        }
         return response.getStatusLine().getStatusCode() == RestStatus.OK.getStatus();
     }
 
+    private void invalidate(String indexName, String id) {
+        if (documentCache != null) {
+            documentCache.invalidate(indexName, id);
+        }
+    }
+
     private static Stream<SearchHit> searchHitStream(Iterable<SearchHit> searchHitIterable) {
         return StreamSupport.stream(searchHitIterable.spliterator(), false);
     }
@@ -299,7 +567,11 @@ public class ElasticsearchIndexer implements Indexer {
     }
 
     private static <T extends Entity> T hitToObject(SearchHit searchHit, Class<T> cls) {
-        return JsonObjectMapper.getObject(searchHit.getId(), searchHit.getSourceAsMap(), cls);
+        try {
+            return EntitySourceReader.read(searchHit.getId(), searchHit.getSourceRef(), cls);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     public ElasticsearchIndexer withRefresh(WriteRequest.RefreshPolicy refresh) {
@@ -486,6 +758,9 @@ public class ElasticsearchIndexer implements Indexer {
 
         @Override
         public void clearScroll() throws IOException {
+            if (scrollId == null) {
+                return;
+            }
             ClearScrollRequest clearScrollRequest = new ClearScrollRequest();
             clearScrollRequest.addScrollId(scrollId);
             this.client.clearScroll(clearScrollRequest);
@@ -1,12 +1,22 @@
 package org.icij.datashare.text.indexing.elasticsearch;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.get.GetRequest;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.index.IndexResponse;
 import org.elasticsearch.action.support.WriteRequest;
 import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
 import org.icij.datashare.Entity;
 import org.icij.datashare.PropertiesProvider;
@@ -20,16 +30,28 @@ import org.joda.time.format.ISODateTimeFormat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Flushable;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static java.lang.Integer.valueOf;
 import static java.lang.System.currentTimeMillis;
 import static java.nio.file.Paths.get;
+import static java.util.Collections.synchronizedMap;
 import static java.util.Optional.ofNullable;
 import static org.apache.tika.metadata.HttpHeaders.*;
 import static org.icij.datashare.com.Channel.NLP;
@@ -45,6 +67,18 @@ public class ElasticsearchSpewer extends Spewer implements Serializable {
     private final ElasticsearchConfiguration esCfg;
     private final Publisher publisher;
     private final LanguageGuesser languageGuesser;
+    private transient volatile BulkProcessor bulkProcessor;
+    private static final int MAX_BULK_ATTEMPTS = 3;
+    // root ids and files of the buffered requests, the routing of a duplicate or of a top level document is null
+    private final transient Map<DocWriteRequest<?>, BulkDocument> bulkDocuments = synchronizedMap(new IdentityHashMap<>());
+    // files of the documents that could not be indexed after the retries, with the last error
+    private final transient Map<Path, String> bulkFailures = new ConcurrentHashMap<>();
+    private final transient ExecutorService bulkRetryExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("bulk-retry-%d").setDaemon(true).build());
+    private final transient AtomicInteger pendingBulkRetries = new AtomicInteger(0);
+    // ids of the top level documents buffered in the bulk processor and not indexed yet : the realtime get doesn't see them
+    private final transient Set<String> pendingRootIds = ConcurrentHashMap.newKeySet();
+    private transient volatile DuplicateIdFilter duplicateFilter;
     private String indexName;
 
     @Inject
@@ -55,24 +89,137 @@ public class ElasticsearchSpewer extends Spewer implements Serializable {
         this.languageGuesser = languageGuesser;
         this.publisher = publisher;
         this.esCfg = new ElasticsearchConfiguration(propertiesProvider);
+        if (esCfg.isBulkEnabled()) {
+            bulkProcessor = createBulkProcessor();
+        }
         logger.info("spewer defined with {}", esCfg);
     }
 
     @Override
     protected void writeDocument(TikaDocument doc, TikaDocument parent, TikaDocument root, int level) throws IOException {
         final IndexRequest req = prepareRequest(doc, parent, root, level);
+        if (bulkProcessor != null) {
+            bulkDocuments.put(req, new BulkDocument(parent == null ? doc.getId() : root.getId(), parent == null ? doc.getPath() : root.getPath()));
+            bulkProcessor.add(req);
+            logger.debug("{} {} buffered for bulk indexing: {}", parent == null ? "Document" : "Child", shorten(req.id(), 4), doc);
+            return;
+        }
+        req.setRefreshPolicy(esCfg.refreshPolicy);
         long before = currentTimeMillis();
         IndexResponse indexResponse = client.index(req);
         logger.info("{} {} added to elasticsearch in {}ms: {}", parent == null ? "Document" : "Child",
                 shorten(indexResponse.getId(), 4), currentTimeMillis() - before, doc);
-        synchronized (publisher) { // jedis instance is not thread safe and Spewer is shared in DocumentConsumer threads
-            publisher.publish(NLP, new Message(EXTRACT_NLP)
-                    .add(Message.Field.INDEX_NAME, indexName)
-                    .add(Message.Field.DOC_ID, indexResponse.getId())
-                    .add(Message.Field.R_ID, parent == null ? doc.getId() : root.getId()));
+        publishNlpMessage(indexResponse.getId(), parent == null ? doc.getId() : root.getId());
+    }
+
+    /**
+     * waits for the buffered documents to be sent to elasticsearch and for the
+     * in-flight bulk requests and their retries to complete. Does nothing if bulk mode is disabled.
+     *
+     * The spewer can still be used after this call: a new bulk buffer is created.
+     *
+     * @return true if all bulk requests have completed, false if the timeout elapsed
+     */
+    public boolean awaitBulkFlush(long timeout, TimeUnit unit) throws InterruptedException {
+        BulkProcessor processor = bulkProcessor;
+        if (processor == null) {
+            return true;
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        bulkProcessor = createBulkProcessor();
+        if (!processor.awaitClose(timeout, unit)) {
+            return false;
+        }
+        synchronized (pendingBulkRetries) {
+            while (pendingBulkRetries.get() > 0) {
+                long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingMs <= 0) {
+                    return false;
+                }
+                pendingBulkRetries.wait(remainingMs);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * the documents of the bulk requests that have failed after {@value MAX_BULK_ATTEMPTS} attempts are not
+     * indexed and have no NLP message : they should be reported as failed after {@link #awaitBulkFlush}.
+     *
+     * @return the files of the documents that could not be indexed, with the last error (a file whose embedded
+     * document failed is in the map)
+     */
+    public Map<Path, String> getBulkFailures() {
+        return new HashMap<>(bulkFailures);
+    }
+
+    /**
+     * loads the duplicate id filter snapshot of the index, or seeds it with a sliced scroll
+     * on the index documents. Does nothing if the filter is disabled.
+     */
+    public void initDuplicateFilter() throws IOException {
+        if (esCfg.isDuplicateFilterEnabled()) {
+            duplicateFilter = DuplicateIdFilter.create(client, esCfg, indexName, esCfg.duplicateFilterSize,
+                    esCfg.duplicateFilterDir, esCfg.scrollSize, esCfg.scrollSlices);
+        }
+    }
+
+    /**
+     * saves the duplicate id filter snapshot of the index, if a snapshot directory is configured.
+     * Bulk requests should be flushed before so that the snapshot matches the index.
+     */
+    public void saveDuplicateFilter() throws IOException {
+        if (duplicateFilter != null && esCfg.duplicateFilterDir != null) {
+            duplicateFilter.save(esCfg.duplicateFilterDir, indexName, client, esCfg);
         }
     }
 
+    /**
+     * applies the ingest profile (no refresh, no replicas, async translog) to the index
+     * if it is enabled. It must be followed by a call to {@link #releaseIngestProfile()}.
+     */
+    public void acquireIngestProfile() throws IOException {
+        if (esCfg.ingestProfile) {
+            IngestProfile.acquire(client, indexName);
+        }
+    }
+
+    /**
+     * restores the index settings if no other task is using the ingest profile,
+     * and force merges the index if configured.
+     */
+    public void releaseIngestProfile() throws IOException {
+        if (esCfg.ingestProfile) {
+            IngestProfile.release(client, indexName, esCfg.forceMergeSegments);
+        }
+    }
+
+    private void publishNlpMessage(String docId, String rootId) {
+        Message message = new Message(EXTRACT_NLP)
+                .add(Message.Field.INDEX_NAME, indexName)
+                .add(Message.Field.DOC_ID, docId)
+                .add(Message.Field.R_ID, rootId);
+        if (publisher instanceof Flushable) { // buffered publisher (publisherBufferSize > 0) : lock-free ring buffer
+            publisher.publish(NLP, message);
+        } else {
+            synchronized (publisher) { // jedis instance is not thread safe and Spewer is shared in DocumentConsumer threads
+                publisher.publish(NLP, message);
+            }
+        }
+    }
+
+    private BulkProcessor createBulkProcessor() {
+        return BulkProcessor.builder((request, bulkListener) -> {
+                    request.setRefreshPolicy(esCfg.refreshPolicy);
+                    client.bulkAsync(request, RequestOptions.DEFAULT, bulkListener);
+                }, new SpewerBulkListener())
+                .setBulkActions(esCfg.bulkSize)
+                .setBulkSize(new ByteSizeValue(esCfg.bulkByteSizeMb, ByteSizeUnit.MB))
+                .setFlushInterval(TimeValue.timeValueMillis(esCfg.bulkFlushIntervalMs))
+                .setConcurrentRequests(esCfg.bulkConcurrentRequests)
+                .build();
+    }
+
     public ElasticsearchSpewer withIndex(final String indexName) {
         this.indexName = indexName;
         return this;
@@ -89,7 +236,6 @@ public class ElasticsearchSpewer extends Spewer implements Serializable {
         if (parent == null && isDuplicate(document.getId())) {
             IndexRequest indexRequest = new IndexRequest(indexName, esCfg.indexType, Entity.HASHER.hash(document.getPath()));
             indexRequest.source(getDuplicateMap(document));
-            indexRequest.setRefreshPolicy(esCfg.refreshPolicy);
             return indexRequest;
         }
 
@@ -99,16 +245,30 @@ public class ElasticsearchSpewer extends Spewer implements Serializable {
             req.routing(root.getId());
         }
         jsonDocument.put("extractionLevel", level);
-        req = req.source(jsonDocument);
-        req.setRefreshPolicy(esCfg.refreshPolicy);
-        return req;
+        return req.source(jsonDocument);
     }
 
+    /**
+     * in bulk mode, the id is also kept in the pending root ids until its bulk is acknowledged, so that a
+     * copy buffered in the same bulk window is a duplicate
+     */
     private boolean isDuplicate(String docId) throws IOException {
+        boolean bulk = bulkProcessor != null;
+        if (bulk && !pendingRootIds.add(docId)) {
+            return true; // the original is buffered and not indexed yet
+        }
+        DuplicateIdFilter filter = duplicateFilter;
+        if (filter != null && filter.put(docId)) {
+            return false; // the id has never been seen
+        }
         GetRequest getRequest = new GetRequest(indexName, esCfg.indexType, docId);
         getRequest.fetchSourceContext(new FetchSourceContext(false));
         getRequest.storedFields("_none_");
-        return client.exists(getRequest, RequestOptions.DEFAULT);
+        boolean exists = client.exists(getRequest, RequestOptions.DEFAULT);
+        if (exists && bulk) {
+            pendingRootIds.remove(docId);
+        }
+        return exists;
     }
 
     Map<String, Object> getDocumentMap(TikaDocument document) throws IOException {
@@ -149,4 +309,116 @@ public class ElasticsearchSpewer extends Spewer implements Serializable {
         this.esCfg.withRefresh(refreshPolicy);
         return this;
     }
+
+    private void handleBulkResponse(long executionId, BulkRequest request, BulkResponse response) {
+        List<DocWriteRequest<?>> retries = new ArrayList<>();
+        for (BulkItemResponse item : response.getItems()) {
+            DocWriteRequest<?> itemRequest = request.requests().get(item.getItemId());
+            if (item.isFailed() && isRetryable(item.status()) && canRetry(itemRequest)) {
+                retries.add(itemRequest);
+                continue;
+            }
+            pendingRootIds.remove(item.getId());
+            BulkDocument bulkDocument = bulkDocuments.remove(itemRequest);
+            if (item.isFailed()) {
+                logger.error("bulk #{} failed for document {} : {}", executionId, item.getId(), item.getFailureMessage());
+                addBulkFailure(bulkDocument, item.getFailureMessage());
+            } else {
+                publishNlpMessage(item.getId(), bulkDocument == null ? item.getId() : bulkDocument.rootId);
+            }
+        }
+        retry(executionId, retries);
+    }
+
+    private void handleBulkFailure(long executionId, BulkRequest request, Throwable failure) {
+        List<DocWriteRequest<?>> retries = new ArrayList<>();
+        for (DocWriteRequest<?> itemRequest : request.requests()) {
+            if (canRetry(itemRequest)) {
+                retries.add(itemRequest);
+            } else {
+                pendingRootIds.remove(itemRequest.id());
+                addBulkFailure(bulkDocuments.remove(itemRequest), String.valueOf(failure));
+            }
+        }
+        logger.error("bulk #{} with {} document(s) failed, {} retried", executionId, request.numberOfActions(), retries.size(), failure);
+        retry(executionId, retries);
+    }
+
+    /**
+     * sends the requests again in a new bulk request from the retry thread, after a delay growing with the attempts.
+     * The bulk processor is not used for the retries : they would wait for the bulk request that has failed.
+     */
+    private void retry(long executionId, List<DocWriteRequest<?>> requests) {
+        if (requests.isEmpty()) {
+            return;
+        }
+        pendingBulkRetries.incrementAndGet();
+        int attempt = requests.stream().mapToInt(r -> bulkDocuments.get(r).nextAttempt()).max().orElse(1);
+        bulkRetryExecutor.execute(() -> {
+            BulkRequest retryRequest = new BulkRequest();
+            retryRequest.add(requests);
+            retryRequest.setRefreshPolicy(esCfg.refreshPolicy);
+            try {
+                Thread.sleep(100L * attempt);
+                logger.info("retrying {} document(s) of bulk #{} (attempt {})", requests.size(), executionId, attempt);
+                handleBulkResponse(executionId, retryRequest, client.bulk(retryRequest, RequestOptions.DEFAULT));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                handleBulkFailure(executionId, retryRequest, e);
+            } catch (IOException | RuntimeException e) {
+                handleBulkFailure(executionId, retryRequest, e);
+            } finally {
+                synchronized (pendingBulkRetries) {
+                    pendingBulkRetries.decrementAndGet();
+                    pendingBulkRetries.notifyAll();
+                }
+            }
+        });
+    }
+
+    private boolean canRetry(DocWriteRequest<?> request) {
+        BulkDocument bulkDocument = bulkDocuments.get(request);
+        return bulkDocument != null && bulkDocument.attempts < MAX_BULK_ATTEMPTS && !Thread.currentThread().isInterrupted();
+    }
+
+    private static boolean isRetryable(RestStatus status) {
+        return status == RestStatus.TOO_MANY_REQUESTS || status.getStatus() >= 500;
+    }
+
+    private void addBulkFailure(BulkDocument bulkDocument, String error) {
+        if (bulkDocument != null && bulkDocument.path != null) {
+            bulkFailures.put(bulkDocument.path, error);
+        }
+    }
+
+    private class SpewerBulkListener implements BulkProcessor.Listener {
+        @Override
+        public void beforeBulk(long executionId, BulkRequest request) {
+            logger.debug("sending bulk #{} with {} document(s) ({} bytes)", executionId, request.numberOfActions(), request.estimatedSizeInBytes());
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+            logger.info("bulk #{} with {} document(s) added to elasticsearch in {}ms", executionId, request.numberOfActions(), response.getTook().millis());
+            handleBulkResponse(executionId, request, response);
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+            handleBulkFailure(executionId, request, failure);
+        }
+    }
+
+    private static class BulkDocument {
+        final String rootId;
+        final Path path;
+        volatile int attempts = 1;
+
+        BulkDocument(String rootId, Path path) {
+            this.rootId = rootId;
+            this.path = path;
+        }
+
+        int nextAttempt() { return ++attempts;}
+    }
 }
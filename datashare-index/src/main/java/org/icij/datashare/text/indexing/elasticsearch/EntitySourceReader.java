@@ -0,0 +1,95 @@
+package org.icij.datashare.text.indexing.elasticsearch;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.icij.datashare.Entity;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.icij.datashare.json.JsonObjectMapper.MAPPER;
+
+/**
+ * binds elasticsearch _source bytes to entities with jackson streaming.
+ *
+ * It replaces getSourceAsMap() + JsonObjectMapper.getObject() that builds a map of the
+ * source before mapping it to the entity. Here the source tokens are copied into a token
+ * buffer with the id field, and the entity is read from the buffer.
+ */
+class EntitySourceReader {
+    private static final String ENTITY_PACKAGE = "org.icij.datashare.text.";
+    private static final Map<String, Class<? extends Entity>> entityClasses = new ConcurrentHashMap<>();
+
+    static <T extends Entity> T read(String id, BytesReference source, Class<T> cls) throws IOException {
+        return MAPPER.readValue(bufferWithId(id, source, null).buffer.asParser(), cls);
+    }
+
+    /**
+     * reads an entity whose class is given by the value of the typeField in the source
+     *
+     * @return null if the source has no type
+     */
+    static <T extends Entity> T read(String id, BytesReference source, String typeField) throws IOException, ClassNotFoundException {
+        BufferedSource bufferedSource = bufferWithId(id, source, typeField);
+        if (bufferedSource.type == null) {
+            return null;
+        }
+        Class<T> cls = (Class<T>) entityClass(bufferedSource.type);
+        return MAPPER.readValue(bufferedSource.buffer.asParser(), cls);
+    }
+
+    static Class<? extends Entity> entityClass(String type) throws ClassNotFoundException {
+        Class<? extends Entity> cls = entityClasses.get(type);
+        if (cls == null) {
+            cls = Class.forName(ENTITY_PACKAGE + type).asSubclass(Entity.class);
+            entityClasses.put(type, cls);
+        }
+        return cls;
+    }
+
+    private static BufferedSource bufferWithId(String id, BytesReference source, String typeField) throws IOException {
+        TokenBuffer buffer = new TokenBuffer(MAPPER, false);
+        String type = null;
+        buffer.writeStartObject();
+        buffer.writeStringField("id", id);
+        if (source != null) {
+            BytesRef bytes = source.toBytesRef();
+            try (JsonParser parser = MAPPER.getFactory().createParser(bytes.bytes, bytes.offset, bytes.length)) {
+                if (parser.nextToken() != JsonToken.START_OBJECT) {
+                    throw new IOException("source of " + id + " is not a json object");
+                }
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String fieldName = parser.getCurrentName();
+                    if ("id".equals(fieldName)) {
+                        parser.nextToken();
+                        parser.skipChildren();
+                        continue;
+                    }
+                    if (fieldName.equals(typeField)) {
+                        if (parser.nextToken() == JsonToken.VALUE_STRING) {
+                            type = parser.getText();
+                        }
+                        buffer.writeFieldName(fieldName);
+                    }
+                    buffer.copyCurrentStructure(parser);
+                }
+            }
+        }
+        buffer.writeEndObject();
+        return new BufferedSource(buffer, type);
+    }
+
+    private static class BufferedSource {
+        final TokenBuffer buffer;
+        final String type;
+
+        BufferedSource(TokenBuffer buffer, String type) {
+            this.buffer = buffer;
+            this.type = type;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package org.icij.datashare.text.indexing.elasticsearch;
+
+import java.util.Objects;
+
+import static java.util.Optional.ofNullable;
+
+/**
+ * id of an indexed entity with its routing (the root document id for embedded documents and named entities)
+ */
+public final class IdRouting {
+    public final String id;
+    public final String routing;
+
+    public IdRouting(String id, String routing) {
+        this.id = id;
+        this.routing = ofNullable(routing).orElse(id);
+    }
+
+    public static IdRouting idRouting(String id, String routing) {
+        return new IdRouting(id, routing);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        IdRouting that = (IdRouting) o;
+        return id.equals(that.id) && routing.equals(that.routing);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, routing);
+    }
+
+    @Override
+    public String toString() {
+        return id + "/" + routing;
+    }
+}
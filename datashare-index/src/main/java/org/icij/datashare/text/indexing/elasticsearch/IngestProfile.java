@@ -0,0 +1,311 @@
+package org.icij.datashare.text.indexing.elasticsearch;
+
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.admin.indices.forcemerge.ForceMergeRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsRequest;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
+import org.elasticsearch.action.admin.indices.settings.put.UpdateSettingsRequest;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.rest.RestStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * index settings for bulk ingestion : refresh disabled, no replicas and
+ * asynchronous translog durability.
+ *
+ * The profile is shared by the tasks of all the datashare processes indexing the same index : the original
+ * settings and the holders of the profile are kept in a document of the STATE_INDEX index, updated with
+ * optimistic concurrency control. The original settings are read by the first task that acquires the profile,
+ * and restored when the last task releases it. Settings that were not set on the index are reset to
+ * the elasticsearch defaults.
+ *
+ * The holders renew their lease every HEARTBEAT_MILLIS while they hold the profile. A holder whose lease has
+ * not been renewed for LEASE_MILLIS (its process has crashed) is dropped by the next acquire, release or renewal
+ * of the index, so that the original settings are restored by the last live holder.
+ */
+class IngestProfile {
+    private static final Logger logger = LoggerFactory.getLogger(IngestProfile.class);
+    static final String STATE_INDEX = ".datashare-ingest-profile";
+    static final String STATE_TYPE = "doc";
+    static final long LEASE_MILLIS = 5 * 60 * 1000L;
+    static final long HEARTBEAT_MILLIS = 60 * 1000L;
+    static final Map<String, String> INGEST_SETTINGS = new LinkedHashMap<String, String>() {{
+        put("index.refresh_interval", "-1");
+        put("index.number_of_replicas", "0");
+        put("index.translog.durability", "async");
+    }};
+    private static final String HOLDER_PREFIX = ManagementFactory.getRuntimeMXBean().getName() + "/";
+    private static final AtomicLong holderCounter = new AtomicLong(0);
+    private static final Map<String, Deque<String>> localHolders = new HashMap<>();
+    private static final Map<String, ScheduledFuture<?>> heartbeats = new HashMap<>();
+    private static final ScheduledExecutorService heartbeatExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "ingest-profile-heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private IngestProfile() {}
+
+    static void acquire(RestHighLevelClient client, String indexName) throws IOException {
+        String holder = HOLDER_PREFIX + holderCounter.incrementAndGet();
+        State state = update(client, indexName, current -> {
+            State next = current == null ? new State(getSettings(client, indexName)) : current.withoutExpiredHolders();
+            next.holders.put(holder, System.currentTimeMillis());
+            return next;
+        });
+        putSettings(client, indexName, INGEST_SETTINGS);
+        pushLocalHolder(client, indexName, holder);
+        logger.info("ingest profile applied to {} by {} (original settings {}, {} holder(s))", indexName, holder,
+                state.originalSettings, state.holders.size());
+    }
+
+    /**
+     * @param maxNumSegments if greater than 0, the index is force merged to this number
+     *                       of segments after the settings are restored
+     */
+    static void release(RestHighLevelClient client, String indexName, int maxNumSegments) throws IOException {
+        String holder = pollLocalHolder(indexName);
+        if (holder == null) {
+            logger.warn("ingest profile released for {} but it has not been acquired", indexName);
+            return;
+        }
+        boolean[] restored = {false};
+        State state = update(client, indexName, current -> {
+            if (current == null) {
+                logger.warn("no ingest profile state for {}, the settings have already been restored", indexName);
+                return null;
+            }
+            State next = current.withoutExpiredHolders();
+            next.holders.remove(holder);
+            if (next.holders.isEmpty()) {
+                putSettings(client, indexName, next.originalSettings);
+                restored[0] = true;
+                return null;
+            }
+            if (restored[0]) { // another task has acquired the profile while it was restored
+                putSettings(client, indexName, INGEST_SETTINGS);
+                restored[0] = false;
+            }
+            return next;
+        });
+        if (!restored[0]) {
+            logger.info("ingest profile for {} still used by {} task(s)", indexName, state == null ? 0 : state.holders.size());
+            return;
+        }
+        client.indices().refresh(new RefreshRequest(indexName), RequestOptions.DEFAULT);
+        logger.info("original settings restored for {}", indexName);
+        if (maxNumSegments > 0) {
+            long before = System.currentTimeMillis();
+            client.indices().forcemerge(new ForceMergeRequest(indexName).maxNumSegments(maxNumSegments), RequestOptions.DEFAULT);
+            logger.info("{} force merged to {} segment(s) in {}ms", indexName, maxNumSegments, System.currentTimeMillis() - before);
+        }
+    }
+
+    /**
+     * renews the lease of the holders of this process that are still in the state of the index
+     */
+    static void renewLeases(RestHighLevelClient client, String indexName) throws IOException {
+        List<String> holders = getLocalHolders(indexName);
+        if (holders.isEmpty()) {
+            return;
+        }
+        update(client, indexName, current -> {
+            if (current == null) {
+                return null;
+            }
+            State next = current.withoutExpiredHolders();
+            long now = System.currentTimeMillis();
+            boolean renewed = false;
+            for (String holder : holders) {
+                if (next.holders.containsKey(holder)) {
+                    next.holders.put(holder, now);
+                    renewed = true;
+                } else {
+                    logger.warn("ingest profile holder {} of {} has been dropped or released, its lease is not renewed", holder, indexName);
+                }
+            }
+            return renewed ? next : current;
+        });
+    }
+
+    /**
+     * @return the number of tasks of all the processes holding the profile of the index
+     */
+    static int references(RestHighLevelClient client, String indexName) throws IOException {
+        GetResponse response = getState(client, indexName);
+        return response == null ? 0 : State.of(response.getSourceAsMap()).holders.size();
+    }
+
+    /**
+     * reads the state document, computes the next state and writes it if the document has not been changed
+     * meanwhile, else retries. A null next state deletes the document, the current state is not written again.
+     *
+     * @return the next state
+     */
+    private static State update(RestHighLevelClient client, String indexName, StateUpdate stateUpdate) throws IOException {
+        while (true) {
+            GetResponse response = getState(client, indexName);
+            State current = response == null ? null : State.of(response.getSourceAsMap());
+            State next = stateUpdate.apply(current);
+            if (next == current) {
+                return next;
+            }
+            try {
+                if (next == null) {
+                    if (current != null) {
+                        client.delete(new DeleteRequest(STATE_INDEX, STATE_TYPE, indexName).version(response.getVersion()), RequestOptions.DEFAULT);
+                    }
+                } else {
+                    IndexRequest request = new IndexRequest(STATE_INDEX, STATE_TYPE, indexName).source(next.toMap());
+                    client.index(current == null ? request.create(true) : request.version(response.getVersion()), RequestOptions.DEFAULT);
+                }
+                return next;
+            } catch (ElasticsearchStatusException e) {
+                if (e.status() != RestStatus.CONFLICT) {
+                    throw e;
+                }
+                logger.debug("ingest profile state of {} changed concurrently, retrying", indexName);
+            }
+        }
+    }
+
+    /**
+     * @return the state document of the index or null
+     */
+    private static GetResponse getState(RestHighLevelClient client, String indexName) throws IOException {
+        try {
+            GetResponse response = client.get(new GetRequest(STATE_INDEX, STATE_TYPE, indexName), RequestOptions.DEFAULT);
+            return response.isExists() ? response : null;
+        } catch (ElasticsearchStatusException e) {
+            if (e.status() == RestStatus.NOT_FOUND) { // no state index yet
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * adds the holder to the holders of this process, and starts the renewal of the leases of the index
+     * for its first holder
+     */
+    private static synchronized void pushLocalHolder(RestHighLevelClient client, String indexName, String holder) {
+        localHolders.computeIfAbsent(indexName, i -> new ArrayDeque<>()).push(holder);
+        heartbeats.computeIfAbsent(indexName, i -> heartbeatExecutor.scheduleWithFixedDelay(() -> {
+            try {
+                renewLeases(client, indexName);
+            } catch (IOException | RuntimeException e) {
+                logger.warn("cannot renew the ingest profile leases of {}", indexName, e);
+            }
+        }, HEARTBEAT_MILLIS, HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    private static synchronized String pollLocalHolder(String indexName) {
+        Deque<String> holders = localHolders.get(indexName);
+        String holder = holders == null ? null : holders.poll();
+        if (holders != null && holders.isEmpty()) {
+            localHolders.remove(indexName);
+            heartbeats.remove(indexName).cancel(false);
+        }
+        return holder;
+    }
+
+    private static synchronized List<String> getLocalHolders(String indexName) {
+        Deque<String> holders = localHolders.get(indexName);
+        return holders == null ? Collections.emptyList() : new ArrayList<>(holders);
+    }
+
+    private static Map<String, String> getSettings(RestHighLevelClient client, String indexName) throws IOException {
+        GetSettingsResponse response = client.indices().getSettings(new GetSettingsRequest().indices(indexName)
+                .names(INGEST_SETTINGS.keySet().toArray(new String[0])), RequestOptions.DEFAULT);
+        Map<String, String> settings = new HashMap<>();
+        for (String name : INGEST_SETTINGS.keySet()) {
+            settings.put(name, response.getSetting(indexName, name));
+        }
+        return settings;
+    }
+
+    private static void putSettings(RestHighLevelClient client, String indexName, Map<String, String> settings) throws IOException {
+        Settings.Builder builder = Settings.builder();
+        settings.forEach((name, value) -> {
+            if (value == null) {
+                builder.putNull(name);
+            } else {
+                builder.put(name, value);
+            }
+        });
+        client.indices().putSettings(new UpdateSettingsRequest(indexName).settings(builder), RequestOptions.DEFAULT);
+    }
+
+    @FunctionalInterface
+    private interface StateUpdate {
+        State apply(State current) throws IOException;
+    }
+
+    /**
+     * the original settings of the index and the last lease renewal time of the holders
+     */
+    static class State {
+        final Map<String, String> originalSettings;
+        final Map<String, Long> holders;
+
+        State(Map<String, String> originalSettings) {
+            this(originalSettings, new HashMap<>());
+        }
+
+        private State(Map<String, String> originalSettings, Map<String, Long> holders) {
+            this.originalSettings = originalSettings;
+            this.holders = holders;
+        }
+
+        State withoutExpiredHolders() {
+            Map<String, Long> liveHolders = new HashMap<>(holders);
+            long now = System.currentTimeMillis();
+            liveHolders.entrySet().removeIf(holder -> {
+                boolean expired = now - holder.getValue() > LEASE_MILLIS;
+                if (expired) {
+                    logger.warn("dropping ingest profile holder {} renewed {}ms ago", holder.getKey(), now - holder.getValue());
+                }
+                return expired;
+            });
+            return new State(originalSettings, liveHolders);
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("settings", originalSettings);
+            map.put("holders", holders);
+            return map;
+        }
+
+        @SuppressWarnings("unchecked")
+        static State of(Map<String, Object> map) {
+            Map<String, Long> holders = new HashMap<>();
+            ((Map<String, Number>) map.get("holders")).forEach((holder, time) -> holders.put(holder, time.longValue()));
+            return new State(new HashMap<>((Map<String, String>) map.get("settings")), holders);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package org.icij.datashare.text.indexing.elasticsearch;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
+import org.icij.datashare.Entity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+
+import static java.util.Arrays.copyOf;
+
+/**
+ * coalesces concurrent single gets into _mget requests.
+ *
+ * A get is sent as soon as less than getBatchConcurrentRequests _mget are in flight. The gets
+ * arriving while the _mget are in flight are sent together in the next one, up to getBatchSize gets.
+ */
+class MultiGetBatcher {
+    private static final Logger logger = LoggerFactory.getLogger(MultiGetBatcher.class);
+    private final RestHighLevelClient client;
+    private final ElasticsearchConfiguration esCfg;
+    private final Queue<PendingGet> pending = new ArrayDeque<>();
+    private int inFlight = 0;
+    private long requestCount = 0;
+
+    MultiGetBatcher(RestHighLevelClient client, ElasticsearchConfiguration esCfg) {
+        this.client = client;
+        this.esCfg = esCfg;
+    }
+
+    <T extends Entity> CompletableFuture<T> get(String indexName, IdRouting id) {
+        return get(indexName, id, null);
+    }
+
+    /**
+     * @param sourceIncludes the _source fields of this get, null for all. The gets with different fields can share an _mget.
+     */
+    <T extends Entity> CompletableFuture<T> get(String indexName, IdRouting id, String[] sourceIncludes) {
+        PendingGet pendingGet = new PendingGet(item(indexName, esCfg.indexType, id, withTypeField(sourceIncludes, esCfg.docTypeField), null));
+        synchronized (this) {
+            pending.add(pendingGet);
+        }
+        sendPending();
+        return (CompletableFuture<T>) pendingGet.future;
+    }
+
+    /**
+     * @return the number of _mget requests sent
+     */
+    synchronized long getRequestCount() {
+        return requestCount;
+    }
+
+    private void sendPending() {
+        List<PendingGet> gets = new ArrayList<>();
+        MultiGetRequest request = new MultiGetRequest();
+        synchronized (this) {
+            if (inFlight >= esCfg.getBatchConcurrentRequests || pending.isEmpty()) {
+                return;
+            }
+            while (!pending.isEmpty() && gets.size() < esCfg.getBatchSize) {
+                PendingGet pendingGet = pending.poll();
+                request.add(pendingGet.item);
+                gets.add(pendingGet);
+            }
+            inFlight++;
+            requestCount++;
+        }
+        logger.debug("sending _mget for {} document(s)", gets.size());
+        try {
+            client.multiGetAsync(request, RequestOptions.DEFAULT, new ActionListener<MultiGetResponse>() {
+                @Override
+                public void onResponse(MultiGetResponse response) {
+                    complete(gets, response, null);
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    complete(gets, null, e);
+                }
+            });
+        } catch (RuntimeException e) { // closed client : the slot is released and the gets failed
+            complete(gets, null, e);
+        }
+    }
+
+    private void complete(List<PendingGet> gets, MultiGetResponse response, Exception failure) {
+        synchronized (this) {
+            inFlight--;
+        }
+        sendPending();
+        for (int i = 0; i < gets.size(); i++) {
+            if (failure != null) {
+                gets.get(i).future.completeExceptionally(failure);
+                continue;
+            }
+            try {
+                gets.get(i).future.complete(entity(response.getResponses()[i], esCfg.docTypeField));
+            } catch (Exception e) {
+                gets.get(i).future.completeExceptionally(e);
+            }
+        }
+    }
+
+    static MultiGetRequest.Item item(String indexName, String indexType, IdRouting id, String[] sourceIncludes, String[] sourceExcludes) {
+        MultiGetRequest.Item item = new MultiGetRequest.Item(indexName, indexType, id.id).routing(id.routing);
+        if (sourceIncludes != null || sourceExcludes != null) {
+            item.fetchSourceContext(new FetchSourceContext(true, sourceIncludes, sourceExcludes));
+        }
+        return item;
+    }
+
+    /**
+     * @return the entity of the response, or null if the entity does not exist
+     */
+    static <T extends Entity> T entity(MultiGetItemResponse itemResponse, String typeField) throws IOException, ClassNotFoundException {
+        if (itemResponse.isFailed()) {
+            throw new IOException("failed to get " + itemResponse.getId() + " : " + itemResponse.getFailure().getMessage(),
+                    itemResponse.getFailure().getFailure());
+        }
+        if (!itemResponse.getResponse().isExists()) {
+            return null;
+        }
+        return EntitySourceReader.read(itemResponse.getId(), itemResponse.getResponse().getSourceAsBytesRef(), typeField);
+    }
+
+    /**
+     * adds the type field to the source includes : it is needed to know the entity class
+     */
+    static String[] withTypeField(String[] sourceIncludes, String typeField) {
+        if (sourceIncludes == null || sourceIncludes.length == 0) {
+            return sourceIncludes;
+        }
+        String[] includes = copyOf(sourceIncludes, sourceIncludes.length + 1);
+        includes[sourceIncludes.length] = typeField;
+        return includes;
+    }
+
+    private static class PendingGet {
+        final MultiGetRequest.Item item;
+        final CompletableFuture<Entity> future = new CompletableFuture<>();
+
+        PendingGet(MultiGetRequest.Item item) {
+            this.item = item;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package org.icij.datashare.text.indexing.elasticsearch;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * merges the named entities writes of several documents into shared bulk requests.
+ *
+ * Writes are sent as soon as a bulk slot is free (group commit) : when the NLP consumers
+ * are faster than elasticsearch, the documents added while the bulks are in flight are
+ * merged into the next bulk, up to nerBulkSize actions. A document is never split
+ * between two bulks. At most nerBulkConcurrentRequests bulks are in flight.
+ *
+ * Each document gets its own future, completed with false if one of its writes has failed
+ * so that the caller can retry it.
+ */
+public class NerWriteAggregator {
+    private static final Logger logger = LoggerFactory.getLogger(NerWriteAggregator.class);
+    private final RestHighLevelClient client;
+    private final ElasticsearchConfiguration esCfg;
+    private final Queue<PendingDocument> pending = new ArrayDeque<>();
+    private int inFlight = 0;
+
+    NerWriteAggregator(RestHighLevelClient client, ElasticsearchConfiguration esCfg) {
+        this.client = client;
+        this.esCfg = esCfg;
+    }
+
+    public CompletableFuture<Boolean> add(String documentId, List<DocWriteRequest<?>> requests) {
+        PendingDocument document = new PendingDocument(documentId, requests);
+        synchronized (this) {
+            pending.add(document);
+        }
+        sendPending();
+        return document.future;
+    }
+
+    synchronized int pendingSize() {
+        return pending.size();
+    }
+
+    private void sendPending() {
+        while (true) {
+            List<PendingDocument> documents = new ArrayList<>();
+            BulkRequest bulkRequest = new BulkRequest();
+            synchronized (this) {
+                if (pending.isEmpty() || inFlight >= esCfg.nerBulkConcurrentRequests) {
+                    return;
+                }
+                while (!pending.isEmpty() && (documents.isEmpty() ||
+                        bulkRequest.numberOfActions() + pending.peek().requests.size() <= esCfg.nerBulkSize)) {
+                    PendingDocument document = pending.poll();
+                    document.requests.forEach(bulkRequest::add);
+                    documents.add(document);
+                }
+                inFlight++;
+            }
+            try {
+                bulkRequest.setRefreshPolicy(esCfg.refreshPolicy);
+                send(bulkRequest, documents);
+            } catch (RuntimeException e) { // closed client, serialization error : the slot is released and the documents failed
+                logger.error("ner bulk for {} document(s) could not be sent", documents.size(), e);
+                synchronized (this) {
+                    inFlight--;
+                }
+                documents.forEach(document -> document.future.completeExceptionally(e));
+            }
+        }
+    }
+
+    private void send(BulkRequest bulkRequest, List<PendingDocument> documents) {
+        logger.debug("sending ner bulk for {} document(s) with {} action(s)", documents.size(), bulkRequest.numberOfActions());
+        client.bulkAsync(bulkRequest, RequestOptions.DEFAULT, new ActionListener<BulkResponse>() {
+            @Override
+            public void onResponse(BulkResponse response) {
+                complete(documents, response);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                logger.error("ner bulk for {} document(s) failed", documents.size(), e);
+                complete(documents, null);
+            }
+        });
+    }
+
+    private void complete(List<PendingDocument> documents, BulkResponse response) {
+        synchronized (this) {
+            inFlight--;
+        }
+        int item = 0;
+        for (PendingDocument document : documents) {
+            boolean success = response != null;
+            for (int i = 0; response != null && i < document.requests.size(); i++, item++) {
+                BulkItemResponse itemResponse = response.getItems()[item];
+                if (itemResponse.isFailed()) {
+                    logger.error("ner bulk add failed for document {} : {}", document.id, itemResponse.getFailureMessage());
+                    success = false;
+                }
+            }
+            document.future.complete(success);
+        }
+        sendPending();
+    }
+
+    private static class PendingDocument {
+        final String id;
+        final List<DocWriteRequest<?>> requests;
+        final CompletableFuture<Boolean> future = new CompletableFuture<>();
+
+        PendingDocument(String id, List<DocWriteRequest<?>> requests) {
+            this.id = id;
+            this.requests = requests;
+        }
+    }
+}
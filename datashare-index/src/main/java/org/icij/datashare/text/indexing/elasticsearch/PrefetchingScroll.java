@@ -0,0 +1,201 @@
+package org.icij.datashare.text.indexing.elasticsearch;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.icij.datashare.Entity;
+import org.icij.datashare.text.indexing.Indexer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static java.util.Collections.emptyList;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * iterates over all the result pages of searcher scrolls.
+ *
+ * The next page of each scroll is fetched in the background while the current page
+ * is consumed. With several slices, the slices are scrolled in parallel and their pages
+ * are returned in turn.
+ *
+ * Scrolls are cleared when they are exhausted or when the PrefetchingScroll is closed.
+ */
+public class PrefetchingScroll implements Closeable {
+    private static final ExecutorService prefetchExecutor = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("scroll-prefetch-%d").setDaemon(true).build());
+    private final List<SliceScroll> slices;
+    private int currentSlice = 0;
+
+    public PrefetchingScroll(Indexer.Searcher searcher) {
+        this.slices = Collections.singletonList(new SliceScroll(searcher, 0, 0));
+    }
+
+    /**
+     * @param searcherForSlice creates the searcher of a slice : each slice needs its own searcher
+     */
+    public PrefetchingScroll(IntFunction<Indexer.Searcher> searcherForSlice, int nbSlices) {
+        if (nbSlices <= 1) {
+            this.slices = Collections.singletonList(new SliceScroll(searcherForSlice.apply(0), 0, 0));
+        } else {
+            this.slices = new ArrayList<>(nbSlices);
+            for (int i = 0; i < nbSlices; i++) {
+                slices.add(new SliceScroll(searcherForSlice.apply(i), i, nbSlices));
+            }
+        }
+    }
+
+    /**
+     * waits for the first page of each slice
+     */
+    public long totalHits() throws IOException {
+        long totalHits = 0;
+        for (SliceScroll slice : slices) {
+            totalHits += slice.totalHits();
+        }
+        return totalHits;
+    }
+
+    /**
+     * @return the next result page, or an empty list when all the scrolls are exhausted
+     */
+    public synchronized List<? extends Entity> nextPage() throws IOException {
+        for (int tries = 0; tries < slices.size(); tries++) {
+            SliceScroll slice = slices.get(currentSlice);
+            currentSlice = (currentSlice + 1) % slices.size();
+            List<? extends Entity> page = slice.next();
+            if (!page.isEmpty()) {
+                return page;
+            }
+        }
+        return emptyList();
+    }
+
+    /**
+     * lazy stream of all the results. Closing the stream closes the scroll.
+     */
+    public Stream<Entity> stream() {
+        Iterator<Entity> iterator = new Iterator<Entity>() {
+            Iterator<? extends Entity> page = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!page.hasNext()) {
+                    try {
+                        List<? extends Entity> nextPage = nextPage();
+                        if (nextPage.isEmpty()) {
+                            return false;
+                        }
+                        page = nextPage.iterator();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public Entity next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return page.next();
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(() -> {
+            try {
+                close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (SliceScroll slice : slices) {
+            slice.close();
+        }
+    }
+
+    private static class SliceScroll {
+        private final Indexer.Searcher searcher;
+        private final int numSlice;
+        private final int nbSlices;
+        private CompletableFuture<List<? extends Entity>> nextPage;
+        private boolean exhausted = false;
+
+        SliceScroll(Indexer.Searcher searcher, int numSlice, int nbSlices) {
+            this.searcher = searcher;
+            this.numSlice = numSlice;
+            this.nbSlices = nbSlices;
+            this.nextPage = prefetch();
+        }
+
+        long totalHits() throws IOException {
+            if (!exhausted) {
+                join(nextPage);
+            }
+            return searcher.totalHits();
+        }
+
+        List<? extends Entity> next() throws IOException {
+            if (exhausted) {
+                return emptyList();
+            }
+            List<? extends Entity> page = join(nextPage);
+            if (page.isEmpty()) {
+                exhausted = true;
+                searcher.clearScroll();
+            } else {
+                nextPage = prefetch();
+            }
+            return page;
+        }
+
+        void close() throws IOException {
+            if (exhausted) {
+                return;
+            }
+            exhausted = true;
+            try {
+                join(nextPage);
+            } finally {
+                searcher.clearScroll();
+            }
+        }
+
+        private CompletableFuture<List<? extends Entity>> prefetch() {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    Stream<? extends Entity> page = nbSlices == 0 ? searcher.scroll() : searcher.scroll(numSlice, nbSlices);
+                    return page.collect(toList());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, prefetchExecutor);
+        }
+
+        private static List<? extends Entity> join(CompletableFuture<List<? extends Entity>> page) throws IOException {
+            try {
+                return page.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof UncheckedIOException) {
+                    throw ((UncheckedIOException) e.getCause()).getCause();
+                }
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.icij.datashare.text.indexing.elasticsearch;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.icij.datashare.json.JsonObjectMapper;
+import org.icij.datashare.text.Document;
+import org.icij.datashare.text.Language;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.icij.datashare.json.JsonObjectMapper.MAPPER;
+import static org.icij.datashare.text.Document.Status.INDEXED;
+import static org.icij.datashare.text.Project.project;
+
+public class BenchEntitySourceReader {
+    static Logger logger = LoggerFactory.getLogger(BenchEntitySourceReader.class);
+
+    @Test
+    public void testMapVersusStreaming() throws Exception {
+        int nbReads = 200;
+        for (int contentSize : new int[] {1_000, 100_000, 1_000_000}) {
+            BytesReference source = createSource(contentSize);
+            for (int warmup = 0; warmup < 20; warmup++) {
+                readWithMap(source);
+                EntitySourceReader.read("docId", source, Document.class);
+            }
+
+            long beginTime = System.currentTimeMillis();
+            long allocatedBefore = allocatedBytes();
+            for (int i = 0; i < nbReads; i++) {
+                readWithMap(source);
+            }
+            logger.info("{} chars content : source map {} reads in {}ms ({} MB allocated)", contentSize, nbReads,
+                    System.currentTimeMillis() - beginTime, (allocatedBytes() - allocatedBefore) / 1024 / 1024);
+
+            beginTime = System.currentTimeMillis();
+            allocatedBefore = allocatedBytes();
+            for (int i = 0; i < nbReads; i++) {
+                EntitySourceReader.read("docId", source, Document.class);
+            }
+            logger.info("{} chars content : streaming {} reads in {}ms ({} MB allocated)", contentSize, nbReads,
+                    System.currentTimeMillis() - beginTime, (allocatedBytes() - allocatedBefore) / 1024 / 1024);
+        }
+    }
+
+    private Document readWithMap(BytesReference source) {
+        Map<String, Object> sourceAsMap = XContentHelper.convertToMap(source, false, XContentType.JSON).v2();
+        return JsonObjectMapper.getObject("docId", sourceAsMap, Document.class);
+    }
+
+    private BytesReference createSource(int contentSize) throws Exception {
+        Map<String, Object> metadata = new HashMap<>();
+        for (int i = 0; i < 30; i++) {
+            metadata.put("tika_metadata_key" + i, "value of metadata " + i);
+        }
+        String content = String.join("", Collections.nCopies(contentSize / 50,
+                "This is the content of a leaked document, 50 chars"));
+        Document document = new Document("docId", project("prj"), Paths.get("/path/to/doc.txt"), content, Language.ENGLISH,
+                Charset.defaultCharset(), "text/plain", metadata, INDEXED, new HashSet<>(), (long) contentSize);
+        return new BytesArray(MAPPER.writeValueAsBytes(JsonObjectMapper.getJson(document)));
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
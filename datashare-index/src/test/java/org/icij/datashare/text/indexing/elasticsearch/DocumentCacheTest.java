@@ -0,0 +1,146 @@
+package org.icij.datashare.text.indexing.elasticsearch;
+
+import com.google.common.base.Ticker;
+import org.icij.datashare.text.Document;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.icij.datashare.text.DocumentBuilder.createDoc;
+
+public class DocumentCacheTest {
+    private final AtomicInteger loads = new AtomicInteger(0);
+
+    @Test
+    public void test_read_through() {
+        DocumentCache cache = new DocumentCache(1024 * 1024);
+
+        assertThat(cache.get("prj", "id", "root", () -> load("id")).getId()).isEqualTo("id");
+        assertThat(cache.get("prj", "id", "root", () -> load("id")).getId()).isEqualTo("id");
+
+        assertThat(loads.get()).isEqualTo(1);
+        assertThat(cache.hitCount()).isEqualTo(1);
+        assertThat(cache.missCount()).isEqualTo(1);
+        assertThat(cache.hitRatio()).isEqualTo(0.5);
+    }
+
+    @Test
+    public void test_key_includes_project_and_routing() {
+        DocumentCache cache = new DocumentCache(1024 * 1024);
+
+        cache.get("prj1", "id", "root", () -> load("id"));
+        cache.get("prj2", "id", "root", () -> load("id"));
+        cache.get("prj1", "id", "otherRoot", () -> load("id"));
+
+        assertThat(loads.get()).isEqualTo(3);
+    }
+
+    @Test
+    public void test_not_found_is_not_cached() {
+        DocumentCache cache = new DocumentCache(1024 * 1024);
+
+        assertThat((Document) cache.get("prj", "id", null, () -> null)).isNull();
+
+        assertThat(cache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void test_invalidate_document_whatever_routing() {
+        DocumentCache cache = new DocumentCache(1024 * 1024);
+        cache.get("prj", "id", "root1", () -> load("id"));
+        cache.get("prj", "id", "root2", () -> load("id"));
+        cache.get("prj", "other", null, () -> load("other"));
+
+        cache.invalidate("prj", "id");
+
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void test_invalidate_project() {
+        DocumentCache cache = new DocumentCache(1024 * 1024);
+        cache.get("prj1", "id", null, () -> load("id"));
+        cache.get("prj2", "id", null, () -> load("id"));
+
+        cache.invalidate("prj1");
+
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void test_document_read_during_invalidation_is_not_cached() {
+        DocumentCache cache = new DocumentCache(1024 * 1024);
+
+        cache.get("prj", "id", null, () -> {
+            cache.invalidate("prj", "id");
+            return load("id");
+        });
+
+        assertThat(cache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void test_document_read_during_invalidation_of_another_document_is_cached() {
+        DocumentCache cache = new DocumentCache(1024 * 1024);
+
+        cache.get("prj", "id", null, () -> {
+            cache.invalidate("prj", "other");
+            return load("id");
+        });
+
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void test_document_read_during_invalidation_of_its_project_is_not_cached() {
+        DocumentCache cache = new DocumentCache(1024 * 1024);
+
+        cache.get("prj", "id", null, () -> {
+            cache.invalidate("prj");
+            return load("id");
+        });
+
+        assertThat(cache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void test_cache_is_bounded_by_content_size() {
+        DocumentCache cache = new DocumentCache(100 * 1024);
+        String content = new String(new char[10 * 1024]);
+
+        for (int i = 0; i < 20; i++) {
+            String id = "id" + i;
+            cache.get("prj", id, null, () -> createDoc(id).with(content).build());
+        }
+
+        assertThat(cache.size()).isLessThan(20);
+        assertThat(cache.evictionCount()).isGreaterThan(0);
+    }
+
+    @Test
+    public void test_entities_expire_after_ttl() {
+        AtomicLong nanos = new AtomicLong(0);
+        DocumentCache cache = new DocumentCache(1024 * 1024, 1000, new Ticker() {
+            @Override
+            public long read() { return nanos.get();}
+        });
+
+        cache.get("prj", "id", "root", () -> load("id"));
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(999));
+        cache.get("prj", "id", "root", () -> load("id"));
+        assertThat(loads.get()).isEqualTo(1);
+
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+        assertThat(cache.getIfPresent("prj", "id", "root")).isNull();
+        cache.get("prj", "id", "root", () -> load("id"));
+        assertThat(loads.get()).isEqualTo(2);
+    }
+
+    private Document load(String id) {
+        loads.incrementAndGet();
+        return createDoc(id).build();
+    }
+}
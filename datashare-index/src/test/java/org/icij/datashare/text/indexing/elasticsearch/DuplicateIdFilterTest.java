@@ -0,0 +1,114 @@
+package org.icij.datashare.text.indexing.elasticsearch;
+
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.icij.datashare.PropertiesProvider;
+import org.icij.datashare.test.ElasticsearchRule;
+import org.icij.datashare.text.Document;
+import org.icij.datashare.text.Language;
+import org.junit.After;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import static org.elasticsearch.action.support.WriteRequest.RefreshPolicy.IMMEDIATE;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.icij.datashare.test.ElasticsearchRule.TEST_INDEX;
+import static org.icij.datashare.text.Document.Status.INDEXED;
+import static org.icij.datashare.text.Project.project;
+
+public class DuplicateIdFilterTest {
+    @ClassRule
+    public static ElasticsearchRule es = new ElasticsearchRule();
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private ElasticsearchIndexer indexer = new ElasticsearchIndexer(es.client, new PropertiesProvider()).withRefresh(IMMEDIATE);
+    private ElasticsearchConfiguration esCfg = new ElasticsearchConfiguration(new PropertiesProvider());
+
+    @After
+    public void tearDown() throws Exception {
+        es.removeAll();
+    }
+
+    @Test
+    public void test_put_returns_true_for_new_ids() {
+        DuplicateIdFilter filter = new DuplicateIdFilter(100);
+
+        assertThat(filter.put("id1")).isTrue();
+        assertThat(filter.put("id1")).isFalse();
+        assertThat(filter.mightContain("id1")).isTrue();
+        assertThat(filter.mightContain("id2")).isFalse();
+        assertThat(filter.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void test_seed_from_index_with_slices() throws Exception {
+        indexer.add(TEST_INDEX, createDoc("id1"));
+        indexer.add(TEST_INDEX, createDoc("id2"));
+        indexer.add(TEST_INDEX, createDoc("id3"));
+
+        DuplicateIdFilter filter = DuplicateIdFilter.create(es.client, esCfg, TEST_INDEX, 100, null, 1, 2);
+
+        assertThat(filter.size()).isEqualTo(3);
+        assertThat(filter.mightContain("id1")).isTrue();
+        assertThat(filter.mightContain("id2")).isTrue();
+        assertThat(filter.mightContain("id3")).isTrue();
+    }
+
+    @Test
+    public void test_snapshot_is_reloaded_when_index_has_not_changed() throws Exception {
+        Path snapshotDir = folder.getRoot().toPath();
+        indexer.add(TEST_INDEX, createDoc("id1"));
+        DuplicateIdFilter filter = DuplicateIdFilter.create(es.client, esCfg, TEST_INDEX, 100, snapshotDir, 10, 1);
+        filter.put("id2");
+        indexer.add(TEST_INDEX, createDoc("id2"));
+
+        filter.save(snapshotDir, TEST_INDEX, es.client, esCfg);
+        DuplicateIdFilter reloaded = DuplicateIdFilter.create(es.client, esCfg, TEST_INDEX, 100, snapshotDir, 10, 1);
+
+        assertThat(reloaded.size()).isEqualTo(2);
+        assertThat(reloaded.mightContain("id2")).isTrue();
+    }
+
+    @Test
+    public void test_snapshot_is_ignored_when_index_has_changed() throws Exception {
+        Path snapshotDir = folder.getRoot().toPath();
+        indexer.add(TEST_INDEX, createDoc("id1"));
+        DuplicateIdFilter filter = DuplicateIdFilter.create(es.client, esCfg, TEST_INDEX, 100, snapshotDir, 10, 1);
+        filter.save(snapshotDir, TEST_INDEX, es.client, esCfg);
+
+        indexer.add(TEST_INDEX, createDoc("id2"));
+        DuplicateIdFilter reloaded = DuplicateIdFilter.create(es.client, esCfg, TEST_INDEX, 100, snapshotDir, 10, 1);
+
+        assertThat(reloaded.mightContain("id2")).isTrue();
+    }
+
+    @Test
+    public void test_snapshot_is_ignored_when_a_document_is_replaced() throws Exception {
+        Path snapshotDir = folder.getRoot().toPath();
+        indexer.add(TEST_INDEX, createDoc("id1"));
+        indexer.add(TEST_INDEX, createDoc("id2"));
+        DuplicateIdFilter filter = DuplicateIdFilter.create(es.client, esCfg, TEST_INDEX, 100, snapshotDir, 10, 1);
+        filter.save(snapshotDir, TEST_INDEX, es.client, esCfg);
+
+        es.client.delete(new DeleteRequest(TEST_INDEX, "doc", "id1").setRefreshPolicy(IMMEDIATE));
+        Thread.sleep(10);
+        indexer.add(TEST_INDEX, createDoc("id3"));
+        DuplicateIdFilter reloaded = DuplicateIdFilter.create(es.client, esCfg, TEST_INDEX, 100, snapshotDir, 10, 1);
+
+        assertThat(reloaded.size()).isEqualTo(2);
+        assertThat(reloaded.mightContain("id3")).isTrue();
+    }
+
+    private Document createDoc(String id) throws IOException {
+        return new Document(id, project("prj"), Paths.get(id + ".txt"), "content", Language.FRENCH,
+                Charset.defaultCharset(), "text/plain", new HashMap<>(), INDEXED, new HashSet<>(), 7L);
+    }
+}
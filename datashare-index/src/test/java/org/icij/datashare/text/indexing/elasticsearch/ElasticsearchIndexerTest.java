@@ -23,6 +23,8 @@ import java.net.UnknownHostException;
 import java.nio.charset.Charset;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
 
 import static java.lang.String.format;
 import static java.util.Arrays.asList;
@@ -41,6 +43,7 @@ import static org.icij.datashare.text.NamedEntity.create;
 import static org.icij.datashare.text.Project.project;
 import static org.icij.datashare.text.Tag.tag;
 import static org.icij.datashare.text.indexing.elasticsearch.ElasticsearchIndexer.hasLuceneOperators;
+import static org.icij.datashare.text.indexing.elasticsearch.IdRouting.idRouting;
 import static org.icij.datashare.text.nlp.Pipeline.Type.*;
 
 public class ElasticsearchIndexerTest {
@@ -89,6 +92,177 @@ public class ElasticsearchIndexerTest {
         assertThat((ArrayList<String>) resp.getSourceAsMap().get("nerTags")).containsExactly("OPENNLP");
     }
 
+    @Test
+    public void test_bulk_add_async_merges_documents_writes() throws Exception {
+        ElasticsearchIndexer aggregatingIndexer = new ElasticsearchIndexer(es.client, new PropertiesProvider(new HashMap<String, String>() {{
+            put("nerBulkSize", "10");
+        }})).withRefresh(IMMEDIATE);
+        Document doc1 = new org.icij.datashare.text.Document("id1", project("prj"), Paths.get("doc1.txt"), "content",
+                Language.FRENCH, Charset.defaultCharset(), "text/plain", new HashMap<>(), INDEXED, new HashSet<>(), 12L);
+        Document doc2 = new org.icij.datashare.text.Document("id2", project("prj"), Paths.get("doc2.txt"), "content",
+                Language.FRENCH, Charset.defaultCharset(), "text/plain", new HashMap<>(), INDEXED, new HashSet<>(), 12L);
+        indexer.add(TEST_INDEX, doc1);
+        indexer.add(TEST_INDEX, doc2);
+        NamedEntity ne1 = create(PERSON, "John Doe", 12, doc1.getId(), CORENLP, Language.FRENCH);
+        NamedEntity ne2 = create(PERSON, "Jane Doe", 12, doc2.getId(), CORENLP, Language.FRENCH);
+
+        CompletableFuture<Boolean> result1 = aggregatingIndexer.bulkAddAsync(TEST_INDEX, CORENLP, singletonList(ne1), doc1);
+        CompletableFuture<Boolean> result2 = aggregatingIndexer.bulkAddAsync(TEST_INDEX, CORENLP, singletonList(ne2), doc2);
+
+        assertThat(result1.get()).isTrue();
+        assertThat(result2.get()).isTrue();
+        assertThat(((Document) indexer.get(TEST_INDEX, doc1.getId())).getStatus()).isEqualTo(DONE);
+        assertThat(((Document) indexer.get(TEST_INDEX, doc2.getId())).getNerTags()).containsOnly(CORENLP);
+        assertThat((NamedEntity) indexer.get(TEST_INDEX, ne2.getId(), doc2.getId())).isNotNull();
+    }
+
+    @Test
+    public void test_bulk_add_async_reports_failure_per_document() throws Exception {
+        ElasticsearchIndexer aggregatingIndexer = new ElasticsearchIndexer(es.client, new PropertiesProvider(new HashMap<String, String>() {{
+            put("nerBulkSize", "10");
+        }})).withRefresh(IMMEDIATE);
+        Document doc = new org.icij.datashare.text.Document("id", project("prj"), Paths.get("doc.txt"), "content",
+                Language.FRENCH, Charset.defaultCharset(), "text/plain", new HashMap<>(), INDEXED, new HashSet<>(), 12L);
+        Document unknown = new org.icij.datashare.text.Document("unknown", project("prj"), Paths.get("unknown.txt"), "content",
+                Language.FRENCH, Charset.defaultCharset(), "text/plain", new HashMap<>(), INDEXED, new HashSet<>(), 12L);
+        indexer.add(TEST_INDEX, doc);
+
+        CompletableFuture<Boolean> result = aggregatingIndexer.bulkAddAsync(TEST_INDEX, CORENLP, emptyList(), doc);
+        CompletableFuture<Boolean> unknownResult = aggregatingIndexer.bulkAddAsync(TEST_INDEX, CORENLP, emptyList(), unknown);
+
+        assertThat(result.get()).isTrue();
+        assertThat(unknownResult.get()).isFalse();
+    }
+
+    @Test
+    public void test_bulk_add_several_documents_reports_failed_documents() throws Exception {
+        Document doc = new org.icij.datashare.text.Document("id", project("prj"), Paths.get("doc.txt"), "content",
+                Language.FRENCH, Charset.defaultCharset(), "text/plain", new HashMap<>(), INDEXED, new HashSet<>(), 12L);
+        Document unknown = new org.icij.datashare.text.Document("unknown", project("prj"), Paths.get("unknown.txt"), "content",
+                Language.FRENCH, Charset.defaultCharset(), "text/plain", new HashMap<>(), INDEXED, new HashSet<>(), 12L);
+        indexer.add(TEST_INDEX, doc);
+        NamedEntity ne = create(PERSON, "John Doe", 12, doc.getId(), CORENLP, Language.FRENCH);
+        Map<Document, List<NamedEntity>> namedEntities = new LinkedHashMap<>();
+        namedEntities.put(doc, singletonList(ne));
+        namedEntities.put(unknown, emptyList());
+
+        assertThat(indexer.bulkAdd(TEST_INDEX, CORENLP, namedEntities)).containsOnly("unknown");
+
+        assertThat(((Document) indexer.get(TEST_INDEX, doc.getId())).getStatus()).isEqualTo(DONE);
+        assertThat((NamedEntity) indexer.get(TEST_INDEX, ne.getId(), doc.getId())).isNotNull();
+    }
+
+    @Test
+    public void test_multi_get_keeps_request_order() throws Exception {
+        Document parent = new org.icij.datashare.text.Document("id", project("prj"), Paths.get("mail.eml"), "content",
+                Language.FRENCH, Charset.defaultCharset(), "message/rfc822", new HashMap<>(), INDEXED, new HashSet<>(), 321L);
+        Document child = new Document(project("prj"), "childId", Paths.get("mail.eml"), "mail body",
+                FRENCH, Charset.defaultCharset(), "text/plain", new HashMap<>(), Document.Status.INDEXED,
+                new HashSet<>(), new Date(), "id", "id", (short) 1, 123L);
+        indexer.add(TEST_INDEX, parent);
+        indexer.add(TEST_INDEX, child);
+
+        List<Document> docs = indexer.get(TEST_INDEX, asList(idRouting("childId", "id"), idRouting("unknown", null), idRouting("id", null)));
+
+        assertThat(docs).hasSize(3);
+        assertThat(docs.get(0).getId()).isEqualTo("childId");
+        assertThat(docs.get(1)).isNull();
+        assertThat(docs.get(2).getId()).isEqualTo("id");
+    }
+
+    @Test
+    public void test_multi_get_with_source_filtering() throws Exception {
+        Document doc = new org.icij.datashare.text.Document("id", project("prj"), Paths.get("doc.txt"), "content",
+                Language.FRENCH, Charset.defaultCharset(), "text/plain", new HashMap<>(), INDEXED, new HashSet<>(), 12L);
+        indexer.add(TEST_INDEX, doc);
+
+        List<Document> docs = indexer.get(TEST_INDEX, singletonList(idRouting("id", null)), null, new String[] {"content"});
+
+        assertThat(docs.get(0).getId()).isEqualTo("id");
+        assertThat(docs.get(0).getContent()).isNull();
+    }
+
+    @Test
+    public void test_get_with_source_includes() throws Exception {
+        ElasticsearchIndexer batchingIndexer = new ElasticsearchIndexer(es.client, new PropertiesProvider(new HashMap<String, String>() {{
+            put("getBatchSize", "10");
+        }}));
+        Document doc = new org.icij.datashare.text.Document("id", project("prj"), Paths.get("doc.txt"), "content",
+                Language.FRENCH, Charset.defaultCharset(), "text/plain", new HashMap<String, Object>() {{put("author", "foo");}}, INDEXED, new HashSet<>(), 12L);
+        indexer.add(TEST_INDEX, doc);
+        String[] includes = {"path", "dirname", "contentType", "language", "status", "content"};
+
+        for (ElasticsearchIndexer anIndexer : asList(indexer, batchingIndexer)) {
+            Document actual = anIndexer.get(TEST_INDEX, "id", "id", includes);
+            assertThat(actual.getContent()).isEqualTo("content");
+            assertThat(actual.getLanguage()).isEqualTo(Language.FRENCH);
+            assertThat(actual.getMetadata()).isNullOrEmpty();
+        }
+    }
+
+    @Test
+    public void test_concurrent_gets_are_coalesced() throws Exception {
+        ElasticsearchIndexer batchingIndexer = new ElasticsearchIndexer(es.client, new PropertiesProvider(new HashMap<String, String>() {{
+            put("getBatchSize", "10");
+        }}));
+        for (int i = 0; i < 20; i++) {
+            indexer.add(TEST_INDEX, new org.icij.datashare.text.Document("id" + i, project("prj"), Paths.get("doc.txt"), "content",
+                    Language.FRENCH, Charset.defaultCharset(), "text/plain", new HashMap<>(), INDEXED, new HashSet<>(), 12L));
+        }
+
+        List<String> ids = IntStream.range(0, 20).parallel()
+                .mapToObj(i -> ((Document) batchingIndexer.get(TEST_INDEX, "id" + i)).getId()).collect(toList());
+
+        assertThat(ids).hasSize(20);
+        assertThat((Document) batchingIndexer.get(TEST_INDEX, "unknown")).isNull();
+    }
+
+    @Test
+    public void test_gets_waiting_for_the_mget_in_flight_are_sent_together() throws Exception {
+        MultiGetBatcher batcher = new MultiGetBatcher(es.client, new ElasticsearchConfiguration(new PropertiesProvider(new HashMap<String, String>() {{
+            put("getBatchSize", "10");
+            put("getBatchConcurrentRequests", "1");
+        }})));
+        for (int i = 0; i < 20; i++) {
+            indexer.add(TEST_INDEX, new org.icij.datashare.text.Document("id" + i, project("prj"), Paths.get("doc.txt"), "content",
+                    Language.FRENCH, Charset.defaultCharset(), "text/plain", new HashMap<>(), INDEXED, new HashSet<>(), 12L));
+        }
+
+        List<CompletableFuture<Document>> futures = IntStream.range(0, 20)
+                .mapToObj(i -> batcher.<Document>get(TEST_INDEX, idRouting("id" + i, "id" + i))).collect(toList());
+
+        assertThat(futures.stream().map(f -> f.join().getId()).collect(toList())).hasSize(20);
+        // the first get is sent alone, the 19 others wait for it and are sent in two _mget of at most 10 gets
+        assertThat(batcher.getRequestCount()).isEqualTo(3);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void test_batched_get_error_is_thrown() {
+        ElasticsearchIndexer batchingIndexer = new ElasticsearchIndexer(es.client, new PropertiesProvider(new HashMap<String, String>() {{
+            put("getBatchSize", "10");
+        }}));
+
+        batchingIndexer.get("unknown-index", "id", "id");
+    }
+
+    @Test
+    public void test_cached_get_is_invalidated_by_tag() throws Exception {
+        ElasticsearchIndexer cachingIndexer = new ElasticsearchIndexer(es.client, new PropertiesProvider(new HashMap<String, String>() {{
+            put("documentCacheSizeMb", "10");
+        }})).withRefresh(IMMEDIATE);
+        Document doc = new org.icij.datashare.text.Document("id", project("prj"), Paths.get("doc.txt"), "content",
+                Language.FRENCH, Charset.defaultCharset(), "text/plain", new HashMap<>(), INDEXED, new HashSet<>(), 12L);
+        cachingIndexer.add(TEST_INDEX, doc);
+
+        cachingIndexer.get(TEST_INDEX, "id");
+        assertThat(((Document) cachingIndexer.get(TEST_INDEX, "id")).getTags()).isEmpty();
+        assertThat(cachingIndexer.getDocumentCache().hitCount()).isEqualTo(1);
+
+        cachingIndexer.tag(project(TEST_INDEX), "id", "id", tag("foo"));
+
+        assertThat(((Document) cachingIndexer.get(TEST_INDEX, "id")).getTags()).containsOnly(tag("foo"));
+    }
+
     @Test
     public void test_bulk_add_for_embedded_doc() throws IOException {
         Document parent = new org.icij.datashare.text.Document("id", project("prj"), Paths.get("mail.eml"), "content",
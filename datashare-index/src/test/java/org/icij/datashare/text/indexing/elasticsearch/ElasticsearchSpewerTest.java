@@ -2,6 +2,8 @@ package org.icij.datashare.text.indexing.elasticsearch;
 
 import org.apache.tika.metadata.Metadata;
 import org.apache.tika.parser.ParsingReader;
+import org.elasticsearch.action.admin.indices.close.CloseIndexRequest;
+import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
 import org.elasticsearch.action.get.GetRequest;
 import org.elasticsearch.action.get.GetResponse;
 import org.elasticsearch.action.search.SearchRequest;
@@ -39,6 +41,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import static java.nio.file.Paths.get;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.elasticsearch.action.support.WriteRequest.RefreshPolicy.IMMEDIATE;
 import static org.fest.assertions.Assertions.assertThat;
 import static org.fest.assertions.MapAssert.entry;
@@ -47,6 +50,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
@@ -80,6 +84,25 @@ public class ElasticsearchSpewerTest {
         assertThat(argument.getValue().content).includes(entry(Field.DOC_ID, document.getId()));
     }
 
+    @Test
+    public void test_bulk_write_is_flushed_and_published() throws Exception {
+        ElasticsearchSpewer bulkSpewer = new ElasticsearchSpewer(es.client, text -> Language.ENGLISH, new FieldNames(), publisher,
+                new PropertiesProvider(new HashMap<String, String>() {{
+                    put("esBulkSize", "10");
+                }})).withRefresh(IMMEDIATE).withIndex("test-datashare");
+        final TikaDocument document = new DocumentFactory().withIdentifier(new PathIdentifier()).create(get("test-bulk-file.txt"));
+        document.setReader(new ParsingReader(new ByteArrayInputStream("test".getBytes())));
+
+        bulkSpewer.write(document);
+        assertThat(bulkSpewer.awaitBulkFlush(10, SECONDS)).isTrue();
+
+        GetResponse documentFields = es.client.get(new GetRequest(TEST_INDEX, "doc", document.getId()));
+        assertThat(documentFields.isExists()).isTrue();
+        ArgumentCaptor<Message> argument = ArgumentCaptor.forClass(Message.class);
+        verify(publisher).publish(eq(Channel.NLP), argument.capture());
+        assertThat(argument.getValue().content).includes(entry(Field.DOC_ID, document.getId()), entry(Field.R_ID, document.getId()));
+    }
+
     @Test
     public void test_metadata() throws Exception {
         Path path = get(getClass().getResource("/docs/a/b/c/doc.txt").getPath());
@@ -160,6 +183,79 @@ public class ElasticsearchSpewerTest {
         assertThat(actualDocument2.getSourceAsMap()).includes(entry("type", "Duplicate"));
     }
 
+    @Test
+    public void test_bulk_duplicate_is_published_with_the_root_of_the_original() throws Exception {
+        ElasticsearchSpewer bulkSpewer = new ElasticsearchSpewer(es.client, text -> Language.ENGLISH, new FieldNames(), publisher,
+                new PropertiesProvider(new HashMap<String, String>() {{
+                    put("esBulkSize", "10");
+                }})).withRefresh(IMMEDIATE).withIndex("test-datashare");
+        DocumentFactory tikaFactory = new DocumentFactory().configure(Options.from(new HashMap<String, String>() {{
+            put("idDigestMethod", Document.HASHER.toString());
+        }}));
+        Extractor extractor = new Extractor(tikaFactory);
+        extractor.setDigester(new UpdatableDigester("project", Document.HASHER.toString()));
+        final TikaDocument document = extractor.extract(get(getClass().getResource("/docs/doc.txt").getPath()));
+        final TikaDocument document2 = extractor.extract(get(getClass().getResource("/docs/doc-duplicate.txt").getPath()));
+
+        bulkSpewer.write(document);
+        assertThat(bulkSpewer.awaitBulkFlush(10, SECONDS)).isTrue();
+        bulkSpewer.write(document2);
+        assertThat(bulkSpewer.awaitBulkFlush(10, SECONDS)).isTrue();
+
+        ArgumentCaptor<Message> argument = ArgumentCaptor.forClass(Message.class);
+        verify(publisher, times(2)).publish(eq(Channel.NLP), argument.capture());
+        assertThat(argument.getAllValues().get(1).content).includes(
+                entry(Field.DOC_ID, new Duplicate(document2.getPath(), document.getId()).getId()), entry(Field.R_ID, document.getId()));
+    }
+
+    @Test
+    public void test_bulk_duplicate_buffered_with_the_original_is_a_duplicate() throws Exception {
+        ElasticsearchSpewer bulkSpewer = new ElasticsearchSpewer(es.client, text -> Language.ENGLISH, new FieldNames(), publisher,
+                new PropertiesProvider(new HashMap<String, String>() {{
+                    put("esBulkSize", "10");
+                }})).withRefresh(IMMEDIATE).withIndex("test-datashare");
+        DocumentFactory tikaFactory = new DocumentFactory().configure(Options.from(new HashMap<String, String>() {{
+            put("idDigestMethod", Document.HASHER.toString());
+        }}));
+        Extractor extractor = new Extractor(tikaFactory);
+        extractor.setDigester(new UpdatableDigester("project", Document.HASHER.toString()));
+        final TikaDocument document = extractor.extract(get(getClass().getResource("/docs/doc.txt").getPath()));
+        final TikaDocument document2 = extractor.extract(get(getClass().getResource("/docs/doc-duplicate.txt").getPath()));
+
+        bulkSpewer.write(document);
+        bulkSpewer.write(document2);
+        assertThat(bulkSpewer.awaitBulkFlush(10, SECONDS)).isTrue();
+
+        GetResponse actualDocument = es.client.get(new GetRequest(TEST_INDEX, "doc", document.getId()));
+        GetResponse actualDocument2 = es.client.get(new GetRequest(TEST_INDEX, "doc", new Duplicate(document2.getPath(), document.getId()).getId()));
+        assertThat(actualDocument.getSourceAsMap()).includes(entry("path", document.getPath().toString()));
+        assertThat(actualDocument2.isExists()).isTrue();
+        assertThat(actualDocument2.getSourceAsMap()).includes(entry("type", "Duplicate"));
+    }
+
+    @Test
+    public void test_bulk_failure_is_reported_and_not_published() throws Exception {
+        ElasticsearchSpewer bulkSpewer = new ElasticsearchSpewer(es.client, text -> Language.ENGLISH, new FieldNames(), publisher,
+                new PropertiesProvider(new HashMap<String, String>() {{
+                    put("esBulkSize", "10");
+                }})).withRefresh(IMMEDIATE).withIndex("test-closed-index");
+        bulkSpewer.createIndex();
+        es.client.indices().close(new CloseIndexRequest("test-closed-index"));
+        final TikaDocument document = new DocumentFactory().withIdentifier(new PathIdentifier()).create(get("test-bulk-failure.txt"));
+        document.setReader(new ParsingReader(new ByteArrayInputStream("test".getBytes())));
+
+        try {
+            bulkSpewer.write(document);
+            assertThat(bulkSpewer.awaitBulkFlush(10, SECONDS)).isTrue();
+
+            assertThat(bulkSpewer.getBulkFailures()).hasSize(1);
+            assertThat(bulkSpewer.getBulkFailures().keySet()).containsOnly(get("test-bulk-failure.txt"));
+            verify(publisher, never()).publish(eq(Channel.NLP), any(Message.class));
+        } finally {
+            es.client.indices().delete(new DeleteIndexRequest("test-closed-index"));
+        }
+    }
+
     private Map<String, Object> convert(Metadata metadata) {
         Map<String, Object> map = new HashMap<>();
         for (String name: metadata.names()) {
@@ -0,0 +1,67 @@
+package org.icij.datashare.text.indexing.elasticsearch;
+
+import org.elasticsearch.common.bytes.BytesArray;
+import org.icij.datashare.json.JsonObjectMapper;
+import org.icij.datashare.text.Document;
+import org.icij.datashare.text.Language;
+import org.icij.datashare.text.NamedEntity;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.icij.datashare.json.JsonObjectMapper.MAPPER;
+import static org.icij.datashare.text.Document.Status.INDEXED;
+import static org.icij.datashare.text.NamedEntity.Category.PERSON;
+import static org.icij.datashare.text.Project.project;
+import static org.icij.datashare.text.nlp.Pipeline.Type.CORENLP;
+
+public class EntitySourceReaderTest {
+    private final Document document = new Document("docId", project("prj"), Paths.get("doc.txt"), "content",
+            Language.FRENCH, Charset.defaultCharset(), "text/plain", new HashMap<String, Object>() {{
+        put("key", "value");
+    }}, INDEXED, new HashSet<>(), 123L);
+
+    @Test
+    public void test_read_document_with_class() throws Exception {
+        Map<String, Object> source = JsonObjectMapper.getJson(document);
+
+        Document actual = EntitySourceReader.read("docId", new BytesArray(MAPPER.writeValueAsBytes(source)), Document.class);
+
+        assertThat(actual).isEqualTo(JsonObjectMapper.getObject("docId", source, Document.class));
+        assertThat(actual.getContent()).isEqualTo("content");
+        assertThat(actual.getMetadata()).isEqualTo(document.getMetadata());
+    }
+
+    @Test
+    public void test_read_entity_from_type_field() throws Exception {
+        NamedEntity ne = NamedEntity.create(PERSON, "John Doe", 12, "docId", CORENLP, Language.FRENCH);
+        Map<String, Object> source = JsonObjectMapper.getJson(ne);
+        source.put("type", "NamedEntity");
+
+        NamedEntity actual = EntitySourceReader.read(ne.getId(), new BytesArray(MAPPER.writeValueAsBytes(source)), "type");
+
+        assertThat(actual.getId()).isEqualTo(ne.getId());
+        assertThat(actual.getMention()).isEqualTo("John Doe");
+    }
+
+    @Test
+    public void test_read_without_type_returns_null() throws Exception {
+        assertThat((Document) EntitySourceReader.read("id", new BytesArray("{\"content\":\"foo\"}"), "type")).isNull();
+    }
+
+    @Test(expected = ClassNotFoundException.class)
+    public void test_read_unknown_type() throws Exception {
+        EntitySourceReader.read("id", new BytesArray("{\"type\":\"Unknown\"}"), "type");
+    }
+
+    @Test
+    public void test_entity_class_is_cached() throws Exception {
+        assertThat(EntitySourceReader.entityClass("Document")).isSameAs(Document.class);
+        assertThat(EntitySourceReader.entityClass("Document")).isSameAs(EntitySourceReader.entityClass("Document"));
+    }
+}
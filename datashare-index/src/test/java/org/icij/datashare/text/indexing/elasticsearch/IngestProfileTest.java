@@ -0,0 +1,111 @@
+package org.icij.datashare.text.indexing.elasticsearch;
+
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsRequest;
+import org.elasticsearch.action.admin.indices.settings.put.UpdateSettingsRequest;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.common.settings.Settings;
+import org.icij.datashare.test.ElasticsearchRule;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.fest.assertions.Assertions.assertThat;
+import static org.icij.datashare.test.ElasticsearchRule.TEST_INDEX;
+
+public class IngestProfileTest {
+    @ClassRule
+    public static ElasticsearchRule es = new ElasticsearchRule();
+
+    @Test
+    public void test_acquire_applies_ingest_settings() throws Exception {
+        IngestProfile.acquire(es.client, TEST_INDEX);
+
+        assertThat(getSetting("index.refresh_interval")).isEqualTo("-1");
+        assertThat(getSetting("index.number_of_replicas")).isEqualTo("0");
+        assertThat(getSetting("index.translog.durability")).isEqualTo("async");
+
+        IngestProfile.release(es.client, TEST_INDEX, 0);
+        assertThat(getSetting("index.refresh_interval")).isNull();
+        assertThat(getSetting("index.translog.durability")).isNull();
+        assertThat(IngestProfile.references(es.client, TEST_INDEX)).isEqualTo(0);
+    }
+
+    @Test
+    public void test_settings_are_restored_by_last_release() throws Exception {
+        IngestProfile.acquire(es.client, TEST_INDEX);
+        IngestProfile.acquire(es.client, TEST_INDEX);
+
+        IngestProfile.release(es.client, TEST_INDEX, 0);
+        assertThat(IngestProfile.references(es.client, TEST_INDEX)).isEqualTo(1);
+        assertThat(getSetting("index.refresh_interval")).isEqualTo("-1");
+
+        IngestProfile.release(es.client, TEST_INDEX, 1);
+        assertThat(IngestProfile.references(es.client, TEST_INDEX)).isEqualTo(0);
+        assertThat(getSetting("index.refresh_interval")).isNull();
+    }
+
+    @Test
+    public void test_release_without_acquire_does_nothing() throws Exception {
+        IngestProfile.release(es.client, TEST_INDEX, 0);
+
+        assertThat(IngestProfile.references(es.client, TEST_INDEX)).isEqualTo(0);
+    }
+
+    @Test
+    public void test_original_settings_are_kept_in_the_state_index() throws Exception {
+        IngestProfile.acquire(es.client, TEST_INDEX);
+
+        GetResponse state = es.client.get(new GetRequest(IngestProfile.STATE_INDEX, IngestProfile.STATE_TYPE, TEST_INDEX), RequestOptions.DEFAULT);
+        assertThat(state.isExists()).isTrue();
+        assertThat(((Map<String, Object>) state.getSourceAsMap().get("settings")).get("index.refresh_interval")).isNull();
+
+        IngestProfile.release(es.client, TEST_INDEX, 0);
+        assertThat(es.client.get(new GetRequest(IngestProfile.STATE_INDEX, IngestProfile.STATE_TYPE, TEST_INDEX), RequestOptions.DEFAULT).isExists()).isFalse();
+    }
+
+    @Test
+    public void test_renew_leases_of_the_holders() throws Exception {
+        IngestProfile.acquire(es.client, TEST_INDEX);
+        long acquired = holderTimes().values().iterator().next().longValue();
+
+        Thread.sleep(10);
+        IngestProfile.renewLeases(es.client, TEST_INDEX);
+
+        assertThat(holderTimes().values().iterator().next().longValue()).isGreaterThan(acquired);
+        IngestProfile.release(es.client, TEST_INDEX, 0);
+        assertThat(IngestProfile.references(es.client, TEST_INDEX)).isEqualTo(0);
+    }
+
+    @Test
+    public void test_expired_holder_of_a_crashed_process_is_dropped() throws Exception {
+        Map<String, Object> crashed = new HashMap<>();
+        crashed.put("settings", new HashMap<String, String>() {{ put("index.refresh_interval", "2s");}});
+        crashed.put("holders", new HashMap<String, Long>() {{ put("1234@crashed/1", 0L);}});
+        es.client.index(new IndexRequest(IngestProfile.STATE_INDEX, IngestProfile.STATE_TYPE, TEST_INDEX).source(crashed), RequestOptions.DEFAULT);
+
+        IngestProfile.acquire(es.client, TEST_INDEX);
+        assertThat(IngestProfile.references(es.client, TEST_INDEX)).isEqualTo(1);
+
+        IngestProfile.release(es.client, TEST_INDEX, 0);
+        assertThat(getSetting("index.refresh_interval")).isEqualTo("2s");
+        assertThat(IngestProfile.references(es.client, TEST_INDEX)).isEqualTo(0);
+        es.client.indices().putSettings(new UpdateSettingsRequest(TEST_INDEX).settings(Settings.builder().putNull("index.refresh_interval")), RequestOptions.DEFAULT);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Number> holderTimes() throws IOException {
+        return (Map<String, Number>) es.client.get(new GetRequest(IngestProfile.STATE_INDEX, IngestProfile.STATE_TYPE, TEST_INDEX),
+                RequestOptions.DEFAULT).getSourceAsMap().get("holders");
+    }
+
+    private String getSetting(String name) throws IOException {
+        return es.client.indices().getSettings(new GetSettingsRequest().indices(TEST_INDEX).names(name), RequestOptions.DEFAULT)
+                .getSetting(TEST_INDEX, name);
+    }
+}
@@ -0,0 +1,92 @@
+package org.icij.datashare.text.indexing.elasticsearch;
+
+import org.icij.datashare.Entity;
+import org.icij.datashare.PropertiesProvider;
+import org.icij.datashare.test.ElasticsearchRule;
+import org.icij.datashare.text.Document;
+import org.icij.datashare.text.Language;
+import org.icij.datashare.text.indexing.Indexer;
+import org.junit.After;
+import org.junit.ClassRule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toList;
+import static org.elasticsearch.action.support.WriteRequest.RefreshPolicy.IMMEDIATE;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.icij.datashare.test.ElasticsearchRule.TEST_INDEX;
+import static org.icij.datashare.text.Document.Status.INDEXED;
+import static org.icij.datashare.text.Project.project;
+import static org.mockito.Mockito.*;
+
+public class PrefetchingScrollTest {
+    @ClassRule
+    public static ElasticsearchRule es = new ElasticsearchRule();
+    private ElasticsearchIndexer indexer = new ElasticsearchIndexer(es.client, new PropertiesProvider()).withRefresh(IMMEDIATE);
+
+    @After
+    public void tearDown() throws Exception {
+        es.removeAll();
+    }
+
+    @Test
+    public void test_stream_over_all_pages() throws Exception {
+        for (int i = 0; i < 25; i++) {
+            indexer.add(TEST_INDEX, createDoc("id" + i));
+        }
+
+        try (PrefetchingScroll scroll = new PrefetchingScroll(indexer.search(TEST_INDEX, Document.class).limit(10))) {
+            assertThat(scroll.totalHits()).isEqualTo(25);
+            assertThat(scroll.stream().map(Entity::getId).distinct().count()).isEqualTo(25);
+        }
+    }
+
+    @Test
+    public void test_pages_with_slices() throws Exception {
+        for (int i = 0; i < 25; i++) {
+            indexer.add(TEST_INDEX, createDoc("id" + i));
+        }
+
+        try (PrefetchingScroll scroll = new PrefetchingScroll(slice -> indexer.search(TEST_INDEX, Document.class).limit(5), 2)) {
+            int nbDocs = 0;
+            List<? extends Entity> page;
+            while (!(page = scroll.nextPage()).isEmpty()) {
+                assertThat(page.size()).isLessThanOrEqualTo(5);
+                nbDocs += page.size();
+            }
+            assertThat(nbDocs).isEqualTo(25);
+            assertThat(scroll.totalHits()).isEqualTo(25);
+        }
+    }
+
+    @Test
+    public void test_empty_result() throws Exception {
+        try (Stream<Entity> stream = new PrefetchingScroll(indexer.search(TEST_INDEX, Document.class)).stream()) {
+            assertThat(stream.collect(toList())).isEmpty();
+        }
+    }
+
+    @Test
+    public void test_close_clears_scroll_of_unfinished_search() throws Exception {
+        Indexer.Searcher searcher = mock(Indexer.Searcher.class);
+        when(searcher.scroll()).thenAnswer(a -> Stream.of(createDoc("id")));
+
+        try (Stream<Entity> stream = new PrefetchingScroll(searcher).stream()) {
+            assertThat(stream.limit(3).count()).isEqualTo(3);
+        }
+
+        verify(searcher).clearScroll();
+    }
+
+    private Document createDoc(String id) throws IOException {
+        return new Document(id, project("prj"), Paths.get(id + ".txt"), "content", Language.FRENCH,
+                Charset.defaultCharset(), "text/plain", new HashMap<>(), INDEXED, new HashSet<>(), 7L);
+    }
+}
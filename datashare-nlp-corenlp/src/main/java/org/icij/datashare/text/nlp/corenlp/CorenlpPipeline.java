@@ -1,11 +1,13 @@
 package org.icij.datashare.text.nlp.corenlp;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import edu.stanford.nlp.ie.AbstractSequenceClassifier;
 import edu.stanford.nlp.ling.CoreAnnotations.*;
 import edu.stanford.nlp.ling.CoreLabel;
 import edu.stanford.nlp.ling.HasWord;
 import edu.stanford.nlp.ling.TaggedWord;
+import edu.stanford.nlp.pipeline.StanfordCoreNLP;
 import edu.stanford.nlp.tagger.maxent.MaxentTagger;
 import edu.stanford.nlp.util.CoreMap;
 import edu.stanford.nlp.util.Triple;
@@ -23,10 +25,15 @@ import org.icij.datashare.text.nlp.corenlp.models.CoreNlpPipelineModels;
 import org.icij.datashare.text.nlp.corenlp.models.CoreNlpPosModels;
 
 import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static java.util.Collections.singletonList;
 import static org.icij.datashare.text.NamedEntity.allFrom;
@@ -48,9 +55,15 @@ import static org.icij.datashare.text.nlp.NlpStage.*;
  * Created by julien on 3/24/16.
  */
 public final class CorenlpPipeline extends AbstractPipeline {
+    public static final String CHUNK_SIZE_PROP = "corenlpChunkSize";
+    private static final ExecutorService chunkExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+            new ThreadFactoryBuilder().setNameFormat("corenlp-chunk-%d").setDaemon(true).build());
+    private final int chunkSize;
+
     @Inject
     public CorenlpPipeline(final PropertiesProvider propertiesProvider) {
         super(propertiesProvider.getProperties());
+        chunkSize = propertiesProvider.get(CHUNK_SIZE_PROP).map(Integer::parseInt).orElse(0);
 
         // TOKEN <-- SENTENCE <-- POS <-- LEMMA <-- NER
         stageDependencies.get(SENTENCE).add(TOKEN);
@@ -94,8 +107,17 @@ public final class CorenlpPipeline extends AbstractPipeline {
         if (singletonList(POS).equals(targetStages))
             return allFrom(doc.getContent(), processPosClassifier(doc.getContent(), doc.getId(), doc.getLanguage()));
 
-        // Otherwise
-        return allFrom(doc.getContent(), processPipeline(doc.getContent(), doc.getId(), doc.getLanguage()));
+        // Otherwise : only the NER spans are used to build the named entities
+        return allFrom(doc.getContent(), processPipeline(doc.getContent(), doc.getId(), doc.getLanguage(), false));
+    }
+
+    /**
+     * annotates the document with the whole pipeline, with the sentence, token and POS
+     * annotations on top of the NER ones. {@link #process(Document)} only builds the NER spans :
+     * this is for the callers that need the tokens.
+     */
+    public Annotations processWithTokens(Document doc) throws InterruptedException {
+        return processPipeline(doc.getContent(), doc.getId(), doc.getLanguage(), true);
     }
 
     /**
@@ -124,56 +146,112 @@ public final class CorenlpPipeline extends AbstractPipeline {
      * @param input    the string to annotator
      * @param hash     the input hash code
      * @param language the input language
+     * @param withTokens also add the sentence, token and POS annotations
      * @return
      */
-    private Annotations processPipeline(String input, String hash, Language language) throws InterruptedException {
+    private Annotations processPipeline(String input, String hash, Language language, boolean withTokens) throws InterruptedException {
         Annotations annotations = new Annotations(hash, getType(), language);
 
-        // CoreNLP annotations data-structure
-        edu.stanford.nlp.pipeline.Annotation coreNlpAnnotation = new edu.stanford.nlp.pipeline.Annotation(input);
-
         LOGGER.info("sentencing ~ tokenizing ~ POS-tagging ~ name-finding for " + language.toString());
+        StanfordCoreNLP pipeline = CoreNlpPipelineModels.getInstance().get(language);
 
         // Sentencize input
         // Tokenize
         // Pos-tag
         // NER
-        CoreNlpPipelineModels.getInstance().get(language).annotate(coreNlpAnnotation);
-        // Feed annotations
+        for (OffsetBuffer offsets : annotateChunks(input, (text, offset) -> annotatePipeline(pipeline, text, offset, withTokens))) {
+            offsets.addTo(annotations);
+        }
+        return annotations;
+    }
+
+    /**
+     * annotates the text with the whole pipeline
+     *
+     * @param offset the position of the text in the document content
+     */
+    private static OffsetBuffer annotatePipeline(StanfordCoreNLP pipeline, String text, int offset, boolean withTokens) {
+        edu.stanford.nlp.pipeline.Annotation coreNlpAnnotation = new edu.stanford.nlp.pipeline.Annotation(text);
+        pipeline.annotate(coreNlpAnnotation);
+        return feed(coreNlpAnnotation, offset, withTokens);
+    }
+
+    /**
+     * reads the annotations of a CoreNLP annotated text. Without tokens, only the NER spans
+     * are kept and nothing is allocated per token.
+     */
+    static OffsetBuffer feed(CoreMap coreNlpAnnotation, int offset, boolean withTokens) {
+        OffsetBuffer offsets = new OffsetBuffer();
         List<CoreMap> sentences = coreNlpAnnotation.get(SentencesAnnotation.class);
         for (CoreMap sentence : sentences) {
-            int sentenceBegin = sentence.get(CharacterOffsetBeginAnnotation.class);
-            int sentenceEnd = sentence.get(CharacterOffsetEndAnnotation.class);
-            annotations.add(SENTENCE, sentenceBegin, sentenceEnd);
+            if (withTokens) {
+                int sentenceBegin = sentence.get(CharacterOffsetBeginAnnotation.class);
+                int sentenceEnd = sentence.get(CharacterOffsetEndAnnotation.class);
+                offsets.add(SENTENCE, offset + sentenceBegin, offset + sentenceEnd);
+            }
 
             int nerBegin = 0;
+            int tokenEnd = 0;
             NamedEntity.Category prevCat = NamedEntity.Category.NONE;
+            String prevTag = null;
 
             List<CoreLabel> tokens = sentence.get(TokensAnnotation.class);
             for (CoreLabel token : tokens) {
-                int tokenBegin = token.get(CharacterOffsetBeginAnnotation.class);
-                int tokenEnd = token.get(CharacterOffsetEndAnnotation.class);
-                String pos = token.get(PartOfSpeechAnnotation.class); // for now we don't use POS tagging
-                annotations.add(TOKEN, tokenBegin, tokenEnd);
-                annotations.add(POS, tokenBegin, tokenEnd);
-
-                String cat = token.get(NamedEntityTagAnnotation.class);
-                NamedEntity.Category currCat = NamedEntity.Category.parse(cat);
+                int tokenBegin = token.beginPosition();
+                tokenEnd = token.endPosition();
+                if (withTokens) {
+                    offsets.add(TOKEN, offset + tokenBegin, offset + tokenEnd);
+                    offsets.add(POS, offset + tokenBegin, offset + tokenEnd); // for now we don't use POS tagging
+                }
+
+                String cat = token.ner();
+                // the category is parsed only when the tag changes
+                NamedEntity.Category currCat = cat != null && cat.equals(prevTag) ? prevCat : NamedEntity.Category.parse(cat);
+                prevTag = cat;
                 if (currCat != NamedEntity.Category.NONE) {
                     if (prevCat != currCat) {
                         nerBegin = tokenBegin;
                     }
                 } else {
                     if (prevCat != currCat) {
-                        annotations.add(NER, nerBegin, tokenBegin, prevCat);
+                        offsets.add(NER, offset + nerBegin, offset + tokenBegin, prevCat);
                     }
                 }
                 prevCat = currCat;
             }
+            if (prevCat != NamedEntity.Category.NONE) { // entity ending the sentence (and maybe the chunk)
+                offsets.add(NER, offset + nerBegin, offset + tokenEnd, prevCat);
+            }
         }
-        return annotations;
+        return offsets;
     }
 
+    /**
+     * annotates the input in one piece, or in chunks annotated in parallel when the input is larger
+     * than the chunk size. The spans of the chunks are returned in the order of the chunks.
+     */
+    private List<OffsetBuffer> annotateChunks(String input, ChunkAnnotator chunkAnnotator) throws InterruptedException {
+        if (chunkSize <= 0 || input.length() <= chunkSize) {
+            return singletonList(chunkAnnotator.annotate(input, 0));
+        }
+        List<TextChunker.Chunk> chunks = TextChunker.split(input, chunkSize);
+        LOGGER.info("annotating " + chunks.size() + " chunks of " + chunkSize + " chars in parallel");
+        List<Future<OffsetBuffer>> futures = new ArrayList<>(chunks.size());
+        for (TextChunker.Chunk chunk : chunks) {
+            futures.add(chunkExecutor.submit(() -> chunkAnnotator.annotate(chunk.text(input), chunk.begin)));
+        }
+        List<OffsetBuffer> results = new ArrayList<>(chunks.size());
+        try {
+            for (Future<OffsetBuffer> future : futures) {
+                results.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("cannot annotate chunk", e.getCause());
+        } finally {
+            futures.forEach(f -> f.cancel(true));
+        }
+        return results;
+    }
 
     private boolean initializeNerAnnotator(Language language) throws InterruptedException {
         CoreNlpNerModels.getInstance().get(language);
@@ -194,14 +272,18 @@ public final class CorenlpPipeline extends AbstractPipeline {
         // Recognize named entities from input
         final CoreNlpAnnotator<AbstractSequenceClassifier<CoreLabel>> abstractSequenceClassifierCoreNlpAnnotator;
         abstractSequenceClassifierCoreNlpAnnotator = CoreNlpNerModels.getInstance().get(language);
-        List<Triple<String, Integer, Integer>> items = abstractSequenceClassifierCoreNlpAnnotator.annotator.classifyToCharacterOffsets(input);
-        // For each recognized named entity
-        for (Triple<String, Integer, Integer> item : items) {
-            // Triple: <category, begin, end>
-            NamedEntity.Category category = NamedEntity.Category.parse(item.first());
-            int begin = item.second();
-            int end = item.third();
-            annotations.add(NER, begin, end, category);
+        for (OffsetBuffer offsets : annotateChunks(input, (text, offset) -> {
+            OffsetBuffer chunkOffsets = new OffsetBuffer();
+            List<Triple<String, Integer, Integer>> items = abstractSequenceClassifierCoreNlpAnnotator.annotator.classifyToCharacterOffsets(text);
+            // For each recognized named entity
+            for (Triple<String, Integer, Integer> item : items) {
+                // Triple: <category, begin, end>
+                NamedEntity.Category category = NamedEntity.Category.parse(item.first());
+                chunkOffsets.add(NER, offset + item.second(), offset + item.third(), category);
+            }
+            return chunkOffsets;
+        })) {
+            offsets.addTo(annotations);
         }
 
         return annotations;
@@ -251,4 +333,8 @@ public final class CorenlpPipeline extends AbstractPipeline {
         return Optional.of(CoreNlpPosModels.POS_TAGSET.get(language));
     }
 
+    @FunctionalInterface
+    private interface ChunkAnnotator {
+        OffsetBuffer annotate(String text, int offset);
+    }
 }
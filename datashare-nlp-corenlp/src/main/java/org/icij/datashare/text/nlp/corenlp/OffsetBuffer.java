@@ -0,0 +1,67 @@
+package org.icij.datashare.text.nlp.corenlp;
+
+import org.icij.datashare.text.NamedEntity;
+import org.icij.datashare.text.nlp.Annotations;
+import org.icij.datashare.text.nlp.NlpStage;
+
+import java.util.Arrays;
+
+/**
+ * growable buffer of annotation offsets backed by an int array : each annotation takes
+ * four ints (stage, begin, end, category) instead of one object per annotation.
+ */
+final class OffsetBuffer {
+    private static final int FIELDS = 4;
+    private static final NlpStage[] STAGES = NlpStage.values();
+    private static final NamedEntity.Category[] CATEGORIES = NamedEntity.Category.values();
+    private int[] offsets;
+    private int size = 0;
+
+    OffsetBuffer() {
+        this(16);
+    }
+
+    OffsetBuffer(int initialCapacity) {
+        offsets = new int[Math.max(1, initialCapacity) * FIELDS];
+    }
+
+    void add(NlpStage stage, int begin, int end) {
+        add(stage, begin, end, -1);
+    }
+
+    void add(NlpStage stage, int begin, int end, NamedEntity.Category category) {
+        add(stage, begin, end, category.ordinal());
+    }
+
+    private void add(NlpStage stage, int begin, int end, int category) {
+        int index = size * FIELDS;
+        if (index + FIELDS > offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        offsets[index] = stage.ordinal();
+        offsets[index + 1] = begin;
+        offsets[index + 2] = end;
+        offsets[index + 3] = category;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int begin(int i) { return offsets[i * FIELDS + 1];}
+    int end(int i) { return offsets[i * FIELDS + 2];}
+    NlpStage stage(int i) { return STAGES[offsets[i * FIELDS]];}
+
+    void addTo(Annotations annotations) {
+        for (int i = 0; i < size; i++) {
+            int index = i * FIELDS;
+            int category = offsets[index + 3];
+            if (category < 0) {
+                annotations.add(STAGES[offsets[index]], offsets[index + 1], offsets[index + 2]);
+            } else {
+                annotations.add(STAGES[offsets[index]], offsets[index + 1], offsets[index + 2], CATEGORIES[category]);
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package org.icij.datashare.text.nlp.corenlp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * splits a text into chunks of bounded size that can be annotated separately.
+ *
+ * The chunks are cut preferably at a paragraph break, then at the end of a sentence
+ * (a '.', '!' or '?' followed by a whitespace), so that the named entities are not split.
+ * Only when there is no such boundary in the second half of the chunk, it is cut at a
+ * whitespace, or at the max size for texts without whitespaces.
+ */
+final class TextChunker {
+    private TextChunker() {}
+
+    static List<Chunk> split(String text, int maxSize) {
+        List<Chunk> chunks = new ArrayList<>();
+        int begin = 0;
+        while (text.length() - begin > maxSize) {
+            int end = cutPosition(text, begin, begin + maxSize);
+            chunks.add(new Chunk(begin, end));
+            begin = end;
+        }
+        if (begin < text.length() || chunks.isEmpty()) {
+            chunks.add(new Chunk(begin, text.length()));
+        }
+        return chunks;
+    }
+
+    private static int cutPosition(String text, int begin, int limit) {
+        int min = begin + (limit - begin) / 2;
+        for (int i = limit - 1; i > min; i--) {
+            if (text.charAt(i) == '\n' && text.charAt(i - 1) == '\n') {
+                return i + 1;
+            }
+        }
+        for (int i = limit - 1; i > min; i--) {
+            if (Character.isWhitespace(text.charAt(i)) && isSentenceEnd(text.charAt(i - 1))) {
+                return i + 1;
+            }
+        }
+        for (int i = limit - 1; i > min; i--) {
+            if (Character.isWhitespace(text.charAt(i))) {
+                return i + 1;
+            }
+        }
+        return Character.isHighSurrogate(text.charAt(limit - 1)) ? limit - 1 : limit;
+    }
+
+    private static boolean isSentenceEnd(char c) {
+        return c == '.' || c == '!' || c == '?';
+    }
+
+    static class Chunk {
+        final int begin;
+        final int end;
+
+        Chunk(int begin, int end) {
+            this.begin = begin;
+            this.end = end;
+        }
+
+        String text(String content) {
+            return content.substring(begin, end);
+        }
+
+        @Override
+        public String toString() {
+            return "[" + begin + "," + end + "]";
+        }
+    }
+}
@@ -14,6 +14,11 @@ import static java.util.Arrays.asList;
 
 public abstract class CoreNlpModels<T> extends AbstractModels<CoreNlpAnnotator<T>> {
     static final String VERSION = "3.9.2";
+    static final String MODELS_DATE = "2018-10-05";
+    /**
+     * version of the CoreNLP library and of its models jars
+     */
+    public static final String MODELS_VERSION = VERSION + "-" + MODELS_DATE;
     final Map<Language, String> modelNames = new HashMap<>();
     private static final Path IN_JAR_BASE_PATH = Paths.get("edu/stanford/nlp/models");
 
@@ -23,7 +28,7 @@ public abstract class CoreNlpModels<T> extends AbstractModels<CoreNlpAnnotator<T
 
     String getJarFileName(Language language) {
         return String.join("-", asList("stanford",
-                language.name().toLowerCase(), "corenlp-2018-10-05-models.jar"));
+                language.name().toLowerCase(), "corenlp-" + MODELS_DATE + "-models.jar"));
     }
 
     protected String getInJarModelPath(Language language) {
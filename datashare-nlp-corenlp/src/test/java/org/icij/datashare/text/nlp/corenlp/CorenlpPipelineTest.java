@@ -0,0 +1,71 @@
+package org.icij.datashare.text.nlp.corenlp;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.util.ArrayCoreMap;
+import edu.stanford.nlp.util.CoreMap;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.fest.assertions.Assertions.assertThat;
+import static org.icij.datashare.text.nlp.NlpStage.*;
+
+public class CorenlpPipelineTest {
+    @Test
+    public void test_feed_ner_only() {
+        OffsetBuffer offsets = CorenlpPipeline.feed(annotation("John Doe lives in Paris", "PERSON", "PERSON", "O", "O", "LOCATION"), 0, false);
+
+        assertThat(offsets.size()).isEqualTo(2);
+        assertThat(offsets.stage(0)).isEqualTo(NER);
+        assertThat(offsets.begin(0)).isEqualTo(0);
+        assertThat(offsets.end(0)).isEqualTo(9);
+        assertThat(offsets.stage(1)).isEqualTo(NER);
+        assertThat(offsets.begin(1)).isEqualTo(18);
+        assertThat(offsets.end(1)).isEqualTo(23);
+    }
+
+    @Test
+    public void test_feed_with_tokens() {
+        OffsetBuffer offsets = CorenlpPipeline.feed(annotation("John Doe lives in Paris", "PERSON", "PERSON", "O", "O", "LOCATION"), 0, true);
+
+        assertThat(offsets.size()).isEqualTo(1 + 5 * 2 + 2);
+        assertThat(offsets.stage(0)).isEqualTo(SENTENCE);
+        assertThat(offsets.stage(1)).isEqualTo(TOKEN);
+        assertThat(offsets.stage(2)).isEqualTo(POS);
+    }
+
+    @Test
+    public void test_feed_with_offset() {
+        OffsetBuffer offsets = CorenlpPipeline.feed(annotation("in Paris", "O", "LOCATION"), 100, false);
+
+        assertThat(offsets.size()).isEqualTo(1);
+        assertThat(offsets.begin(0)).isEqualTo(103);
+        assertThat(offsets.end(0)).isEqualTo(108);
+    }
+
+    static Annotation annotation(String sentence, String... nerTags) {
+        List<CoreLabel> tokens = new ArrayList<>();
+        String[] words = sentence.split(" ");
+        int begin = 0;
+        for (int i = 0; i < words.length; i++) {
+            CoreLabel token = new CoreLabel();
+            token.setWord(words[i]);
+            token.setBeginPosition(begin);
+            token.setEndPosition(begin + words[i].length());
+            token.setNER(nerTags[i]);
+            tokens.add(token);
+            begin += words[i].length() + 1;
+        }
+        CoreMap coreMapSentence = new ArrayCoreMap();
+        coreMapSentence.set(CoreAnnotations.CharacterOffsetBeginAnnotation.class, 0);
+        coreMapSentence.set(CoreAnnotations.CharacterOffsetEndAnnotation.class, sentence.length());
+        coreMapSentence.set(CoreAnnotations.TokensAnnotation.class, tokens);
+        Annotation annotation = new Annotation(sentence);
+        annotation.set(CoreAnnotations.SentencesAnnotation.class, new ArrayList<>(asList(coreMapSentence)));
+        return annotation;
+    }
+}
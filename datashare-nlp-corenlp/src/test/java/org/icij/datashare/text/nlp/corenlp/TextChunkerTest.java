@@ -0,0 +1,78 @@
+package org.icij.datashare.text.nlp.corenlp;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static java.util.stream.Collectors.joining;
+import static org.fest.assertions.Assertions.assertThat;
+
+public class TextChunkerTest {
+    @Test
+    public void test_small_text_is_one_chunk() {
+        List<TextChunker.Chunk> chunks = TextChunker.split("John Doe lives in Paris.", 100);
+
+        assertThat(chunks).hasSize(1);
+        assertThat(chunks.get(0).begin).isEqualTo(0);
+        assertThat(chunks.get(0).end).isEqualTo(24);
+    }
+
+    @Test
+    public void test_empty_text() {
+        assertThat(TextChunker.split("", 100)).hasSize(1);
+    }
+
+    @Test
+    public void test_split_at_sentence_end() {
+        String text = "John Doe lives in Paris. Jane Doe lives in London.";
+
+        List<TextChunker.Chunk> chunks = TextChunker.split(text, 30);
+
+        assertThat(chunks).hasSize(2);
+        assertThat(chunks.get(0).text(text)).isEqualTo("John Doe lives in Paris. ");
+        assertThat(chunks.get(1).text(text)).isEqualTo("Jane Doe lives in London.");
+        assertThat(chunks.get(1).begin).isEqualTo(25);
+    }
+
+    @Test
+    public void test_split_at_paragraph_before_sentence() {
+        String text = "First paragraph.\n\nSecond one. Still second paragraph.";
+
+        List<TextChunker.Chunk> chunks = TextChunker.split(text, 32);
+
+        assertThat(chunks.get(0).text(text)).isEqualTo("First paragraph.\n\n");
+    }
+
+    @Test
+    public void test_split_at_whitespace_without_sentence_end() {
+        String text = "one two three four five six seven eight nine ten";
+
+        List<TextChunker.Chunk> chunks = TextChunker.split(text, 20);
+
+        chunks.forEach(c -> assertThat(c.end - c.begin).isLessThanOrEqualTo(20));
+        assertThat(chunks.get(0).text(text)).isEqualTo("one two three four ");
+    }
+
+    @Test
+    public void test_hard_split_without_whitespace() {
+        String text = "abcdefghijklmnopqrstuvwxyz";
+
+        List<TextChunker.Chunk> chunks = TextChunker.split(text, 10);
+
+        assertThat(chunks).hasSize(3);
+        assertThat(chunks.get(0).end).isEqualTo(10);
+    }
+
+    @Test
+    public void test_chunks_cover_the_whole_text() {
+        String text = "Lorem ipsum dolor sit amet. Consectetur adipiscing elit! Sed do eiusmod tempor? " +
+                "Incididunt ut labore et dolore magna aliqua.\n\nUt enim ad minim veniam, quis nostrud exercitation.";
+
+        List<TextChunker.Chunk> chunks = TextChunker.split(text, 40);
+
+        assertThat(chunks.stream().map(c -> c.text(text)).collect(joining())).isEqualTo(text);
+        for (int i = 1; i < chunks.size(); i++) {
+            assertThat(chunks.get(i).begin).isEqualTo(chunks.get(i - 1).end);
+        }
+    }
+}